@@ -70,4 +70,10 @@ public @interface Cached {
 	 * @return the type of operation
 	 */
 	Action action() default Action.NOOP;
+
+	/**
+	 * @return true if the method is a conditional write, which returns null or false if nothing was written.
+	 * The object is cached only if it was written.
+	 */
+	boolean conditional() default false;
 }
@@ -53,11 +53,22 @@ public @interface Indexed {
 		/**
 		 * Removes many objects from index.
 		 */
-		REMOVE_ALL;
+		REMOVE_ALL,
+		/**
+		 * Reads an object back after it was changed in the data store, and adds it to index.
+		 * Used by methods which don't take the whole object, like {@code increment()}.
+		 */
+		REINDEX;
 	}
 
 	/**
 	 * @return the action
 	 */
 	Action action() default Action.NOOP;
+
+	/**
+	 * @return true if the method is a conditional write, which returns null or false if nothing was written.
+	 * The object is indexed only if it was written.
+	 */
+	boolean conditional() default false;
 }
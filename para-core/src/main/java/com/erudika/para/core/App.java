@@ -87,6 +87,7 @@ public class App implements ParaObject {
 	@Stored @Locked private String parentid;
 	@Stored @Locked private String creatorid;
 	@Stored private Long updated;
+	@Stored private Long expiresAt;
 	@Stored private String name;
 	@Stored private List<String> tags;
 	@Stored private Integer votes;
@@ -275,7 +276,10 @@ public class App implements ParaObject {
 	}
 
 	/**
-	 * The timestamp for when this app must be deleted.
+	 * The timestamp for when this app must be deleted. If {@code para.app_expires_on_delete} is true,
+	 * the app object expires at that time, unless an expiry time is set with
+	 * {@link #setExpiresAt(java.lang.Long)}. It's off by default, so that existing apps with a past
+	 * deletion time aren't removed on upgrade.
 	 * @return a timestamp
 	 */
 	public Long getDeleteOn() {
@@ -980,6 +984,19 @@ public class App implements ParaObject {
 		this.updated = updated;
 	}
 
+	@Override
+	public Long getExpiresAt() {
+		if (expiresAt != null && expiresAt != 0) {
+			return expiresAt;
+		}
+		return Config.getConfigBoolean("app_expires_on_delete", false) ? getDeleteOn() : null;
+	}
+
+	@Override
+	public void setExpiresAt(Long expiresAt) {
+		this.expiresAt = expiresAt;
+	}
+
 	@Override
 	public void update() {
 		CoreUtils.getInstance().getDao().update(getAppid(), this);
@@ -44,6 +44,7 @@ public final class Linker implements ParaObject {
 	@Stored @Locked private String parentid;
 	@Stored @Locked private String creatorid;
 	@Stored private Long updated;
+	@Stored private Long expiresAt;
 	@Stored private String name;
 	@Stored private List<String> tags;
 	@Stored private Integer votes;
@@ -376,6 +377,16 @@ public final class Linker implements ParaObject {
 		this.updated = updated;
 	}
 
+	@Override
+	public Long getExpiresAt() {
+		return (expiresAt != null && expiresAt != 0) ? expiresAt : null;
+	}
+
+	@Override
+	public void setExpiresAt(Long expiresAt) {
+		this.expiresAt = expiresAt;
+	}
+
 	@Override
 	public String create() {
 		return CoreUtils.getInstance().getDao().create(getAppid(), this);
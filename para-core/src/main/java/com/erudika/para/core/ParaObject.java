@@ -139,6 +139,19 @@ public interface ParaObject extends Serializable, Linkable, Votable {
 	 */
 	void setUpdated(Long updated);
 
+	/**
+	 * The time when this object expires. Expired objects are never returned by the DAO
+	 * and are removed from the data store, the search index and the cache. Timestamp in ms.
+	 * @return timestamp in milliseconds, or null if this object never expires
+	 */
+	Long getExpiresAt();
+
+	/**
+	 * Sets the expiry time. Set it to a negative value on update to remove it.
+	 * @param expiresAt a timestamp in milliseconds
+	 */
+	void setExpiresAt(Long expiresAt);
+
 	/**
 	 * The tags associated with this object. Tags must not be null or empty.
 	 * @return a set of tags, or an empty set
@@ -47,6 +47,7 @@ public class Sysprop implements ParaObject {
 	@Stored @Locked private String parentid;
 	@Stored @Locked private String creatorid;
 	@Stored private Long updated;
+	@Stored private Long expiresAt;
 	@Stored private String name;
 	@Stored private List<String> tags;
 	@Stored private Integer votes;
@@ -285,6 +286,16 @@ public class Sysprop implements ParaObject {
 		this.updated = updated;
 	}
 
+	@Override
+	public Long getExpiresAt() {
+		return (expiresAt != null && expiresAt != 0) ? expiresAt : null;
+	}
+
+	@Override
+	public void setExpiresAt(Long expiresAt) {
+		this.expiresAt = expiresAt;
+	}
+
 	@Override
 	public String create() {
 		return CoreUtils.getInstance().getDao().create(getAppid(), this);
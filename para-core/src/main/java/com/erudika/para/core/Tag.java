@@ -21,6 +21,7 @@ import com.erudika.para.core.utils.CoreUtils;
 import com.erudika.para.core.utils.ParaObjectUtils;
 import com.erudika.para.annotations.Locked;
 import com.erudika.para.annotations.Stored;
+import com.erudika.para.persistence.DAOUtils;
 import com.erudika.para.utils.Config;
 import com.erudika.para.utils.Pager;
 import com.erudika.para.utils.Utils;
@@ -30,6 +31,11 @@ import org.hibernate.validator.constraints.NotBlank;
 
 /**
  * A tag. Must not be null or empty.
+ * <br>
+ * The count of a saved tag is kept in the data store. {@link #incrementCount()} and {@link #decrementCount()}
+ * change it there right away, with {@link com.erudika.para.persistence.DAO#increment(String, String, String,
+ * long)}, and read back the new value - a local count set with {@link #setCount(Integer)} is ignored until
+ * the tag is updated. The count of a tag which isn't saved yet is changed only locally.
  * @author Alex Bogdanovski [alex@erudika.com]
  */
 public class Tag implements ParaObject {
@@ -43,6 +49,7 @@ public class Tag implements ParaObject {
 	@Stored @Locked private String parentid;
 	@Stored @Locked private String creatorid;
 	@Stored private Long updated;
+	@Stored private Long expiresAt;
 	@Stored private String name;
 	@Stored private List<String> tags;
 	@Stored private Integer votes;
@@ -121,21 +128,28 @@ public class Tag implements ParaObject {
 
 	/**
 	 * Increments the count when a new object is tagged.
+	 * The count is updated atomically in the data store, if the tag is saved there, which takes a round trip.
 	 */
 	public void incrementCount() {
-		this.count++;
+		addToCount(1);
 	}
 
 	/**
 	 * Decrements the count when a new object is untagged.
+	 * The count is updated atomically in the data store, if the tag is saved there, which takes a round trip.
 	 */
 	public void decrementCount() {
-		this.count--;
+		addToCount(-1);
 		if (this.count < 1 && exists()) {
 			delete();
 		}
 	}
 
+	private void addToCount(int delta) {
+		Long newCount = DAOUtils.withFallbacks(CoreUtils.getInstance().getDao()).increment(getAppid(), getId(), "count", delta);
+		this.count = (newCount != null) ? newCount.intValue() : this.count + delta;
+	}
+
 	@Override
 	public boolean equals(Object obj) {
 		if (obj == null) {
@@ -291,6 +305,16 @@ public class Tag implements ParaObject {
 		this.updated = updated;
 	}
 
+	@Override
+	public Long getExpiresAt() {
+		return (expiresAt != null && expiresAt != 0) ? expiresAt : null;
+	}
+
+	@Override
+	public void setExpiresAt(Long expiresAt) {
+		this.expiresAt = expiresAt;
+	}
+
 	@Override
 	public String create() {
 		return CoreUtils.getInstance().getDao().create(getAppid(), this);
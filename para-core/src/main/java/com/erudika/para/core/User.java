@@ -23,6 +23,7 @@ import com.eaio.uuid.UUID;
 import com.erudika.para.annotations.Email;
 import com.erudika.para.annotations.Locked;
 import com.erudika.para.annotations.Stored;
+import com.erudika.para.persistence.DAOUtils;
 import com.erudika.para.i18n.CurrencyUtils;
 import com.erudika.para.utils.Config;
 import com.erudika.para.utils.Pager;
@@ -51,6 +52,7 @@ public class User implements ParaObject {
 	@Stored @Locked private String parentid;
 	@Stored @Locked private String creatorid;
 	@Stored private Long updated;
+	@Stored private Long expiresAt;
 	@Stored private String name;
 	@Stored private List<String> tags;
 	@Stored private Integer votes;
@@ -277,8 +279,14 @@ public class User implements ParaObject {
 			resetTokenSecret();
 		}
 
-		if (CoreUtils.getInstance().getDao().create(getAppid(), this) != null) {
-			createIdentifier(getId(), getIdentifier(), getPassword());
+		if (CoreUtils.getInstance().getDao().create(getAppid(), this) != null &&
+				!createIdentifier(getId(), getIdentifier(), getPassword())) {
+			// the identifier was taken by another user, who signed up at the same time
+			Sysprop ident = CoreUtils.getInstance().getDao().read(getAppid(), getIdentifier());
+			if (ident != null && !getId().equals(ident.getCreatorid())) {
+				CoreUtils.getInstance().getDao().delete(getAppid(), this);
+				return null;
+			}
 		}
 
 		return getId();
@@ -537,7 +545,7 @@ public class User implements ParaObject {
 	}
 
 	/**
-	 * Creates a new identifier object using {@link Sysprop}.
+	 * Creates a new identifier object using {@link Sysprop}, unless the identifier is already taken.
 	 * Used for identifying a user when signing in.
 	 * @param userid a user id
 	 * @param newIdent a new identifier
@@ -557,7 +565,7 @@ public class User implements ParaObject {
 			s.addProperty(Config._PASSWORD, hashed);
 			setPassword(hashed);
 		}
-		return CoreUtils.getInstance().getDao().create(getAppid(), s) != null;
+		return DAOUtils.withFallbacks(CoreUtils.getInstance().getDao()).createIfAbsent(getAppid(), s) != null;
 	}
 
 	/**
@@ -843,6 +851,16 @@ public class User implements ParaObject {
 		this.updated = updated;
 	}
 
+	@Override
+	public Long getExpiresAt() {
+		return (expiresAt != null && expiresAt != 0) ? expiresAt : null;
+	}
+
+	@Override
+	public void setExpiresAt(Long expiresAt) {
+		this.expiresAt = expiresAt;
+	}
+
 	@Override
 	public void update() {
 		CoreUtils.getInstance().getDao().update(getAppid(), this);
@@ -48,6 +48,7 @@ public class Vote implements ParaObject {
 	@Stored @Locked private String parentid;
 	@Stored @Locked private String creatorid;
 	@Stored private Long updated;
+	@Stored private Long expiresAt;
 	@Stored private String name;
 	@Stored private List<String> tags;
 	@Stored private Integer votes;
@@ -147,13 +148,8 @@ public class Vote implements ParaObject {
 	 * @return true if expired
 	 */
 	public boolean isExpired() {
-		if (getTimestamp() == null || getExpiresAfter() == 0) {
-			return false;
-		}
-		long timestamp = getTimestamp();
-		long expires = (getExpiresAfter() * 1000);
-		long now = Utils.timestamp();
-		return (timestamp + expires) <= now;
+		Long expires = getExpiresAt();
+		return expires != null && expires > 0 && expires <= Utils.timestamp();
 	}
 
 	/**
@@ -308,6 +304,20 @@ public class Vote implements ParaObject {
 		this.updated = updated;
 	}
 
+	@Override
+	public Long getExpiresAt() {
+		// votes expire a number of seconds after they're cast
+		if (getTimestamp() != null && getExpiresAfter() > 0) {
+			return getTimestamp() + (getExpiresAfter() * 1000);
+		}
+		return (expiresAt != null && expiresAt != 0) ? expiresAt : null;
+	}
+
+	@Override
+	public void setExpiresAt(Long expiresAt) {
+		this.expiresAt = expiresAt;
+	}
+
 	@Override
 	public String create() {
 		return CoreUtils.getInstance().getDao().create(getAppid(), this);
@@ -27,6 +27,7 @@ import com.erudika.para.core.Votable.VoteValue;
 import com.erudika.para.core.Vote;
 import com.erudika.para.iot.IoTServiceFactory;
 import com.erudika.para.persistence.DAO;
+import com.erudika.para.persistence.DAOUtils;
 import com.erudika.para.persistence.MockDAO;
 import com.erudika.para.search.MockSearch;
 import com.erudika.para.search.Search;
@@ -363,28 +364,32 @@ public enum CoreUtils implements InitializeListener {
 			}
 
 			Vote v = new Vote(userid, votable.getId(), upDown.toString());
-			Vote saved = getDao().read(votable.getAppid(), v.getId());
-			boolean done = false;
 			int vote = (upDown == VoteValue.UP) ? 1 : -1;
-
-			if (saved != null) {
-				boolean isUpvote = upDown.equals(VoteValue.UP);
-				boolean wasUpvote = VoteValue.UP.toString().equals(saved.getValue());
-				boolean voteHasChanged = isUpvote ^ wasUpvote;
-
-				if (saved.isExpired()) {
-					done = getDao().create(votable.getAppid(), v) != null;
-				} else if (saved.isAmendable() && voteHasChanged) {
-					getDao().delete(votable.getAppid(), saved);
-					done = true;
+			// the vote is created only if there's no vote by this user yet, or it has expired,
+			// so concurrent votes by the same user are counted once
+			boolean done = DAOUtils.withFallbacks(getDao()).createIfAbsent(votable.getAppid(), v) != null;
+
+			if (!done) {
+				Vote saved = getDao().read(votable.getAppid(), v.getId());
+				if (saved != null && saved.isAmendable() && !saved.isExpired()) {
+					boolean isUpvote = upDown.equals(VoteValue.UP);
+					boolean wasUpvote = VoteValue.UP.toString().equals(saved.getValue());
+					if (isUpvote ^ wasUpvote) {
+						getDao().delete(votable.getAppid(), saved);
+						done = true;
+					}
 				}
-			} else {
-				done = getDao().create(votable.getAppid(), v) != null;
 			}
 
 			if (done) {
-				synchronized (votable) {
-					votable.setVotes(votable.getVotes() + vote);
+				// the count is updated atomically in the DB, the local copy is only a fallback for unsaved objects
+				Long votes = DAOUtils.withFallbacks(getDao()).increment(votable.getAppid(), votable.getId(), "votes", vote);
+				if (votes != null) {
+					votable.setVotes(votes.intValue());
+				} else {
+					synchronized (votable) {
+						votable.setVotes(votable.getVotes() + vote);
+					}
 				}
 			}
 			return done;
@@ -31,6 +31,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.ObjectReader;
 import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.databind.SerializationFeature;
+import java.io.IOException;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
@@ -317,9 +318,8 @@ public final class ParaObjectUtils {
 						value = PropertyUtils.getProperty(pojo, name);
 					}
 					// handle complex JSON objects deserialized to Maps, Arrays, etc.
-					if (!Utils.isBasicType(field.getType()) && value instanceof String) {
-						// in this case the object is a flattened JSON string coming from the DB
-						value = getJsonReader(field.getType()).readValue(value.toString());
+					if (!Utils.isBasicType(field.getType())) {
+						value = toNestedObject(field.getType(), value);
 					}
 					field.setAccessible(true);
 					BeanUtils.setProperty(pojo, name, value);
@@ -335,6 +335,17 @@ public final class ParaObjectUtils {
 		return pojo;
 	}
 
+	private static Object toNestedObject(Class<?> type, Object value) throws IOException {
+		if (value instanceof String) {
+			// in this case the object is a flattened JSON string coming from the DB
+			return getJsonReader(type).readValue(value.toString());
+		} else if (value != null && !type.isInstance(value)) {
+			// the object was stored natively as a map or a list, e.g. a set which was read back as a list
+			return getJsonMapper().convertValue(value, type);
+		}
+		return value;
+	}
+
 	/**
 	 * Handles "unknown" or user-defined fields. The Para object is populated with custom fields
 	 * which are stored within the "properties" field of {@link Sysprop}. Unknown or user-defined properties are
@@ -0,0 +1,241 @@
+/*
+ * Copyright 2013-2016 Erudika. https://erudika.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * For issues and patches go to: https://github.com/erudika
+ */
+package com.erudika.para.persistence;
+
+import com.erudika.para.core.ParaObject;
+import com.erudika.para.utils.Config;
+import com.erudika.para.utils.Pager;
+import com.erudika.para.utils.Utils;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * A base class for {@link DAO} implementations, e.g. plugins, which implements the optional operations
+ * of the interface with the basic ones - {@code create()}, {@code read()}, {@code readAll()},
+ * {@code readPage()}, {@code update()} and so on. Subclasses should override the operations which
+ * their data store supports natively.
+ * <br>
+ * The conditional operations {@code createIfAbsent()}, {@code compareAndSet()} and {@code increment()}
+ * are atomic only with respect to each other and only within this process. Field projections are ignored -
+ * all fields are read. Scans page through {@code readPage()} by the last key - pages are read one at a time
+ * and consumed in parallel.
+ * @author Alex Bogdanovski [alex@erudika.com]
+ */
+public abstract class AbstractDAO implements DAO {
+
+	private static final long MAX_CLOCK_WAIT_MS = 100;
+
+	private final ConcurrentMap<String, Object> locks = new ConcurrentHashMap<String, Object>();
+
+	@Override
+	public <P extends ParaObject> P read(String appid, String key, Set<String> fields) {
+		return read(appid, key);
+	}
+
+	@Override
+	public <P extends ParaObject> String createIfAbsent(String appid, P so) {
+		if (so == null || StringUtils.isBlank(appid)) {
+			return null;
+		}
+		if (StringUtils.isBlank(so.getId())) {
+			so.setId(Utils.getNewId());
+		}
+		synchronized (getLock(appid)) {
+			ParaObject existing = read(appid, so.getId());
+			if (existing != null && !DAOUtils.isExpired(existing, Utils.timestamp())) {
+				return null;
+			}
+			return create(appid, so);
+		}
+	}
+
+	@Override
+	public <P extends ParaObject> boolean compareAndSet(String appid, P so, Long expectedVersion) {
+		if (so == null || so.getId() == null || StringUtils.isBlank(appid)) {
+			return false;
+		}
+		synchronized (getLock(appid)) {
+			ParaObject stored = read(appid, so.getId());
+			if (stored == null || DAOUtils.isExpired(stored, Utils.timestamp()) ||
+					!Objects.equals(DAOUtils.getVersion(stored), expectedVersion)) {
+				return false;
+			}
+			// update() usually stamps the object with the current time, which must be newer than the expected version
+			awaitClockPast(expectedVersion);
+			so.setUpdated(DAOUtils.nextVersion(expectedVersion));
+			update(appid, so);
+			return true;
+		}
+	}
+
+	@Override
+	public Long increment(String appid, String key, String field, long delta) {
+		if (key == null || StringUtils.isBlank(appid)) {
+			return null;
+		}
+		synchronized (getLock(appid)) {
+			ParaObject so = read(appid, key);
+			Long result = DAOUtils.incrementField(so, field, delta);
+			if (result != null) {
+				update(appid, so);
+			}
+			return result;
+		}
+	}
+
+	@Override
+	public <P extends ParaObject> Map<String, P> readAll(String appid, List<String> keys, Set<String> fields) {
+		return readAll(appid, keys, true);
+	}
+
+	@Override
+	public <P extends ParaObject> long scan(final String appid, int segments, Consumer<List<P>> consumer) {
+		if (StringUtils.isBlank(appid) || consumer == null) {
+			return 0L;
+		}
+		// the segments take turns reading the next page and consume their pages in parallel
+		final int total = Math.max(1, segments);
+		final Pager pager = new Pager(Math.max(1, DAOUtils.SCAN_PAGE_SIZE / total));
+		final AtomicBoolean done = new AtomicBoolean(false);
+		return DAOUtils.scanSegments(total, consumer, new BiFunction<Integer, Consumer<List<P>>, Long>() {
+			public Long apply(Integer segment, Consumer<List<P>> pages) {
+				long count = 0L;
+				List<P> page = nextPage(appid, pager, done);
+				while (page != null) {
+					pages.accept(page);
+					count += page.size();
+					page = nextPage(appid, pager, done);
+				}
+				return count;
+			}
+		});
+	}
+
+	/**
+	 * Reads the next page of a scan, or returns null if there are no more pages.
+	 */
+	private <P extends ParaObject> List<P> nextPage(String appid, Pager pager, AtomicBoolean done) {
+		synchronized (pager) {
+			if (done.get()) {
+				return null;
+			}
+			String lastKey = pager.getLastKey();
+			List<P> page = readPage(appid, pager);
+			// the last key doesn't move on the last page or if paging isn't supported
+			if (page == null || page.isEmpty() || pager.getLastKey() == null || pager.getLastKey().equals(lastKey)) {
+				done.set(true);
+			}
+			pager.setPage(pager.getPage() + 1);
+			return (page == null || page.isEmpty()) ? null : page;
+		}
+	}
+
+	@Override
+	public <P extends ParaObject> void createAllInApps(Map<String, List<P>> objects) {
+		if (objects != null) {
+			for (Map.Entry<String, List<P>> app : objects.entrySet()) {
+				createAll(app.getKey(), app.getValue());
+			}
+		}
+	}
+
+	@Override
+	public <P extends ParaObject> Map<String, Map<String, P>> readAllFromApps(Map<String, List<String>> keys,
+			boolean getAllColumns) {
+		Map<String, Map<String, P>> results = new LinkedHashMap<String, Map<String, P>>();
+		if (keys != null) {
+			for (Map.Entry<String, List<String>> app : keys.entrySet()) {
+				results.put(app.getKey(), this.<P>readAll(app.getKey(), app.getValue(), getAllColumns));
+			}
+		}
+		return results;
+	}
+
+	@Override
+	public <P extends ParaObject> void deleteAllFromApps(Map<String, List<P>> objects) {
+		if (objects != null) {
+			for (Map.Entry<String, List<P>> app : objects.entrySet()) {
+				deleteAll(app.getKey(), app.getValue());
+			}
+		}
+	}
+
+	////////////////////////////////////////////////////////////////////
+
+	@Override
+	public <P extends ParaObject> P read(String key, Set<String> fields) {
+		return read(Config.APP_NAME_NS, key, fields);
+	}
+
+	@Override
+	public <P extends ParaObject> String createIfAbsent(P so) {
+		return createIfAbsent(Config.APP_NAME_NS, so);
+	}
+
+	@Override
+	public <P extends ParaObject> boolean compareAndSet(P so, Long expectedVersion) {
+		return compareAndSet(Config.APP_NAME_NS, so, expectedVersion);
+	}
+
+	@Override
+	public Long increment(String key, String field, long delta) {
+		return increment(Config.APP_NAME_NS, key, field, delta);
+	}
+
+	@Override
+	public <P extends ParaObject> Map<String, P> readAll(List<String> keys, Set<String> fields) {
+		return readAll(Config.APP_NAME_NS, keys, fields);
+	}
+
+	@Override
+	public <P extends ParaObject> long scan(int segments, Consumer<List<P>> consumer) {
+		return scan(Config.APP_NAME_NS, segments, consumer);
+	}
+
+	private static void awaitClockPast(Long version) {
+		long wait = (version == null) ? 0 : version + 1 - Utils.timestamp();
+		if (wait > 0 && wait <= MAX_CLOCK_WAIT_MS) {
+			try {
+				Thread.sleep(wait);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private Object getLock(String appid) {
+		Object lock = locks.get(appid);
+		if (lock == null) {
+			Object newLock = new Object();
+			lock = locks.putIfAbsent(appid, newLock);
+			if (lock == null) {
+				lock = newLock;
+			}
+		}
+		return lock;
+	}
+}
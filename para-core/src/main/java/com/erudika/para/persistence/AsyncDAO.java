@@ -0,0 +1,98 @@
+/*
+ * Copyright 2013-2016 Erudika. https://erudika.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * For issues and patches go to: https://github.com/erudika
+ */
+package com.erudika.para.persistence;
+
+import com.erudika.para.core.ParaObject;
+import com.erudika.para.utils.Pager;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The asynchronous counterpart of the {@link DAO} interface. Each method starts the I/O operation
+ * and returns immediately with a future, so that several data store calls can be in flight at once.
+ * The semantics of each method (indexing, caching, etc.) are the same as those of the {@link DAO} method
+ * with the same name, without the "Async" suffix.
+ * @author Alex Bogdanovski [alex@erudika.com]
+ * @see AsyncDAOAdapter
+ */
+public interface AsyncDAO {
+
+	/**
+	 * Persists an object to the data store.
+	 * @param <P> the type of object
+	 * @param appid name of the {@link com.erudika.para.core.App}
+	 * @param so the domain object
+	 * @return a future holding the object's id or null if not created.
+	 * @see DAO#create(java.lang.String, com.erudika.para.core.ParaObject)
+	 */
+	<P extends ParaObject> CompletableFuture<String> createAsync(String appid, P so);
+
+	/**
+	 * Retrieves an object from the data store.
+	 * @param <P> the type of object
+	 * @param appid name of the {@link com.erudika.para.core.App}
+	 * @param key an object id
+	 * @return a future holding the object or null if not found
+	 * @see DAO#read(java.lang.String, java.lang.String)
+	 */
+	<P extends ParaObject> CompletableFuture<P> readAsync(String appid, String key);
+
+	/**
+	 * Updates an object permanently.
+	 * @param <P> the type of object
+	 * @param appid name of the {@link com.erudika.para.core.App}
+	 * @param so the domain object
+	 * @return a future which is completed when the object is updated, or completed exceptionally if it wasn't
+	 * @see DAO#update(java.lang.String, com.erudika.para.core.ParaObject)
+	 */
+	<P extends ParaObject> CompletableFuture<Void> updateAsync(String appid, P so);
+
+	/**
+	 * Deletes an object permanently.
+	 * @param <P> the type of object
+	 * @param appid name of the {@link com.erudika.para.core.App}
+	 * @param so the domain object
+	 * @return a future which is completed when the object is deleted, or completed exceptionally if it wasn't
+	 * @see DAO#delete(java.lang.String, com.erudika.para.core.ParaObject)
+	 */
+	<P extends ParaObject> CompletableFuture<Void> deleteAsync(String appid, P so);
+
+	/**
+	 * Retrieves multiple objects from the data store.
+	 * @param <P> the type of object
+	 * @param appid name of the {@link com.erudika.para.core.App}
+	 * @param keys a list of object ids
+	 * @param getAllColumns true if all columns must be retrieved. used to save bandwidth.
+	 * @return a future holding a map of ids to objects
+	 * @see DAO#readAll(java.lang.String, java.util.List, boolean)
+	 */
+	<P extends ParaObject> CompletableFuture<Map<String, P>> readAllAsync(String appid, List<String> keys,
+			boolean getAllColumns);
+
+	/**
+	 * Reads a fixed number of objects. Used for scanning a data store page by page.
+	 * @param <P> the type of object
+	 * @param appid name of the {@link com.erudika.para.core.App}
+	 * @param pager a {@link com.erudika.para.utils.Pager}
+	 * @return a future holding a list of objects
+	 * @see DAO#readPage(java.lang.String, com.erudika.para.utils.Pager)
+	 */
+	<P extends ParaObject> CompletableFuture<List<P>> readPageAsync(String appid, Pager pager);
+
+}
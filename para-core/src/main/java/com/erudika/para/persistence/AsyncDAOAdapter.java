@@ -0,0 +1,114 @@
+/*
+ * Copyright 2013-2016 Erudika. https://erudika.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * For issues and patches go to: https://github.com/erudika
+ */
+package com.erudika.para.persistence;
+
+import com.erudika.para.core.ParaObject;
+import com.erudika.para.utils.Pager;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+/**
+ * An {@link AsyncDAO} which runs the blocking methods of a {@link DAO} on a thread pool.
+ * Used for data stores which don't have an asynchronous client, like {@link MockDAO}.
+ * The wrapped DAO should be the one provided by the injector, so that indexing and caching still apply.
+ * @author Alex Bogdanovski [alex@erudika.com]
+ */
+public class AsyncDAOAdapter implements AsyncDAO {
+
+	private final DAO dao;
+	private final Executor executor;
+
+	/**
+	 * Default constructor.
+	 * @param dao the DAO which does the actual work
+	 * @param executor the thread pool on which the DAO methods are executed
+	 */
+	public AsyncDAOAdapter(DAO dao, Executor executor) {
+		if (dao == null || executor == null) {
+			throw new IllegalArgumentException("DAO and executor must not be null.");
+		}
+		this.dao = dao;
+		this.executor = executor;
+	}
+
+	/**
+	 * @return the wrapped DAO
+	 */
+	public DAO getDao() {
+		return dao;
+	}
+
+	@Override
+	public <P extends ParaObject> CompletableFuture<String> createAsync(final String appid, final P so) {
+		return CompletableFuture.supplyAsync(new Supplier<String>() {
+			public String get() {
+				return dao.create(appid, so);
+			}
+		}, executor);
+	}
+
+	@Override
+	public <P extends ParaObject> CompletableFuture<P> readAsync(final String appid, final String key) {
+		return CompletableFuture.supplyAsync(new Supplier<P>() {
+			public P get() {
+				return dao.read(appid, key);
+			}
+		}, executor);
+	}
+
+	@Override
+	public <P extends ParaObject> CompletableFuture<Void> updateAsync(final String appid, final P so) {
+		return CompletableFuture.runAsync(new Runnable() {
+			public void run() {
+				dao.update(appid, so);
+			}
+		}, executor);
+	}
+
+	@Override
+	public <P extends ParaObject> CompletableFuture<Void> deleteAsync(final String appid, final P so) {
+		return CompletableFuture.runAsync(new Runnable() {
+			public void run() {
+				dao.delete(appid, so);
+			}
+		}, executor);
+	}
+
+	@Override
+	public <P extends ParaObject> CompletableFuture<Map<String, P>> readAllAsync(final String appid,
+			final List<String> keys, final boolean getAllColumns) {
+		return CompletableFuture.supplyAsync(new Supplier<Map<String, P>>() {
+			public Map<String, P> get() {
+				return dao.readAll(appid, keys, getAllColumns);
+			}
+		}, executor);
+	}
+
+	@Override
+	public <P extends ParaObject> CompletableFuture<List<P>> readPageAsync(final String appid, final Pager pager) {
+		return CompletableFuture.supplyAsync(new Supplier<List<P>>() {
+			public List<P> get() {
+				return dao.readPage(appid, pager);
+			}
+		}, executor);
+	}
+
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2013-2016 Erudika. https://erudika.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * For issues and patches go to: https://github.com/erudika
+ */
+package com.erudika.para.persistence;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Thrown by the batch reads of a {@link DAO} when some of the objects couldn't be read,
+ * e.g. because the data store kept throttling the requests. The objects which were read are not returned,
+ * so that missing objects are never mistaken for objects which don't exist. Reads can be repeated.
+ * @author Alex Bogdanovski [alex@erudika.com]
+ */
+public class BatchReadException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final Map<String, List<String>> unread;
+
+	/**
+	 * Default constructor.
+	 * @param unread a map of app ids to the ids of the objects which weren't read
+	 */
+	public BatchReadException(Map<String, List<String>> unread) {
+		super(count(unread) + " objects were not read: " + unread);
+		Map<String, List<String>> copy = new LinkedHashMap<String, List<String>>();
+		if (unread != null) {
+			for (Map.Entry<String, List<String>> app : unread.entrySet()) {
+				if (app.getValue() != null) {
+					copy.put(app.getKey(), Collections.unmodifiableList(new ArrayList<String>(app.getValue())));
+				}
+			}
+		}
+		this.unread = Collections.unmodifiableMap(copy);
+	}
+
+	/**
+	 * Constructor with a cause.
+	 * @param unread a map of app ids to the ids of the objects which weren't read
+	 * @param cause the error which stopped the read, or null
+	 */
+	public BatchReadException(Map<String, List<String>> unread, Throwable cause) {
+		this(unread);
+		if (cause != null) {
+			initCause(cause);
+		}
+	}
+
+	/**
+	 * @return a map of app ids to the ids of the objects which weren't read
+	 */
+	public Map<String, List<String>> getUnread() {
+		return unread;
+	}
+
+	/**
+	 * @param appid an app id
+	 * @return the ids of the objects of an app which weren't read
+	 */
+	public List<String> getUnread(String appid) {
+		List<String> ids = unread.get(appid);
+		return (ids == null) ? Collections.<String>emptyList() : ids;
+	}
+
+	/**
+	 * @return the number of objects which weren't read
+	 */
+	public int getUnreadCount() {
+		return count(unread);
+	}
+
+	private static int count(Map<String, List<String>> unread) {
+		int count = 0;
+		if (unread != null) {
+			for (List<String> ids : unread.values()) {
+				count += (ids == null) ? 0 : ids.size();
+			}
+		}
+		return count;
+	}
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2013-2016 Erudika. https://erudika.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * For issues and patches go to: https://github.com/erudika
+ */
+package com.erudika.para.persistence;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Thrown by the batch operations of a {@link DAO} when some of the objects couldn't be written,
+ * e.g. because the data store kept throttling the requests. All other objects were written.
+ * Batch writes are idempotent, so the whole batch can be sent again.
+ * @author Alex Bogdanovski [alex@erudika.com]
+ */
+public class BatchWriteException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final Map<String, List<String>> unwritten;
+
+	/**
+	 * Default constructor.
+	 * @param unwritten a map of app ids to the ids of the objects which weren't written
+	 */
+	public BatchWriteException(Map<String, List<String>> unwritten) {
+		super(count(unwritten) + " objects were not written: " + unwritten);
+		Map<String, List<String>> copy = new LinkedHashMap<String, List<String>>();
+		if (unwritten != null) {
+			for (Map.Entry<String, List<String>> app : unwritten.entrySet()) {
+				if (app.getValue() != null) {
+					copy.put(app.getKey(), Collections.unmodifiableList(new ArrayList<String>(app.getValue())));
+				}
+			}
+		}
+		this.unwritten = Collections.unmodifiableMap(copy);
+	}
+
+	/**
+	 * @return a map of app ids to the ids of the objects which weren't written
+	 */
+	public Map<String, List<String>> getUnwritten() {
+		return unwritten;
+	}
+
+	/**
+	 * @param appid an app id
+	 * @return the ids of the objects of an app which weren't written
+	 */
+	public List<String> getUnwritten(String appid) {
+		List<String> ids = unwritten.get(appid);
+		return (ids == null) ? Collections.<String>emptyList() : ids;
+	}
+
+	/**
+	 * @return the number of objects which weren't written
+	 */
+	public int getUnwrittenCount() {
+		return count(unwritten);
+	}
+
+	private static int count(Map<String, List<String>> unwritten) {
+		int count = 0;
+		if (unwritten != null) {
+			for (List<String> ids : unwritten.values()) {
+				count += (ids == null) ? 0 : ids.size();
+			}
+		}
+		return count;
+	}
+}
@@ -23,9 +23,13 @@ import com.erudika.para.core.ParaObject;
 import com.erudika.para.utils.Pager;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
 
 /**
  * The core persistence interface. Stores and retrieves domain objects to/from a data store.
+ * Implementations which don't support some of the operations natively, e.g. conditional writes or scans,
+ * can extend {@link AbstractDAO}, which implements them with the basic ones.
  * @author Alex Bogdanovski [alex@erudika.com]
  */
 public interface DAO {
@@ -71,6 +75,27 @@ public interface DAO {
 	 */
 	<P extends ParaObject> P read(String key);
 
+	/**
+	 * Retrieves some of the fields of an object from the data store. The id, type and appid are always read.
+	 * Data stores which can't read single fields return the whole object.
+	 * @param <P> the type of object
+	 * @param appid name of the {@link com.erudika.para.core.App}
+	 * @param key an object id
+	 * @param fields the names of the fields to read. If null or empty, all fields are read.
+	 * @return the object (possibly partial) or null if not found
+	 */
+	@Cached(action = Cached.Action.GET)
+	<P extends ParaObject> P read(String appid, String key, Set<String> fields);
+
+	/**
+	 * Retrieves some of the fields of an object from the data store.
+	 * @param <P> the type of object
+	 * @param key an object id
+	 * @param fields the names of the fields to read. If null or empty, all fields are read.
+	 * @return the object (possibly partial) or null if not found
+	 */
+	<P extends ParaObject> P read(String key, Set<String> fields);
+
 	/**
 	 * Updates an object permanently.
 	 * @param <P> the type of object
@@ -105,6 +130,76 @@ public interface DAO {
 	 */
 	<P extends ParaObject> void delete(P so);
 
+	/**
+	 * Persists an object to the data store, only if no object with the same id exists.
+	 * Objects which have expired count as missing. The check and the write are done atomically,
+	 * so only one of many concurrent calls with the same id succeeds.
+	 * @param <P> the type of object
+	 * @param appid name of the {@link com.erudika.para.core.App}
+	 * @param so the domain object
+	 * @return the object's id or null if an object with that id exists or the object wasn't created.
+	 */
+	@Indexed(action = Indexed.Action.ADD, conditional = true)
+	@Cached(action = Cached.Action.PUT, conditional = true)
+	<P extends ParaObject> String createIfAbsent(String appid, P so);
+
+	/**
+	 * Persists an object to the data store, only if no object with the same id exists.
+	 * @param <P> the type of object
+	 * @param so the domain object
+	 * @return the object's id or null if an object with that id exists or the object wasn't created.
+	 */
+	<P extends ParaObject> String createIfAbsent(P so);
+
+	/**
+	 * Updates an object, only if the stored object hasn't changed since it was read.
+	 * The version of an object is the time it was last updated, or created if it was never updated
+	 * (see {@link ParaObject#getUpdated()}). If the update succeeds, the object gets a new version,
+	 * which is always greater than the expected version.
+	 * @param <P> the type of object
+	 * @param appid name of the {@link com.erudika.para.core.App}
+	 * @param so the domain object
+	 * @param expectedVersion the version of the object when it was read
+	 * @return true if the object was updated, false if it doesn't exist or its version has changed
+	 */
+	@Indexed(action = Indexed.Action.ADD, conditional = true)
+	@Cached(action = Cached.Action.PUT, conditional = true)
+	<P extends ParaObject> boolean compareAndSet(String appid, P so, Long expectedVersion);
+
+	/**
+	 * Updates an object, only if the stored object hasn't changed since it was read.
+	 * @param <P> the type of object
+	 * @param so the domain object
+	 * @param expectedVersion the version of the object when it was read
+	 * @return true if the object was updated, false if it doesn't exist or its version has changed
+	 */
+	<P extends ParaObject> boolean compareAndSet(P so, Long expectedVersion);
+
+	/**
+	 * Atomically adds a number to a numeric field of an object, in the data store.
+	 * Use this for counters like votes, instead of reading, changing and updating the whole object,
+	 * which loses increments made concurrently on other threads or nodes.
+	 * A missing field is treated as 0. The field can also be a user-defined property of a
+	 * {@link com.erudika.para.core.Sysprop}, given as "properties.name".
+	 * @param appid name of the {@link com.erudika.para.core.App}
+	 * @param key an object id
+	 * @param field the name of a numeric field
+	 * @param delta the number to add, can be negative
+	 * @return the new value of the field or null if the object doesn't exist or the field isn't numeric
+	 */
+	@Indexed(action = Indexed.Action.REINDEX)
+	@Cached(action = Cached.Action.DELETE)
+	Long increment(String appid, String key, String field, long delta);
+
+	/**
+	 * Atomically adds a number to a numeric field of an object, in the data store.
+	 * @param key an object id
+	 * @param field the name of a numeric field
+	 * @param delta the number to add, can be negative
+	 * @return the new value of the field or null if the object doesn't exist or the field isn't numeric
+	 */
+	Long increment(String key, String field, long delta);
+
 	/////////////////////////////////////////////
 	//				READ ALL FUNCTIONS
 	/////////////////////////////////////////////
@@ -146,6 +241,28 @@ public interface DAO {
 	 */
 	<P extends ParaObject> Map<String, P> readAll(List<String> keys, boolean getAllColumns);
 
+	/**
+	 * Retrieves some of the fields of multiple objects from the data store.
+	 * The id, type and appid are always read.
+	 * Data stores which can't read single fields return whole objects.
+	 * @param <P> the type of object
+	 * @param appid name of the {@link com.erudika.para.core.App}
+	 * @param keys a list of object ids
+	 * @param fields the names of the fields to read. If null or empty, all fields are read.
+	 * @return a map of ids to objects (possibly partial)
+	 */
+	@Cached(action = Cached.Action.GET_ALL)
+	<P extends ParaObject> Map<String, P> readAll(String appid, List<String> keys, Set<String> fields);
+
+	/**
+	 * Retrieves some of the fields of multiple objects from the data store.
+	 * @param <P> the type of object
+	 * @param keys a list of object ids
+	 * @param fields the names of the fields to read. If null or empty, all fields are read.
+	 * @return a map of ids to objects (possibly partial)
+	 */
+	<P extends ParaObject> Map<String, P> readAll(List<String> keys, Set<String> fields);
+
 	/**
 	 * Reads a fixed number of objects. Used for scanning a data store page by page.
 	 * Calling this method would bypass the read cache and will hit the DB.
@@ -165,6 +282,30 @@ public interface DAO {
 	 */
 	<P extends ParaObject> List<P> readPage(Pager pager);
 
+	/**
+	 * Reads all objects in the data store and passes them to a consumer, page by page.
+	 * The data is split into a number of segments which are read in parallel, so the consumer
+	 * may be called from several threads at once and must be thread-safe.
+	 * If some objects can't be read, or the consumer throws an exception to stop the scan early,
+	 * the scan stops and the exception is thrown to the caller, instead of returning a partial count.
+	 * Calling this method would bypass the read cache and will hit the DB.
+	 * @param <P> the type of object
+	 * @param appid name of the {@link com.erudika.para.core.App}
+	 * @param segments the number of segments to read in parallel (1 for a sequential scan)
+	 * @param consumer receives each page of objects
+	 * @return the total number of objects read
+	 */
+	<P extends ParaObject> long scan(String appid, int segments, Consumer<List<P>> consumer);
+
+	/**
+	 * Reads all objects in the data store and passes them to a consumer, page by page.
+	 * @param <P> the type of object
+	 * @param segments the number of segments to read in parallel (1 for a sequential scan)
+	 * @param consumer receives each page of objects
+	 * @return the total number of objects read
+	 */
+	<P extends ParaObject> long scan(int segments, Consumer<List<P>> consumer);
+
 	/**
 	 * Updates multiple objects.
 	 * @param <P> the type of object
@@ -198,4 +339,36 @@ public interface DAO {
 	 * @param objects a list of objects to delete
 	 */
 	<P extends ParaObject> void deleteAll(List<P> objects);
+
+	/**
+	 * Saves multiple objects in several apps. Data stores which support it write the objects of all apps
+	 * in shared batch requests.
+	 * @param <P> the type of object
+	 * @param objects a map of app ids to lists of objects to save
+	 */
+	@Indexed(action = Indexed.Action.ADD_ALL)
+	@Cached(action = Cached.Action.PUT_ALL)
+	<P extends ParaObject> void createAllInApps(Map<String, List<P>> objects);
+
+	/**
+	 * Retrieves multiple objects from several apps. Data stores which support it read the objects of all apps
+	 * in shared batch requests.
+	 * @param <P> the type of object
+	 * @param keys a map of app ids to lists of object ids
+	 * @param getAllColumns true if all columns must be retrieved. used to save bandwidth.
+	 * @return a map of app ids to maps of ids to objects
+	 */
+	@Cached(action = Cached.Action.GET_ALL)
+	<P extends ParaObject> Map<String, Map<String, P>> readAllFromApps(Map<String, List<String>> keys,
+			boolean getAllColumns);
+
+	/**
+	 * Deletes multiple objects from several apps. Data stores which support it delete the objects of all apps
+	 * in shared batch requests.
+	 * @param <P> the type of object
+	 * @param objects a map of app ids to lists of objects to delete
+	 */
+	@Indexed(action = Indexed.Action.REMOVE_ALL)
+	@Cached(action = Cached.Action.DELETE_ALL)
+	<P extends ParaObject> void deleteAllFromApps(Map<String, List<P>> objects);
 }
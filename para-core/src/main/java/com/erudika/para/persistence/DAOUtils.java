@@ -0,0 +1,486 @@
+/*
+ * Copyright 2013-2016 Erudika. https://erudika.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * For issues and patches go to: https://github.com/erudika
+ */
+package com.erudika.para.persistence;
+
+import com.erudika.para.cache.Cache;
+import com.erudika.para.core.ParaObject;
+import com.erudika.para.core.Sysprop;
+import com.erudika.para.core.utils.CoreUtils;
+import com.erudika.para.search.Search;
+import com.erudika.para.utils.Config;
+import com.erudika.para.utils.Utils;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import org.apache.commons.beanutils.BeanUtils;
+import org.apache.commons.beanutils.PropertyUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Helper methods shared by the {@link DAO} implementations.
+ * @author Alex Bogdanovski [alex@erudika.com]
+ */
+public final class DAOUtils {
+
+	private static final Logger logger = LoggerFactory.getLogger(DAOUtils.class);
+
+	/**
+	 * The default number of segments for a parallel scan and the maximum number of threads
+	 * used for scanning. Default is the number of available processors.
+	 */
+	public static final int SCAN_SEGMENTS = Math.max(1, Config.getConfigInt("scan_segments",
+			Runtime.getRuntime().availableProcessors()));
+	/**
+	 * The maximum number of objects passed to a scan consumer at once. Default is 100.
+	 */
+	public static final int SCAN_PAGE_SIZE = Math.max(1, Config.getConfigInt("scan_page_size", 100));
+	/**
+	 * The prefix for user-defined properties of a {@link Sysprop}, when they are referenced as fields,
+	 * e.g. in {@link DAO#increment(java.lang.String, java.lang.String, java.lang.String, long)}.
+	 */
+	public static final String PROPERTIES_PREFIX = "properties.";
+
+	private static final ThreadLocal<Boolean> BACKGROUND_WORK = new ThreadLocal<Boolean>();
+	private static final ThreadLocal<Map<String, Set<String>>> CHANGES = new ThreadLocal<Map<String, Set<String>>>();
+	private static volatile BiConsumer<String, List<ParaObject>> unindexHandler;
+	private static final ConcurrentMap<Class<?>, Boolean> COMPLETE_DAOS = new ConcurrentHashMap<Class<?>, Boolean>();
+	private static final ConcurrentMap<DAO, DAO> LEGACY_DAOS = new ConcurrentHashMap<DAO, DAO>();
+
+	private DAOUtils() { }
+
+	/**
+	 * Runs a task on the calling thread as background work, e.g. reindexing, queue processing or imports.
+	 * DAOs which limit their throughput let interactive requests go first and delay background work
+	 * when they get close to the limit.
+	 * @param task a task which calls the DAO
+	 */
+	public static void runInBackground(Runnable task) {
+		if (task == null) {
+			return;
+		}
+		boolean nested = isBackgroundWork();
+		BACKGROUND_WORK.set(Boolean.TRUE);
+		try {
+			task.run();
+		} finally {
+			if (!nested) {
+				BACKGROUND_WORK.remove();
+			}
+		}
+	}
+
+	/**
+	 * Wraps a task which is handed over to another thread, so that it runs as background work if the
+	 * current thread is doing background work. The flag is read now, not when the task runs.
+	 * @param task a task
+	 * @return the task, or a task which runs it in the background
+	 */
+	public static Runnable inheritBackgroundWork(final Runnable task) {
+		if (task == null || !isBackgroundWork()) {
+			return task;
+		}
+		return new Runnable() {
+			public void run() {
+				runInBackground(task);
+			}
+		};
+	}
+
+	/**
+	 * @return true if the current thread is doing background work
+	 * @see #runInBackground(java.lang.Runnable)
+	 */
+	public static boolean isBackgroundWork() {
+		return Boolean.TRUE.equals(BACKGROUND_WORK.get());
+	}
+
+	/**
+	 * Returns a DAO on which all operations of the {@link DAO} interface can be called. Plugins which were built
+	 * against an older version of the interface throw an {@link AbstractMethodError} when one of the newer
+	 * operations is called, so they are wrapped in a {@link LegacyDAOAdapter}, which implements those with
+	 * read-modify-write. The conditional operations of the adapter are not atomic across nodes.
+	 * @param dao a DAO
+	 * @return the same DAO if it implements the whole interface, or an adapter for it
+	 */
+	public static DAO withFallbacks(DAO dao) {
+		if (dao == null || dao instanceof AbstractDAO || implementsAll(dao.getClass())) {
+			return dao;
+		}
+		DAO adapter = LEGACY_DAOS.get(dao);
+		if (adapter == null) {
+			// one adapter per plugin, so that its conditional operations share the same locks
+			DAO newAdapter = new LegacyDAOAdapter(dao);
+			adapter = LEGACY_DAOS.putIfAbsent(dao, newAdapter);
+			if (adapter == null) {
+				adapter = newAdapter;
+				logger.warn("{} was built against an older version of the DAO interface - conditional operations "
+						+ "like increment() are emulated and are not atomic across nodes.", dao.getClass().getName());
+			}
+		}
+		return adapter;
+	}
+
+	private static boolean implementsAll(Class<?> clazz) {
+		Boolean complete = COMPLETE_DAOS.get(clazz);
+		if (complete == null) {
+			complete = true;
+			for (Method method : DAO.class.getMethods()) {
+				try {
+					if (Modifier.isAbstract(clazz.getMethod(method.getName(), method.getParameterTypes()).getModifiers())) {
+						complete = false;
+						break;
+					}
+				} catch (NoSuchMethodException e) {
+					complete = false;
+					break;
+				}
+			}
+			COMPLETE_DAOS.putIfAbsent(clazz, complete);
+		}
+		return complete;
+	}
+
+	/**
+	 * Scans a number of segments in parallel and waits for all of them to finish.
+	 * A separate thread pool is used for each scan, so that long scans don't starve other tasks.
+	 * If there's only one segment, it is scanned on the calling thread.
+	 * <br>
+	 * If a segment can't be read or the consumer throws an exception, e.g. to cancel the scan,
+	 * the other segments stop before their next page and the first error is thrown to the caller.
+	 * A scan never returns a partial count.
+	 * @param <P> the type of object
+	 * @param segments the number of segments
+	 * @param consumer receives each page of objects
+	 * @param segmentScanner a function which scans a segment, passes each page to the given consumer
+	 * and returns the number of objects read
+	 * @return the total number of objects read
+	 */
+	public static <P extends ParaObject> long scanSegments(int segments, final Consumer<List<P>> consumer,
+			final BiFunction<Integer, Consumer<List<P>>, Long> segmentScanner) {
+		if (segmentScanner == null || consumer == null || segments < 1) {
+			return 0L;
+		}
+		if (segments == 1) {
+			Long read = segmentScanner.apply(0, consumer);
+			return (read == null) ? 0L : read;
+		}
+		final AtomicBoolean stopped = new AtomicBoolean(false);
+		final Consumer<List<P>> guarded = new Consumer<List<P>>() {
+			public void accept(List<P> page) {
+				if (stopped.get()) {
+					throw new CancellationException("Scan was stopped.");
+				}
+				consumer.accept(page);
+			}
+		};
+		long count = 0L;
+		Throwable error = null;
+		// segments are scanned with the same priority as the calling thread
+		final boolean background = isBackgroundWork();
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(segments, SCAN_SEGMENTS));
+		try {
+			List<Future<Long>> futures = new ArrayList<Future<Long>>(segments);
+			for (int i = 0; i < segments; i++) {
+				final int segment = i;
+				futures.add(pool.submit(new Callable<Long>() {
+					public Long call() throws Exception {
+						BACKGROUND_WORK.set(background);
+						boolean done = false;
+						try {
+							Long read = segmentScanner.apply(segment, guarded);
+							done = true;
+							return read;
+						} finally {
+							if (!done) {
+								stopped.set(true);
+							}
+						}
+					}
+				}));
+			}
+			for (Future<Long> future : futures) {
+				try {
+					Long read = future.get();
+					count += (read == null) ? 0L : read;
+				} catch (ExecutionException e) {
+					// segments which were stopped because of another error don't hide it
+					if (error == null || error instanceof CancellationException) {
+						error = e.getCause();
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			error = new CancellationException("Scan was interrupted.");
+		} finally {
+			pool.shutdownNow();
+		}
+		if (error != null) {
+			throw asUnchecked(error);
+		}
+		return count;
+	}
+
+	private static RuntimeException asUnchecked(Throwable error) {
+		if (error instanceof Error) {
+			throw (Error) error;
+		}
+		return (error instanceof RuntimeException) ? (RuntimeException) error :
+				new IllegalStateException("Scan failed.", error);
+	}
+
+	/**
+	 * Scans a collection of objects held in memory. The collection is copied and split into
+	 * equal segments which are scanned in parallel. Used by the in-memory DAOs.
+	 * @param <P> the type of object
+	 * @param objects a collection of objects
+	 * @param segments the number of segments
+	 * @param consumer receives pages of at most {@link #SCAN_PAGE_SIZE} objects, possibly from several threads
+	 * @return the total number of objects read
+	 * @see #scanSegments(int, java.util.function.Consumer, java.util.function.BiFunction)
+	 */
+	@SuppressWarnings("unchecked")
+	public static <P extends ParaObject> long scan(Collection<? extends ParaObject> objects, int segments,
+			final Consumer<List<P>> consumer) {
+		if (objects == null || objects.isEmpty() || consumer == null) {
+			return 0L;
+		}
+		final List<P> snapshot = new ArrayList<P>((Collection<P>) objects);
+		final int total = Math.max(1, Math.min(segments, snapshot.size()));
+		return scanSegments(total, consumer, new BiFunction<Integer, Consumer<List<P>>, Long>() {
+			public Long apply(Integer segment, Consumer<List<P>> pages) {
+				int from = (int) ((long) segment * snapshot.size() / total);
+				int to = (int) ((long) (segment + 1) * snapshot.size() / total);
+				long count = 0L;
+				for (int i = from; i < to; i += SCAN_PAGE_SIZE) {
+					List<P> page = new ArrayList<P>(snapshot.subList(i, Math.min(to, i + SCAN_PAGE_SIZE)));
+					pages.accept(page);
+					count += page.size();
+				}
+				return count;
+			}
+		});
+	}
+
+	/**
+	 * Adds a number to a numeric field of an object held in memory. Used by the in-memory DAOs,
+	 * which must make sure that no one else changes the object at the same time.
+	 * @param obj an object
+	 * @param field the name of a numeric field or "properties.name" for a user-defined property
+	 * @param delta the number to add
+	 * @return the new value or null if the field isn't numeric
+	 */
+	public static Long incrementField(ParaObject obj, String field, long delta) {
+		if (obj == null || StringUtils.isBlank(field)) {
+			return null;
+		}
+		try {
+			if (obj instanceof Sysprop && field.startsWith(PROPERTIES_PREFIX)) {
+				return incrementProperty((Sysprop) obj, field.substring(PROPERTIES_PREFIX.length()), delta);
+			}
+			if (!PropertyUtils.isReadable(obj, field) || !PropertyUtils.isWriteable(obj, field) ||
+					!isNumericType(PropertyUtils.getPropertyType(obj, field))) {
+				return null;
+			}
+			Object value = PropertyUtils.getProperty(obj, field);
+			long newValue = (value == null ? 0L : ((Number) value).longValue()) + delta;
+			BeanUtils.setProperty(obj, field, newValue);
+			return newValue;
+		} catch (Exception e) {
+			logger.error(null, e);
+			return null;
+		}
+	}
+
+	/**
+	 * @param obj an object
+	 * @param now the current time in milliseconds
+	 * @return true if the object has an expiry time and it has passed
+	 * @see ParaObject#getExpiresAt()
+	 */
+	public static boolean isExpired(ParaObject obj, long now) {
+		Long expiresAt = (obj == null) ? null : obj.getExpiresAt();
+		return expiresAt != null && expiresAt > 0 && expiresAt <= now;
+	}
+
+	/**
+	 * Returns the version of an object, used by {@link DAO#compareAndSet(String, ParaObject, Long)}.
+	 * @param obj an object
+	 * @return the time the object was last updated, or created if it was never updated, or null
+	 */
+	public static Long getVersion(ParaObject obj) {
+		if (obj == null) {
+			return null;
+		}
+		return (obj.getUpdated() != null) ? obj.getUpdated() : obj.getTimestamp();
+	}
+
+	/**
+	 * Returns the version which an object gets when it's updated by
+	 * {@link DAO#compareAndSet(String, ParaObject, Long)}. It's always greater than the expected version,
+	 * even if the clock moves backwards or two updates happen in the same millisecond.
+	 * @param expectedVersion the version of the stored object
+	 * @return the new version
+	 */
+	public static long nextVersion(Long expectedVersion) {
+		long now = Utils.timestamp();
+		return (expectedVersion == null) ? now : Math.max(now, expectedVersion + 1);
+	}
+
+	/**
+	 * Starts recording the fields which are written by updates on the calling thread, and the objects
+	 * which weren't written at all. Only DAOs which know which fields have changed, or which don't throw
+	 * when a write fails, record them - for the others the map stays empty.
+	 * @return a map of object ids to the names of the fields which were written by an update,
+	 * or to an empty set if nothing was written
+	 * @see #recordChanges(java.lang.String, java.util.Collection)
+	 * @see #recordFailedWrites(java.util.Collection)
+	 */
+	public static Map<String, Set<String>> startRecordingChanges() {
+		Map<String, Set<String>> changes = new HashMap<String, Set<String>>();
+		CHANGES.set(changes);
+		return changes;
+	}
+
+	/**
+	 * Stops recording the fields which are written by updates on the calling thread.
+	 */
+	public static void stopRecordingChanges() {
+		CHANGES.remove();
+	}
+
+	/**
+	 * Called by DAOs which update only the changed fields of an object, with the names of those fields.
+	 * Does nothing unless {@link #startRecordingChanges()} was called on the same thread.
+	 * @param id the object id
+	 * @param fields the names of the fields which were written, or an empty collection if none were
+	 */
+	public static void recordChanges(String id, Collection<String> fields) {
+		Map<String, Set<String>> changes = CHANGES.get();
+		if (changes != null && id != null) {
+			Set<String> written = changes.get(id);
+			if (written == null) {
+				written = new HashSet<String>();
+				changes.put(id, written);
+			}
+			if (fields != null) {
+				written.addAll(fields);
+			}
+		}
+	}
+
+	/**
+	 * Called by DAOs which log the errors of writes instead of throwing them, with the ids of the objects
+	 * which weren't written, so that their writes aren't published as changes.
+	 * Does nothing unless {@link #startRecordingChanges()} was called on the same thread.
+	 * @param ids the ids of the objects which weren't written
+	 */
+	public static void recordFailedWrites(Collection<String> ids) {
+		if (ids != null && CHANGES.get() != null) {
+			for (String id : ids) {
+				recordChanges(id, null);
+			}
+		}
+	}
+
+	/**
+	 * Sets the handler which removes expired objects from the search index, e.g. the queue which indexes
+	 * objects asynchronously, so that removals are applied in order with the other writes.
+	 * @param handler a handler which takes an app id and a list of objects, or null to remove
+	 * expired objects from {@link Search} directly
+	 */
+	public static void setUnindexHandler(BiConsumer<String, List<ParaObject>> handler) {
+		unindexHandler = handler;
+	}
+
+	/**
+	 * Removes expired objects from the search index and the cache. DAOs call this when they evict
+	 * expired objects, because evictions don't go through the DAO methods which keep the index
+	 * and the cache up to date.
+	 * @param appid the app id
+	 * @param objects the objects which have expired
+	 */
+	public static void onExpired(String appid, List<? extends ParaObject> objects) {
+		if (StringUtils.isBlank(appid) || objects == null || objects.isEmpty()) {
+			return;
+		}
+		List<ParaObject> unindexed = new ArrayList<ParaObject>(objects.size());
+		List<String> ids = new ArrayList<String>(objects.size());
+		for (ParaObject obj : objects) {
+			if (obj != null && obj.getId() != null) {
+				unindexed.add(obj);
+				ids.add(obj.getId());
+			}
+		}
+		try {
+			BiConsumer<String, List<ParaObject>> handler = unindexHandler;
+			Search search = CoreUtils.getInstance().getSearch();
+			if (Config.isSearchEnabled() && !unindexed.isEmpty()) {
+				if (handler != null) {
+					handler.accept(appid, unindexed);
+				} else if (search != null) {
+					search.unindexAll(appid, unindexed);
+				}
+			}
+			Cache cache = CoreUtils.getInstance().getCache();
+			if (Config.isCacheEnabled() && cache != null && !ids.isEmpty()) {
+				cache.removeAll(appid, ids);
+			}
+			logger.debug("Removed {} expired objects from {}.", ids.size(), appid);
+		} catch (Exception e) {
+			logger.error(null, e);
+		}
+	}
+
+	private static Long incrementProperty(Sysprop obj, String name, long delta) {
+		Object value = obj.getProperty(name);
+		if (value != null && !(value instanceof Number)) {
+			return null;
+		}
+		long newValue = (value == null ? 0L : ((Number) value).longValue()) + delta;
+		// keep small numbers as integers, the way they are parsed from JSON
+		obj.addProperty(name, (newValue == (int) newValue) ? (Object) (int) newValue : newValue);
+		return newValue;
+	}
+
+	private static boolean isNumericType(Class<?> type) {
+		return type != null && (Number.class.isAssignableFrom(type) ||
+				(type.isPrimitive() && type != boolean.class && type != char.class && type != void.class));
+	}
+
+}
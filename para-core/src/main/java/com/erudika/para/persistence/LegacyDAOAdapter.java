@@ -0,0 +1,146 @@
+/*
+ * Copyright 2013-2016 Erudika. https://erudika.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * For issues and patches go to: https://github.com/erudika
+ */
+package com.erudika.para.persistence;
+
+import com.erudika.para.core.ParaObject;
+import com.erudika.para.utils.Pager;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link DAO} for plugins which were built against an older version of the interface and don't
+ * implement the newer operations, like {@code increment()} or {@code scan()}. Calling those on the plugin
+ * directly throws an {@link AbstractMethodError}. This adapter passes the basic operations to the plugin
+ * and implements the rest with them, the same way {@link AbstractDAO} does.
+ * @author Alex Bogdanovski [alex@erudika.com]
+ * @see DAOUtils#withFallbacks(com.erudika.para.persistence.DAO)
+ */
+public class LegacyDAOAdapter extends AbstractDAO {
+
+	private final DAO dao;
+
+	/**
+	 * Default constructor.
+	 * @param dao the plugin which does the actual work
+	 */
+	public LegacyDAOAdapter(DAO dao) {
+		if (dao == null) {
+			throw new IllegalArgumentException("DAO must not be null.");
+		}
+		this.dao = dao;
+	}
+
+	/**
+	 * @return the wrapped DAO
+	 */
+	public DAO getDao() {
+		return dao;
+	}
+
+	@Override
+	public <P extends ParaObject> String create(String appid, P so) {
+		return dao.create(appid, so);
+	}
+
+	@Override
+	public <P extends ParaObject> P read(String appid, String key) {
+		return dao.read(appid, key);
+	}
+
+	@Override
+	public <P extends ParaObject> void update(String appid, P so) {
+		dao.update(appid, so);
+	}
+
+	@Override
+	public <P extends ParaObject> void delete(String appid, P so) {
+		dao.delete(appid, so);
+	}
+
+	@Override
+	public <P extends ParaObject> void createAll(String appid, List<P> objects) {
+		dao.createAll(appid, objects);
+	}
+
+	@Override
+	public <P extends ParaObject> Map<String, P> readAll(String appid, List<String> keys, boolean getAllColumns) {
+		return dao.readAll(appid, keys, getAllColumns);
+	}
+
+	@Override
+	public <P extends ParaObject> List<P> readPage(String appid, Pager pager) {
+		return dao.readPage(appid, pager);
+	}
+
+	@Override
+	public <P extends ParaObject> void updateAll(String appid, List<P> objects) {
+		dao.updateAll(appid, objects);
+	}
+
+	@Override
+	public <P extends ParaObject> void deleteAll(String appid, List<P> objects) {
+		dao.deleteAll(appid, objects);
+	}
+
+	////////////////////////////////////////////////////////////////////
+
+	@Override
+	public <P extends ParaObject> String create(P so) {
+		return dao.create(so);
+	}
+
+	@Override
+	public <P extends ParaObject> P read(String key) {
+		return dao.read(key);
+	}
+
+	@Override
+	public <P extends ParaObject> void update(P so) {
+		dao.update(so);
+	}
+
+	@Override
+	public <P extends ParaObject> void delete(P so) {
+		dao.delete(so);
+	}
+
+	@Override
+	public <P extends ParaObject> void createAll(List<P> objects) {
+		dao.createAll(objects);
+	}
+
+	@Override
+	public <P extends ParaObject> Map<String, P> readAll(List<String> keys, boolean getAllColumns) {
+		return dao.readAll(keys, getAllColumns);
+	}
+
+	@Override
+	public <P extends ParaObject> List<P> readPage(Pager pager) {
+		return dao.readPage(pager);
+	}
+
+	@Override
+	public <P extends ParaObject> void updateAll(List<P> objects) {
+		dao.updateAll(objects);
+	}
+
+	@Override
+	public <P extends ParaObject> void deleteAll(List<P> objects) {
+		dao.deleteAll(objects);
+	}
+}
@@ -28,7 +28,13 @@ import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
 import javax.inject.Singleton;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
@@ -43,8 +49,8 @@ import org.slf4j.LoggerFactory;
 public class MockDAO implements DAO {
 
 	private static final Logger logger = LoggerFactory.getLogger(MockDAO.class);
-	private static final Map<String, Map<String, ParaObject>> MAPS =
-			new ConcurrentHashMap<String, Map<String, ParaObject>>();
+	private static final Map<String, ConcurrentNavigableMap<String, ParaObject>> MAPS =
+			new ConcurrentHashMap<String, ConcurrentNavigableMap<String, ParaObject>>();
 
 	@Override
 	public <P extends ParaObject> String create(String appid, P so) {
@@ -71,15 +77,25 @@ public class MockDAO implements DAO {
 			return null;
 		}
 		P so = (P) getMap(appid).get(key);
+		// expired objects are removed lazily, when they are read
+		if (DAOUtils.isExpired(so, Utils.timestamp()) && getMap(appid).remove(key, so)) {
+			DAOUtils.onExpired(appid, Collections.singletonList(so));
+			so = null;
+		}
 		logger.debug("DAO.read() {} -> {}", key, so);
 		return so;
 	}
 
+	@Override
+	public <P extends ParaObject> P read(String appid, String key, Set<String> fields) {
+		return read(appid, key);
+	}
+
 	@Override
 	public <P extends ParaObject> void update(String appid, P so) {
 		if (so != null && !StringUtils.isBlank(appid)) {
 			so.setUpdated(Utils.timestamp());
-			ParaObject soUpdated = getMap(appid).get(so.getId());
+			ParaObject soUpdated = copy(getMap(appid).get(so.getId()));
 			getMap(appid).put(so.getId(), ParaObjectUtils.setAnnotatedFields(soUpdated,
 					ParaObjectUtils.getAnnotatedFields(so), Locked.class));
 			logger.debug("DAO.update() {}", so.getId());
@@ -94,6 +110,72 @@ public class MockDAO implements DAO {
 		}
 	}
 
+	@Override
+	public <P extends ParaObject> String createIfAbsent(String appid, P so) {
+		if (so == null || StringUtils.isBlank(appid)) {
+			return null;
+		}
+		if (StringUtils.isBlank(so.getId())) {
+			so.setId(Utils.getNewId());
+		}
+		if (so.getTimestamp() == null) {
+			so.setTimestamp(Utils.timestamp());
+		}
+		so.setAppid(appid);
+		ParaObject copy = copy(so);
+		ParaObject existing = getMap(appid).putIfAbsent(so.getId(), copy);
+		// an expired object is replaced, unless another thread got to it first
+		if (existing != null && !(DAOUtils.isExpired(existing, Utils.timestamp()) &&
+				getMap(appid).replace(so.getId(), existing, copy))) {
+			logger.debug("DAO.createIfAbsent() {} -> exists", so.getId());
+			return null;
+		}
+		logger.debug("DAO.createIfAbsent() {}", so.getId());
+		return so.getId();
+	}
+
+	@Override
+	public <P extends ParaObject> boolean compareAndSet(String appid, P so, Long expectedVersion) {
+		if (so == null || so.getId() == null || StringUtils.isBlank(appid)) {
+			return false;
+		}
+		ParaObject stored = getMap(appid).get(so.getId());
+		if (stored == null || DAOUtils.isExpired(stored, Utils.timestamp()) ||
+				!Objects.equals(DAOUtils.getVersion(stored), expectedVersion)) {
+			logger.debug("DAO.compareAndSet() {} -> version mismatch", so.getId());
+			return false;
+		}
+		Long oldUpdated = so.getUpdated();
+		so.setUpdated(DAOUtils.nextVersion(expectedVersion));
+		ParaObject updated = ParaObjectUtils.setAnnotatedFields(copy(stored),
+				ParaObjectUtils.getAnnotatedFields(so), Locked.class);
+		// stored objects are never changed in place, so replace() fails if another update came in between
+		if (!getMap(appid).replace(so.getId(), stored, updated)) {
+			so.setUpdated(oldUpdated);
+			return false;
+		}
+		logger.debug("DAO.compareAndSet() {}", so.getId());
+		return true;
+	}
+
+	@Override
+	public Long increment(String appid, String key, final String field, final long delta) {
+		if (key == null || StringUtils.isBlank(appid)) {
+			return null;
+		}
+		final Long[] result = new Long[1];
+		// the function may be retried, so it changes a copy which replaces the stored object only if that didn't change
+		getMap(appid).computeIfPresent(key, new BiFunction<String, ParaObject, ParaObject>() {
+			public ParaObject apply(String id, ParaObject so) {
+				ParaObject updated = copy(so);
+				result[0] = DAOUtils.incrementField(updated, field, delta);
+				return (result[0] == null) ? so : updated;
+			}
+		});
+		logger.debug("DAO.increment() {}.{} -> {}", key, field, result[0]);
+		return result[0];
+	}
+
 	@Override
 	public <P extends ParaObject> void createAll(String appid, List<P> objects) {
 		if (StringUtils.isBlank(appid) || objects == null) {
@@ -113,14 +195,20 @@ public class MockDAO implements DAO {
 		}
 		Map<String, P> results = new LinkedHashMap<String, P>(keys.size());
 		for (String key : keys) {
-			if (getMap(appid).containsKey(key)) {
-				results.put(key, (P) read(key));
+			P so = (key == null) ? null : (P) read(appid, key);
+			if (so != null) {
+				results.put(key, so);
 			}
 		}
 		logger.debug("DAO.readAll() {}", results.size());
 		return results;
 	}
 
+	@Override
+	public <P extends ParaObject> Map<String, P> readAll(String appid, List<String> keys, Set<String> fields) {
+		return readAll(appid, keys, true);
+	}
+
 	@Override
 	@SuppressWarnings("unchecked")
 	public <P extends ParaObject> List<P> readPage(String appid, Pager pager) {
@@ -135,18 +223,21 @@ public class MockDAO implements DAO {
 			return results;
 		}
 
-		String lastKey = pager.getLastKey();
-		boolean found = false;
+		// keys are sorted, so the next page starts right after the last key
+		Map<String, ParaObject> map = getMap(appid);
+		if (pager.getLastKey() != null) {
+			map = getMap(appid).tailMap(pager.getLastKey(), false);
+		}
 		int	i = 0;
-		for (String key : getMap(appid).keySet()) {
-			if (lastKey != null && !found) {
-				found = key.equals(lastKey);
-			} else {
-				results.add((P) getMap(appid).get(key));
-				i++;
+		long now = Utils.timestamp();
+		for (Map.Entry<String, ParaObject> entry : map.entrySet()) {
+			if (DAOUtils.isExpired(entry.getValue(), now)) {
+				continue;
 			}
+			results.add((P) entry.getValue());
+			i++;
 			if (i >= pager.getLimit()) {
-				pager.setLastKey(key);
+				pager.setLastKey(entry.getKey());
 				break;
 			}
 		}
@@ -154,6 +245,16 @@ public class MockDAO implements DAO {
 		return results;
 	}
 
+	@Override
+	public <P extends ParaObject> long scan(String appid, int segments, Consumer<List<P>> consumer) {
+		if (StringUtils.isBlank(appid)) {
+			return 0L;
+		}
+		long count = DAOUtils.scan(getMap(appid).values(), segments, consumer);
+		logger.debug("DAO.scan() {}", count);
+		return count;
+	}
+
 	@Override
 	public <P extends ParaObject> void updateAll(String appid, List<P> objects) {
 		if (!StringUtils.isBlank(appid) && objects != null) {
@@ -178,9 +279,14 @@ public class MockDAO implements DAO {
 		}
 	}
 
-	private Map<String, ParaObject> getMap(String appid) {
+	private ParaObject copy(ParaObject so) {
+		return (so == null) ? null : ParaObjectUtils.setAnnotatedFields(ParaObjectUtils.toObject(so.getType()),
+				ParaObjectUtils.getAnnotatedFields(so), null);
+	}
+
+	private ConcurrentNavigableMap<String, ParaObject> getMap(String appid) {
 		if (!MAPS.containsKey(appid)) {
-			MAPS.put(appid, new ConcurrentHashMap<String, ParaObject>());
+			MAPS.putIfAbsent(appid, new ConcurrentSkipListMap<String, ParaObject>());
 		}
 		return MAPS.get(appid);
 	}
@@ -192,11 +298,26 @@ public class MockDAO implements DAO {
 		return create(Config.APP_NAME_NS, so);
 	}
 
+	@Override
+	public <P extends ParaObject> String createIfAbsent(P so) {
+		return createIfAbsent(Config.APP_NAME_NS, so);
+	}
+
+	@Override
+	public <P extends ParaObject> boolean compareAndSet(P so, Long expectedVersion) {
+		return compareAndSet(Config.APP_NAME_NS, so, expectedVersion);
+	}
+
 	@Override
 	public <P extends ParaObject> P read(String key) {
 		return read(Config.APP_NAME_NS, key);
 	}
 
+	@Override
+	public <P extends ParaObject> P read(String key, Set<String> fields) {
+		return read(Config.APP_NAME_NS, key, fields);
+	}
+
 	@Override
 	public <P extends ParaObject> void update(P so) {
 		update(Config.APP_NAME_NS, so);
@@ -207,6 +328,11 @@ public class MockDAO implements DAO {
 		delete(Config.APP_NAME_NS, so);
 	}
 
+	@Override
+	public Long increment(String key, String field, long delta) {
+		return increment(Config.APP_NAME_NS, key, field, delta);
+	}
+
 	@Override
 	public <P extends ParaObject> void createAll(List<P> objects) {
 		createAll(Config.APP_NAME_NS, objects);
@@ -217,11 +343,21 @@ public class MockDAO implements DAO {
 		return readAll(Config.APP_NAME_NS, keys, getAllColumns);
 	}
 
+	@Override
+	public <P extends ParaObject> Map<String, P> readAll(List<String> keys, Set<String> fields) {
+		return readAll(Config.APP_NAME_NS, keys, fields);
+	}
+
 	@Override
 	public <P extends ParaObject> List<P> readPage(Pager pager) {
 		return readPage(Config.APP_NAME_NS, pager);
 	}
 
+	@Override
+	public <P extends ParaObject> long scan(int segments, Consumer<List<P>> consumer) {
+		return scan(Config.APP_NAME_NS, segments, consumer);
+	}
+
 	@Override
 	public <P extends ParaObject> void updateAll(List<P> objects) {
 		updateAll(Config.APP_NAME_NS, objects);
@@ -232,4 +368,34 @@ public class MockDAO implements DAO {
 		deleteAll(Config.APP_NAME_NS, objects);
 	}
 
+	@Override
+	public <P extends ParaObject> void createAllInApps(Map<String, List<P>> objects) {
+		if (objects != null) {
+			for (Map.Entry<String, List<P>> app : objects.entrySet()) {
+				createAll(app.getKey(), app.getValue());
+			}
+		}
+	}
+
+	@Override
+	public <P extends ParaObject> Map<String, Map<String, P>> readAllFromApps(Map<String, List<String>> keys,
+			boolean getAllColumns) {
+		Map<String, Map<String, P>> results = new LinkedHashMap<String, Map<String, P>>();
+		if (keys != null) {
+			for (Map.Entry<String, List<String>> app : keys.entrySet()) {
+				results.put(app.getKey(), this.<P>readAll(app.getKey(), app.getValue(), getAllColumns));
+			}
+		}
+		return results;
+	}
+
+	@Override
+	public <P extends ParaObject> void deleteAllFromApps(Map<String, List<P>> objects) {
+		if (objects != null) {
+			for (Map.Entry<String, List<P>> app : objects.entrySet()) {
+				deleteAll(app.getKey(), app.getValue());
+			}
+		}
+	}
+
 }
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2013-2016 Erudika. https://erudika.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * For issues and patches go to: https://github.com/erudika
+ */
+package com.erudika.para.persistence;
+
+import com.erudika.para.core.ParaObject;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Remembers the state in which objects were last read from or written to the data store.
+ * A DAO can compare an object with its snapshot on update and write only the fields that have changed.
+ * Objects are compared by identity, not by id, and are referenced weakly - a snapshot is dropped
+ * as soon as its object is garbage collected. The snapshots are split into segments with a lock each,
+ * so that threads working with different objects rarely wait for each other.
+ * @param <S> the type of snapshot, e.g. a row in the format used by the data store
+ * @author Alex Bogdanovski [alex@erudika.com]
+ */
+public class ObjectSnapshots<S> {
+
+	private static final int DEFAULT_SEGMENTS = 32;
+
+	private final Segment<S>[] segments;
+
+	/**
+	 * Default constructor.
+	 */
+	public ObjectSnapshots() {
+		this(DEFAULT_SEGMENTS);
+	}
+
+	/**
+	 * @param concurrency the expected number of threads using the snapshots at the same time,
+	 * rounded up to a power of two
+	 */
+	@SuppressWarnings("unchecked")
+	public ObjectSnapshots(int concurrency) {
+		int size = 1;
+		while (size < concurrency) {
+			size <<= 1;
+		}
+		segments = new Segment[size];
+		for (int i = 0; i < size; i++) {
+			segments[i] = new Segment<S>();
+		}
+	}
+
+	/**
+	 * Saves the snapshot of an object, replacing the previous one.
+	 * @param obj an object
+	 * @param snapshot its current state in the data store
+	 */
+	public void put(ParaObject obj, S snapshot) {
+		if (obj != null && snapshot != null) {
+			int hash = System.identityHashCode(obj);
+			Segment<S> segment = segmentFor(hash);
+			segment.put(new IdentityKey(obj, hash, segment.queue), snapshot);
+		}
+	}
+
+	/**
+	 * @param obj an object
+	 * @return the last snapshot of the object or null if there's none
+	 */
+	public S get(ParaObject obj) {
+		if (obj == null) {
+			return null;
+		}
+		int hash = System.identityHashCode(obj);
+		return segmentFor(hash).get(new IdentityKey(obj, hash, null));
+	}
+
+	/**
+	 * Removes the snapshot of an object.
+	 * @param obj an object
+	 */
+	public void remove(ParaObject obj) {
+		if (obj != null) {
+			int hash = System.identityHashCode(obj);
+			segmentFor(hash).remove(new IdentityKey(obj, hash, null));
+		}
+	}
+
+	/**
+	 * @return the number of snapshots held
+	 */
+	public int size() {
+		int size = 0;
+		for (Segment<S> segment : segments) {
+			size += segment.size();
+		}
+		return size;
+	}
+
+	private Segment<S> segmentFor(int hash) {
+		// identity hashes are random, but the low bits are mixed in with the high ones just in case
+		return segments[(hash ^ (hash >>> 16)) & (segments.length - 1)];
+	}
+
+	/**
+	 * A part of the snapshots, with its own lock and queue of collected objects.
+	 * @param <S> the type of snapshot
+	 */
+	private static final class Segment<S> {
+		private final Map<IdentityKey, S> snapshots = new HashMap<IdentityKey, S>();
+		private final ReferenceQueue<ParaObject> queue = new ReferenceQueue<ParaObject>();
+
+		synchronized void put(IdentityKey key, S snapshot) {
+			expunge();
+			snapshots.put(key, snapshot);
+		}
+
+		synchronized S get(IdentityKey key) {
+			expunge();
+			return snapshots.get(key);
+		}
+
+		synchronized void remove(IdentityKey key) {
+			expunge();
+			snapshots.remove(key);
+		}
+
+		synchronized int size() {
+			expunge();
+			return snapshots.size();
+		}
+
+		private void expunge() {
+			Reference<? extends ParaObject> ref = queue.poll();
+			while (ref != null) {
+				snapshots.remove((IdentityKey) ref);
+				ref = queue.poll();
+			}
+		}
+	}
+
+	/**
+	 * A weak reference which is equal only to references to the same object.
+	 */
+	private static final class IdentityKey extends WeakReference<ParaObject> {
+		private final int hash;
+
+		IdentityKey(ParaObject obj, int hash, ReferenceQueue<ParaObject> queue) {
+			super(obj, queue);
+			this.hash = hash;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof IdentityKey)) {
+				return false;
+			}
+			Object referent = get();
+			return referent != null && referent == ((IdentityKey) obj).get();
+		}
+	}
+}
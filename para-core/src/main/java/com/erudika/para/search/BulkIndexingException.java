@@ -0,0 +1,52 @@
+/*
+ * Copyright 2013-2016 Erudika. https://erudika.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * For issues and patches go to: https://github.com/erudika
+ */
+package com.erudika.para.search;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Thrown by the bulk operations of {@link Search} when some of the objects couldn't be indexed
+ * or removed from the index. All other objects in the request were processed.
+ * @author Alex Bogdanovski [alex@erudika.com]
+ */
+public class BulkIndexingException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final List<String> failed;
+
+	/**
+	 * Default constructor.
+	 * @param failed the ids of the objects which failed
+	 * @param message the failure message returned by the index
+	 */
+	public BulkIndexingException(List<String> failed, String message) {
+		super((failed == null ? 0 : failed.size()) + " objects failed: " + message);
+		this.failed = (failed == null) ? Collections.<String>emptyList() :
+				Collections.unmodifiableList(new ArrayList<String>(failed));
+	}
+
+	/**
+	 * @return the ids of the objects which failed
+	 */
+	public List<String> getFailed() {
+		return failed;
+	}
+}
@@ -76,6 +76,7 @@ public interface Search {
 
 	/**
 	 * Indexes multiple objects in a batch operation.
+	 * Implementations may throw a {@link BulkIndexingException} if only some of the objects failed.
 	 * @param <P> type of the object
 	 * @param appid name of the {@link com.erudika.para.core.App}
 	 * @param objects a list of objects
@@ -91,6 +92,7 @@ public interface Search {
 
 	/**
 	 * Removes multiple objects from the index in a batch operation.
+	 * Implementations may throw a {@link BulkIndexingException} if only some of the objects failed.
 	 * @param <P> type of the object
 	 * @param appid name of the {@link com.erudika.para.core.App}
 	 * @param objects a list of objects
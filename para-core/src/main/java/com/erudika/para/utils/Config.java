@@ -68,6 +68,8 @@ public final class Config {
 	public static final String _TIMESTAMP = "timestamp";
 	/** {@value #_UPDATED}. */
 	public static final String _UPDATED = "updated";
+	/** {@value #_EXPIRES_AT}. */
+	public static final String _EXPIRES_AT = "expiresAt";
 	/** {@value #_TAGS}. */
 	public static final String _TAGS = "tags";
 	/** {@value #_EMAIL}. */
@@ -19,6 +19,8 @@ package com.erudika.para;
 
 import com.erudika.para.cache.Cache;
 import com.erudika.para.core.App;
+import com.erudika.para.persistence.AsyncDAO;
+import com.erudika.para.persistence.AsyncDAOAdapter;
 import com.erudika.para.persistence.DAO;
 import com.erudika.para.queue.Queue;
 import com.erudika.para.rest.CustomResourceHandler;
@@ -202,6 +204,20 @@ public final class Para {
 		return getInstance(DAO.class);
 	}
 
+	/**
+	 * Returns the asynchronous version of the core persistence class. If the DAO implementation doesn't
+	 * support asynchronous I/O natively, its methods are executed on the Para executor service.
+	 * @return an instance of the asynchronous persistence class.
+	 * @see AsyncDAO
+	 */
+	public static AsyncDAO getAsyncDAO() {
+		DAO dao = getDAO();
+		if (dao instanceof AsyncDAO) {
+			return (AsyncDAO) dao;
+		}
+		return new AsyncDAOAdapter(dao, getExecutorService());
+	}
+
 	/**
 	 * @return an instance of the core search class.
 	 * @see Search
@@ -248,6 +264,14 @@ public final class Para {
 		}
 	}
 
+	/**
+	 * Returns a list of destruction listeners, in the order they are called.
+	 * @return the list of registered listeners
+	 */
+	public static List<DestroyListener> getDestroyListeners() {
+		return DESTROY_LISTENERS;
+	}
+
 	/**
 	 * Registers a new Para I/O listener.
 	 *
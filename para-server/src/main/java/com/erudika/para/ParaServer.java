@@ -34,6 +34,7 @@ import com.erudika.para.utils.Config;
 import com.erudika.para.utils.filters.CORSFilter;
 import com.erudika.para.utils.filters.ErrorFilter;
 import com.erudika.para.utils.filters.GZipServletFilter;
+import com.erudika.para.utils.filters.IdentityMapFilter;
 import com.google.inject.Module;
 import javax.annotation.PreDestroy;
 import javax.servlet.ServletContext;
@@ -137,6 +138,23 @@ public class ParaServer implements WebApplicationInitializer, Ordered {
 		return frb;
 	}
 
+	/**
+	 * @return identity map filter bean
+	 */
+	@Bean
+	public FilterRegistrationBean identityMapFilterRegistrationBean() {
+		String path = Api1.PATH + "*";
+		logger.debug("Initializing identity map filter [{}]...", path);
+		FilterRegistrationBean frb = new FilterRegistrationBean(new IdentityMapFilter());
+		frb.addUrlPatterns(path);
+		frb.setAsyncSupported(true);
+		frb.setEnabled(Config.getConfigBoolean("identity_map_enabled", true));
+		frb.setMatchAfter(false);
+		// must wrap the security filters, which read the app and the user
+		frb.setOrder(Ordered.HIGHEST_PRECEDENCE);
+		return frb;
+	}
+
 	/**
 	 * @return CORS filter bean
 	 */
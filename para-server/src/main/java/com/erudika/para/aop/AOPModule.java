@@ -17,9 +17,17 @@
  */
 package com.erudika.para.aop;
 
+import com.erudika.para.persistence.ChangeStream;
 import com.erudika.para.persistence.DAO;
 import com.google.inject.AbstractModule;
+import com.google.inject.TypeLiteral;
+import com.google.inject.matcher.AbstractMatcher;
 import com.google.inject.matcher.Matchers;
+import com.google.inject.spi.TypeEncounter;
+import com.google.inject.spi.TypeListener;
+import java.util.ArrayList;
+import java.util.List;
+import org.aopalliance.intercept.MethodInterceptor;
 
 /**
  * The default Aspect Oriented Programming module.
@@ -29,9 +37,32 @@ public class AOPModule extends AbstractModule {
 
 	protected void configure() {
 		// enable automatic indexing and caching each time an object is created/updated
-		IndexAndCacheAspect aspect = new IndexAndCacheAspect();
+		final IndexAndCacheAspect aspect = new IndexAndCacheAspect();
 		requestInjection(aspect);
-		bindInterceptor(Matchers.subclassesOf(DAO.class), Matchers.any(), aspect);
+		// the aspect looks up what to do for each DAO method once, when the injector meets the DAO class
+		bindListener(new AbstractMatcher<TypeLiteral<?>>() {
+			public boolean matches(TypeLiteral<?> type) {
+				return DAO.class.isAssignableFrom(type.getRawType());
+			}
+		}, new TypeListener() {
+			public <I> void hear(TypeLiteral<I> type, TypeEncounter<I> encounter) {
+				aspect.prepare(type.getRawType());
+			}
+		});
+		List<MethodInterceptor> interceptors = new ArrayList<MethodInterceptor>();
+		// repeated reads within a request are served from the identity map, before the cache is hit
+		interceptors.add(new IdentityMapInterceptor());
+		if (BloomFilterInterceptor.BLOOM_FILTER_ENABLED) {
+			// reads of ids which don't exist return null before the cache is hit
+			interceptors.add(new BloomFilterInterceptor());
+		}
+		interceptors.add(aspect);
+		if (ChangeStream.CHANGE_STREAM_ENABLED) {
+			// only changes which made it past validation in the aspect are published
+			interceptors.add(new ChangeStreamInterceptor());
+		}
+		bindInterceptor(Matchers.subclassesOf(DAO.class), Matchers.any(),
+				interceptors.toArray(new MethodInterceptor[interceptors.size()]));
 	}
 
 }
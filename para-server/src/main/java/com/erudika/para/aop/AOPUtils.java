@@ -20,10 +20,13 @@ package com.erudika.para.aop;
 import com.erudika.para.core.ParaObject;
 import com.erudika.para.core.Sysprop;
 import com.erudika.para.utils.Utils;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
 import org.apache.commons.lang3.StringUtils;
 
 /**
@@ -79,6 +82,13 @@ public final class AOPUtils {
 		return null;
 	}
 
+	protected static String getArgOfString(Object[] args, int index) {
+		if (args != null && index >= 0 && index < args.length && args[index] instanceof String) {
+			return (String) args[index];
+		}
+		return null;
+	}
+
 	protected static List<ParaObject> removeNotStoredNotIndexed(List<ParaObject> addUs, List<ParaObject> indexUs) {
 		if (addUs != null) {
 			List<ParaObject> removed = new LinkedList<ParaObject>();
@@ -100,6 +110,25 @@ public final class AOPUtils {
 		return Collections.emptyList();
 	}
 
+	/**
+	 * @param objects a list of objects
+	 * @param unwritten the ids of the objects which weren't written, may be null
+	 * @return a new list of the objects which were written, or the same list if all were written
+	 */
+	protected static <P extends ParaObject> List<P> removeUnwritten(List<P> objects, Collection<String> unwritten) {
+		if (objects == null || unwritten == null || unwritten.isEmpty()) {
+			return objects;
+		}
+		Set<String> ids = new HashSet<String>(unwritten);
+		List<P> written = new LinkedList<P>();
+		for (P obj : objects) {
+			if (obj != null && !ids.contains(obj.getId())) {
+				written.add(obj);
+			}
+		}
+		return written;
+	}
+
 	/**
 	 * Object types should not start with '_' because it is in conflict with the API.
 	 * Some API resources have a path which also starts with '_' like {@code  /v1/_me}.
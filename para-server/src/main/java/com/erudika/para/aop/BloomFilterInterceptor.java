@@ -0,0 +1,444 @@
+/*
+ * Copyright 2013-2016 Erudika. https://erudika.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * For issues and patches go to: https://github.com/erudika
+ */
+package com.erudika.para.aop;
+
+import com.erudika.para.DestroyListener;
+import com.erudika.para.Para;
+import com.erudika.para.core.ParaObject;
+import com.erudika.para.persistence.BloomFilter;
+import com.erudika.para.persistence.DAO;
+import com.erudika.para.persistence.DAOUtils;
+import com.erudika.para.utils.Config;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps a Bloom filter of all object ids in each app, so that reads of ids which don't exist return null
+ * without going to the cache or the database. The filter of an app is loaded from disk or rebuilt with a
+ * scan of the app's table in the background, the first time the app is read. Until then all reads go
+ * through. Ids are added on create and update. Deleted ids stay in the filter until the next rebuild,
+ * which only costs a read.
+ * <br>
+ * A rebuilt filter replaces the old one only if the scan read the whole table, and objects written while
+ * the scan runs are always added to it.
+ * <br>
+ * This only works if all objects are written through this node - it's meant for single-node deployments.
+ * An object created on another node would look like it doesn't exist here.
+ * @author Alex Bogdanovski [alex@erudika.com]
+ */
+public class BloomFilterInterceptor implements MethodInterceptor {
+
+	private static final Logger logger = LoggerFactory.getLogger(BloomFilterInterceptor.class);
+
+	/**
+	 * Enables the Bloom filters for DAO reads. Default is false.
+	 */
+	public static final boolean BLOOM_FILTER_ENABLED = Config.getConfigBoolean("bloom_filter_enabled", false);
+	/**
+	 * The number of ids each filter is sized for, at first. A filter which gets too full is rebuilt
+	 * twice as big. Default is 1000000.
+	 */
+	public static final int EXPECTED_ITEMS = Config.getConfigInt("bloom_filter_expected_items", 1000000);
+	/**
+	 * The probability that a read of a missing id still goes to the database. Default is 0.01.
+	 */
+	public static final double FALSE_POSITIVE_RATE = Config.getConfigDouble("bloom_filter_fpp", 0.01);
+	/**
+	 * The directory where filters are saved on shutdown. Filters aren't saved if blank. Default is "".
+	 */
+	public static final String FILTERS_DIR = Config.getConfigParam("bloom_filter_dir", "");
+
+	private static final Set<String> WRITE_METHODS = new HashSet<String>(Arrays.asList("create", "update",
+			"createAll", "updateAll", "createAsync", "updateAsync", "createIfAbsent", "compareAndSet"));
+
+	private final ConcurrentMap<String, AppFilter> filters = new ConcurrentHashMap<String, AppFilter>();
+	private final File dir;
+	private final long expectedItems;
+	private final double falsePositiveRate;
+
+	/**
+	 * Creates an interceptor with the default settings, which saves its filters on shutdown.
+	 */
+	public BloomFilterInterceptor() {
+		this(StringUtils.isBlank(FILTERS_DIR) ? null : new File(FILTERS_DIR), EXPECTED_ITEMS, FALSE_POSITIVE_RATE);
+		if (dir != null) {
+			Para.addDestroyListener(new DestroyListener() {
+				public void onDestroy() {
+					saveAll();
+				}
+			});
+		}
+	}
+
+	/**
+	 * @param dir the directory where filters are saved and loaded from, or null
+	 * @param expectedItems the number of ids each filter is sized for
+	 * @param falsePositiveRate the probability of a false positive
+	 */
+	public BloomFilterInterceptor(File dir, long expectedItems, double falsePositiveRate) {
+		this.dir = dir;
+		this.expectedItems = expectedItems;
+		this.falsePositiveRate = falsePositiveRate;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public Object invoke(MethodInvocation mi) throws Throwable {
+		Method m = mi.getMethod();
+		Class<?>[] params = m.getParameterTypes();
+		if ("createAllInApps".equals(m.getName()) && Modifier.isPublic(m.getModifiers())) {
+			return createAllInApps((Map<String, List<ParaObject>>) mi.getArguments()[0], mi);
+		}
+		// only methods which take an appid first - read(appid, key), readAll(appid, keys, ...), create(appid, so)...
+		if (!Modifier.isPublic(m.getModifiers()) || params.length < 2 || params[0] != String.class) {
+			return mi.proceed();
+		}
+		String name = m.getName();
+		Object[] args = mi.getArguments();
+		String appid = (String) args[0];
+		if (("read".equals(name) || "readAsync".equals(name)) && params[1] == String.class) {
+			return isAbsent(appid, (String) args[1], mi) ? absent(name, null) : mi.proceed();
+		} else if ("readAll".equals(name) || "readAllAsync".equals(name)) {
+			return allAbsent(appid, (List<String>) args[1], mi) ?
+					absent(name, new LinkedHashMap<String, ParaObject>()) : mi.proceed();
+		} else if (WRITE_METHODS.contains(name)) {
+			// ids are added before the write, so they are never missing while the object is being written,
+			// and after it, because the DAO generates ids for new objects
+			addIds(appid, args);
+			Object result = mi.proceed();
+			addIds(appid, args);
+			return result;
+		}
+		return mi.proceed();
+	}
+
+	/**
+	 * Rebuilds the filter of an app from a scan of all its objects. Reads go through until it's done.
+	 * If the scan fails, the old filter is kept. Rebuilds of the same app run one at a time.
+	 * @param appid the app id
+	 * @param dao the DAO to scan
+	 * @return the number of ids in the new filter, or -1 if the scan failed
+	 */
+	public long rebuild(final String appid, final DAO dao) {
+		AppFilter appFilter = getAppFilter(appid);
+		// a rebuild started by a read may still be running - rebuilds of the same app take turns,
+		// otherwise one would replace the filter which the other one is building
+		synchronized (appFilter.rebuildLock) {
+			return rebuild(appid, dao, appFilter);
+		}
+	}
+
+	private long rebuild(final String appid, final DAO dao, AppFilter appFilter) {
+		BloomFilter current = appFilter.active;
+		final BloomFilter filter = new BloomFilter(Math.max(expectedItems,
+				(current == null) ? 0 : current.getCount() * 2), falsePositiveRate);
+		// objects written from now on are added to the new filter too, objects written before are in the scan
+		appFilter.startBuilding(filter);
+		boolean complete = false;
+		try {
+			DAOUtils.runInBackground(new Runnable() {
+				public void run() {
+					DAOUtils.withFallbacks(dao).scan(appid, DAOUtils.SCAN_SEGMENTS, new Consumer<List<ParaObject>>() {
+						public void accept(List<ParaObject> page) {
+							for (ParaObject obj : page) {
+								filter.add(obj.getId());
+							}
+						}
+					});
+				}
+			});
+			complete = true;
+			logger.info("Bloom filter of app '{}' rebuilt with {} ids.", appid, filter.getCount());
+		} catch (RuntimeException e) {
+			logger.warn("Failed to rebuild the Bloom filter of app '{}': {}", appid, e.getMessage());
+		} finally {
+			appFilter.finishBuilding(complete);
+			if (!complete && appFilter.active == null) {
+				// the next read tries again
+				appFilter.loaded.set(false);
+			}
+			appFilter.rebuilding.set(false);
+		}
+		return complete ? filter.getCount() : -1;
+	}
+
+	/**
+	 * @param appid the app id
+	 * @return true if reads of the app are checked against its filter
+	 */
+	public boolean isReady(String appid) {
+		AppFilter appFilter = (appid == null) ? null : filters.get(appid);
+		return appFilter != null && appFilter.active != null;
+	}
+
+	/**
+	 * Saves the filters of all apps to disk, so they don't have to be rebuilt after a restart.
+	 */
+	public void saveAll() {
+		if (dir == null) {
+			return;
+		}
+		for (Map.Entry<String, AppFilter> entry : filters.entrySet()) {
+			BloomFilter filter = entry.getValue().active;
+			if (filter != null) {
+				save(entry.getKey(), filter);
+			}
+		}
+	}
+
+	private void save(String appid, BloomFilter filter) {
+		try {
+			Files.createDirectories(dir.toPath());
+			File tmp = new File(dir, appid + ".bloom.tmp");
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+			try {
+				filter.writeTo(out);
+			} finally {
+				out.close();
+			}
+			Files.move(tmp.toPath(), getFile(appid).toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+			logger.info("Saved Bloom filter of app '{}' with {} ids.", appid, filter.getCount());
+		} catch (IOException e) {
+			logger.error(null, e);
+		}
+	}
+
+	private BloomFilter load(String appid) {
+		File file = getFile(appid);
+		if (file == null || !file.isFile()) {
+			return null;
+		}
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			try {
+				return BloomFilter.readFrom(in);
+			} finally {
+				in.close();
+				// a filter is only valid until the next write, so it's deleted in case we don't shut down cleanly
+				Files.deleteIfExists(file.toPath());
+			}
+		} catch (IOException e) {
+			logger.error(null, e);
+		}
+		return null;
+	}
+
+	private File getFile(String appid) {
+		return (dir == null) ? null : new File(dir, appid + ".bloom");
+	}
+
+	private AppFilter getAppFilter(String appid) {
+		AppFilter appFilter = filters.get(appid);
+		if (appFilter == null) {
+			appFilter = new AppFilter();
+			AppFilter existing = filters.putIfAbsent(appid, appFilter);
+			if (existing != null) {
+				appFilter = existing;
+			}
+		}
+		return appFilter;
+	}
+
+	/**
+	 * Returns the filter of an app, if it's ready. The first call loads it from disk or starts a rebuild.
+	 */
+	private BloomFilter getFilter(String appid, MethodInvocation mi) {
+		if (StringUtils.isBlank(appid)) {
+			return null;
+		}
+		AppFilter appFilter = getAppFilter(appid);
+		if (appFilter.active == null && appFilter.loaded.compareAndSet(false, true)) {
+			BloomFilter filter = load(appid);
+			if (filter != null) {
+				appFilter.active = filter;
+			} else {
+				rebuildAsync(appid, mi);
+			}
+		}
+		return appFilter.active;
+	}
+
+	private void rebuildAsync(final String appid, MethodInvocation mi) {
+		AppFilter appFilter = getAppFilter(appid);
+		if (!(mi.getThis() instanceof DAO) || !appFilter.rebuilding.compareAndSet(false, true)) {
+			return;
+		}
+		final DAO dao = (DAO) mi.getThis();
+		try {
+			Para.getExecutorService().execute(new Runnable() {
+				public void run() {
+					rebuild(appid, dao);
+				}
+			});
+		} catch (Exception e) {
+			appFilter.rebuilding.set(false);
+			logger.warn("Failed to rebuild the Bloom filter of app '{}': {}", appid, e.getMessage());
+		}
+	}
+
+	private boolean isAbsent(String appid, String id, MethodInvocation mi) {
+		BloomFilter filter = getFilter(appid, mi);
+		if (filter != null && id != null && !filter.mightContain(id)) {
+			logger.debug("Bloom filter: {}->{} doesn't exist", appid, id);
+			return true;
+		}
+		return false;
+	}
+
+	private boolean allAbsent(String appid, List<String> ids, MethodInvocation mi) {
+		if (ids == null || ids.isEmpty()) {
+			return false;
+		}
+		for (String id : ids) {
+			if (!isAbsent(appid, id, mi)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static Object absent(String methodName, Object value) {
+		return methodName.endsWith("Async") ? CompletableFuture.completedFuture(value) : value;
+	}
+
+	private void addIds(String appid, Object[] args) {
+		AppFilter appFilter = StringUtils.isBlank(appid) ? null : filters.get(appid);
+		if (appFilter == null) {
+			return; // no reads yet - the filter will be built from a scan
+		}
+		ParaObject obj = AOPUtils.getArgOfParaObject(args);
+		if (obj != null) {
+			appFilter.add(obj.getId());
+		}
+		List<ParaObject> objects = AOPUtils.getArgOfListOfType(args, ParaObject.class);
+		if (objects != null) {
+			for (ParaObject object : objects) {
+				appFilter.add(object.getId());
+			}
+		}
+		BloomFilter active = appFilter.active;
+		if (active != null && active.isSaturated() && appFilter.rebuilding.compareAndSet(false, true)) {
+			logger.info("Bloom filter of app '{}' is full - rebuilding.", appid);
+			rebuildLater(appid);
+		}
+	}
+
+	private Object createAllInApps(Map<String, List<ParaObject>> objects, MethodInvocation mi) throws Throwable {
+		if (objects == null) {
+			return mi.proceed();
+		}
+		for (Map.Entry<String, List<ParaObject>> app : objects.entrySet()) {
+			addIds(app.getKey(), new Object[]{app.getKey(), app.getValue()});
+		}
+		Object result = mi.proceed();
+		for (Map.Entry<String, List<ParaObject>> app : objects.entrySet()) {
+			addIds(app.getKey(), new Object[]{app.getKey(), app.getValue()});
+		}
+		return result;
+	}
+
+	private void rebuildLater(final String appid) {
+		try {
+			Para.getExecutorService().execute(new Runnable() {
+				public void run() {
+					rebuild(appid, Para.getDAO());
+				}
+			});
+		} catch (Exception e) {
+			getAppFilter(appid).rebuilding.set(false);
+			logger.warn("Failed to rebuild the Bloom filter of app '{}': {}", appid, e.getMessage());
+		}
+	}
+
+	/**
+	 * The Bloom filters of one app.
+	 */
+	private static final class AppFilter {
+		private volatile BloomFilter active;
+		private volatile BloomFilter building;
+		private final AtomicBoolean loaded = new AtomicBoolean();
+		private final AtomicBoolean rebuilding = new AtomicBoolean();
+		private final Object rebuildLock = new Object();
+		// adds share the lock, so none of them can miss the new filter while it's being started or swapped in
+		private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+		void add(String id) {
+			lock.readLock().lock();
+			try {
+				if (building != null) {
+					building.add(id);
+				}
+				if (active != null) {
+					active.add(id);
+				}
+			} finally {
+				lock.readLock().unlock();
+			}
+		}
+
+		void startBuilding(BloomFilter filter) {
+			lock.writeLock().lock();
+			try {
+				building = filter;
+			} finally {
+				lock.writeLock().unlock();
+			}
+		}
+
+		void finishBuilding(boolean complete) {
+			lock.writeLock().lock();
+			try {
+				if (complete) {
+					active = building;
+				}
+				building = null;
+			} finally {
+				lock.writeLock().unlock();
+			}
+		}
+	}
+}
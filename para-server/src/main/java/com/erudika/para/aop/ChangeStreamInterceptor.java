@@ -0,0 +1,200 @@
+/*
+ * Copyright 2013-2016 Erudika. https://erudika.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * For issues and patches go to: https://github.com/erudika
+ */
+package com.erudika.para.aop;
+
+import com.erudika.para.annotations.Locked;
+import com.erudika.para.core.ParaObject;
+import com.erudika.para.core.utils.ParaObjectUtils;
+import com.erudika.para.persistence.BatchWriteException;
+import com.erudika.para.persistence.ChangeEvent.Operation;
+import com.erudika.para.persistence.ChangeStream;
+import com.erudika.para.persistence.DAOUtils;
+import com.erudika.para.utils.Config;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+
+/**
+ * Publishes each create, update and delete written through the {@link com.erudika.para.persistence.DAO}
+ * to the {@link ChangeStream}, after the DAO method returns. This interceptor runs after
+ * {@link IndexAndCacheAspect}, so objects which weren't written, e.g. invalid ones, aren't published.
+ * Calls made by a DAO method to other DAO methods are not published again. Updates carry only the fields
+ * which were written, if the DAO reports them with {@link DAOUtils#recordChanges(String, java.util.Collection)}.
+ * <br>
+ * Writes which fail are published only if the DAO hides the failure. Asynchronous writes are published when
+ * they complete successfully. A batch write which throws a {@link BatchWriteException} publishes the objects
+ * which were written. The synchronous {@code update()}, {@code delete()}, {@code updateAll()} and
+ * {@code deleteAll()} return nothing, and most DAOs log their errors instead of throwing them. These DAOs
+ * must report the objects which weren't written with {@link DAOUtils#recordFailedWrites(java.util.Collection)},
+ * as the built-in DynamoDB, JDBC and log-structured DAOs do. A DAO which doesn't report them has its
+ * failed writes published as if they had succeeded.
+ * @author Alex Bogdanovski [alex@erudika.com]
+ */
+public class ChangeStreamInterceptor implements MethodInterceptor {
+
+	private static final ThreadLocal<Boolean> IN_WRITE = new ThreadLocal<Boolean>();
+	private static final Map<String, Operation> OPERATIONS = new HashMap<String, Operation>();
+	static {
+		for (String name : new String[]{"create", "createAsync", "createAll", "createAllInApps", "createIfAbsent"}) {
+			OPERATIONS.put(name, Operation.CREATE);
+		}
+		for (String name : new String[]{"update", "updateAsync", "updateAll", "increment", "compareAndSet"}) {
+			OPERATIONS.put(name, Operation.UPDATE);
+		}
+		for (String name : new String[]{"delete", "deleteAsync", "deleteAll", "deleteAllFromApps"}) {
+			OPERATIONS.put(name, Operation.DELETE);
+		}
+	}
+
+	private final ChangeStream stream;
+
+	/**
+	 * Publishes to the default change stream.
+	 */
+	public ChangeStreamInterceptor() {
+		this(ChangeStream.getInstance());
+	}
+
+	/**
+	 * @param stream the stream which changes are published to
+	 */
+	public ChangeStreamInterceptor(ChangeStream stream) {
+		this.stream = stream;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public Object invoke(MethodInvocation mi) throws Throwable {
+		Method m = mi.getMethod();
+		final Operation operation = OPERATIONS.get(m.getName());
+		if (operation == null || !Modifier.isPublic(m.getModifiers()) || IN_WRITE.get() != null) {
+			return mi.proceed();
+		}
+		Object result = null;
+		BatchWriteException unwritten = null;
+		final Map<String, Set<String>> changes = DAOUtils.startRecordingChanges();
+		IN_WRITE.set(Boolean.TRUE);
+		try {
+			result = mi.proceed();
+		} catch (BatchWriteException e) {
+			unwritten = e;
+		} finally {
+			IN_WRITE.remove();
+			DAOUtils.stopRecordingChanges();
+		}
+		final String name = m.getName();
+		final Object[] args = mi.getArguments();
+		if (unwritten != null) {
+			// the objects which were written are published, the others are marked as not written
+			for (List<String> ids : unwritten.getUnwritten().values()) {
+				for (String id : ids) {
+					changes.put(id, Collections.<String>emptySet());
+				}
+			}
+			publish(operation, name, args, null, changes);
+			throw unwritten;
+		}
+		if (result instanceof CompletableFuture) {
+			// published when the write completes, not when it's sent - failed writes aren't published
+			return ((CompletableFuture<Object>) result).thenApply(new Function<Object, Object>() {
+				public Object apply(Object value) {
+					publish(operation, name, args, value, changes);
+					return value;
+				}
+			});
+		}
+		publish(operation, name, args, result, changes);
+		return result;
+	}
+
+	@SuppressWarnings("unchecked")
+	private void publish(Operation operation, String name, Object[] args, Object result,
+			Map<String, Set<String>> changes) {
+		String appid = (args.length > 0 && args[0] instanceof String) ? (String) args[0] : Config.APP_NAME_NS;
+		if ("increment".equals(name)) {
+			// increment(appid, key, field, delta) returns null if nothing was changed
+			if (result != null) {
+				int i = (args.length == 4) ? 1 : 0;
+				stream.publish(operation, appid, (String) args[i], null, Collections.singleton((String) args[i + 1]), null);
+			}
+		} else if (args.length > 0 && args[0] instanceof Map) {
+			for (Map.Entry<String, List<ParaObject>> app : ((Map<String, List<ParaObject>>) args[0]).entrySet()) {
+				publishAll(operation, app.getKey(), app.getValue(), changes);
+			}
+		} else if (name.startsWith("create") && !name.endsWith("All") && result == null) {
+			return; // create() returns null if the object wasn't written
+		} else if (Boolean.FALSE.equals(result)) {
+			return; // a conditional write which failed
+		} else {
+			publishAll(operation, appid, AOPUtils.getArgOfListOfType(args, ParaObject.class), changes);
+			publishObject(operation, appid, AOPUtils.getArgOfParaObject(args), changes);
+		}
+	}
+
+	private void publishAll(Operation operation, String appid, List<ParaObject> objects,
+			Map<String, Set<String>> changes) {
+		if (objects != null) {
+			for (ParaObject object : objects) {
+				publishObject(operation, appid, object, changes);
+			}
+		}
+	}
+
+	/**
+	 * Publishes a change of one object. The fields of an update are the ones which the DAO reported as written,
+	 * if it did, otherwise all fields which aren't locked and aren't null. Writes which the DAO reported as
+	 * failed, and updates which didn't write anything, aren't published.
+	 */
+	private void publishObject(Operation operation, String appid, ParaObject object, Map<String, Set<String>> changes) {
+		if (object == null || object.getId() == null) {
+			return;
+		}
+		Set<String> recorded = changes.get(object.getId());
+		if (recorded != null && recorded.isEmpty()) {
+			return;
+		}
+		Set<String> fields = Collections.emptySet();
+		Long version = null;
+		if (operation != Operation.DELETE) {
+			Set<String> written = (operation == Operation.UPDATE) ? recorded : null;
+			fields = new HashSet<String>();
+			// locked fields are never changed by an update
+			Map<String, Object> values = ParaObjectUtils.getAnnotatedFields(object,
+					(operation == Operation.UPDATE) ? Locked.class : null, false);
+			for (Map.Entry<String, Object> entry : values.entrySet()) {
+				if (written != null ? written.contains(entry.getKey()) : entry.getValue() != null) {
+					fields.add(entry.getKey());
+				}
+			}
+			if (written != null && fields.isEmpty()) {
+				return;
+			}
+			version = (object.getUpdated() != null) ? object.getUpdated() : object.getTimestamp();
+		}
+		stream.publish(operation, appid, object.getId(), object.getType(), fields, version);
+	}
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2013-2016 Erudika. https://erudika.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * For issues and patches go to: https://github.com/erudika
+ */
+package com.erudika.para.aop;
+
+import com.erudika.para.annotations.Cached;
+import com.erudika.para.annotations.Indexed;
+import com.erudika.para.core.ParaObject;
+import com.erudika.para.persistence.AsyncDAO;
+import com.erudika.para.persistence.DAO;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.List;
+import java.util.Map;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * What {@link IndexAndCacheAspect} does when a method is invoked - the {@link DAO} method which declares
+ * the behavior, its annotations and the positions of its arguments. A plan is resolved once per method,
+ * so that the reflective lookups and the scans of the argument array aren't repeated on each call.
+ * Plans are immutable.
+ * @author Alex Bogdanovski [alex@erudika.com]
+ */
+final class DispatchPlan {
+
+	private static final String ASYNC_SUFFIX = "Async";
+	private static final int NONE = -1;
+	private static final int UNKNOWN = -2;
+
+	/**
+	 * The plan of methods which are not part of the DAO API - they are just invoked.
+	 */
+	static final DispatchPlan PASS_THROUGH = new DispatchPlan(null, false, UNKNOWN);
+	/**
+	 * A plan for arguments which aren't those of a DAO method, e.g. {@code {appid, objects}} built from
+	 * one app of a multi-app batch. The arguments are looked up by type.
+	 */
+	static final DispatchPlan BY_TYPE = new DispatchPlan(null, false, UNKNOWN);
+
+	private final Method superMethod;
+	private final boolean async;
+	private final Indexed indexed;
+	private final Cached cached;
+	private final boolean allApps;
+	private final int appidArg;
+	private final int objectArg;
+	private final int listArg;
+
+	private DispatchPlan(Method superMethod, boolean async, int defaultArg) {
+		this.superMethod = superMethod;
+		this.async = async;
+		this.indexed = (superMethod == null) ? null : superMethod.getAnnotation(Indexed.class);
+		this.cached = (superMethod == null) ? null : superMethod.getAnnotation(Cached.class);
+		Class<?>[] params = (superMethod == null) ? new Class<?>[0] : superMethod.getParameterTypes();
+		this.allApps = params.length > 0 && params[0] == Map.class;
+		this.appidArg = indexOf(params, String.class, defaultArg);
+		this.objectArg = indexOf(params, ParaObject.class, defaultArg);
+		this.listArg = indexOf(params, List.class, defaultArg);
+	}
+
+	/**
+	 * Resolves the plan of a method.
+	 * @param m the invoked method
+	 * @return a plan, {@link #PASS_THROUGH} if the method is not part of the DAO API
+	 */
+	static DispatchPlan of(Method m) {
+		if (m == null || !Modifier.isPublic(m.getModifiers())) {
+			return PASS_THROUGH;
+		}
+		Method superMethod = getSuperMethod(m);
+		if (superMethod == null) {
+			return PASS_THROUGH;
+		}
+		// async methods have the same semantics as their blocking counterparts in DAO
+		return new DispatchPlan(superMethod, !superMethod.getName().equals(m.getName()), NONE);
+	}
+
+	/**
+	 * @return true if the method is not part of the DAO API
+	 */
+	boolean isPassThrough() {
+		return superMethod == null;
+	}
+
+	/**
+	 * @return the DAO method which declares the indexing and caching behavior
+	 */
+	Method getSuperMethod() {
+		return superMethod;
+	}
+
+	/**
+	 * @return true if this is an {@link AsyncDAO} method
+	 */
+	boolean isAsync() {
+		return async;
+	}
+
+	/**
+	 * @return the {@link Indexed} annotation or null
+	 */
+	Indexed getIndexed() {
+		return indexed;
+	}
+
+	/**
+	 * @return the {@link Cached} annotation or null
+	 */
+	Cached getCached() {
+		return cached;
+	}
+
+	/**
+	 * @return true if the method works with the objects of several apps, e.g. {@code createAllInApps(objects)}
+	 */
+	boolean isAllApps() {
+		return allApps;
+	}
+
+	/**
+	 * @param args method arguments
+	 * @return the app id - the first string argument
+	 */
+	String getAppid(Object[] args) {
+		if (args != null && appidArg >= 0 && appidArg < args.length && args[appidArg] instanceof String) {
+			return (String) args[appidArg];
+		}
+		return (appidArg == NONE) ? null : AOPUtils.getFirstArgOfString(args);
+	}
+
+	/**
+	 * @param args method arguments
+	 * @return the object argument or null
+	 */
+	ParaObject getObject(Object[] args) {
+		if (objectArg == UNKNOWN) {
+			return AOPUtils.getArgOfParaObject(args);
+		}
+		if (args != null && objectArg >= 0 && objectArg < args.length && args[objectArg] instanceof ParaObject) {
+			return (ParaObject) args[objectArg];
+		}
+		return null;
+	}
+
+	/**
+	 * @param <T> the type of list elements
+	 * @param args method arguments
+	 * @param type the type of list elements
+	 * @return the list argument, if it's not empty and holds elements of the given type, or null
+	 */
+	@SuppressWarnings("unchecked")
+	<T> List<T> getList(Object[] args, Class<T> type) {
+		if (listArg == UNKNOWN) {
+			return AOPUtils.getArgOfListOfType(args, type);
+		}
+		if (args != null && listArg >= 0 && listArg < args.length && args[listArg] instanceof List) {
+			List<T> list = (List<T>) args[listArg];
+			if (!list.isEmpty() && list.get(0) != null && type.isAssignableFrom(list.get(0).getClass())) {
+				return list;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the {@link DAO} method which declares the indexing and caching behavior of a method.
+	 * For {@link AsyncDAO} methods this is the blocking DAO method with the same name, minus the "Async" suffix.
+	 * @param m the invoked method
+	 * @return a DAO method or null if the invoked method is not part of the DAO API
+	 */
+	private static Method getSuperMethod(Method m) {
+		try {
+			return DAO.class.getMethod(m.getName(), m.getParameterTypes());
+		} catch (NoSuchMethodException e) {
+			if (m.getName().endsWith(ASYNC_SUFFIX)) {
+				try {
+					AsyncDAO.class.getMethod(m.getName(), m.getParameterTypes());
+					return DAO.class.getMethod(StringUtils.removeEnd(m.getName(), ASYNC_SUFFIX), m.getParameterTypes());
+				} catch (NoSuchMethodException ex) {
+					return null;
+				}
+			}
+		}
+		return null;
+	}
+
+	private static int indexOf(Class<?>[] params, Class<?> type, int defaultArg) {
+		if (params.length == 0) {
+			return defaultArg;
+		}
+		for (int i = 0; i < params.length; i++) {
+			if (type.isAssignableFrom(params[i])) {
+				return i;
+			}
+		}
+		return NONE;
+	}
+}
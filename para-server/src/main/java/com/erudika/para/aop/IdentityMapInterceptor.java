@@ -0,0 +1,166 @@
+/*
+ * Copyright 2013-2016 Erudika. https://erudika.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * For issues and patches go to: https://github.com/erudika
+ */
+package com.erudika.para.aop;
+
+import com.erudika.para.core.ParaObject;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A first-level cache (identity map) for {@link com.erudika.para.persistence.DAO} reads within a unit of work,
+ * usually one HTTP request. While a unit of work is open on the current thread, repeated calls to
+ * {@code read(appid, id)} return the same instance without going to the cache or the database, and
+ * {@code readAll()} is served from the identity map if all objects are in it. Any write clears the identity map.
+ * This interceptor runs before {@link IndexAndCacheAspect}.
+ * @author Alex Bogdanovski [alex@erudika.com]
+ */
+public class IdentityMapInterceptor implements MethodInterceptor {
+
+	private static final Logger logger = LoggerFactory.getLogger(IdentityMapInterceptor.class);
+	private static final ThreadLocal<Map<String, ParaObject>> IDENTITY_MAP = new ThreadLocal<Map<String, ParaObject>>();
+	private static final Set<String> READ_METHODS = new HashSet<String>(Arrays.asList("read", "readAll",
+			"readAllFromApps", "readPage", "scan", "readAsync", "readAllAsync", "readPageAsync"));
+
+	/**
+	 * Opens a unit of work on the current thread, unless one is already open.
+	 * @return true if a new unit of work was opened and must be closed by the caller
+	 */
+	public static boolean open() {
+		if (IDENTITY_MAP.get() != null) {
+			return false;
+		}
+		IDENTITY_MAP.set(new HashMap<String, ParaObject>());
+		return true;
+	}
+
+	/**
+	 * Closes the unit of work on the current thread and clears its identity map.
+	 */
+	public static void close() {
+		IDENTITY_MAP.remove();
+	}
+
+	/**
+	 * @return true if a unit of work is open on the current thread
+	 */
+	public static boolean isOpen() {
+		return IDENTITY_MAP.get() != null;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public Object invoke(MethodInvocation mi) throws Throwable {
+		Map<String, ParaObject> identityMap = IDENTITY_MAP.get();
+		Method m = mi.getMethod();
+		if (identityMap == null || !Modifier.isPublic(m.getModifiers())) {
+			return mi.proceed();
+		}
+		Object[] args = mi.getArguments();
+		if (!READ_METHODS.contains(m.getName())) {
+			// objects may change at any point during a write, e.g. a failed batch
+			identityMap.clear();
+			try {
+				return mi.proceed();
+			} finally {
+				identityMap.clear();
+			}
+		} else if (isRead(m)) {
+			return read(identityMap, (String) args[0], (String) args[1], mi);
+		} else if (isReadAll(m)) {
+			return readAll(identityMap, (String) args[0], (List<String>) args[1], mi);
+		}
+		return mi.proceed();
+	}
+
+	private static boolean isRead(Method m) {
+		return "read".equals(m.getName()) && m.getParameterTypes().length == 2;
+	}
+
+	private static boolean isReadAll(Method m) {
+		// readAll(appid, keys, fields) returns partial objects which must not be kept in the identity map
+		return "readAll".equals(m.getName()) && m.getParameterTypes().length == 3 &&
+				m.getParameterTypes()[2] == boolean.class;
+	}
+
+	private static String key(String appid, String id) {
+		return appid + "/" + id;
+	}
+
+	private Object read(Map<String, ParaObject> identityMap, String appid, String id, MethodInvocation mi)
+			throws Throwable {
+		String key = key(appid, id);
+		if (identityMap.containsKey(key)) {
+			logger.debug("Identity map hit: {}", key);
+			return identityMap.get(key);
+		}
+		ParaObject result = (ParaObject) mi.proceed();
+		if (id != null) {
+			identityMap.put(key, result);
+		}
+		return result;
+	}
+
+	@SuppressWarnings("unchecked")
+	private Object readAll(Map<String, ParaObject> identityMap, String appid, List<String> ids, MethodInvocation mi)
+			throws Throwable {
+		if (ids == null || ids.isEmpty()) {
+			return mi.proceed();
+		}
+		Map<String, ParaObject> results = new LinkedHashMap<String, ParaObject>(ids.size());
+		for (String id : ids) {
+			String key = key(appid, id);
+			if (!identityMap.containsKey(key)) {
+				results = null;
+				break;
+			}
+			// recorded misses stay in the results as nulls, just like in the results of the DAO
+			results.put(id, identityMap.get(key));
+		}
+		if (results != null) {
+			logger.debug("Identity map hit on readAll: {}->{}", appid, ids.size());
+			return results;
+		}
+		Map<String, ParaObject> found = (Map<String, ParaObject>) mi.proceed();
+		if (found == null) {
+			return null;
+		}
+		// objects which were read before keep their identity
+		results = new LinkedHashMap<String, ParaObject>(found.size());
+		for (Map.Entry<String, ParaObject> entry : found.entrySet()) {
+			String key = key(appid, entry.getKey());
+			ParaObject obj = identityMap.get(key);
+			if (obj == null) {
+				obj = entry.getValue();
+				identityMap.put(key, obj);
+			}
+			results.put(entry.getKey(), obj);
+		}
+		return results;
+	}
+}
@@ -23,18 +23,30 @@ import com.erudika.para.annotations.Cached;
 import com.erudika.para.annotations.Indexed;
 import com.erudika.para.cache.Cache;
 import com.erudika.para.core.ParaObject;
+import com.erudika.para.persistence.BatchWriteException;
 import com.erudika.para.persistence.DAO;
+import com.erudika.para.persistence.DAOUtils;
+import com.erudika.para.search.IndexingPipeline;
 import com.erudika.para.search.Search;
 import com.erudika.para.utils.Config;
+import com.erudika.para.utils.Utils;
 import com.erudika.para.validation.ValidationUtils;
 import java.lang.reflect.Method;
-import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 import javax.inject.Inject;
 import org.aopalliance.intercept.MethodInterceptor;
 import org.aopalliance.intercept.MethodInvocation;
@@ -57,6 +69,10 @@ public class IndexAndCacheAspect implements MethodInterceptor {
 
 	private Search search;
 	private Cache cache;
+	private IndexingPipeline pipeline;
+	private final ConcurrentMap<Method, DispatchPlan> plans = new ConcurrentHashMap<Method, DispatchPlan>();
+	private final SingleFlight singleFlight = SingleFlight.SINGLE_FLIGHT_ENABLED ?
+			new SingleFlight(SingleFlight.SINGLE_FLIGHT_TIMEOUT_MS) : null;
 
 	/**
 	 * @return {@link Search}
@@ -71,6 +87,35 @@ public class IndexAndCacheAspect implements MethodInterceptor {
 	@Inject
 	public void setSearch(Search search) {
 		this.search = search;
+		if (IndexingPipeline.ASYNC_INDEXING_ENABLED && search != null) {
+			setIndexingPipeline(new IndexingPipeline(search));
+		}
+	}
+
+	/**
+	 * @return the {@link IndexingPipeline} which indexes objects asynchronously, or null if indexing is synchronous
+	 */
+	public IndexingPipeline getIndexingPipeline() {
+		return pipeline;
+	}
+
+	/**
+	 * @param pipeline an {@link IndexingPipeline}, or null to index objects synchronously
+	 */
+	public void setIndexingPipeline(final IndexingPipeline pipeline) {
+		IndexingPipeline old = this.pipeline;
+		this.pipeline = pipeline;
+		if (old != pipeline) {
+			// expired objects are evicted by the DAO, outside of this aspect, but they go through the same queue
+			DAOUtils.setUnindexHandler(pipeline == null ? null : new BiConsumer<String, List<ParaObject>>() {
+				public void accept(String appid, List<ParaObject> objects) {
+					pipeline.unindexAll(appid, objects);
+				}
+			});
+		}
+		if (old != null && old != pipeline) {
+			old.drain();
+		}
 	}
 
 	/**
@@ -95,68 +140,352 @@ public class IndexAndCacheAspect implements MethodInterceptor {
 	 * @throws Throwable error
 	 */
 	public Object invoke(MethodInvocation mi) throws Throwable {
-		if (!Modifier.isPublic(mi.getMethod().getModifiers())) {
+		DispatchPlan plan = getPlan(mi.getMethod());
+		if (plan.isPassThrough()) {
 			return mi.proceed();
 		}
-		Method m = mi.getMethod();
-		Method superMethod = null;
-		Indexed indexedAnno = null;
-		Cached cachedAnno = null;
-
-		try {
-			superMethod = DAO.class.getMethod(m.getName(), m.getParameterTypes());
-			indexedAnno = Config.isSearchEnabled() ? superMethod.getAnnotation(Indexed.class) : null;
-			cachedAnno = Config.isCacheEnabled() ? superMethod.getAnnotation(Cached.class) : null;
-		} catch (Exception e) {
-			logger.error(null, e);
-		}
+		Method superMethod = plan.getSuperMethod();
+		Indexed indexedAnno = Config.isSearchEnabled() ? plan.getIndexed() : null;
+		Cached cachedAnno = Config.isCacheEnabled() ? plan.getCached() : null;
 
 		Object[] args = mi.getArguments();
-		String appid = AOPUtils.getFirstArgOfString(args);
+		String appid = plan.getAppid(args);
+		// listeners can be registered at any time, so they are not part of the plan
 		List<IOListener> ioListeners = Para.getIOListeners();
+		boolean hasListeners = !ioListeners.isEmpty();
 
-		for (IOListener ioListener : ioListeners) {
-			ioListener.onPreInvoke(superMethod, args);
-			logger.debug("Executed {}.onPreInvoke().", ioListener.getClass().getName());
+		if (hasListeners) {
+			for (IOListener ioListener : ioListeners) {
+				ioListener.onPreInvoke(superMethod, args);
+				logger.debug("Executed {}.onPreInvoke().", ioListener.getClass().getName());
+			}
 		}
 
-		Object result = handleIndexing(indexedAnno, appid, args, mi);
-		Object cachingResult = handleCaching(cachedAnno, appid, args, mi);
+		Object result = plan.isAllApps() ? invokeAllApps(indexedAnno, cachedAnno, args, mi) :
+				invokeOneApp(plan, indexedAnno, cachedAnno, appid, args, mi);
+
+		if (plan.isAsync()) {
+			CompletableFuture<Object> future = (result == null) ? CompletableFuture.completedFuture(null) :
+					(CompletableFuture<Object>) result;
+			return hasListeners ? future.thenApply(postInvokeAsync(superMethod, ioListeners)) : future;
+		}
+
+		if (hasListeners) {
+			for (IOListener ioListener : ioListeners) {
+				ioListener.onPostInvoke(superMethod, result);
+				logger.debug("Executed {}.onPostInvoke().", ioListener.getClass().getName());
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Resolves the dispatch plans of all public methods of a DAO class, so that they aren't resolved
+	 * on the first call. Called for each DAO implementation when the injector is created.
+	 * @param daoClass a DAO class
+	 */
+	public void prepare(Class<?> daoClass) {
+		if (daoClass != null) {
+			for (Method m : daoClass.getMethods()) {
+				getPlan(m);
+			}
+		}
+	}
+
+	private DispatchPlan getPlan(Method m) {
+		DispatchPlan plan = plans.get(m);
+		if (plan == null) {
+			plan = DispatchPlan.of(m);
+			DispatchPlan existing = plans.putIfAbsent(m, plan);
+			if (existing != null) {
+				plan = existing;
+			}
+		}
+		return plan;
+	}
+
+	private Object invokeOneApp(DispatchPlan plan, Indexed indexedAnno, Cached cachedAnno, String appid,
+			Object[] args, MethodInvocation mi) throws Throwable {
+		if (isConditional(indexedAnno, cachedAnno)) {
+			return invokeConditional(plan, indexedAnno, cachedAnno, appid, args, mi);
+		}
+		if (isAsyncWrite(plan, indexedAnno, cachedAnno)) {
+			return invokeAsyncWrite(plan, indexedAnno, cachedAnno, appid, args, mi);
+		}
+		Object result;
+		try {
+			result = handleIndexing(plan, indexedAnno, appid, args, mi);
+		} catch (BatchWriteException e) {
+			// some objects may have been deleted, so none of them are read from cache anymore
+			if (cachedAnno != null && cachedAnno.action() == Cached.Action.DELETE_ALL) {
+				removeFromCacheBatchOperation(plan, appid, args);
+			}
+			throw e;
+		}
+		Object cachingResult = plan.isAsync() ? handleCachingAsync(plan, cachedAnno, appid, args, mi) :
+				handleCaching(plan, cachedAnno, appid, args, mi);
 
 		// we have a read operation without any result but we get back objects from cache
 		if (result == null && cachingResult != null) {
 			result = cachingResult;
 		}
 
-		// both searching and caching are disabled - pass it through
-		if (indexedAnno == null && cachedAnno == null) {
+		// the method wasn't invoked while indexing or reading from cache - pass it through
+		if (indexedAnno == null && !isCachedRead(cachedAnno)) {
 			result = mi.proceed();
 		}
+		// read back after the cached copy was removed, so the index gets what's in the data store
+		if (indexedAnno != null && indexedAnno.action() == Indexed.Action.REINDEX && result != null) {
+			reindex(appid, args, mi);
+		}
+		return result;
+	}
 
-		for (IOListener ioListener : ioListeners) {
-			ioListener.onPostInvoke(superMethod, result);
-			logger.debug("Executed {}.onPostInvoke().", ioListener.getClass().getName());
+	private void reindex(String appid, Object[] args, MethodInvocation mi) {
+		String id = (args != null && args.length > 1 && args[1] instanceof String) ? (String) args[1] : null;
+		if (id == null || !(mi.getThis() instanceof DAO)) {
+			return;
 		}
+		ParaObject obj = ((DAO) mi.getThis()).read(appid, id);
+		if (obj != null && obj.getIndexed()) {
+			index(appid, obj);
+			logger.debug("{}: Reindexed {}->{}", getClass().getSimpleName(), appid, id);
+		}
+	}
 
+	/**
+	 * Conditional writes, like {@code createIfAbsent()}, return null or false if nothing was written.
+	 * The object is indexed and cached only if it was written.
+	 */
+	private Object invokeConditional(DispatchPlan plan, Indexed indexedAnno, Cached cachedAnno, String appid,
+			Object[] args, MethodInvocation mi) throws Throwable {
+		Object result = (indexedAnno != null) ? addToIndexOperation(plan, appid, args, mi, true) : mi.proceed();
+		if (cachedAnno != null && isWritten(result)) {
+			addToCacheOperation(plan, appid, args);
+		}
+		if (result == null && mi.getMethod().getReturnType() == boolean.class) {
+			result = Boolean.FALSE; // invalid objects aren't written
+		}
 		return result;
 	}
 
-	private Object handleIndexing(Indexed indexedAnno, String appid, Object[] args, MethodInvocation mi)
+	/**
+	 * Asynchronous writes, like {@code createAsync()}, return before the object is written. The object is
+	 * indexed and cached when the write completes, and only if it succeeds.
+	 */
+	private Object invokeAsyncWrite(final DispatchPlan plan, final Indexed indexedAnno, final Cached cachedAnno,
+			final String appid, final Object[] args, MethodInvocation mi) throws Throwable {
+		final ParaObject obj = plan.getObject(args);
+		boolean add = indexedAnno != null && indexedAnno.action() == Indexed.Action.ADD;
+		CompletableFuture<Object> write;
+		if (add) {
+			String[] errors = ValidationUtils.validateObject(obj);
+			if (obj == null || errors.length > 0) {
+				logger.warn("{}: Invalid object {}->{} errors: [{}]. Changes weren't persisted.",
+						getClass().getSimpleName(), appid, obj, String.join("; ", errors));
+				return null;
+			}
+			AOPUtils.checkAndFixType(obj);
+			write = obj.getStored() ? (CompletableFuture<Object>) mi.proceed() :
+					CompletableFuture.completedFuture(null);
+		} else {
+			write = (CompletableFuture<Object>) mi.proceed();
+		}
+		if (write == null) {
+			return null;
+		}
+		return write.thenApply(new Function<Object, Object>() {
+			public Object apply(Object result) {
+				// a create which returns no id has failed
+				if (result == null && obj != null && obj.getStored() &&
+						"create".equals(plan.getSuperMethod().getName())) {
+					return result;
+				}
+				afterAsyncWrite(plan, indexedAnno, cachedAnno, appid, args, obj);
+				return result;
+			}
+		});
+	}
+
+	private void afterAsyncWrite(DispatchPlan plan, Indexed indexedAnno, Cached cachedAnno, String appid,
+			Object[] args, ParaObject obj) {
+		if (indexedAnno != null && indexedAnno.action() == Indexed.Action.ADD && obj.getIndexed()) {
+			index(appid, obj);
+			logger.debug("{}: Indexed {}->{}", getClass().getSimpleName(), appid, obj.getId());
+		} else if (indexedAnno != null && indexedAnno.action() == Indexed.Action.REMOVE) {
+			AOPUtils.checkAndFixType(obj);
+			unindex(appid, obj);
+			logger.debug("{}: Unindexed {}->{}", getClass().getSimpleName(), appid,
+					(obj == null) ? null : obj.getId());
+		}
+		try {
+			if (cachedAnno != null && cachedAnno.action() == Cached.Action.PUT) {
+				addToCacheOperation(plan, appid, args);
+			} else if (cachedAnno != null && cachedAnno.action() == Cached.Action.DELETE) {
+				removeFromCacheOperation(plan, appid, args);
+			}
+		} catch (Throwable e) {
+			logger.error(null, e);
+		}
+	}
+
+	private static boolean isAsyncWrite(DispatchPlan plan, Indexed indexedAnno, Cached cachedAnno) {
+		return plan.isAsync() && !isCachedRead(cachedAnno) && (indexedAnno != null || cachedAnno != null);
+	}
+
+	private static boolean isConditional(Indexed indexedAnno, Cached cachedAnno) {
+		return (indexedAnno != null && indexedAnno.conditional()) || (cachedAnno != null && cachedAnno.conditional());
+	}
+
+	private static boolean isWritten(Object result) {
+		return result != null && !Boolean.FALSE.equals(result);
+	}
+
+	private static boolean isCachedRead(Cached cachedAnno) {
+		return cachedAnno != null && (cachedAnno.action() == Cached.Action.GET ||
+				cachedAnno.action() == Cached.Action.GET_ALL);
+	}
+
+	/**
+	 * @param args method arguments
+	 * @return true if the method reads only some fields of an object, e.g. {@code read(appid, key, fields)}
+	 */
+	private static boolean isProjection(Object[] args) {
+		return args != null && args.length > 2 && args[2] instanceof Set && !((Set) args[2]).isEmpty();
+	}
+
+	private static Function<Object, Object> postInvokeAsync(final Method superMethod,
+			final List<IOListener> ioListeners) {
+		return new Function<Object, Object>() {
+			public Object apply(Object value) {
+				for (IOListener ioListener : ioListeners) {
+					ioListener.onPostInvoke(superMethod, value);
+					logger.debug("Executed {}.onPostInvoke().", ioListener.getClass().getName());
+				}
+				return value;
+			}
+		};
+	}
+
+	/**
+	 * Indexes and caches the objects of each app in a multi-app batch operation, like the single app
+	 * batch operations do, while the DAO method itself is invoked only once.
+	 */
+	private Object invokeAllApps(Indexed indexedAnno, Cached cachedAnno, Object[] args, MethodInvocation mi)
 			throws Throwable {
+		Map<String, List<Object>> apps = (Map<String, List<Object>>) args[0];
+		if (apps == null || apps.isEmpty()) {
+			return mi.proceed();
+		}
+		if (isCachedRead(cachedAnno)) {
+			return readFromCacheAllApps(args, mi);
+		}
+		boolean addAll = indexedAnno != null && indexedAnno.action() == Indexed.Action.ADD_ALL;
+		Map<String, List<ParaObject>> indexUs = new HashMap<String, List<ParaObject>>(apps.size());
+		Map<String, List<ParaObject>> removedObjects = new HashMap<String, List<ParaObject>>(apps.size());
+		if (addAll) {
+			for (Entry<String, List<Object>> app : apps.entrySet()) {
+				List<ParaObject> appIndexUs = new LinkedList<ParaObject>();
+				List<ParaObject> addUs = AOPUtils.getArgOfListOfType(new Object[]{app.getValue()}, ParaObject.class);
+				removedObjects.put(app.getKey(), AOPUtils.removeNotStoredNotIndexed(addUs, appIndexUs));
+				indexUs.put(app.getKey(), appIndexUs);
+			}
+		}
+		Object result;
+		BatchWriteException error = null;
+		try {
+			result = mi.proceed();
+		} catch (BatchWriteException e) {
+			result = null;
+			error = e;
+		}
+		for (Entry<String, List<Object>> app : apps.entrySet()) {
+			indexAndCacheApp(indexedAnno, cachedAnno, app.getKey(), app.getValue(), indexUs.get(app.getKey()),
+					removedObjects.get(app.getKey()), error, mi);
+		}
+		if (error != null) {
+			throw error;
+		}
+		logger.debug("{}: Indexed and cached all {}", getClass().getSimpleName(), apps.keySet());
+		return result;
+	}
+
+	private void indexAndCacheApp(Indexed indexedAnno, Cached cachedAnno, String appid, List<Object> objects,
+			List<ParaObject> indexUs, List<ParaObject> removedObjects, BatchWriteException error,
+			MethodInvocation mi) throws Throwable {
+		Object[] appArgs = new Object[]{appid, objects};
+		List<String> unwritten = (error == null) ? null : error.getUnwritten(appid);
+		if (indexedAnno != null && indexedAnno.action() == Indexed.Action.ADD_ALL) {
+			indexAll(appid, AOPUtils.removeUnwritten(indexUs, unwritten));
+			// restore removed objects - needed if we have to cache them later
+			if (objects != null) {
+				objects.addAll(removedObjects);
+			}
+		} else if (indexedAnno != null && indexedAnno.action() == Indexed.Action.REMOVE_ALL) {
+			unindexAll(appid, AOPUtils.removeUnwritten(AOPUtils.getArgOfListOfType(appArgs, ParaObject.class),
+					unwritten));
+		}
+		// objects of a failed batch are not cached, but they are always removed from cache
+		if (error == null || (cachedAnno != null && cachedAnno.action() == Cached.Action.DELETE_ALL)) {
+			handleCaching(DispatchPlan.BY_TYPE, cachedAnno, appid, appArgs, mi);
+		}
+	}
+
+	private Object readFromCacheAllApps(Object[] args, MethodInvocation mi) throws Throwable {
+		Map<String, List<String>> getUs = (Map<String, List<String>>) args[0];
+		Map<String, Map<String, ParaObject>> cached = new LinkedHashMap<String, Map<String, ParaObject>>(getUs.size());
+		Map<String, List<String>> missing = new LinkedHashMap<String, List<String>>(getUs.size());
+		for (Entry<String, List<String>> app : getUs.entrySet()) {
+			Map<String, ParaObject> appCached = (app.getValue() == null) ?
+					Collections.<String, ParaObject>emptyMap() :
+					removeExpired(app.getKey(), cache.<ParaObject>getAll(app.getKey(), app.getValue()));
+			cached.put(app.getKey(), appCached);
+			List<String> appMissing = (app.getValue() == null) ? Collections.<String>emptyList() :
+					getMissingIds(app.getValue(), appCached);
+			if (!appMissing.isEmpty()) {
+				missing.put(app.getKey(), appMissing);
+			}
+		}
+		if (missing.isEmpty()) {
+			logger.debug("{}: Cache getAll() hit: {}", getClass().getSimpleName(), getUs.keySet());
+			return cached;
+		}
+		// only the objects which are missing from cache are read from the database, then cached
+		Map<String, Map<String, ParaObject>> read =
+				(Map<String, Map<String, ParaObject>>) proceedWith(args, getUs, missing, mi);
+		if (read == null) {
+			return cached;
+		}
+		Map<String, Map<String, ParaObject>> result = new LinkedHashMap<String, Map<String, ParaObject>>(cached.size());
+		for (Entry<String, Map<String, ParaObject>> app : cached.entrySet()) {
+			Map<String, ParaObject> appRead = read.get(app.getKey());
+			cacheMisses(app.getKey(), appRead);
+			List<String> ids = getUs.get(app.getKey());
+			result.put(app.getKey(), (ids == null) ? app.getValue() : merge(ids, app.getValue(), appRead));
+		}
+		return result;
+	}
+
+	private Object handleIndexing(DispatchPlan plan, Indexed indexedAnno, String appid, Object[] args,
+			MethodInvocation mi) throws Throwable {
 		Object result = null;
 		if (indexedAnno != null) {
 			switch (indexedAnno.action()) {
 				case ADD:
-					result = addToIndexOperation(appid, args, mi);
+					result = addToIndexOperation(plan, appid, args, mi, false);
 					break;
 				case REMOVE:
-					result = removeFromIndexOperation(appid, args, mi);
+					result = removeFromIndexOperation(plan, appid, args, mi);
 					break;
 				case ADD_ALL:
-					result = addToIndexBatchOperation(appid, args, mi);
+					result = addToIndexBatchOperation(plan, appid, args, mi);
 					break;
 				case REMOVE_ALL:
-					result = removeFromIndexBatchOperation(appid, args, mi);
+					result = removeFromIndexBatchOperation(plan, appid, args, mi);
+					break;
+				case REINDEX:
+					result = mi.proceed();
 					break;
 				default:
 					break;
@@ -165,8 +494,8 @@ public class IndexAndCacheAspect implements MethodInterceptor {
 		return result;
 	}
 
-	private Object handleCaching(Cached cachedAnno, String appid, Object[] args, MethodInvocation mi)
-			throws Throwable {
+	private Object handleCaching(DispatchPlan plan, Cached cachedAnno, String appid, Object[] args,
+			MethodInvocation mi) throws Throwable {
 		Object result = null;
 		if (cachedAnno != null) {
 			switch (cachedAnno.action()) {
@@ -174,19 +503,19 @@ public class IndexAndCacheAspect implements MethodInterceptor {
 					result = readFromCacheOperation(appid, args, mi);
 					break;
 				case PUT:
-					addToCacheOperation(appid, args);
+					addToCacheOperation(plan, appid, args);
 					break;
 				case DELETE:
-					removeFromCacheOperation(appid, args);
+					removeFromCacheOperation(plan, appid, args);
 					break;
 				case GET_ALL:
-					result = readFromCacheBatchOperation(appid, args, mi);
+					result = readFromCacheBatchOperation(plan, appid, args, mi);
 					break;
 				case PUT_ALL:
-					addToCacheBatchOperation(appid, args);
+					addToCacheBatchOperation(plan, appid, args);
 					break;
 				case DELETE_ALL:
-					removeFromCacheBatchOperation(appid, args);
+					removeFromCacheBatchOperation(plan, appid, args);
 					break;
 				default:
 					break;
@@ -195,8 +524,24 @@ public class IndexAndCacheAspect implements MethodInterceptor {
 		return result;
 	}
 
-	private Object addToIndexOperation(String appid, Object[] args, MethodInvocation mi) throws Throwable {
-		ParaObject addMe = AOPUtils.getArgOfParaObject(args);
+	private Object handleCachingAsync(DispatchPlan plan, Cached cachedAnno, String appid, Object[] args,
+			MethodInvocation mi) throws Throwable {
+		if (cachedAnno != null) {
+			switch (cachedAnno.action()) {
+				case GET:
+					return readFromCacheOperationAsync(appid, args, mi);
+				case GET_ALL:
+					return readFromCacheBatchOperationAsync(plan, appid, args, mi);
+				default:
+					return handleCaching(plan, cachedAnno, appid, args, mi);
+			}
+		}
+		return null;
+	}
+
+	private Object addToIndexOperation(DispatchPlan plan, String appid, Object[] args, MethodInvocation mi,
+			boolean conditional) throws Throwable {
+		ParaObject addMe = plan.getObject(args);
 		String[] errors = ValidationUtils.validateObject(addMe);
 		Object result = null;
 		if (addMe != null && errors.length == 0) {
@@ -204,8 +549,8 @@ public class IndexAndCacheAspect implements MethodInterceptor {
 			if (addMe.getStored()) {
 				result = mi.proceed();
 			}
-			if (addMe.getIndexed()) {
-				search.index(appid, addMe);
+			if (addMe.getIndexed() && (!conditional || isWritten(result))) {
+				index(appid, addMe);
 				logger.debug("{}: Indexed {}->{}", getClass().getSimpleName(), appid, addMe.getId());
 			}
 		} else {
@@ -215,108 +560,312 @@ public class IndexAndCacheAspect implements MethodInterceptor {
 		return result;
 	}
 
-	private Object removeFromIndexOperation(String appid, Object[] args, MethodInvocation mi) throws Throwable {
+	private Object removeFromIndexOperation(DispatchPlan plan, String appid, Object[] args, MethodInvocation mi)
+			throws Throwable {
 		Object result = mi.proceed(); // delete from DB even if "isStored = false"
-		ParaObject removeMe = AOPUtils.getArgOfParaObject(args);
+		ParaObject removeMe = plan.getObject(args);
 		AOPUtils.checkAndFixType(removeMe);
-		search.unindex(appid, removeMe); // remove from index even if "isIndexed = false"
+		unindex(appid, removeMe); // remove from index even if "isIndexed = false"
 		logger.debug("{}: Unindexed {}->{}", getClass().getSimpleName(), appid,
 				(removeMe == null) ? null : removeMe.getId());
 		return result;
 	}
 
-	private Object addToIndexBatchOperation(String appid, Object[] args, MethodInvocation mi)
+	private Object addToIndexBatchOperation(DispatchPlan plan, String appid, Object[] args, MethodInvocation mi)
 			throws Throwable {
-		List<ParaObject> addUs = AOPUtils.getArgOfListOfType(args, ParaObject.class);
+		List<ParaObject> addUs = plan.getList(args, ParaObject.class);
 		List<ParaObject> indexUs = new LinkedList<ParaObject>();
 		List<ParaObject> removedObjects = AOPUtils.removeNotStoredNotIndexed(addUs, indexUs);
-		Object result = mi.proceed();
-		search.indexAll(appid, indexUs);
-		// restore removed objects - needed if we have to cache them later
-		// do not remove this line - breaks tests
-		if (addUs != null) {
-			addUs.addAll(removedObjects); // don't delete!
-		}
-		logger.debug("{}: Indexed all {}->{}", getClass().getSimpleName(),
-				appid, (indexUs == null) ? null : indexUs.size());
-		return result;
+		try {
+			Object result = mi.proceed();
+			indexAll(appid, indexUs);
+			logger.debug("{}: Indexed all {}->{}", getClass().getSimpleName(), appid, indexUs.size());
+			return result;
+		} catch (BatchWriteException e) {
+			// only the objects which were written are indexed, none of them are cached
+			indexAll(appid, AOPUtils.removeUnwritten(indexUs, e.getUnwritten(appid)));
+			throw e;
+		} finally {
+			// restore removed objects - needed if we have to cache them later
+			// do not remove this line - breaks tests
+			if (addUs != null) {
+				addUs.addAll(removedObjects); // don't delete!
+			}
+		}
 	}
 
-	private Object removeFromIndexBatchOperation(String appid, Object[] args, MethodInvocation mi) throws Throwable {
-		List<ParaObject> removeUs = AOPUtils.getArgOfListOfType(args, ParaObject.class);
-		Object result = mi.proceed(); // delete from DB even if "isStored = false"
-		search.unindexAll(appid, removeUs); // remove from index even if "isIndexed = false"
+	private Object removeFromIndexBatchOperation(DispatchPlan plan, String appid, Object[] args, MethodInvocation mi)
+			throws Throwable {
+		List<ParaObject> removeUs = plan.getList(args, ParaObject.class);
+		Object result;
+		try {
+			result = mi.proceed(); // delete from DB even if "isStored = false"
+		} catch (BatchWriteException e) {
+			unindexAll(appid, AOPUtils.removeUnwritten(removeUs, e.getUnwritten(appid)));
+			throw e;
+		}
+		unindexAll(appid, removeUs); // remove from index even if "isIndexed = false"
 		logger.debug("{}: Unindexed all {}->{}", getClass().getSimpleName(),
 				appid, (removeUs == null) ? null : removeUs.size());
 		return result;
 	}
 
-	private Object readFromCacheOperation(String appid, Object[] args, MethodInvocation mi) throws Throwable {
-		Object result = null;
-		String getMeId = (args != null && args.length > 1) ? (String) args[1] : null;
-		if (cache.contains(appid, getMeId)) {
-			result = cache.get(appid, getMeId);
+	private void index(String appid, ParaObject obj) {
+		if (pipeline != null) {
+			pipeline.index(appid, obj);
+		} else {
+			search.index(appid, obj);
+		}
+	}
+
+	private void unindex(String appid, ParaObject obj) {
+		if (pipeline != null) {
+			pipeline.unindex(appid, obj);
+		} else {
+			search.unindex(appid, obj);
+		}
+	}
+
+	private <P extends ParaObject> void indexAll(String appid, List<P> objects) {
+		if (pipeline != null) {
+			pipeline.indexAll(appid, objects);
+		} else {
+			search.indexAll(appid, objects);
+		}
+	}
+
+	private <P extends ParaObject> void unindexAll(String appid, List<P> objects) {
+		if (pipeline != null) {
+			pipeline.unindexAll(appid, objects);
+		} else {
+			search.unindexAll(appid, objects);
+		}
+	}
+
+	private Object readFromCacheOperation(final String appid, final Object[] args, final MethodInvocation mi)
+			throws Throwable {
+		final String getMeId = (args != null && args.length > 1) ? (String) args[1] : null;
+		// a single get() - a miss is a null, so there's no need to ask the cache with contains() first
+		Object result = getUnexpired(appid, getMeId);
+		if (result != null) {
 			logger.debug("{}: Cache hit: {}->{}", getClass().getSimpleName(), appid, getMeId);
 		} else if (getMeId != null) {
-			if (result == null) {
-				result = mi.proceed();
+			SingleFlight.Loader loader = new SingleFlight.Loader() {
+				public Object load() throws Throwable {
+					Object obj = mi.proceed();
+					// partial objects, read with a projection, are never cached
+					if (obj != null && ((ParaObject) obj).getCached() && !isProjection(args)) {
+						cache.put(appid, getMeId, obj);
+						logger.debug("{}: Cache miss: {}->{}", IndexAndCacheAspect.class.getSimpleName(), appid,
+								getMeId);
+					}
+					return obj;
+				}
+			};
+			// concurrent misses of the same object are read from the database only once
+			result = (singleFlight == null || isProjection(args)) ? loader.load() :
+					singleFlight.load(appid, getMeId, loader);
+		}
+		return result;
+	}
+
+	private Object readFromCacheOperationAsync(final String appid, Object[] args, MethodInvocation mi)
+			throws Throwable {
+		final String getMeId = (args != null && args.length > 1) ? (String) args[1] : null;
+		Object cached = getUnexpired(appid, getMeId);
+		if (cached != null) {
+			logger.debug("{}: Cache hit: {}->{}", getClass().getSimpleName(), appid, getMeId);
+			return CompletableFuture.completedFuture(cached);
+		} else if (getMeId == null) {
+			return null;
+		}
+		return ((CompletableFuture<Object>) mi.proceed()).thenApply(new Function<Object, Object>() {
+			public Object apply(Object result) {
+				if (result != null && ((ParaObject) result).getCached()) {
+					cache.put(appid, getMeId, result);
+					logger.debug("{}: Cache miss: {}->{}", IndexAndCacheAspect.class.getSimpleName(), appid, getMeId);
+				}
+				return result;
 			}
-			if (result != null && ((ParaObject) result).getCached()) {
-				cache.put(appid, getMeId, result);
-				logger.debug("{}: Cache miss: {}->{}", getClass().getSimpleName(), appid, getMeId);
+		});
+	}
+
+	/**
+	 * Returns a cached object, unless it has expired. Expired objects are removed from the cache,
+	 * so they are read from the DAO, which doesn't return them.
+	 */
+	private Object getUnexpired(String appid, String id) {
+		if (id == null) {
+			return null;
+		}
+		ParaObject obj = cache.get(appid, id);
+		if (DAOUtils.isExpired(obj, Utils.timestamp())) {
+			cache.remove(appid, id);
+			return null;
+		}
+		return obj;
+	}
+
+	private Map<String, ParaObject> removeExpired(String appid, Map<String, ParaObject> cached) {
+		long now = Utils.timestamp();
+		Map<String, ParaObject> unexpired = cached;
+		for (Entry<String, ParaObject> entry : cached.entrySet()) {
+			if (DAOUtils.isExpired(entry.getValue(), now)) {
+				if (unexpired == cached) {
+					unexpired = new LinkedHashMap<String, ParaObject>(cached);
+				}
+				unexpired.remove(entry.getKey());
+				cache.remove(appid, entry.getKey());
 			}
 		}
-		return result;
+		return unexpired;
 	}
 
-	private void addToCacheOperation(String appid, Object[] args) throws Throwable {
-		ParaObject putMe = AOPUtils.getArgOfParaObject(args);
+	private void addToCacheOperation(DispatchPlan plan, String appid, Object[] args) throws Throwable {
+		ParaObject putMe = plan.getObject(args);
 		if (putMe != null && putMe.getCached()) {
 			cache.put(appid, putMe.getId(), putMe);
 			logger.debug("{}: Cache put: {}->{}", getClass().getSimpleName(), appid, putMe.getId());
 		}
 	}
 
-	private void removeFromCacheOperation(String appid, Object[] args) throws Throwable {
-		ParaObject deleteMe = AOPUtils.getArgOfParaObject(args);
-		if (deleteMe != null) { // clear from cache even if "isCached = false"
-			cache.remove(appid, deleteMe.getId());
-			logger.debug("{}: Cache delete: {}->{}", getClass().getSimpleName(), appid, deleteMe.getId());
+	private void removeFromCacheOperation(DispatchPlan plan, String appid, Object[] args) throws Throwable {
+		ParaObject deleteMe = plan.getObject(args);
+		String id = (deleteMe != null) ? deleteMe.getId() : AOPUtils.getArgOfString(args, 1);
+		if (id != null) { // clear from cache even if "isCached = false"
+			cache.remove(appid, id);
+			logger.debug("{}: Cache delete: {}->{}", getClass().getSimpleName(), appid, id);
 		}
 	}
 
-	private Object readFromCacheBatchOperation(String appid, Object[] args, MethodInvocation mi) throws Throwable {
-		Object result = Collections.emptyMap();
-		List<String> getUs = AOPUtils.getArgOfListOfType(args, String.class);
-		if (getUs != null) {
-			Map<String, ParaObject> cached = cache.getAll(appid, getUs);
-			logger.debug("{}: Cache getAll(): {}->{}", getClass().getSimpleName(), appid, getUs);
-			// hit the database if even a single object is missing from cache, then cache it
-			if (cached.size() < getUs.size()) {
-				logger.debug("{}: Cache getAll() will read from DB: {}", getClass().getSimpleName(), appid);
-				result = mi.proceed();
-				if (result != null) {
-					for (String id : getUs) {
-						logger.debug("{}: Cache getAll() got from DB: {}", getClass().getSimpleName(), id);
-						if (!cached.containsKey(id)) {
-							ParaObject obj = ((Map<String, ParaObject>) result).get(id);
-							if (obj != null && obj.getCached()) {
-								cache.put(appid, obj.getId(), obj);
-								logger.debug("{}: Cache miss on readAll: {}->{}", getClass().getSimpleName(), appid, id);
-							}
-						}
-					}
+	private Object readFromCacheBatchOperation(DispatchPlan plan, String appid, Object[] args, MethodInvocation mi)
+			throws Throwable {
+		List<String> getUs = plan.getList(args, String.class);
+		if (getUs == null) {
+			return Collections.emptyMap();
+		}
+		Map<String, ParaObject> cached = removeExpired(appid, cache.<ParaObject>getAll(appid, getUs));
+		logger.debug("{}: Cache getAll(): {}->{}", getClass().getSimpleName(), appid, getUs);
+		List<String> missing = getMissingIds(getUs, cached);
+		if (missing.isEmpty()) {
+			return cached;
+		}
+		// only the objects which are missing from cache are read from the database, then cached
+		logger.debug("{}: Cache getAll() will read {} from DB: {}", getClass().getSimpleName(), missing.size(), appid);
+		Map<String, ParaObject> read;
+		if (singleFlight == null || isProjection(args)) {
+			read = (Map<String, ParaObject>) proceedWith(args, getUs, missing, mi);
+			if (!isProjection(args)) {
+				cacheMisses(appid, read);
+			}
+		} else {
+			// ids which are being read by another thread are waited for, instead of being read again
+			read = (Map<String, ParaObject>) (Map) singleFlight.loadAll(appid, missing,
+					readMissing(appid, args, getUs, mi));
+		}
+		return merge(getUs, cached, read);
+	}
+
+	private SingleFlight.BatchLoader readMissing(final String appid, final Object[] args, final List<String> getUs,
+			final MethodInvocation mi) {
+		return new SingleFlight.BatchLoader() {
+			public Map<String, ?> load(List<String> ids) throws Throwable {
+				Map<String, ParaObject> read = (Map<String, ParaObject>) proceedWith(args, getUs, ids, mi);
+				cacheMisses(appid, read);
+				return read;
+			}
+		};
+	}
+
+	private Object readFromCacheBatchOperationAsync(DispatchPlan plan, final String appid, final Object[] args,
+			MethodInvocation mi) throws Throwable {
+		final List<String> getUs = plan.getList(args, String.class);
+		if (getUs == null) {
+			return CompletableFuture.completedFuture(Collections.emptyMap());
+		}
+		final Map<String, ParaObject> cached = removeExpired(appid, cache.<ParaObject>getAll(appid, getUs));
+		logger.debug("{}: Cache getAll(): {}->{}", getClass().getSimpleName(), appid, getUs);
+		List<String> missing = getMissingIds(getUs, cached);
+		if (missing.isEmpty()) {
+			return CompletableFuture.completedFuture(cached);
+		}
+		logger.debug("{}: Cache getAll() will read {} from DB: {}", getClass().getSimpleName(), missing.size(), appid);
+		CompletableFuture<Object> future = (CompletableFuture<Object>) proceedWith(args, getUs, missing, mi);
+		return future.thenApply(new Function<Object, Object>() {
+			public Object apply(Object result) {
+				Map<String, ParaObject> read = (Map<String, ParaObject>) result;
+				if (!isProjection(args)) {
+					cacheMisses(appid, read);
 				}
+				return merge(getUs, cached, read);
 			}
-			if (result == null || ((Map) result).isEmpty()) {
-				result = cached;
+		});
+	}
+
+	/**
+	 * Invokes the DAO method with one of its arguments replaced, e.g. with only the ids which weren't found
+	 * in the cache. The original argument is restored afterwards, for the interceptors before this one.
+	 */
+	private static Object proceedWith(Object[] args, Object arg, Object replacement, MethodInvocation mi)
+			throws Throwable {
+		int i = 0;
+		while (i < args.length && args[i] != arg) {
+			i++;
+		}
+		if (i == args.length) {
+			return mi.proceed();
+		}
+		args[i] = replacement;
+		try {
+			return mi.proceed();
+		} finally {
+			args[i] = arg;
+		}
+	}
+
+	private static List<String> getMissingIds(List<String> ids, Map<String, ?> cached) {
+		Set<String> missing = new LinkedHashSet<String>();
+		for (String id : ids) {
+			if (id != null && !cached.containsKey(id)) {
+				missing.add(id);
+			}
+		}
+		return new ArrayList<String>(missing);
+	}
+
+	/**
+	 * @return the cached objects and the ones read from the database, in the order of the requested ids
+	 */
+	private static Map<String, ParaObject> merge(List<String> ids, Map<String, ParaObject> cached,
+			Map<String, ParaObject> read) {
+		if (read == null || read.isEmpty()) {
+			return cached;
+		}
+		Map<String, ParaObject> merged = new LinkedHashMap<String, ParaObject>(ids.size());
+		for (String id : ids) {
+			if (cached.containsKey(id)) {
+				merged.put(id, cached.get(id));
+			} else if (read.containsKey(id)) {
+				merged.put(id, read.get(id));
+			}
+		}
+		return merged;
+	}
+
+	private void cacheMisses(String appid, Map<String, ParaObject> read) {
+		if (read != null) {
+			for (ParaObject obj : read.values()) {
+				if (obj != null && obj.getCached()) {
+					cache.put(appid, obj.getId(), obj);
+					logger.debug("{}: Cache miss on readAll: {}->{}", IndexAndCacheAspect.class.getSimpleName(), appid,
+							obj.getId());
+				}
 			}
 		}
-		return result;
 	}
 
-	private void addToCacheBatchOperation(String appid, Object[] args) throws Throwable {
-		List<ParaObject> putUs = AOPUtils.getArgOfListOfType(args, ParaObject.class);
+	private void addToCacheBatchOperation(DispatchPlan plan, String appid, Object[] args) throws Throwable {
+		List<ParaObject> putUs = plan.getList(args, ParaObject.class);
 		if (putUs != null && !putUs.isEmpty()) {
 			Map<String, ParaObject> map1 = new LinkedHashMap<String, ParaObject>(putUs.size());
 			for (ParaObject obj : putUs) {
@@ -331,8 +880,8 @@ public class IndexAndCacheAspect implements MethodInterceptor {
 		}
 	}
 
-	private void removeFromCacheBatchOperation(String appid, Object[] args) throws Throwable {
-		List<ParaObject> deleteUs = AOPUtils.getArgOfListOfType(args, ParaObject.class);
+	private void removeFromCacheBatchOperation(DispatchPlan plan, String appid, Object[] args) throws Throwable {
+		List<ParaObject> deleteUs = plan.getList(args, ParaObject.class);
 		if (deleteUs != null && !deleteUs.isEmpty()) {
 			List<String> list = new ArrayList<String>(deleteUs.size());
 			for (ParaObject paraObject : deleteUs) {
@@ -0,0 +1,264 @@
+/*
+ * Copyright 2013-2016 Erudika. https://erudika.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * For issues and patches go to: https://github.com/erudika
+ */
+package com.erudika.para.aop;
+
+import com.erudika.para.utils.Config;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.apache.commons.lang3.SerializationException;
+import org.apache.commons.lang3.SerializationUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Coalesces concurrent loads of the same object into one. When an object is missing from the cache,
+ * the first thread which asks for it loads it from the database and the threads which ask for it
+ * in the meantime wait for that load, instead of hitting the database too. This keeps a popular object
+ * which has just expired from being read many times at once.
+ * <br>
+ * Waiting threads get a copy of the loaded object, so that they don't share an instance. A thread which waits
+ * longer than the timeout loads the object itself. Loads made while loading, e.g. when a DAO method calls
+ * another one, are never coalesced, so threads can't end up waiting for each other.
+ * @author Alex Bogdanovski [alex@erudika.com]
+ */
+final class SingleFlight {
+
+	private static final Logger logger = LoggerFactory.getLogger(SingleFlight.class);
+	private static final ThreadLocal<Boolean> LOADING = new ThreadLocal<Boolean>();
+
+	/**
+	 * Enables coalescing of concurrent cache misses. Default is true.
+	 */
+	static final boolean SINGLE_FLIGHT_ENABLED = Config.getConfigBoolean("single_flight_enabled", true);
+	/**
+	 * The time a thread waits for another thread to load an object, in milliseconds. Default is 3000.
+	 */
+	static final int SINGLE_FLIGHT_TIMEOUT_MS = Config.getConfigInt("single_flight_timeout_ms", 3000);
+
+	private final ConcurrentMap<String, CompletableFuture<Object>> flights =
+			new ConcurrentHashMap<String, CompletableFuture<Object>>();
+	private final long timeoutMs;
+
+	/**
+	 * Loads one object.
+	 */
+	interface Loader {
+		/**
+		 * @return the object or null
+		 * @throws Throwable error
+		 */
+		Object load() throws Throwable;
+	}
+
+	/**
+	 * Loads several objects at once.
+	 */
+	interface BatchLoader {
+		/**
+		 * @param ids the ids of the objects
+		 * @return a map of ids to objects, without the ones which weren't found
+		 * @throws Throwable error
+		 */
+		Map<String, ?> load(List<String> ids) throws Throwable;
+	}
+
+	/**
+	 * Default constructor.
+	 * @param timeoutMs the time a thread waits for another thread to load an object
+	 */
+	SingleFlight(long timeoutMs) {
+		this.timeoutMs = Math.max(1, timeoutMs);
+	}
+
+	/**
+	 * Loads an object, or waits for the thread which is already loading it.
+	 * @param appid the app id
+	 * @param id the object id
+	 * @param loader loads the object
+	 * @return the object or null
+	 * @throws Throwable error thrown by the loader
+	 */
+	Object load(String appid, String id, Loader loader) throws Throwable {
+		if (LOADING.get() != null) {
+			return loader.load();
+		}
+		CompletableFuture<Object> flight = new CompletableFuture<Object>();
+		String key = getKey(appid, id);
+		CompletableFuture<Object> existing = flights.putIfAbsent(key, flight);
+		if (existing == null) {
+			try {
+				Object result = loadExclusively(loader);
+				flight.complete(result);
+				return result;
+			} catch (Throwable t) {
+				flight.completeExceptionally(t);
+				throw t;
+			} finally {
+				flights.remove(key, flight);
+			}
+		}
+		try {
+			return copy(await(existing, System.currentTimeMillis() + timeoutMs));
+		} catch (TimeoutException e) {
+			logger.warn("Timed out waiting for {} to be loaded by another thread.", key);
+			return loader.load();
+		}
+	}
+
+	/**
+	 * Loads several objects at once. Objects which are already being loaded by other threads are waited for,
+	 * the rest are loaded with a single call to the loader.
+	 * @param appid the app id
+	 * @param ids the object ids
+	 * @param loader loads the objects
+	 * @return a map of ids to objects, without the ones which weren't found
+	 * @throws Throwable error thrown by the loader
+	 */
+	Map<String, Object> loadAll(String appid, List<String> ids, BatchLoader loader) throws Throwable {
+		Map<String, Object> results = new HashMap<String, Object>(ids.size());
+		if (LOADING.get() != null) {
+			addAll(results, loader.load(ids), ids);
+			return results;
+		}
+		Map<String, CompletableFuture<Object>> mine = new LinkedHashMap<String, CompletableFuture<Object>>();
+		Map<String, CompletableFuture<Object>> others = new LinkedHashMap<String, CompletableFuture<Object>>();
+		for (String id : ids) {
+			CompletableFuture<Object> flight = new CompletableFuture<Object>();
+			CompletableFuture<Object> existing = flights.putIfAbsent(getKey(appid, id), flight);
+			if (existing == null) {
+				mine.put(id, flight);
+			} else if (!mine.containsKey(id)) {
+				others.put(id, existing);
+			}
+		}
+		// this thread's own loads are done before it waits for others, so no two threads wait for each other
+		if (!mine.isEmpty()) {
+			loadMine(appid, mine, loader, results);
+		}
+		List<String> late = new ArrayList<String>();
+		long deadline = System.currentTimeMillis() + timeoutMs;
+		for (Map.Entry<String, CompletableFuture<Object>> other : others.entrySet()) {
+			try {
+				Object obj = copy(await(other.getValue(), deadline));
+				if (obj != null) {
+					results.put(other.getKey(), obj);
+				}
+			} catch (TimeoutException e) {
+				late.add(other.getKey());
+			}
+		}
+		if (!late.isEmpty()) {
+			logger.warn("Timed out waiting for {} objects to be loaded by another thread.", late.size());
+			addAll(results, loader.load(late), late);
+		}
+		return results;
+	}
+
+	/**
+	 * @return the number of objects which are being loaded
+	 */
+	int getInFlightCount() {
+		return flights.size();
+	}
+
+	@SuppressWarnings("unchecked")
+	private void loadMine(final String appid, Map<String, CompletableFuture<Object>> mine, final BatchLoader loader,
+			Map<String, Object> results) throws Throwable {
+		final List<String> ids = new ArrayList<String>(mine.keySet());
+		try {
+			Map<String, ?> loaded = (Map<String, ?>) loadExclusively(new Loader() {
+				public Object load() throws Throwable {
+					return loader.load(ids);
+				}
+			});
+			addAll(results, loaded, ids);
+			for (Map.Entry<String, CompletableFuture<Object>> flight : mine.entrySet()) {
+				flight.getValue().complete(results.get(flight.getKey()));
+			}
+		} catch (Throwable t) {
+			for (CompletableFuture<Object> flight : mine.values()) {
+				flight.completeExceptionally(t);
+			}
+			throw t;
+		} finally {
+			for (Map.Entry<String, CompletableFuture<Object>> flight : mine.entrySet()) {
+				flights.remove(getKey(appid, flight.getKey()), flight.getValue());
+			}
+		}
+	}
+
+	private static Object loadExclusively(Loader loader) throws Throwable {
+		LOADING.set(Boolean.TRUE);
+		try {
+			return loader.load();
+		} finally {
+			LOADING.remove();
+		}
+	}
+
+	private static Object await(CompletableFuture<Object> flight, long deadline) throws Throwable {
+		try {
+			return flight.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+		} catch (ExecutionException e) {
+			throw (e.getCause() == null) ? e : e.getCause();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new TimeoutException();
+		}
+	}
+
+	private static void addAll(Map<String, Object> results, Map<String, ?> loaded, List<String> ids) {
+		if (loaded != null) {
+			for (String id : ids) {
+				Object obj = loaded.get(id);
+				if (obj != null) {
+					results.put(id, obj);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return a copy of the object, so that threads don't share an instance, or the object itself
+	 * if it can't be copied
+	 */
+	private static Object copy(Object obj) {
+		if (obj instanceof Serializable) {
+			try {
+				return SerializationUtils.clone((Serializable) obj);
+			} catch (SerializationException e) {
+				logger.debug("Object can't be copied: {}", e.getMessage());
+			}
+		}
+		return obj;
+	}
+
+	private static String getKey(String appid, String id) {
+		return appid + "/" + id;
+	}
+}
@@ -20,7 +20,11 @@ package com.erudika.para.cache;
 import com.erudika.para.utils.Config;
 import com.hazelcast.core.HazelcastInstance;
 import com.hazelcast.core.IMap;
+import com.hazelcast.core.Message;
+import com.hazelcast.core.MessageListener;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -35,6 +39,10 @@ import org.slf4j.LoggerFactory;
 /**
  * Hazelcast implementation of the {@link Cache} interface.
  * Each application uses a separate distributed map.
+ * <br>
+ * Optionally, objects are also kept in a {@link NearCache} on each node, so that hot objects are read
+ * without going over the network. When a node writes or removes objects, it tells the other nodes
+ * to drop them from their near caches, over a Hazelcast topic.
  *
  * @author Alex Bogdanovski [alex@erudika.com]
  * @see Cache
@@ -44,6 +52,26 @@ import org.slf4j.LoggerFactory;
 public class HazelcastCache implements Cache {
 
 	private static final Logger logger = LoggerFactory.getLogger(HazelcastCache.class);
+	private static final String INVALIDATION_TOPIC = "para-near-cache-invalidations";
+
+	/**
+	 * Enables the near cache - an in-process cache in front of the distributed maps. Default is false.
+	 */
+	public static final boolean NEAR_CACHE_ENABLED = Config.getConfigBoolean("hc.near_cache_enabled", false);
+	/**
+	 * The maximum number of objects in the near cache. Default is 10000.
+	 */
+	public static final int NEAR_CACHE_MAX_SIZE = Config.getConfigInt("hc.near_cache_max_size", 10000);
+	/**
+	 * The time after which objects expire from the near cache, in seconds. Default is 60.
+	 */
+	public static final int NEAR_CACHE_TTL_SEC = Config.getConfigInt("hc.near_cache_ttl_seconds", 60);
+	/**
+	 * The format of objects in the near cache - "BINARY" keeps them serialized and returns a copy on each read,
+	 * "OBJECT" returns the same instance to all readers, which must not modify it. Default is BINARY.
+	 */
+	public static final String NEAR_CACHE_IN_MEMORY_FORMAT = Config.getConfigParam("hc.near_cache_in_memory_format",
+			"BINARY");
 
 	static {
 		if (Config.isCacheEnabled()) {
@@ -51,10 +79,39 @@ public class HazelcastCache implements Cache {
 		}
 	}
 
+	private final NearCache nearCache;
+
 	/**
 	 * No-args constructor.
 	 */
 	public HazelcastCache() {
+		this((Config.isCacheEnabled() && NEAR_CACHE_ENABLED) ? new NearCache(NEAR_CACHE_MAX_SIZE, NEAR_CACHE_TTL_SEC,
+				!"OBJECT".equalsIgnoreCase(NEAR_CACHE_IN_MEMORY_FORMAT)) : null);
+	}
+
+	/**
+	 * Creates a cache with a near cache in front of it.
+	 * @param nearCache a near cache or null
+	 */
+	public HazelcastCache(NearCache nearCache) {
+		this.nearCache = nearCache;
+		if (nearCache != null) {
+			client().<String[]>getTopic(INVALIDATION_TOPIC).addMessageListener(new MessageListener<String[]>() {
+				public void onMessage(Message<String[]> message) {
+					// this node has already updated its own near cache
+					if (!message.getPublishingMember().localMember()) {
+						invalidateLocal(message.getMessageObject());
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * @return the near cache or null if it's disabled
+	 */
+	public NearCache getNearCache() {
+		return nearCache;
 	}
 
 	HazelcastInstance client() {
@@ -66,6 +123,9 @@ public class HazelcastCache implements Cache {
 		if (StringUtils.isBlank(id) || StringUtils.isBlank(appid)) {
 			return false;
 		}
+		if (nearCache != null && nearCache.contains(appid, id)) {
+			return true;
+		}
 		try {
 			return client().getMap(appid).containsKey(id);
 		} catch (Exception e) {
@@ -84,6 +144,10 @@ public class HazelcastCache implements Cache {
 				} else {
 					client().getMap(appid).put(id, object);
 				}
+				if (nearCache != null) {
+					nearCache.put(appid, id, object, 0);
+					invalidateOthers(appid, id);
+				}
 			} catch (Exception e) {
 				logger.error(null, e);
 			}
@@ -100,6 +164,10 @@ public class HazelcastCache implements Cache {
 				} else {
 					client().getMap(appid).put(id, object, ttlSeconds, TimeUnit.SECONDS);
 				}
+				if (nearCache != null) {
+					nearCache.put(appid, id, object, (ttlSeconds == null) ? 0 : ttlSeconds);
+					invalidateOthers(appid, id);
+				}
 			} catch (Exception e) {
 				logger.error(null, e);
 			}
@@ -118,6 +186,12 @@ public class HazelcastCache implements Cache {
 			try {
 				logger.debug("Cache.putAll() {} {}", appid, objects.size());
 				client().getMap(appid).putAll(cleanMap);
+				if (nearCache != null && !cleanMap.isEmpty()) {
+					for (Entry<String, T> entry : cleanMap.entrySet()) {
+						nearCache.put(appid, entry.getKey(), entry.getValue(), 0);
+					}
+					invalidateOthers(appid, cleanMap.keySet().toArray(new String[cleanMap.size()]));
+				}
 			} catch (Exception e) {
 				logger.error(null, e);
 			}
@@ -129,10 +203,19 @@ public class HazelcastCache implements Cache {
 		if (StringUtils.isBlank(id) || StringUtils.isBlank(appid)) {
 			return null;
 		}
+		T cached = (nearCache == null) ? null : nearCache.<T>get(appid, id);
+		if (cached != null) {
+			return cached;
+		}
 		try {
+			// an invalidation which arrives while the object is read means that the read may be stale
+			long sequence = (nearCache == null) ? -1 : nearCache.getSequence(appid, id);
 			Map<String, T> map = client().getMap(appid);
 			T obj = map.get(id);
 			logger.debug("Cache.get() {} {}", appid, (obj == null) ? null : id);
+			if (nearCache != null) {
+				nearCache.put(appid, id, obj, 0, sequence);
+			}
 			return obj;
 		} catch (Exception e) {
 			logger.error(null, e);
@@ -148,8 +231,31 @@ public class HazelcastCache implements Cache {
 		Map<String, T> result = new LinkedHashMap<String, T>(ids.size(), 0.75f, true);
 		ids.remove(null);
 		try {
-			IMap<String, T> imap = client().getMap(appid);
-			Map<String, T> res = imap.getAll(new TreeSet<String>(ids));
+			Map<String, T> res = new LinkedHashMap<String, T>(ids.size());
+			TreeSet<String> remote = new TreeSet<String>();
+			Map<String, Long> sequences = new HashMap<String, Long>();
+			for (String id : ids) {
+				T cached = (nearCache == null) ? null : nearCache.<T>get(appid, id);
+				if (cached != null) {
+					res.put(id, cached);
+				} else {
+					remote.add(id);
+					if (nearCache != null) {
+						sequences.put(id, nearCache.getSequence(appid, id));
+					}
+				}
+			}
+			if (!remote.isEmpty()) {
+				IMap<String, T> imap = client().getMap(appid);
+				Map<String, T> fetched = imap.getAll(remote);
+				res.putAll(fetched);
+				if (nearCache != null) {
+					for (Entry<String, T> entry : fetched.entrySet()) {
+						Long sequence = sequences.get(entry.getKey());
+						nearCache.put(appid, entry.getKey(), entry.getValue(), 0, (sequence == null) ? -1 : sequence);
+					}
+				}
+			}
 			for (String id : ids) {
 				if (res.containsKey(id)) {
 					result.put(id, res.get(id));
@@ -168,6 +274,10 @@ public class HazelcastCache implements Cache {
 			try {
 				logger.debug("Cache.remove() {} {}", appid, id);
 				client().getMap(appid).delete(id);
+				if (nearCache != null) {
+					nearCache.invalidate(appid, id);
+					invalidateOthers(appid, id);
+				}
 			} catch (Exception e) {
 				logger.error(null, e);
 			}
@@ -180,6 +290,10 @@ public class HazelcastCache implements Cache {
 			try {
 				logger.debug("Cache.removeAll() {}", appid);
 				client().getMap(appid).clear();
+				if (nearCache != null) {
+					nearCache.invalidateAll(appid);
+					invalidateOthers(appid);
+				}
 			} catch (Exception e) {
 				logger.error(null, e);
 			}
@@ -194,8 +308,14 @@ public class HazelcastCache implements Cache {
 				for (String id : ids) {
 					if (!StringUtils.isBlank(id)) {
 						map.delete(id);
+						if (nearCache != null) {
+							nearCache.invalidate(appid, id);
+						}
 					}
 				}
+				if (nearCache != null && !ids.isEmpty()) {
+					invalidateOthers(appid, ids.toArray(new String[ids.size()]));
+				}
 				logger.debug("Cache.removeAll() {} {}", appid, ids.size());
 			} catch (Exception e) {
 				logger.error(null, e);
@@ -203,6 +323,32 @@ public class HazelcastCache implements Cache {
 		}
 	}
 
+	/**
+	 * Tells the other nodes to drop objects from their near caches.
+	 * @param appid the app id
+	 * @param ids the object ids, or none to drop all objects of the app
+	 */
+	private void invalidateOthers(String appid, String... ids) {
+		String[] message = new String[ids.length + 1];
+		message[0] = appid;
+		System.arraycopy(ids, 0, message, 1, ids.length);
+		client().<String[]>getTopic(INVALIDATION_TOPIC).publish(message);
+	}
+
+	private void invalidateLocal(String[] message) {
+		if (message == null || message.length == 0 || message[0] == null) {
+			return;
+		}
+		if (message.length == 1) {
+			nearCache.invalidateAll(message[0]);
+		} else {
+			for (String id : Arrays.asList(message).subList(1, message.length)) {
+				nearCache.invalidate(message[0], id);
+			}
+		}
+		logger.debug("Near cache of app {} invalidated by another node.", message[0]);
+	}
+
 	/**
 	 * @return true if asynchronous caching is enabled.
 	 */
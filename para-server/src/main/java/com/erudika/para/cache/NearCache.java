@@ -0,0 +1,324 @@
+/*
+ * Copyright 2013-2016 Erudika. https://erudika.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * For issues and patches go to: https://github.com/erudika
+ */
+package com.erudika.para.cache;
+
+import com.erudika.para.utils.Utils;
+import java.io.Serializable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.commons.lang3.SerializationException;
+import org.apache.commons.lang3.SerializationUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An in-process cache which sits in front of a distributed {@link Cache}, so that hot objects are read
+ * from local memory instead of over the network. It holds a bounded number of entries and evicts the least
+ * recently used ones. Each entry also expires after a while, which limits how stale it can get if an
+ * invalidation from another node is lost.
+ * <br>
+ * The entries are split into segments, each with its own lock and LRU order, so that readers of different
+ * objects rarely wait for each other. Eviction is least recently used within a segment. Small caches have
+ * a single segment.
+ * <br>
+ * An object read from the distributed cache may be invalidated while the read is in flight. Readers take
+ * the invalidation sequence with {@link #getSequence(String, String)} before the read and pass it to
+ * {@link #put(String, String, Object, long, long)}, which doesn't cache the object if it was invalidated
+ * in the meantime.
+ * <br>
+ * In the binary format, objects are kept serialized and each read returns a new copy, just like a read from
+ * the distributed cache. In the object format, all readers share the same instance, which is faster but
+ * objects read from the cache must not be modified.
+ * @author Alex Bogdanovski [alex@erudika.com]
+ */
+public final class NearCache {
+
+	private static final Logger logger = LoggerFactory.getLogger(NearCache.class);
+	private static final int MAX_SEGMENTS = 32;
+	private static final int MIN_SEGMENT_SIZE = 64;
+
+	private final long ttlMs;
+	private final boolean binary;
+	private final Segment[] segments;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Default constructor.
+	 * @param maxSize the maximum number of entries
+	 * @param ttlSeconds the time after which entries expire
+	 * @param binary if true, objects are kept serialized and copied on each read
+	 */
+	public NearCache(int maxSize, long ttlSeconds, boolean binary) {
+		int max = Math.max(1, maxSize);
+		this.ttlMs = Math.max(1, ttlSeconds) * 1000;
+		this.binary = binary;
+		int count = 1;
+		while (count < MAX_SEGMENTS && (long) count * 2 * MIN_SEGMENT_SIZE <= max) {
+			count <<= 1;
+		}
+		this.segments = new Segment[count];
+		for (int i = 0; i < count; i++) {
+			// the remainder is spread over the first segments, so the total is exactly the maximum
+			segments[i] = new Segment(max / count + ((i < max % count) ? 1 : 0));
+		}
+	}
+
+	/**
+	 * @param <T> the type of object
+	 * @param appid the app id
+	 * @param id the object id
+	 * @return the cached object or null if it's not here or has expired
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T get(String appid, String id) {
+		String key = getKey(appid, id);
+		Entry entry = segmentFor(key).get(key, Utils.timestamp());
+		if (entry == null) {
+			misses.incrementAndGet();
+			return null;
+		}
+		if (!binary) {
+			hits.incrementAndGet();
+			return (T) entry.value;
+		}
+		try {
+			T obj = (T) SerializationUtils.deserialize((byte[]) entry.value);
+			hits.incrementAndGet();
+			return obj;
+		} catch (SerializationException e) {
+			logger.debug("Object {}/{} can't be deserialized: {}", appid, id, e.getMessage());
+			invalidate(appid, id);
+			misses.incrementAndGet();
+			return null;
+		}
+	}
+
+	/**
+	 * @param appid the app id
+	 * @param id the object id
+	 * @return true if the object is here and hasn't expired
+	 */
+	public boolean contains(String appid, String id) {
+		String key = getKey(appid, id);
+		return segmentFor(key).contains(key, Utils.timestamp());
+	}
+
+	/**
+	 * Caches an object. Objects which can't be serialized are not cached in the binary format.
+	 * @param appid the app id
+	 * @param id the object id
+	 * @param object the object
+	 * @param ttlSeconds the time after which the object expires, if it's less than the time to live of
+	 * this cache, or 0
+	 */
+	public void put(String appid, String id, Object object, long ttlSeconds) {
+		put(appid, id, object, ttlSeconds, -1);
+	}
+
+	/**
+	 * Caches an object read from the distributed cache, unless it was invalidated after the read started.
+	 * @param appid the app id
+	 * @param id the object id
+	 * @param object the object
+	 * @param ttlSeconds the time after which the object expires, if it's less than the time to live of
+	 * this cache, or 0
+	 * @param sequence the invalidation sequence taken before the read, or -1 to cache the object anyway
+	 * @return true if the object was cached
+	 */
+	public boolean put(String appid, String id, Object object, long ttlSeconds, long sequence) {
+		if (appid == null || id == null || object == null) {
+			return false;
+		}
+		Object value = object;
+		if (binary) {
+			try {
+				value = (object instanceof Serializable) ? SerializationUtils.serialize((Serializable) object) : null;
+			} catch (SerializationException e) {
+				logger.debug("Object {}/{} can't be serialized: {}", appid, id, e.getMessage());
+				value = null;
+			}
+		}
+		String key = getKey(appid, id);
+		long ttl = (ttlSeconds > 0) ? Math.min(ttlMs, ttlSeconds * 1000) : ttlMs;
+		Entry entry = (value == null) ? null : new Entry(appid, value, Utils.timestamp() + ttl);
+		return segmentFor(key).put(key, entry, sequence);
+	}
+
+	/**
+	 * Returns the invalidation sequence of an object. It changes whenever the object, its app or
+	 * the whole cache is invalidated.
+	 * @param appid the app id
+	 * @param id the object id
+	 * @return the current invalidation sequence
+	 * @see #put(String, String, Object, long, long)
+	 */
+	public long getSequence(String appid, String id) {
+		return segmentFor(getKey(appid, id)).getSequence();
+	}
+
+	/**
+	 * Removes an object, e.g. when it's changed by another node.
+	 * @param appid the app id
+	 * @param id the object id
+	 */
+	public void invalidate(String appid, String id) {
+		String key = getKey(appid, id);
+		segmentFor(key).remove(key);
+	}
+
+	/**
+	 * Removes all objects of an app.
+	 * @param appid the app id
+	 */
+	public void invalidateAll(String appid) {
+		for (Segment segment : segments) {
+			segment.removeAll(appid);
+		}
+	}
+
+	/**
+	 * Removes all objects.
+	 */
+	public void clear() {
+		for (Segment segment : segments) {
+			segment.removeAll(null);
+		}
+	}
+
+	/**
+	 * @return the number of entries, including the ones which have expired but haven't been removed yet
+	 */
+	public int size() {
+		int size = 0;
+		for (Segment segment : segments) {
+			size += segment.size();
+		}
+		return size;
+	}
+
+	/**
+	 * @return the number of reads served from this cache
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return the number of reads which went to the distributed cache
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	private Segment segmentFor(String key) {
+		int hash = key.hashCode();
+		return segments[(hash ^ (hash >>> 16)) & (segments.length - 1)];
+	}
+
+	private static String getKey(String appid, String id) {
+		return appid + "/" + id;
+	}
+
+	/**
+	 * A part of the cache, with its own lock, LRU order and invalidation sequence.
+	 */
+	private static final class Segment {
+		private final Map<String, Entry> entries;
+		private long sequence;
+
+		Segment(final int maxSize) {
+			this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+					return size() > maxSize;
+				}
+			};
+		}
+
+		synchronized Entry get(String key, long now) {
+			Entry entry = entries.get(key);
+			if (entry != null && entry.expiresAt <= now) {
+				entries.remove(key);
+				return null;
+			}
+			return entry;
+		}
+
+		synchronized boolean contains(String key, long now) {
+			Entry entry = entries.get(key);
+			return entry != null && entry.expiresAt > now;
+		}
+
+		synchronized boolean put(String key, Entry entry, long expectedSequence) {
+			if (expectedSequence >= 0 && expectedSequence != sequence) {
+				return false;
+			}
+			if (entry == null) {
+				entries.remove(key);
+				return false;
+			}
+			entries.put(key, entry);
+			return true;
+		}
+
+		synchronized long getSequence() {
+			return sequence;
+		}
+
+		synchronized void remove(String key) {
+			sequence++;
+			entries.remove(key);
+		}
+
+		synchronized void removeAll(String appid) {
+			sequence++;
+			if (appid == null) {
+				entries.clear();
+				return;
+			}
+			for (Iterator<Entry> it = entries.values().iterator(); it.hasNext();) {
+				if (it.next().appid.equals(appid)) {
+					it.remove();
+				}
+			}
+		}
+
+		synchronized int size() {
+			return entries.size();
+		}
+	}
+
+	/**
+	 * A cached object and the time it expires.
+	 */
+	private static final class Entry {
+		private final String appid;
+		private final Object value;
+		private final long expiresAt;
+
+		Entry(String appid, Object value, long expiresAt) {
+			this.appid = appid;
+			this.value = value;
+			this.expiresAt = expiresAt;
+		}
+	}
+}
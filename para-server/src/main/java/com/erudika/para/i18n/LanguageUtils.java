@@ -18,6 +18,7 @@
 package com.erudika.para.i18n;
 
 import com.erudika.para.persistence.DAO;
+import com.erudika.para.persistence.DAOUtils;
 import com.erudika.para.search.Search;
 import com.erudika.para.core.Translation;
 import com.erudika.para.core.Sysprop;
@@ -55,6 +56,7 @@ public class LanguageUtils {
 	private String deflangCode;
 	private final String keyPrefix = "language".concat(Config.SEPARATOR);
 	private final String progressKey = keyPrefix.concat("progress");
+	private final String approvedKey = keyPrefix.concat("approved");
 
 	private static final int PLUS = -1;
 	private static final int MINUS = -2;
@@ -79,7 +81,7 @@ public class LanguageUtils {
 	@Inject
 	public LanguageUtils(Search search, DAO dao) {
 		this.search = search;
-		this.dao = dao;
+		this.dao = DAOUtils.withFallbacks(dao);
 
 	}
 
@@ -256,11 +258,16 @@ public class LanguageUtils {
 		if (dao == null) {
 			return Collections.emptyMap();
 		}
-		Sysprop progress = getProgressMap(appid);
+		Sysprop approved = getApprovedCountsMap(appid);
+		double defsize = getDefaultLanguage().size();
 		Map<String, Integer> progressMap = new HashMap<String, Integer>(ALL_LOCALES.size());
-		for (String key : progress.getProperties().keySet()) {
-			progressMap.put(key, (Integer) progress.getProperties().get(key));
+		for (String langCode : ALL_LOCALES.keySet()) {
+			Object count = approved.getProperty(langCode);
+			double percent = (defsize == 0 || !(count instanceof Number)) ? 0 :
+					(Math.min(Math.max(((Number) count).doubleValue(), 0), defsize) / defsize) * 100;
+			progressMap.put(langCode, (int) percent);
 		}
+		progressMap.put(getDefaultLanguageCode(), 100);
 		return progressMap;
 	}
 
@@ -319,49 +326,58 @@ public class LanguageUtils {
 	}
 
 	/**
-	 * Updates the progress for all languages.
+	 * Updates the progress for all languages. The number of approved translations for each language
+	 * is kept in a map of counters, which is updated atomically when a translation is approved or disapproved.
+	 * Counters are only changed with {@link DAO#increment(java.lang.String, java.lang.String, java.lang.String,
+	 * long)}, so concurrent updates of different languages never overwrite each other. Counts out of range
+	 * are clamped when they're read.
 	 * @param appid appid name of the {@link com.erudika.para.core.App}
 	 * @param langCode the 2-letter language code
-	 * @param value {@link #PLUS}, {@link #MINUS} or the total percent of completion (0-100)
+	 * @param value {@link #PLUS}, {@link #MINUS} or the total number of approved translations
 	 */
 	private void updateTranslationProgressMap(String appid, String langCode, int value) {
 		if (dao == null || getDefaultLanguageCode().equals(langCode)) {
 			return;
 		}
-
-		double defsize = getDefaultLanguage().size();
-		double approved = value;
-
-		Sysprop progress = getProgressMap(appid);
-
-		if (value == PLUS) {
-			approved = Math.round((Integer) progress.getProperty(langCode) * (defsize / 100) + 1);
-		} else if (value == MINUS) {
-			approved = Math.round((Integer) progress.getProperty(langCode) * (defsize / 100) - 1);
-		}
-
-		if (approved > defsize) {
-			approved = defsize;
+		String field = DAOUtils.PROPERTIES_PREFIX.concat(langCode);
+		boolean total = value != PLUS && value != MINUS;
+		// a total replaces the current count, which is returned by an increment of 0
+		long delta = total ? 0 : ((value == PLUS) ? 1 : -1);
+		Long count = dao.increment(appid, approvedKey, field, delta);
+		if (count == null) {
+			getApprovedCountsMap(appid);
+			count = dao.increment(appid, approvedKey, field, delta);
 		}
-
-		if (defsize == 0) {
-			progress.addProperty(langCode, 0);
-		} else {
-			progress.addProperty(langCode, (int) ((approved / defsize) * 100));
+		if (total && count != null) {
+			dao.increment(appid, approvedKey, field, Math.min(value, getDefaultLanguage().size()) - count);
 		}
-		dao.update(appid, progress);
 	}
 
-	private Sysprop getProgressMap(String appid) {
-		Sysprop progress = dao.read(appid, progressKey);
-		if (progress == null) {
-			progress = new Sysprop(progressKey);
+	/**
+	 * Returns the counters of approved translations for each language. If they don't exist,
+	 * they are created from the progress map used by older versions, which holds percentages.
+	 * @param appid appid name of the {@link com.erudika.para.core.App}
+	 * @return a Sysprop with a property for each language
+	 */
+	private Sysprop getApprovedCountsMap(String appid) {
+		Sysprop approved = dao.read(appid, approvedKey);
+		if (approved == null) {
+			approved = new Sysprop(approvedKey);
+			Sysprop progress = dao.read(appid, progressKey);
+			double defsize = getDefaultLanguage().size();
 			for (String langCode : ALL_LOCALES.keySet()) {
-				progress.addProperty(langCode, 0);
+				Object percent = (progress == null) ? null : progress.getProperty(langCode);
+				approved.addProperty(langCode, (percent instanceof Number) ?
+						(int) Math.round(((Number) percent).doubleValue() * (defsize / 100)) : 0);
+			}
+			// the counters may have been created by another thread in the meantime - those are kept
+			if (dao.createIfAbsent(appid, approved) == null) {
+				Sysprop existing = dao.read(appid, approvedKey);
+				if (existing != null) {
+					approved = existing;
+				}
 			}
-			progress.addProperty(getDefaultLanguageCode(), 100);
-			dao.create(appid, progress);
 		}
-		return progress;
+		return approved;
 	}
 }
@@ -0,0 +1,314 @@
+/*
+ * Copyright 2013-2016 Erudika. https://erudika.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * For issues and patches go to: https://github.com/erudika
+ */
+package com.erudika.para.persistence;
+
+import com.amazonaws.services.dynamodbv2.model.ConsumedCapacity;
+import com.erudika.para.utils.Config;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Collects the read and write capacity consumed by each DynamoDB table and limits it on the client side,
+ * with a token bucket per table. Interactive requests only wait if a table has used more than its limit.
+ * Background work, see {@link DAOUtils#runInBackground(java.lang.Runnable)}, waits as soon as the bucket
+ * is less than {@link #BACKGROUND_RESERVE} full, so bulk jobs slow down before DynamoDB starts throttling.
+ * @author Alex Bogdanovski [alex@erudika.com]
+ */
+public final class AWSDynamoCapacity {
+
+	private static final Logger logger = LoggerFactory.getLogger(AWSDynamoCapacity.class);
+
+	/**
+	 * The maximum read capacity units per second consumed by each table. No limit if 0. Default is 0.
+	 */
+	public static final int READ_CAPACITY_LIMIT = Config.getConfigInt("dynamodb_read_capacity_limit", 0);
+	/**
+	 * The maximum write capacity units per second consumed by each table. No limit if 0. Default is 0.
+	 */
+	public static final int WRITE_CAPACITY_LIMIT = Config.getConfigInt("dynamodb_write_capacity_limit", 0);
+	/**
+	 * The part of a table's capacity reserved for interactive requests, between 0 and 1.
+	 * Background work waits while less than this part of the token bucket is available. Default is 0.5.
+	 */
+	public static final double BACKGROUND_RESERVE = Math.min(1, Math.max(0,
+			Config.getConfigDouble("dynamodb_background_reserve", 0.5)));
+	/**
+	 * The maximum time a request waits for capacity, in milliseconds. Default is 30000.
+	 */
+	public static final long MAX_WAIT_MS = Config.getConfigInt("dynamodb_capacity_max_wait_ms", 30000);
+
+	private static final ConcurrentMap<String, TableCapacity> TABLES = new ConcurrentHashMap<String, TableCapacity>();
+
+	private AWSDynamoCapacity() { }
+
+	/**
+	 * Waits until a table has enough read capacity for the current thread.
+	 * @param table the table name
+	 */
+	public static void acquireRead(String table) {
+		acquire(table, true);
+	}
+
+	/**
+	 * Waits until a table has enough write capacity for the current thread.
+	 * @param table the table name
+	 */
+	public static void acquireWrite(String table) {
+		acquire(table, false);
+	}
+
+	/**
+	 * Records the read capacity consumed by a request.
+	 * @param cc the consumed capacity returned by DynamoDB
+	 */
+	public static void consumedRead(ConsumedCapacity cc) {
+		consumed(cc, true);
+	}
+
+	/**
+	 * Records the write capacity consumed by a request.
+	 * @param cc the consumed capacity returned by DynamoDB
+	 */
+	public static void consumedWrite(ConsumedCapacity cc) {
+		consumed(cc, false);
+	}
+
+	/**
+	 * Records the read capacity consumed by a batch request.
+	 * @param ccs the consumed capacity for each table, returned by DynamoDB
+	 */
+	public static void consumedRead(List<ConsumedCapacity> ccs) {
+		if (ccs != null) {
+			for (ConsumedCapacity cc : ccs) {
+				consumed(cc, true);
+			}
+		}
+	}
+
+	/**
+	 * Records the write capacity consumed by a batch request.
+	 * @param ccs the consumed capacity for each table, returned by DynamoDB
+	 */
+	public static void consumedWrite(List<ConsumedCapacity> ccs) {
+		if (ccs != null) {
+			for (ConsumedCapacity cc : ccs) {
+				consumed(cc, false);
+			}
+		}
+	}
+
+	/**
+	 * Returns the capacity consumed by a table since startup.
+	 * @param table the table name
+	 * @return a map of metrics - consumed read and write capacity units, the number of read and write requests,
+	 * the number of requests which had to wait for capacity and the total time they waited
+	 */
+	public static Map<String, Object> getMetrics(String table) {
+		TableCapacity tc = StringUtils.isBlank(table) ? null : TABLES.get(table);
+		if (tc == null) {
+			return Collections.emptyMap();
+		}
+		Map<String, Object> metrics = new HashMap<String, Object>();
+		metrics.put("consumedReadCapacityUnits", tc.readUnits.sum());
+		metrics.put("consumedWriteCapacityUnits", tc.writeUnits.sum());
+		metrics.put("readRequests", tc.reads.sum());
+		metrics.put("writeRequests", tc.writes.sum());
+		metrics.put("delayedRequests", tc.delayed.sum());
+		metrics.put("delayedMillis", tc.delayedMillis.sum());
+		return metrics;
+	}
+
+	/**
+	 * @return the metrics of all tables used so far
+	 * @see #getMetrics(java.lang.String)
+	 */
+	public static Map<String, Map<String, Object>> getMetrics() {
+		Map<String, Map<String, Object>> metrics = new HashMap<String, Map<String, Object>>(TABLES.size());
+		for (String table : TABLES.keySet()) {
+			metrics.put(table, getMetrics(table));
+		}
+		return metrics;
+	}
+
+	/**
+	 * Returns how long the current thread would have to wait for read capacity on a table, without waiting.
+	 * Tasks on shared threads use this to run again later, instead of blocking the thread.
+	 * @param table the table name
+	 * @return the time to wait in milliseconds, or 0
+	 */
+	public static long getReadDelay(String table) {
+		return getDelay(table, true);
+	}
+
+	/**
+	 * Returns how long the current thread would have to wait for write capacity on a table, without waiting.
+	 * @param table the table name
+	 * @return the time to wait in milliseconds, or 0
+	 * @see #getReadDelay(java.lang.String)
+	 */
+	public static long getWriteDelay(String table) {
+		return getDelay(table, false);
+	}
+
+	private static void acquire(String table, boolean read) {
+		long waitMs = getDelay(table, read);
+		if (waitMs > 0) {
+			try {
+				Thread.sleep(waitMs);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private static long getDelay(String table, boolean read) {
+		TableCapacity tc = getTableCapacity(table);
+		TokenBucket bucket = (tc == null) ? null : (read ? tc.readBucket : tc.writeBucket);
+		if (bucket == null) {
+			return 0;
+		}
+		long waitMs = Math.min(MAX_WAIT_MS, bucket.getWaitMillis(DAOUtils.isBackgroundWork() ?
+				BACKGROUND_RESERVE : 0, System.nanoTime()));
+		if (waitMs > 0) {
+			tc.delayed.increment();
+			tc.delayedMillis.add(waitMs);
+			logger.debug("Waiting {}ms for {} capacity on table '{}'.", waitMs, read ? "read" : "write", table);
+		}
+		return Math.max(0, waitMs);
+	}
+
+	private static void consumed(ConsumedCapacity cc, boolean read) {
+		if (cc == null || cc.getCapacityUnits() == null) {
+			return;
+		}
+		TableCapacity tc = getTableCapacity(cc.getTableName());
+		if (tc == null) {
+			return;
+		}
+		double units = cc.getCapacityUnits();
+		if (read) {
+			tc.readUnits.add(units);
+			tc.reads.increment();
+			if (tc.readBucket != null) {
+				tc.readBucket.consume(units, System.nanoTime());
+			}
+		} else {
+			tc.writeUnits.add(units);
+			tc.writes.increment();
+			if (tc.writeBucket != null) {
+				tc.writeBucket.consume(units, System.nanoTime());
+			}
+		}
+	}
+
+	private static TableCapacity getTableCapacity(String table) {
+		if (StringUtils.isBlank(table)) {
+			return null;
+		}
+		TableCapacity tc = TABLES.get(table);
+		if (tc == null) {
+			tc = new TableCapacity(READ_CAPACITY_LIMIT, WRITE_CAPACITY_LIMIT);
+			TableCapacity existing = TABLES.putIfAbsent(table, tc);
+			if (existing != null) {
+				tc = existing;
+			}
+		}
+		return tc;
+	}
+
+	/**
+	 * Consumed capacity and limits of one table.
+	 */
+	private static final class TableCapacity {
+		private final DoubleAdder readUnits = new DoubleAdder();
+		private final DoubleAdder writeUnits = new DoubleAdder();
+		private final LongAdder reads = new LongAdder();
+		private final LongAdder writes = new LongAdder();
+		private final LongAdder delayed = new LongAdder();
+		private final LongAdder delayedMillis = new LongAdder();
+		private final TokenBucket readBucket;
+		private final TokenBucket writeBucket;
+
+		TableCapacity(int readLimit, int writeLimit) {
+			this.readBucket = (readLimit > 0) ? new TokenBucket(readLimit, System.nanoTime()) : null;
+			this.writeBucket = (writeLimit > 0) ? new TokenBucket(writeLimit, System.nanoTime()) : null;
+		}
+	}
+
+	/**
+	 * A token bucket which holds up to one second's worth of capacity units. Capacity is consumed after
+	 * each request, when DynamoDB reports how much was used, so the bucket can go into debt.
+	 */
+	static final class TokenBucket {
+		private final double ratePerSec;
+		private double tokens;
+		private long lastRefillNanos;
+
+		TokenBucket(double ratePerSec, long nowNanos) {
+			this.ratePerSec = ratePerSec;
+			this.tokens = ratePerSec;
+			this.lastRefillNanos = nowNanos;
+		}
+
+		/**
+		 * @param units the number of capacity units used
+		 * @param nowNanos the current time
+		 */
+		synchronized void consume(double units, long nowNanos) {
+			refill(nowNanos);
+			tokens -= units;
+		}
+
+		/**
+		 * @param reserve the part of the bucket which must be available, between 0 and 1
+		 * @param nowNanos the current time
+		 * @return how long to wait until the bucket is not in debt and the reserve is available
+		 */
+		synchronized long getWaitMillis(double reserve, long nowNanos) {
+			refill(nowNanos);
+			double missing = (ratePerSec * reserve) - tokens;
+			if (missing <= 0) {
+				return 0;
+			}
+			return (long) Math.ceil(TimeUnit.SECONDS.toMillis(1) * missing / ratePerSec);
+		}
+
+		synchronized double getTokens(long nowNanos) {
+			refill(nowNanos);
+			return tokens;
+		}
+
+		private void refill(long nowNanos) {
+			long elapsed = nowNanos - lastRefillNanos;
+			if (elapsed > 0) {
+				tokens = Math.min(ratePerSec, tokens + ratePerSec * elapsed / TimeUnit.SECONDS.toNanos(1));
+				lastRefillNanos = nowNanos;
+			}
+		}
+	}
+}
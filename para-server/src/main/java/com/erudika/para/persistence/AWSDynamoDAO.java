@@ -18,39 +18,50 @@
 package com.erudika.para.persistence;
 
 import com.erudika.para.annotations.Locked;
-import com.amazonaws.services.dynamodbv2.model.AttributeAction;
 import com.amazonaws.services.dynamodbv2.model.AttributeValue;
 import com.amazonaws.services.dynamodbv2.model.BatchGetItemResult;
 import com.amazonaws.services.dynamodbv2.model.GetItemRequest;
 import com.amazonaws.services.dynamodbv2.model.GetItemResult;
 import com.amazonaws.services.dynamodbv2.model.KeysAndAttributes;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.handlers.AsyncHandler;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBAsyncClient;
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClient;
 import com.amazonaws.services.dynamodbv2.document.Index;
 import com.amazonaws.services.dynamodbv2.document.Item;
 import com.amazonaws.services.dynamodbv2.document.Page;
+import com.amazonaws.services.dynamodbv2.document.internal.InternalUtils;
 import com.amazonaws.services.dynamodbv2.document.QueryOutcome;
 import com.amazonaws.services.dynamodbv2.document.spec.QuerySpec;
 import com.amazonaws.services.dynamodbv2.document.utils.NameMap;
 import com.amazonaws.services.dynamodbv2.document.utils.ValueMap;
-import com.amazonaws.services.dynamodbv2.model.AttributeValueUpdate;
 import com.amazonaws.services.dynamodbv2.model.BatchGetItemRequest;
 import com.amazonaws.services.dynamodbv2.model.BatchWriteItemRequest;
 import com.amazonaws.services.dynamodbv2.model.BatchWriteItemResult;
+import com.amazonaws.services.dynamodbv2.model.ConditionalCheckFailedException;
 import com.amazonaws.services.dynamodbv2.model.DeleteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.DeleteItemResult;
 import com.amazonaws.services.dynamodbv2.model.DeleteRequest;
 import com.amazonaws.services.dynamodbv2.model.PutItemRequest;
+import com.amazonaws.services.dynamodbv2.model.PutItemResult;
 import com.amazonaws.services.dynamodbv2.model.PutRequest;
 import com.amazonaws.services.dynamodbv2.model.ReturnConsumedCapacity;
+import com.amazonaws.services.dynamodbv2.model.ReturnValue;
 import com.amazonaws.services.dynamodbv2.model.ScanRequest;
 import com.amazonaws.services.dynamodbv2.model.ScanResult;
 import com.amazonaws.services.dynamodbv2.model.UpdateItemRequest;
+import com.amazonaws.services.dynamodbv2.model.UpdateItemResult;
 import com.amazonaws.services.dynamodbv2.model.WriteRequest;
+import com.erudika.para.Para;
 import com.erudika.para.core.ParaObject;
 import com.erudika.para.core.utils.ParaObjectUtils;
 import static com.erudika.para.persistence.AWSDynamoUtils.getKeyForAppid;
 import static com.erudika.para.persistence.AWSDynamoUtils.getSharedIndex;
 import static com.erudika.para.persistence.AWSDynamoUtils.getTableNameForAppid;
+import static com.erudika.para.persistence.AWSDynamoUtils.fromAttributeValue;
 import static com.erudika.para.persistence.AWSDynamoUtils.isSharedAppid;
+import static com.erudika.para.persistence.AWSDynamoUtils.toAttributeValue;
 import com.erudika.para.utils.Config;
 import com.erudika.para.utils.Pager;
 import com.erudika.para.utils.Utils;
@@ -59,39 +70,91 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import javax.inject.Singleton;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import java.util.Set;
-import java.util.TreeSet;
 
 /**
  * An implementation of the {@link DAO} interface using AWS DynamoDB as a data store.
+ * It also implements {@link AsyncDAO} on top of the asynchronous DynamoDB client.
+ * Objects which expire are written with their expiry time in the {@link #TTL_ATTRIBUTE} attribute,
+ * so that DynamoDB deletes them when Time To Live is enabled on that attribute. Until then,
+ * expired rows are skipped when they are read and are removed from the search index. Only this node
+ * removes the objects it wrote from the index on time, and only the ones which expire soon,
+ * see {@link #evictExpired()}.
  * @author Alex Bogdanovski [alex@erudika.com]
  */
 @Singleton
-public class AWSDynamoDAO implements DAO {
+public class AWSDynamoDAO implements DAO, AsyncDAO {
 
 	private static final Logger logger = LoggerFactory.getLogger(AWSDynamoDAO.class);
 	private static final int MAX_ITEMS_PER_WRITE = 10; // Amazon DynamoDB limit ~= WRITE CAP
 	private static final int MAX_KEYS_PER_READ = 100; // Amazon DynamoDB limit = 100
+	private static final int MAX_SCAN_SEGMENTS = 1000000; // Amazon DynamoDB limit = 1000000
+	private static final ObjectSnapshots<RowSnapshot> SNAPSHOTS = new ObjectSnapshots<RowSnapshot>();
+	private static final Set<String> STRING_KEY_ATTRIBUTES = new HashSet<String>(Arrays.asList(Config._KEY,
+			Config._APPID, Config._TIMESTAMP));
+	private static final long EVICTION_INTERVAL_MS = 1000;
+	private static final int EXPIRY_WHEEL_SLOTS = 512;
 
 	/**
-	 * No-args constructor.
+	 * The attribute which holds the expiry time of an object, in seconds since the epoch,
+	 * as required by DynamoDB Time To Live.
 	 */
-	public AWSDynamoDAO() { }
+	public static final String TTL_ATTRIBUTE = "_ttl";
+	/**
+	 * The maximum number of objects whose expiry is tracked in memory, see {@link #evictExpired()}.
+	 * Default is 100000.
+	 */
+	public static final int EXPIRY_TRACKING_MAX = Config.getConfigInt("dynamodb_expiry_tracking_max", 100000);
+
+	private final ExpiryWheel expiring = new ExpiryWheel(EVICTION_INTERVAL_MS, EXPIRY_WHEEL_SLOTS,
+			EXPIRY_TRACKING_MAX);
+
+	/**
+	 * No-args constructor. Objects written by this DAO are removed from the search index
+	 * within a second of expiring.
+	 */
+	public AWSDynamoDAO() {
+		this(Para.getScheduledExecutorService());
+	}
+
+	/**
+	 * Default constructor.
+	 * @param scheduler the executor on which expired objects are removed from the search index
+	 */
+	AWSDynamoDAO(ScheduledExecutorService scheduler) {
+		scheduler.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				evictExpired();
+			}
+		}, EVICTION_INTERVAL_MS, EVICTION_INTERVAL_MS, TimeUnit.MILLISECONDS);
+	}
 
 	AmazonDynamoDBClient client() {
 		return AWSDynamoUtils.getClient();
 	}
 
+	AmazonDynamoDBAsyncClient asyncClient() {
+		return AWSDynamoUtils.getAsyncClient();
+	}
+
 	/////////////////////////////////////////////
 	//			CORE FUNCTIONS
 	/////////////////////////////////////////////
@@ -108,7 +171,11 @@ public class AWSDynamoDAO implements DAO {
 			so.setTimestamp(Utils.timestamp());
 		}
 		so.setAppid(appid);
-		createRow(so.getId(), appid, toRow(so, null));
+		Map<String, AttributeValue> row = toRow(so, null);
+		if (createRow(so.getId(), appid, row) != null) {
+			saveSnapshot(so, appid, row);
+			track(appid, so);
+		}
 		logger.debug("DAO.create() {}->{}", appid, so.getId());
 		return so.getId();
 	}
@@ -118,16 +185,27 @@ public class AWSDynamoDAO implements DAO {
 		if (StringUtils.isBlank(key)) {
 			return null;
 		}
-		P so = fromRow(readRow(key, appid));
+		P so = fromRow(getTableNameForAppid(appid), readRow(key, appid, null));
 		logger.debug("DAO.read() {}->{}", appid, key);
 		return so != null ? so : null;
 	}
 
+	@Override
+	public <P extends ParaObject> P read(String appid, String key, Set<String> fields) {
+		if (StringUtils.isBlank(key)) {
+			return null;
+		}
+		P so = fromRow(getTableNameForAppid(appid), readRow(key, appid, fields));
+		logger.debug("DAO.read() {}->{} {}", appid, key, fields);
+		return so;
+	}
+
 	@Override
 	public <P extends ParaObject> void update(String appid, P so) {
 		if (so != null && so.getId() != null) {
 			so.setUpdated(Utils.timestamp());
-			updateRow(so.getId(), appid, toRow(so, Locked.class));
+			updateRow(so, appid, toRow(so, Locked.class));
+			track(appid, so);
 			logger.debug("DAO.update() {}->{}", appid, so.getId());
 		}
 	}
@@ -136,10 +214,98 @@ public class AWSDynamoDAO implements DAO {
 	public <P extends ParaObject> void delete(String appid, P so) {
 		if (so != null && so.getId() != null) {
 			deleteRow(so.getId(), appid);
+			expiring.cancel(appid, so.getId());
 			logger.debug("DAO.delete() {}->{}", appid, so.getId());
 		}
 	}
 
+	@Override
+	public <P extends ParaObject> String createIfAbsent(String appid, P so) {
+		if (so == null || StringUtils.isBlank(appid)) {
+			return null;
+		}
+		if (StringUtils.isBlank(so.getId())) {
+			so.setId(Utils.getNewId());
+		}
+		if (so.getTimestamp() == null) {
+			so.setTimestamp(Utils.timestamp());
+		}
+		so.setAppid(appid);
+		Map<String, AttributeValue> row = toRow(so, null);
+		boolean created = false;
+		try {
+			setRowKey(getKeyForAppid(so.getId(), appid), row);
+			String table = getTableNameForAppid(appid);
+			Map<String, String> names = new HashMap<String, String>(2);
+			names.put("#k", Config._KEY);
+			names.put("#ttl", TTL_ATTRIBUTE);
+			// rows which have expired but haven't been deleted by DynamoDB yet count as missing
+			AWSDynamoCapacity.acquireWrite(table);
+			PutItemResult result = client().putItem(new PutItemRequest(table, row).
+					withConditionExpression("attribute_not_exists(#k) OR #ttl < :now").
+					withExpressionAttributeNames(names).
+					withExpressionAttributeValues(Collections.singletonMap(":now",
+							new AttributeValue().withN(Long.toString(Utils.timestamp() / 1000)))).
+					withReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL));
+			AWSDynamoCapacity.consumedWrite(result.getConsumedCapacity());
+			saveSnapshot(so, appid, row);
+			track(appid, so);
+			created = true;
+		} catch (ConditionalCheckFailedException e) {
+			logger.debug("DAO.createIfAbsent() {}->{} exists", appid, so.getId());
+		} catch (Exception e) {
+			logger.error(null, e);
+		}
+		return created ? so.getId() : null;
+	}
+
+	@Override
+	public <P extends ParaObject> boolean compareAndSet(String appid, P so, Long expectedVersion) {
+		if (so == null || StringUtils.isBlank(so.getId()) || StringUtils.isBlank(appid) || expectedVersion == null) {
+			return false;
+		}
+		Long oldUpdated = so.getUpdated();
+		so.setUpdated(DAOUtils.nextVersion(expectedVersion));
+		Map<String, AttributeValue> row = toRow(so, Locked.class);
+		try {
+			UpdateItemRequest request = getUpdateItemRequest(so.getId(), appid, row);
+			// the version is the "updated" attribute, or "timestamp" if the object was never updated.
+			// rows written in the old format have them as strings.
+			request.setConditionExpression("(#cu IN (:cv, :cs) OR (attribute_not_exists(#cu) AND #ct IN (:cv, :cs))) " +
+					"AND (attribute_not_exists(#cttl) OR #cttl >= :cnow)");
+			request.addExpressionAttributeNamesEntry("#cu", Config._UPDATED);
+			request.addExpressionAttributeNamesEntry("#ct", Config._TIMESTAMP);
+			request.addExpressionAttributeNamesEntry("#cttl", TTL_ATTRIBUTE);
+			request.addExpressionAttributeValuesEntry(":cv", new AttributeValue().withN(expectedVersion.toString()));
+			request.addExpressionAttributeValuesEntry(":cs", new AttributeValue(expectedVersion.toString()));
+			request.addExpressionAttributeValuesEntry(":cnow",
+					new AttributeValue().withN(Long.toString(Utils.timestamp() / 1000)));
+			AWSDynamoCapacity.acquireWrite(getTableNameForAppid(appid));
+			UpdateItemResult result = client().updateItem(request);
+			AWSDynamoCapacity.consumedWrite(result.getConsumedCapacity());
+			saveSnapshot(so, appid, row);
+			track(appid, so);
+			logger.debug("DAO.compareAndSet() {}->{}", appid, so.getId());
+			return true;
+		} catch (ConditionalCheckFailedException e) {
+			logger.debug("DAO.compareAndSet() {}->{} version mismatch", appid, so.getId());
+		} catch (Exception e) {
+			logger.error(null, e);
+		}
+		so.setUpdated(oldUpdated);
+		return false;
+	}
+
+	@Override
+	public Long increment(String appid, String key, String field, long delta) {
+		if (StringUtils.isBlank(key) || StringUtils.isBlank(appid) || StringUtils.isBlank(field)) {
+			return null;
+		}
+		Long value = incrementAttribute(key, appid, field, delta, true);
+		logger.debug("DAO.increment() {}->{}.{} = {}", appid, key, field, value);
+		return value;
+	}
+
 	/////////////////////////////////////////////
 	//				ROW FUNCTIONS
 	/////////////////////////////////////////////
@@ -151,40 +317,144 @@ public class AWSDynamoDAO implements DAO {
 		try {
 			key = getKeyForAppid(key, appid);
 			setRowKey(key, row);
-			PutItemRequest putItemRequest = new PutItemRequest(getTableNameForAppid(appid), row);
-			client().putItem(putItemRequest);
+			String table = getTableNameForAppid(appid);
+			AWSDynamoCapacity.acquireWrite(table);
+			PutItemResult result = client().putItem(new PutItemRequest(table, row).
+					withReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL));
+			AWSDynamoCapacity.consumedWrite(result.getConsumedCapacity());
 		} catch (Exception e) {
 			logger.error(null, e);
+			return null;
 		}
 		return key;
 	}
 
-	private void updateRow(String key, String appid, Map<String, AttributeValue> row) {
-		if (StringUtils.isBlank(key) || StringUtils.isBlank(appid) || row == null || row.isEmpty()) {
+	private <P extends ParaObject> void updateRow(P so, String appid, Map<String, AttributeValue> row) {
+		if (so == null || StringUtils.isBlank(so.getId()) || StringUtils.isBlank(appid) ||
+				row == null || row.isEmpty()) {
 			return;
 		}
-		Map<String, AttributeValueUpdate> rou = new HashMap<String, AttributeValueUpdate>();
+		updateAttributes(so, appid, getChangedAttributes(so, appid, row));
+	}
+
+	private <P extends ParaObject> void updateAttributes(P so, String appid, Map<String, AttributeValue> changes) {
+		Set<String> written = Collections.emptySet();
 		try {
-			for (Entry<String, AttributeValue> attr : row.entrySet()) {
-				rou.put(attr.getKey(), new AttributeValueUpdate(attr.getValue(), AttributeAction.PUT));
+			if (!changes.isEmpty()) {
+				AWSDynamoCapacity.acquireWrite(getTableNameForAppid(appid));
+				UpdateItemResult result = client().updateItem(getUpdateItemRequest(so.getId(), appid, changes));
+				AWSDynamoCapacity.consumedWrite(result.getConsumedCapacity());
+				saveSnapshot(so, appid, changes);
+				written = changes.keySet();
 			}
-			UpdateItemRequest updateItemRequest = new UpdateItemRequest(getTableNameForAppid(appid),
-					Collections.singletonMap(Config._KEY, new AttributeValue(getKeyForAppid(key, appid))), rou);
-			client().updateItem(updateItemRequest);
 		} catch (Exception e) {
 			logger.error(null, e);
 		}
+		DAOUtils.recordChanges(so.getId(), written);
+	}
+
+	/**
+	 * Builds an update request which sets only the given attributes, using an update expression.
+	 * @param key the object id
+	 * @param appid the app id
+	 * @param row the attributes to set
+	 * @return an update request
+	 */
+	private UpdateItemRequest getUpdateItemRequest(String key, String appid, Map<String, AttributeValue> row) {
+		StringBuilder expression = new StringBuilder("SET ");
+		Map<String, String> names = new HashMap<String, String>(row.size());
+		Map<String, AttributeValue> values = new HashMap<String, AttributeValue>(row.size());
+		int i = 0;
+		for (Entry<String, AttributeValue> attr : row.entrySet()) {
+			if (Config._KEY.equals(attr.getKey())) {
+				continue; // the primary key can't be updated
+			}
+			if (i > 0) {
+				expression.append(", ");
+			}
+			expression.append("#f").append(i).append(" = :v").append(i);
+			names.put("#f" + i, attr.getKey());
+			values.put(":v" + i, attr.getValue());
+			i++;
+		}
+		AttributeValue expiresAt = row.get(Config._EXPIRES_AT);
+		if (expiresAt != null && expiresAt.getN() != null && expiresAt.getN().startsWith("-")) {
+			// the expiry time was removed, so DynamoDB must not delete the row
+			expression.append(" REMOVE #ttl");
+			names.put("#ttl", TTL_ATTRIBUTE);
+		}
+		return new UpdateItemRequest().
+				withTableName(getTableNameForAppid(appid)).
+				withKey(Collections.singletonMap(Config._KEY, new AttributeValue(getKeyForAppid(key, appid)))).
+				withUpdateExpression(expression.toString()).
+				withExpressionAttributeNames(names).
+				withExpressionAttributeValues(values).
+				withReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
+	}
+
+	/**
+	 * Compares the row of an object with the one it was loaded with and returns only the attributes
+	 * which have changed. If there's no snapshot of the object, e.g. it came from the cache or a bulk read,
+	 * all attributes are returned. Attributes which are missing from the new row are never removed.
+	 * @param so the object
+	 * @param appid the app id
+	 * @param row the current state of the object
+	 * @return the changed attributes
+	 */
+	private <P extends ParaObject> Map<String, AttributeValue> getChangedAttributes(P so, String appid,
+			Map<String, AttributeValue> row) {
+		RowSnapshot snapshot = SNAPSHOTS.get(so);
+		if (snapshot == null || !snapshot.isRowOf(getTableNameForAppid(appid), getKeyForAppid(so.getId(), appid))) {
+			return new HashMap<String, AttributeValue>(row);
+		}
+		Map<String, AttributeValue> changes = new HashMap<String, AttributeValue>();
+		for (Entry<String, AttributeValue> attr : row.entrySet()) {
+			if (!attr.getValue().equals(snapshot.getRow().get(attr.getKey()))) {
+				changes.put(attr.getKey(), attr.getValue());
+			}
+		}
+		logger.debug("DAO.update() {} of {} attributes changed", changes.size(), row.size());
+		return changes;
+	}
+
+	/**
+	 * Remembers the state of an object after it was written, merging the written attributes
+	 * into the previous snapshot.
+	 * @param so the object
+	 * @param appid the app id
+	 * @param written the attributes written to the table
+	 */
+	private <P extends ParaObject> void saveSnapshot(P so, String appid, Map<String, AttributeValue> written) {
+		String table = getTableNameForAppid(appid);
+		String key = getKeyForAppid(so.getId(), appid);
+		RowSnapshot snapshot = SNAPSHOTS.get(so);
+		Map<String, AttributeValue> row = new HashMap<String, AttributeValue>();
+		if (snapshot != null && snapshot.isRowOf(table, key)) {
+			row.putAll(snapshot.getRow());
+		}
+		row.putAll(written);
+		row.put(Config._KEY, new AttributeValue(key));
+		SNAPSHOTS.put(so, new RowSnapshot(table, row));
 	}
 
-	private Map<String, AttributeValue> readRow(String key, String appid) {
+	private Map<String, AttributeValue> readRow(String key, String appid, Set<String> fields) {
 		if (StringUtils.isBlank(key) || StringUtils.isBlank(appid)) {
 			return null;
 		}
 		Map<String, AttributeValue> row = null;
 		try {
-			GetItemRequest getItemRequest = new GetItemRequest(getTableNameForAppid(appid),
-					Collections.singletonMap(Config._KEY, new AttributeValue(getKeyForAppid(key, appid))));
+			String table = getTableNameForAppid(appid);
+			GetItemRequest getItemRequest = new GetItemRequest(table,
+					Collections.singletonMap(Config._KEY, new AttributeValue(getKeyForAppid(key, appid)))).
+					withReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
+			if (fields != null && !fields.isEmpty()) {
+				Map<String, String> names = new HashMap<String, String>();
+				getItemRequest.setProjectionExpression(getProjectionExpression(fields, names));
+				getItemRequest.setExpressionAttributeNames(names);
+			}
+			AWSDynamoCapacity.acquireRead(table);
 			GetItemResult res = client().getItem(getItemRequest);
+			AWSDynamoCapacity.consumedRead((res == null) ? null : res.getConsumedCapacity());
 			if (res != null && res.getItem() != null && !res.getItem().isEmpty()) {
 				row = res.getItem();
 			}
@@ -194,16 +464,112 @@ public class AWSDynamoDAO implements DAO {
 		return (row == null || row.isEmpty()) ? null : row;
 	}
 
+	/**
+	 * Builds a projection expression which reads only the given fields, plus the key, id, type and appid.
+	 * Nested fields, like "properties.color", are read together with their parent attribute.
+	 * @param fields field names
+	 * @param names filled with the expression attribute names, because most field names are reserved words
+	 * @return a projection expression
+	 */
+	private static String getProjectionExpression(Set<String> fields, Map<String, String> names) {
+		Set<String> attributes = new LinkedHashSet<String>(Arrays.asList(Config._KEY, Config._ID,
+				Config._TYPE, Config._APPID));
+		for (String field : fields) {
+			String attribute = StringUtils.substringBefore(StringUtils.trimToEmpty(field), ".");
+			if (!attribute.isEmpty()) {
+				attributes.add(attribute);
+			}
+		}
+		StringBuilder expression = new StringBuilder();
+		for (String attribute : attributes) {
+			if (expression.length() > 0) {
+				expression.append(", ");
+			}
+			expression.append("#p").append(names.size());
+			names.put("#p" + names.size(), attribute);
+		}
+		return expression.toString();
+	}
+
+	/**
+	 * Adds a number to an attribute using an atomic update. Top-level attributes are updated with ADD.
+	 * Nested attributes, like user-defined properties, are updated with SET, because ADD doesn't support them.
+	 * @param key the object id
+	 * @param appid the app id
+	 * @param field a top-level attribute or "parent.name" for a value inside a map attribute
+	 * @param delta the number to add
+	 * @param convert if true and the row was written in the old string format, it's converted and
+	 * the update is retried
+	 * @return the new value or null if the object doesn't exist or the attribute isn't a number
+	 */
+	private Long incrementAttribute(String key, String appid, String field, long delta, boolean convert) {
+		Map<String, String> names = new HashMap<String, String>();
+		Map<String, AttributeValue> values = new HashMap<String, AttributeValue>();
+		names.put("#k", Config._KEY);
+		values.put(":d", new AttributeValue().withN(Long.toString(delta)));
+		String parent = StringUtils.substringBefore(field, ".");
+		String child = StringUtils.substringAfter(field, ".");
+		String expression;
+		names.put("#f", parent);
+		if (child.isEmpty()) {
+			expression = "ADD #f :d";
+		} else {
+			names.put("#c", child);
+			values.put(":z", new AttributeValue().withN("0"));
+			expression = "SET #f.#c = if_not_exists(#f.#c, :z) + :d";
+		}
+		try {
+			AWSDynamoCapacity.acquireWrite(getTableNameForAppid(appid));
+			UpdateItemResult result = client().updateItem(new UpdateItemRequest().
+					withTableName(getTableNameForAppid(appid)).
+					withKey(Collections.singletonMap(Config._KEY, new AttributeValue(getKeyForAppid(key, appid)))).
+					withUpdateExpression(expression).
+					withConditionExpression("attribute_exists(#k)").
+					withExpressionAttributeNames(names).
+					withExpressionAttributeValues(values).
+					withReturnValues(ReturnValue.UPDATED_NEW).
+					withReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL));
+			AWSDynamoCapacity.consumedWrite(result.getConsumedCapacity());
+			AttributeValue updated = result.getAttributes().get(parent);
+			if (updated != null && !child.isEmpty()) {
+				updated = (updated.getM() == null) ? null : updated.getM().get(child);
+			}
+			return (updated == null || updated.getN() == null) ? null : Long.valueOf(updated.getN());
+		} catch (ConditionalCheckFailedException e) {
+			return null; // object doesn't exist
+		} catch (AmazonServiceException e) {
+			if (convert && "ValidationException".equals(e.getErrorCode())) {
+				// the attribute is probably stored as a string - rewrite the row with native types and retry
+				Map<String, AttributeValue> row = readRow(key, appid, null);
+				ParaObject so = fromRow(null, row);
+				if (so != null) {
+					// all attributes are written, including the counter, which update() would leave out
+					updateAttributes(so, appid, toRow(so, Locked.class));
+					return incrementAttribute(key, appid, field, delta, false);
+				}
+			}
+			logger.error(null, e);
+		} catch (Exception e) {
+			logger.error(null, e);
+		}
+		return null;
+	}
+
 	private void deleteRow(String key, String appid) {
 		if (StringUtils.isBlank(key) || StringUtils.isBlank(appid)) {
 			return;
 		}
 		try {
-			DeleteItemRequest delItemRequest = new DeleteItemRequest(getTableNameForAppid(appid),
-					Collections.singletonMap(Config._KEY, new AttributeValue(getKeyForAppid(key, appid))));
-			client().deleteItem(delItemRequest);
+			String table = getTableNameForAppid(appid);
+			DeleteItemRequest delItemRequest = new DeleteItemRequest(table,
+					Collections.singletonMap(Config._KEY, new AttributeValue(getKeyForAppid(key, appid)))).
+					withReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
+			AWSDynamoCapacity.acquireWrite(table);
+			DeleteItemResult result = client().deleteItem(delItemRequest);
+			AWSDynamoCapacity.consumedWrite(result.getConsumedCapacity());
 		} catch (Exception e) {
 			logger.error(null, e);
+			DAOUtils.recordFailedWrites(Collections.singleton(key));
 		}
 	}
 
@@ -219,55 +585,190 @@ public class AWSDynamoDAO implements DAO {
 
 	@Override
 	public <P extends ParaObject> Map<String, P> readAll(String appid, List<String> keys, boolean getAllColumns) {
-		if (keys == null || keys.isEmpty() || StringUtils.isBlank(appid)) {
-			return new LinkedHashMap<String, P>();
+		try {
+			return this.<P>readAllFromTable(appid, keys, getAllColumns, null, true).get();
+		} catch (Exception e) {
+			throwIfUnread(e);
+			logger.error("Failed to readAll({}), {}", keys, e);
 		}
+		return new LinkedHashMap<String, P>();
+	}
 
-		// DynamoDB doesn't allow duplicate keys in batch requests
-		Set<String> keySet = new TreeSet<String>(keys);
-		if (keySet.size() < keys.size() && !keySet.isEmpty()) {
-			logger.debug("Duplicate keys found - readAll({})", keys);
+	@Override
+	public <P extends ParaObject> Map<String, P> readAll(String appid, List<String> keys, Set<String> fields) {
+		try {
+			return this.<P>readAllFromTable(appid, keys, true, fields, true).get();
+		} catch (Exception e) {
+			throwIfUnread(e);
+			logger.error("Failed to readAll({}), {}", keys, e);
 		}
+		return new LinkedHashMap<String, P>();
+	}
 
-		Map<String, P> results = new LinkedHashMap<String, P>(keySet.size(), 0.75f, true);
-		ArrayList<Map<String, AttributeValue>> keyz = new ArrayList<Map<String, AttributeValue>>(MAX_KEYS_PER_READ);
-
-		try {
-			int batchSteps = 1;
-			if ((keySet.size() > MAX_KEYS_PER_READ)) {
-				batchSteps = (keySet.size() / MAX_KEYS_PER_READ)
-						+ ((keySet.size() % MAX_KEYS_PER_READ > 0) ? 1 : 0);
+	/**
+	 * Reads all keys of one app in batches of 100, sent in parallel.
+	 * @param appid appid
+	 * @param keys a list of keys
+	 * @param getAllColumns if false, only the key, id and type attributes are fetched
+	 * @param fields if not empty, only these fields are fetched, see {@link #getProjectionExpression(Set, Map)}
+	 * @param inline if true, the first batch is executed on the calling thread
+	 * @return a future holding a map of ids to objects in the order of the original keys
+	 */
+	private <P extends ParaObject> CompletableFuture<Map<String, P>> readAllFromTable(final String appid,
+			List<String> keys, boolean getAllColumns, Set<String> fields, boolean inline) {
+		if (keys == null || keys.isEmpty() || StringUtils.isBlank(appid)) {
+			return CompletableFuture.completedFuture((Map<String, P>) new LinkedHashMap<String, P>());
+		}
+		return this.<P>readAllFromTables(Collections.singletonMap(appid, keys), getAllColumns, fields, inline).
+				thenApply(new Function<Map<String, Map<String, P>>, Map<String, P>>() {
+			public Map<String, P> apply(Map<String, Map<String, P>> results) {
+				Map<String, P> appResults = results.get(appid);
+				return (appResults == null) ? new LinkedHashMap<String, P>() : appResults;
 			}
+		});
+	}
 
-			Iterator<String> it = keySet.iterator();
-			int j = 0;
+	/**
+	 * Reads the keys of a number of apps in batches of 100, sent in parallel. Keys of different apps and
+	 * tables share the same batches.
+	 * @param keys a map of appids to lists of keys
+	 * @param getAllColumns if false, only the key, id and type attributes are fetched
+	 * @param fields if not empty, only these fields are fetched, see {@link #getProjectionExpression(Set, Map)}
+	 * @param inline if true, the first batch is executed on the calling thread
+	 * @return a future holding a map of appids to maps of ids to objects, in the order of the original keys.
+	 * It fails with a {@link BatchReadException} if some keys couldn't be read.
+	 */
+	private <P extends ParaObject> CompletableFuture<Map<String, Map<String, P>>> readAllFromTables(
+			Map<String, List<String>> keys, boolean getAllColumns, Set<String> fields, boolean inline) {
+		// DynamoDB doesn't allow duplicate keys in batch requests
+		final Map<String, Set<String>> keySets = new LinkedHashMap<String, Set<String>>();
+		List<Map<String, KeysAndAttributes>> batches = new ArrayList<Map<String, KeysAndAttributes>>();
+		Map<String, List<Map<String, AttributeValue>>> batch = new LinkedHashMap<String, List<Map<String, AttributeValue>>>();
+		int batchSize = 0;
+		for (Entry<String, List<String>> app : keys.entrySet()) {
+			if (StringUtils.isBlank(app.getKey()) || app.getValue() == null || keySets.containsKey(app.getKey())) {
+				continue;
+			}
+			Set<String> keySet = new LinkedHashSet<String>(app.getValue());
+			keySet.remove(null);
+			if (keySet.size() < app.getValue().size()) {
+				logger.debug("Duplicate keys found - readAll({})", app.getValue());
+			}
+			keySets.put(app.getKey(), keySet);
+			String table = getTableNameForAppid(app.getKey());
+			for (String key : keySet) {
+				if (!batch.containsKey(table)) {
+					batch.put(table, new ArrayList<Map<String, AttributeValue>>());
+				}
+				batch.get(table).add(Collections.singletonMap(Config._KEY,
+						new AttributeValue(getKeyForAppid(key, app.getKey()))));
+				if (++batchSize == MAX_KEYS_PER_READ) {
+					batches.add(getKeysAndAttributes(batch, getAllColumns, fields));
+					batch = new LinkedHashMap<String, List<Map<String, AttributeValue>>>();
+					batchSize = 0;
+				}
+			}
+		}
+		if (batchSize > 0) {
+			batches.add(getKeysAndAttributes(batch, getAllColumns, fields));
+		}
 
-			for (int i = 0; i < batchSteps; i++) {
-				while (it.hasNext() && j < MAX_KEYS_PER_READ) {
-					String key = it.next();
-					results.put(key, null);
-					keyz.add(Collections.singletonMap(Config._KEY, new AttributeValue(getKeyForAppid(key, appid))));
-					j++;
+		final List<CompletableFuture<Map<String, P>>> futures = this.<P>batchGetAll(batches, inline);
+		return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).
+				handle(new BiFunction<Void, Throwable, Map<String, Map<String, P>>>() {
+			public Map<String, Map<String, P>> apply(Void v, Throwable err) {
+				Map<String, P> rows = new HashMap<String, P>();
+				UnprocessedKeysException unprocessed = null;
+				for (CompletableFuture<Map<String, P>> future : futures) {
+					try {
+						rows.putAll(future.join());
+					} catch (CompletionException e) {
+						if (!(e.getCause() instanceof UnprocessedKeysException)) {
+							throw e;
+						}
+						unprocessed = ((UnprocessedKeysException) e.getCause()).merge(unprocessed);
+					}
+				}
+				if (unprocessed != null) {
+					throw getUnreadException(keySets, unprocessed);
 				}
+				// merge in the order of the original keys, ignoring objects we didn't ask for
+				Map<String, Map<String, P>> results = new LinkedHashMap<String, Map<String, P>>(keySets.size());
+				for (Entry<String, Set<String>> app : keySets.entrySet()) {
+					String table = getTableNameForAppid(app.getKey());
+					Map<String, P> appResults = new LinkedHashMap<String, P>(app.getValue().size());
+					for (String key : app.getValue()) {
+						appResults.put(key, rows.get(rowRef(table, getKeyForAppid(key, app.getKey()))));
+					}
+					results.put(app.getKey(), appResults);
+					logger.debug("DAO.readAll({}) {}", app.getValue(), appResults.size());
+				}
+				return results;
+			}
+		});
+	}
 
-				KeysAndAttributes kna = new KeysAndAttributes().withKeys(keyz);
-				if (!getAllColumns) {
-					kna.setAttributesToGet(Arrays.asList(Config._KEY, Config._TYPE));
+	/**
+	 * Maps the row keys which weren't read back to the ids of the objects of each app.
+	 */
+	private BatchReadException getUnreadException(Map<String, Set<String>> keySets,
+			UnprocessedKeysException unprocessed) {
+		Map<String, List<String>> unread = new LinkedHashMap<String, List<String>>();
+		for (Entry<String, Set<String>> app : keySets.entrySet()) {
+			String table = getTableNameForAppid(app.getKey());
+			List<String> ids = new ArrayList<String>();
+			for (String key : app.getValue()) {
+				if (unprocessed.rowRefs.contains(rowRef(table, getKeyForAppid(key, app.getKey())))) {
+					ids.add(key);
 				}
+			}
+			if (!ids.isEmpty()) {
+				unread.put(app.getKey(), ids);
+			}
+		}
+		return new BatchReadException(unread, unprocessed.getCause());
+	}
 
-				batchGet(Collections.singletonMap(getTableNameForAppid(appid), kna), results);
-				keyz.clear();
-				j = 0;
+	/**
+	 * Rethrows the {@link BatchReadException} which failed a read, if any.
+	 */
+	private static void throwIfUnread(Throwable e) {
+		Throwable cause = e;
+		while (cause != null && !(cause instanceof BatchReadException)) {
+			cause = cause.getCause();
+		}
+		if (cause != null) {
+			throw (BatchReadException) cause;
+		}
+	}
+
+	private Map<String, KeysAndAttributes> getKeysAndAttributes(Map<String, List<Map<String, AttributeValue>>> keys,
+			boolean getAllColumns, Set<String> fields) {
+		Map<String, KeysAndAttributes> batch = new LinkedHashMap<String, KeysAndAttributes>(keys.size());
+		for (Entry<String, List<Map<String, AttributeValue>>> table : keys.entrySet()) {
+			KeysAndAttributes kna = new KeysAndAttributes().withKeys(table.getValue());
+			if (fields != null && !fields.isEmpty()) {
+				Map<String, String> names = new HashMap<String, String>();
+				kna.setProjectionExpression(getProjectionExpression(fields, names));
+				kna.setExpressionAttributeNames(names);
+			} else if (!getAllColumns) {
+				kna.setAttributesToGet(Arrays.asList(Config._KEY, Config._ID, Config._TYPE));
 			}
-			logger.debug("DAO.readAll({}) {}", keySet, results.size());
-		} catch (Exception e) {
-			logger.error("Failed to readAll({}), {}", keys, e);
+			batch.put(table.getKey(), kna);
 		}
-		return results;
+		return batch;
+	}
+
+	private static String rowRef(String table, String rowKey) {
+		return table.concat(Config.SEPARATOR).concat(rowKey);
 	}
 
 	@Override
 	public <P extends ParaObject> List<P> readPage(String appid, Pager pager) {
+		return readPageFromDB(appid, pager);
+	}
+
+	private <P extends ParaObject> List<P> readPageFromDB(String appid, Pager pager) {
 		LinkedList<P> results = new LinkedList<P>();
 		if (StringUtils.isBlank(appid)) {
 			return results;
@@ -310,9 +811,11 @@ public class AWSDynamoDAO implements DAO {
 					singletonMap(Config._KEY, new AttributeValue(pager.getLastKey())));
 		}
 
+		AWSDynamoCapacity.acquireRead(scanRequest.getTableName());
 		ScanResult result = client().scan(scanRequest);
+		AWSDynamoCapacity.consumedRead(result.getConsumedCapacity());
 		for (Map<String, AttributeValue> item : result.getItems()) {
-			P obj = fromRow(item);
+			P obj = fromRow(null, item);
 			if (obj != null) {
 				results.add(obj);
 			}
@@ -342,12 +845,15 @@ public class AWSDynamoDAO implements DAO {
 				withMaxResultSize(pager.getLimit()).
 				withKeyConditionExpression(Config._APPID + " = :aid" + lastKeyFragment).
 				withValueMap(valueMap).
-				withNameMap(nameMap);
+				withNameMap(nameMap).
+				withReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
 
 		if (index != null) {
+			AWSDynamoCapacity.acquireRead(index.getTable().getTableName());
 			Page<Item, QueryOutcome> items = index.query(spec).firstPage();
+			AWSDynamoCapacity.consumedRead(items.getLowLevelResult().getQueryResult().getConsumedCapacity());
 			for (Item item : items) {
-				P obj = ParaObjectUtils.setAnnotatedFields(item.asMap());
+				P obj = fromRow(null, InternalUtils.toAttributeValues(item));
 				if (obj != null) {
 					results.add(obj);
 				}
@@ -361,6 +867,70 @@ public class AWSDynamoDAO implements DAO {
 		}
 	}
 
+	@Override
+	public <P extends ParaObject> long scan(final String appid, int segments, final Consumer<List<P>> consumer) {
+		if (StringUtils.isBlank(appid) || consumer == null) {
+			return 0L;
+		}
+		long count = 0L;
+		if (isSharedAppid(appid)) {
+			// objects in the shared table are read through the index, one page at a time
+			Pager pager = new Pager(DAOUtils.SCAN_PAGE_SIZE);
+			String lastKey;
+			do {
+				LinkedList<P> page = new LinkedList<P>();
+				lastKey = readPageFromSharedTable(appid, pager, page);
+				if (!page.isEmpty()) {
+					consumer.accept(page);
+					count += page.size();
+				}
+				pager.setLastKey(lastKey);
+			} while (lastKey != null);
+		} else {
+			// errors are not caught here - a scan which didn't read all segments must fail
+			final int totalSegments = Math.max(1, Math.min(segments, MAX_SCAN_SEGMENTS));
+			count = DAOUtils.scanSegments(totalSegments, consumer, new BiFunction<Integer, Consumer<List<P>>, Long>() {
+				public Long apply(Integer segment, Consumer<List<P>> pages) {
+					return scanSegment(appid, segment, totalSegments, pages);
+				}
+			});
+		}
+		logger.debug("DAO.scan() {}", count);
+		return count;
+	}
+
+	private <P extends ParaObject> long scanSegment(String appid, int segment, int totalSegments,
+			Consumer<List<P>> consumer) {
+		long count = 0L;
+		Map<String, AttributeValue> lastKey = null;
+		do {
+			ScanRequest scanRequest = new ScanRequest().
+					withTableName(getTableNameForAppid(appid)).
+					withSegment(segment).
+					withTotalSegments(totalSegments).
+					withExclusiveStartKey(lastKey).
+					withReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
+
+			AWSDynamoCapacity.acquireRead(scanRequest.getTableName());
+			ScanResult result = client().scan(scanRequest);
+			AWSDynamoCapacity.consumedRead(result.getConsumedCapacity());
+			List<P> page = new ArrayList<P>(result.getItems().size());
+			for (Map<String, AttributeValue> item : result.getItems()) {
+				// no snapshots here - scanned objects are usually not updated and there may be millions
+				P obj = fromRow(null, item);
+				if (obj != null) {
+					page.add(obj);
+				}
+			}
+			if (!page.isEmpty()) {
+				consumer.accept(page);
+				count += page.size();
+			}
+			lastKey = result.getLastEvaluatedKey();
+		} while (lastKey != null && !lastKey.isEmpty());
+		return count;
+	}
+
 	@Override
 	public <P extends ParaObject> void updateAll(String appid, List<P> objects) {
 		// DynamoDB doesn't have a BatchUpdate API yet so we have to do one of the following:
@@ -379,69 +949,232 @@ public class AWSDynamoDAO implements DAO {
 		if (objects == null || objects.isEmpty() || StringUtils.isBlank(appid)) {
 			return;
 		}
+		Set<String> unwritten = batchWriteAll(Collections.singletonMap(getTableNameForAppid(appid),
+				getDeleteRequests(appid, objects)));
+		untrack(appid, objects);
+		checkWritten(Collections.singletonMap(appid, objects), unwritten);
+		logger.debug("DAO.deleteAll() {}", objects.size());
+	}
 
-		List<WriteRequest> reqs = new ArrayList<WriteRequest>(objects.size());
-		for (ParaObject object : objects) {
-			if (object != null) {
-				reqs.add(new WriteRequest().withDeleteRequest(new DeleteRequest().
-						withKey(Collections.singletonMap(Config._KEY,
-								new AttributeValue(getKeyForAppid(object.getId(), appid))))));
+	@Override
+	public <P extends ParaObject> void createAllInApps(Map<String, List<P>> objects) {
+		if (objects == null || objects.isEmpty()) {
+			return;
+		}
+		// apps which share a table are written with the same requests
+		Map<String, List<WriteRequest>> reqs = new LinkedHashMap<String, List<WriteRequest>>();
+		for (Entry<String, List<P>> app : objects.entrySet()) {
+			if (!StringUtils.isBlank(app.getKey()) && app.getValue() != null) {
+				getRequestsForTable(reqs, app.getKey()).addAll(getPutRequests(app.getKey(), app.getValue(), false));
 			}
 		}
-		batchWrite(Collections.singletonMap(getTableNameForAppid(appid), reqs));
-		logger.debug("DAO.deleteAll() {}", objects.size());
+		checkWritten(objects, batchWriteAll(reqs));
+		logger.debug("DAO.createAllInApps() {}", objects.keySet());
 	}
 
-	private <P extends ParaObject> void batchGet(Map<String, KeysAndAttributes> kna, Map<String, P> results) {
+	@Override
+	public <P extends ParaObject> Map<String, Map<String, P>> readAllFromApps(Map<String, List<String>> keys,
+			boolean getAllColumns) {
+		if (keys != null && !keys.isEmpty()) {
+			try {
+				return this.<P>readAllFromTables(keys, getAllColumns, null, true).get();
+			} catch (Exception e) {
+				throwIfUnread(e);
+				logger.error("Failed to readAllFromApps({}), {}", keys.keySet(), e);
+			}
+		}
+		return new LinkedHashMap<String, Map<String, P>>();
+	}
+
+	@Override
+	public <P extends ParaObject> void deleteAllFromApps(Map<String, List<P>> objects) {
+		if (objects == null || objects.isEmpty()) {
+			return;
+		}
+		Map<String, List<WriteRequest>> reqs = new LinkedHashMap<String, List<WriteRequest>>();
+		for (Entry<String, List<P>> app : objects.entrySet()) {
+			if (!StringUtils.isBlank(app.getKey()) && app.getValue() != null) {
+				getRequestsForTable(reqs, app.getKey()).addAll(getDeleteRequests(app.getKey(), app.getValue()));
+			}
+		}
+		Set<String> unwritten = batchWriteAll(reqs);
+		for (Entry<String, List<P>> app : objects.entrySet()) {
+			untrack(app.getKey(), app.getValue());
+		}
+		checkWritten(objects, unwritten);
+		logger.debug("DAO.deleteAllFromApps() {}", objects.keySet());
+	}
+
+	private List<WriteRequest> getRequestsForTable(Map<String, List<WriteRequest>> reqs, String appid) {
+		String table = getTableNameForAppid(appid);
+		if (!reqs.containsKey(table)) {
+			reqs.put(table, new ArrayList<WriteRequest>());
+		}
+		return reqs.get(table);
+	}
+
+	/**
+	 * Executes a number of batch get requests in parallel on the batch executor.
+	 * @param batches a list of batch get requests, each one containing at most 100 keys
+	 * @param inline if true, the first request is executed on the calling thread, while the rest are in flight
+	 * @return a list of futures, one for each request, in the same order as the requests
+	 */
+	private <P extends ParaObject> List<CompletableFuture<Map<String, P>>> batchGetAll(
+			List<Map<String, KeysAndAttributes>> batches, boolean inline) {
+		List<CompletableFuture<Map<String, P>>> futures =
+				new ArrayList<CompletableFuture<Map<String, P>>>(batches.size());
+		for (final Map<String, KeysAndAttributes> batch : batches) {
+			final CompletableFuture<Map<String, P>> future = new CompletableFuture<Map<String, P>>();
+			futures.add(future);
+			if (inline && futures.size() == 1) {
+				continue;
+			}
+			// the capacity of background work is limited on the batch executor too
+			AWSDynamoUtils.getBatchExecutor().execute(DAOUtils.inheritBackgroundWork(new Runnable() {
+				public void run() {
+					batchGet(batch, new HashMap<String, P>(MAX_KEYS_PER_READ), 0, false, future);
+				}
+			}));
+		}
+		if (inline && !batches.isEmpty()) {
+			batchGet(batches.get(0), new HashMap<String, P>(MAX_KEYS_PER_READ), 0, false, futures.get(0));
+		}
+		return futures;
+	}
+
+	/**
+	 * Reads a batch of items and completes the given future when all keys have been processed.
+	 * Unprocessed keys are retried asynchronously with exponential backoff.
+	 * @param kna keys and attributes
+	 * @param results the map of results which is filled on each attempt
+	 * @param attempt the number of retries so far
+	 * @param waited true if the request has already waited for capacity
+	 * @param future completed with the results, or failed with an {@link UnprocessedKeysException}
+	 * if some keys weren't read after the last attempt or the request failed
+	 */
+	private <P extends ParaObject> void batchGet(final Map<String, KeysAndAttributes> kna,
+			final Map<String, P> results, final int attempt, boolean waited,
+			final CompletableFuture<Map<String, P>> future) {
 		if (kna == null || kna.isEmpty() || results == null) {
+			future.complete(results);
 			return;
 		}
 		try {
+			long delay = waited ? 0 : getCapacityDelay(kna.keySet(), true);
+			if (delay > 0) {
+				AWSDynamoRetryScheduler.schedule(delay, new Runnable() {
+					public void run() {
+						batchGet(kna, results, attempt, true, future);
+					}
+				});
+				return;
+			}
 			BatchGetItemResult result = client().batchGetItem(new BatchGetItemRequest().
 					withReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL).withRequestItems(kna));
 			if (result == null) {
+				future.complete(results);
 				return;
 			}
+			AWSDynamoCapacity.consumedRead(result.getConsumedCapacity());
 
-			List<Map<String, AttributeValue>> res = result.getResponses().get(kna.keySet().iterator().next());
+			int total = addResults(result, results);
+			logger.debug("batchGet(): total {}, cc {}", total, result.getConsumedCapacity());
 
-			for (Map<String, AttributeValue> item : res) {
-				P obj = fromRow(item);
-				if (obj != null) {
-					results.put(obj.getId(), obj);
+			final Map<String, KeysAndAttributes> unprocessed = result.getUnprocessedKeys();
+			if (unprocessed != null && !unprocessed.isEmpty()) {
+				int count = 0;
+				for (KeysAndAttributes keys : unprocessed.values()) {
+					count += keys.getKeys().size();
 				}
-			}
-			logger.debug("batchGet(): total {}, cc {}", res.size(), result.getConsumedCapacity());
-
-			if (result.getUnprocessedKeys() != null && !result.getUnprocessedKeys().isEmpty()) {
-				Thread.sleep(1000);
-				logger.warn("UNPROCESSED {}", result.getUnprocessedKeys().size());
-				batchGet(result.getUnprocessedKeys(), results);
+				if (!AWSDynamoRetryScheduler.scheduleRetry(attempt, count, new Runnable() {
+					public void run() {
+						batchGet(unprocessed, results, attempt + 1, false, future);
+					}
+				})) {
+					future.completeExceptionally(new UnprocessedKeysException(unprocessed, null));
+				}
+				return;
 			}
 		} catch (Exception e) {
 			logger.error(null, e);
+			future.completeExceptionally(new UnprocessedKeysException(kna, e));
+			return;
 		}
+		future.complete(results);
 	}
 
-	private void batchWrite(Map<String, List<WriteRequest>> items) {
+	/**
+	 * Adds the items returned by a batch get request to a map of results. A batch may contain keys of
+	 * several apps, so results are keyed by table and row key.
+	 * @return the number of items returned
+	 */
+	private <P extends ParaObject> int addResults(BatchGetItemResult result, Map<String, P> results) {
+		int total = 0;
+		for (Entry<String, List<Map<String, AttributeValue>>> res : result.getResponses().entrySet()) {
+			for (Map<String, AttributeValue> item : res.getValue()) {
+				P obj = fromRow(null, item);
+				AttributeValue rowKey = item.get(Config._KEY);
+				if (obj != null && rowKey != null) {
+					results.put(rowRef(res.getKey(), rowKey.getS()), obj);
+				}
+			}
+			total += res.getValue().size();
+		}
+		return total;
+	}
+
+	/**
+	 * Writes a batch of items and completes the given future when all items have been processed.
+	 * Unprocessed items are retried asynchronously with exponential backoff.
+	 * @param items write requests
+	 * @param attempt the number of retries so far
+	 * @param waited true if the request has already waited for capacity
+	 * @param future completed with the items which weren't written after the last attempt, if any
+	 */
+	private void batchWrite(final Map<String, List<WriteRequest>> items, final int attempt, boolean waited,
+			final CompletableFuture<Map<String, List<WriteRequest>>> future) {
 		if (items == null || items.isEmpty()) {
+			future.complete(Collections.<String, List<WriteRequest>>emptyMap());
 			return;
 		}
 		try {
+			long delay = waited ? 0 : getCapacityDelay(items.keySet(), false);
+			if (delay > 0) {
+				AWSDynamoRetryScheduler.schedule(delay, new Runnable() {
+					public void run() {
+						batchWrite(items, attempt, true, future);
+					}
+				});
+				return;
+			}
 			BatchWriteItemResult result = client().batchWriteItem(new BatchWriteItemRequest().
 					withReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL).withRequestItems(items));
 			if (result == null) {
+				future.complete(Collections.<String, List<WriteRequest>>emptyMap());
 				return;
 			}
+			AWSDynamoCapacity.consumedWrite(result.getConsumedCapacity());
 			logger.debug("batchWrite(): total {}, cc {}", items.size(), result.getConsumedCapacity());
 
-			if (result.getUnprocessedItems() != null && !result.getUnprocessedItems().isEmpty()) {
-				Thread.sleep(1000);
-				logger.warn("UNPROCESSED {0}", result.getUnprocessedItems().size());
-				batchWrite(result.getUnprocessedItems());
+			final Map<String, List<WriteRequest>> unprocessed = result.getUnprocessedItems();
+			if (unprocessed != null && !unprocessed.isEmpty()) {
+				int count = 0;
+				for (List<WriteRequest> reqs : unprocessed.values()) {
+					count += reqs.size();
+				}
+				if (!AWSDynamoRetryScheduler.scheduleRetry(attempt, count, new Runnable() {
+					public void run() {
+						batchWrite(unprocessed, attempt + 1, false, future);
+					}
+				})) {
+					future.complete(unprocessed);
+				}
+				return;
 			}
+			future.complete(Collections.<String, List<WriteRequest>>emptyMap());
 		} catch (Exception e) {
 			logger.error(null, e);
+			future.complete(items);
 		}
 	}
 
@@ -449,38 +1182,336 @@ public class AWSDynamoDAO implements DAO {
 		if (objects == null || objects.isEmpty() || StringUtils.isBlank(appid)) {
 			return;
 		}
+		Set<String> unwritten = batchWriteAll(Collections.singletonMap(getTableNameForAppid(appid),
+				getPutRequests(appid, objects, updateOp)));
+		checkWritten(Collections.singletonMap(appid, objects), unwritten);
+	}
+
+	/**
+	 * Splits write requests for one or more tables into batches of {@link #MAX_ITEMS_PER_WRITE} items and
+	 * waits until all of them have been written, including the retries of unprocessed items.
+	 * @param reqs a map of table names to write requests
+	 * @return the references to the rows which weren't written, see {@link #rowRef(String, String)}
+	 */
+	private Set<String> batchWriteAll(Map<String, List<WriteRequest>> reqs) {
+		List<CompletableFuture<Map<String, List<WriteRequest>>>> futures =
+				new ArrayList<CompletableFuture<Map<String, List<WriteRequest>>>>();
+		Map<String, List<WriteRequest>> batch = new LinkedHashMap<String, List<WriteRequest>>();
+		int batchSize = 0;
+		for (Entry<String, List<WriteRequest>> table : reqs.entrySet()) {
+			for (WriteRequest req : table.getValue()) {
+				if (!batch.containsKey(table.getKey())) {
+					batch.put(table.getKey(), new ArrayList<WriteRequest>());
+				}
+				batch.get(table.getKey()).add(req);
+				if (++batchSize == MAX_ITEMS_PER_WRITE) {
+					futures.add(batchWrite(batch));
+					batch = new LinkedHashMap<String, List<WriteRequest>>();
+					batchSize = 0;
+				}
+			}
+		}
+		if (batchSize > 0) {
+			futures.add(batchWrite(batch));
+		}
+		Set<String> unwritten = new HashSet<String>();
+		for (CompletableFuture<Map<String, List<WriteRequest>>> future : futures) {
+			for (Entry<String, List<WriteRequest>> table : future.join().entrySet()) {
+				for (WriteRequest req : table.getValue()) {
+					Map<String, AttributeValue> key = (req.getPutRequest() != null) ?
+							req.getPutRequest().getItem() : req.getDeleteRequest().getKey();
+					unwritten.add(rowRef(table.getKey(), key.get(Config._KEY).getS()));
+				}
+			}
+		}
+		return unwritten;
+	}
+
+	private CompletableFuture<Map<String, List<WriteRequest>>> batchWrite(Map<String, List<WriteRequest>> items) {
+		CompletableFuture<Map<String, List<WriteRequest>>> future =
+				new CompletableFuture<Map<String, List<WriteRequest>>>();
+		batchWrite(items, 0, false, future);
+		return future;
+	}
+
+	/**
+	 * Batch requests run on shared threads, so they don't wait for capacity on the current thread -
+	 * they are scheduled to run again after the delay returned here.
+	 * @param tables the tables in a batch request
+	 * @param read true for reads, false for writes
+	 * @return the longest time to wait for capacity on any of the tables
+	 */
+	private static long getCapacityDelay(Set<String> tables, boolean read) {
+		long delay = 0;
+		for (String table : tables) {
+			delay = Math.max(delay, read ? AWSDynamoCapacity.getReadDelay(table) :
+					AWSDynamoCapacity.getWriteDelay(table));
+		}
+		return delay;
+	}
+
+	/**
+	 * Reports the objects which weren't written by a batch write to the caller.
+	 * @param objects a map of app ids to the objects which were written
+	 * @param unwritten the references to the rows which weren't written
+	 * @throws BatchWriteException if some objects weren't written
+	 */
+	private <P extends ParaObject> void checkWritten(Map<String, List<P>> objects, Set<String> unwritten) {
+		if (unwritten.isEmpty()) {
+			return;
+		}
+		Map<String, List<String>> unwrittenIds = new LinkedHashMap<String, List<String>>();
+		for (Entry<String, List<P>> app : objects.entrySet()) {
+			if (StringUtils.isBlank(app.getKey()) || app.getValue() == null) {
+				continue;
+			}
+			String table = getTableNameForAppid(app.getKey());
+			List<String> ids = new ArrayList<String>();
+			for (P object : app.getValue()) {
+				if (object != null && unwritten.contains(rowRef(table, getKeyForAppid(object.getId(), app.getKey())))) {
+					ids.add(object.getId());
+				}
+			}
+			if (!ids.isEmpty()) {
+				unwrittenIds.put(app.getKey(), ids);
+			}
+		}
+		throw new BatchWriteException(unwrittenIds);
+	}
 
+	private <P extends ParaObject> List<WriteRequest> getPutRequests(String appid, List<P> objects, boolean updateOp) {
 		List<WriteRequest> reqs = new ArrayList<WriteRequest>(objects.size());
-		int batchSteps = 1;
-		if ((objects.size() > MAX_ITEMS_PER_WRITE)) {
-			batchSteps = (objects.size() / MAX_ITEMS_PER_WRITE) +
-					((objects.size() % MAX_ITEMS_PER_WRITE > 0) ? 1 : 0);
+		for (ParaObject object : objects) {
+			if (object == null) {
+				continue;
+			}
+			if (StringUtils.isBlank(object.getId())) {
+				object.setId(Utils.getNewId());
+			}
+			if (object.getTimestamp() == null) {
+				object.setTimestamp(Utils.timestamp());
+			}
+			if (updateOp) {
+				object.setUpdated(Utils.timestamp());
+			}
+			object.setAppid(appid);
+			Map<String, AttributeValue> row = toRow(object, null);
+			setRowKey(getKeyForAppid(object.getId(), appid), row);
+			reqs.add(new WriteRequest().withPutRequest(new PutRequest().withItem(row)));
+			track(appid, object);
 		}
+		return reqs;
+	}
+
+	private <P extends ParaObject> List<WriteRequest> getDeleteRequests(String appid, List<P> objects) {
+		List<WriteRequest> reqs = new ArrayList<WriteRequest>(objects.size());
+		for (ParaObject object : objects) {
+			if (object != null) {
+				reqs.add(new WriteRequest().withDeleteRequest(new DeleteRequest().
+						withKey(Collections.singletonMap(Config._KEY,
+								new AttributeValue(getKeyForAppid(object.getId(), appid))))));
+			}
+		}
+		return reqs;
+	}
 
-		Iterator<P> it = objects.iterator();
-		int j = 0;
+	/////////////////////////////////////////////
+	//				ASYNC FUNCTIONS
+	/////////////////////////////////////////////
 
-		for (int i = 0; i < batchSteps; i++) {
-			while (it.hasNext() && j < MAX_ITEMS_PER_WRITE) {
-				ParaObject object = it.next();
-				if (StringUtils.isBlank(object.getId())) {
-					object.setId(Utils.getNewId());
+	@Override
+	public <P extends ParaObject> CompletableFuture<String> createAsync(final String appid, final P so) {
+		if (so == null || StringUtils.isBlank(appid)) {
+			return CompletableFuture.completedFuture(null);
+		}
+		if (StringUtils.isBlank(so.getId())) {
+			so.setId(Utils.getNewId());
+		}
+		if (so.getTimestamp() == null) {
+			so.setTimestamp(Utils.timestamp());
+		}
+		so.setAppid(appid);
+		final Map<String, AttributeValue> row = toRow(so, null);
+		setRowKey(getKeyForAppid(so.getId(), appid), row);
+		CompletableFuture<PutItemResult> future = new CompletableFuture<PutItemResult>();
+		try {
+			asyncClient().putItemAsync(new PutItemRequest(getTableNameForAppid(appid), row).
+					withReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL),
+					new FutureHandler<PutItemRequest, PutItemResult>(future));
+		} catch (Exception e) {
+			future.completeExceptionally(e);
+		}
+		return future.handle(new BiFunction<PutItemResult, Throwable, String>() {
+			public String apply(PutItemResult res, Throwable err) {
+				if (err != null) {
+					logger.error(null, err);
+					return null;
 				}
-				if (object.getTimestamp() == null) {
-					object.setTimestamp(Utils.timestamp());
+				AWSDynamoCapacity.consumedWrite(res.getConsumedCapacity());
+				saveSnapshot(so, appid, row);
+				track(appid, so);
+				logger.debug("DAO.createAsync() {}->{}", appid, so.getId());
+				return so.getId();
+			}
+		});
+	}
+
+	@Override
+	public <P extends ParaObject> CompletableFuture<P> readAsync(final String appid, final String key) {
+		if (StringUtils.isBlank(key) || StringUtils.isBlank(appid)) {
+			return CompletableFuture.completedFuture(null);
+		}
+		CompletableFuture<GetItemResult> future = new CompletableFuture<GetItemResult>();
+		try {
+			asyncClient().getItemAsync(new GetItemRequest(getTableNameForAppid(appid),
+					Collections.singletonMap(Config._KEY, new AttributeValue(getKeyForAppid(key, appid)))).
+					withReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL),
+					new FutureHandler<GetItemRequest, GetItemResult>(future));
+		} catch (Exception e) {
+			future.completeExceptionally(e);
+		}
+		return future.handle(new BiFunction<GetItemResult, Throwable, P>() {
+			public P apply(GetItemResult res, Throwable err) {
+				if (err != null) {
+					logger.error(null, err);
+					return null;
 				}
-				if (updateOp) {
-					object.setUpdated(Utils.timestamp());
+				logger.debug("DAO.readAsync() {}->{}", appid, key);
+				AWSDynamoCapacity.consumedRead((res == null) ? null : res.getConsumedCapacity());
+				return (res == null) ? null : AWSDynamoDAO.this.<P>fromRow(getTableNameForAppid(appid), res.getItem());
+			}
+		});
+	}
+
+	@Override
+	public <P extends ParaObject> CompletableFuture<Void> updateAsync(final String appid, final P so) {
+		if (so == null || so.getId() == null || StringUtils.isBlank(appid)) {
+			return CompletableFuture.completedFuture(null);
+		}
+		so.setUpdated(Utils.timestamp());
+		final Map<String, AttributeValue> row = getChangedAttributes(so, appid, toRow(so, Locked.class));
+		// the changes are recorded on the calling thread, they're published only if the update succeeds
+		DAOUtils.recordChanges(so.getId(), row.keySet());
+		if (row.isEmpty()) {
+			return CompletableFuture.completedFuture(null);
+		}
+		CompletableFuture<UpdateItemResult> future = new CompletableFuture<UpdateItemResult>();
+		try {
+			asyncClient().updateItemAsync(getUpdateItemRequest(so.getId(), appid, row),
+					new FutureHandler<UpdateItemRequest, UpdateItemResult>(future));
+		} catch (Exception e) {
+			future.completeExceptionally(e);
+		}
+		return future.handle(new BiFunction<UpdateItemResult, Throwable, Void>() {
+			public Void apply(UpdateItemResult res, Throwable err) {
+				if (err != null) {
+					logger.error(null, err);
+					// the object wasn't written, so it mustn't be indexed or cached
+					throw (err instanceof CompletionException) ? (CompletionException) err : new CompletionException(err);
+				} else {
+					AWSDynamoCapacity.consumedWrite(res.getConsumedCapacity());
+					saveSnapshot(so, appid, row);
+					track(appid, so);
+					logger.debug("DAO.updateAsync() {}->{}", appid, so.getId());
 				}
-				object.setAppid(appid);
-				Map<String, AttributeValue> row = toRow(object, null);
-				setRowKey(getKeyForAppid(object.getId(), appid), row);
-				reqs.add(new WriteRequest().withPutRequest(new PutRequest().withItem(row)));
-				j++;
+				return null;
 			}
-			batchWrite(Collections.singletonMap(getTableNameForAppid(appid), reqs));
-			reqs.clear();
-			j = 0;
+		});
+	}
+
+	@Override
+	public <P extends ParaObject> CompletableFuture<Void> deleteAsync(final String appid, final P so) {
+		if (so == null || so.getId() == null || StringUtils.isBlank(appid)) {
+			return CompletableFuture.completedFuture(null);
+		}
+		CompletableFuture<DeleteItemResult> future = new CompletableFuture<DeleteItemResult>();
+		try {
+			asyncClient().deleteItemAsync(new DeleteItemRequest(getTableNameForAppid(appid),
+					Collections.singletonMap(Config._KEY, new AttributeValue(getKeyForAppid(so.getId(), appid)))).
+					withReturnConsumedCapacity(ReturnConsumedCapacity.TOTAL),
+					new FutureHandler<DeleteItemRequest, DeleteItemResult>(future));
+		} catch (Exception e) {
+			future.completeExceptionally(e);
+		}
+		return future.handle(new BiFunction<DeleteItemResult, Throwable, Void>() {
+			public Void apply(DeleteItemResult res, Throwable err) {
+				if (err != null) {
+					logger.error(null, err);
+					// the object wasn't written, so it mustn't be indexed or cached
+					throw (err instanceof CompletionException) ? (CompletionException) err : new CompletionException(err);
+				} else {
+					AWSDynamoCapacity.consumedWrite(res.getConsumedCapacity());
+					expiring.cancel(appid, so.getId());
+					logger.debug("DAO.deleteAsync() {}->{}", appid, so.getId());
+				}
+				return null;
+			}
+		});
+	}
+
+	@Override
+	public <P extends ParaObject> CompletableFuture<Map<String, P>> readAllAsync(String appid, List<String> keys,
+			boolean getAllColumns) {
+		return readAllFromTable(appid, keys, getAllColumns, null, false);
+	}
+
+	@Override
+	public <P extends ParaObject> CompletableFuture<List<P>> readPageAsync(final String appid, final Pager pager) {
+		// the shared table is queried through the document API which doesn't have an async variant
+		final CompletableFuture<List<P>> future = new CompletableFuture<List<P>>();
+		// capacity is waited for before the task starts, not on the batch executor
+		AWSDynamoRetryScheduler.schedule(AWSDynamoCapacity.getReadDelay(getTableNameForAppid(appid)), new Runnable() {
+			public void run() {
+				try {
+					future.complete(AWSDynamoDAO.this.<P>readPageFromDB(appid, pager));
+				} catch (Exception e) {
+					future.completeExceptionally(e);
+				}
+			}
+		});
+		return future;
+	}
+
+	/**
+	 * The last known state of an object's row in a table.
+	 */
+	private static final class RowSnapshot {
+		private final String table;
+		private final Map<String, AttributeValue> row;
+
+		RowSnapshot(String table, Map<String, AttributeValue> row) {
+			this.table = table;
+			this.row = row;
+		}
+
+		Map<String, AttributeValue> getRow() {
+			return row;
+		}
+
+		boolean isRowOf(String tableName, String key) {
+			AttributeValue rowKey = row.get(Config._KEY);
+			return table.equals(tableName) && rowKey != null && StringUtils.equals(rowKey.getS(), key);
+		}
+	}
+
+	/**
+	 * Completes a {@link CompletableFuture} when the asynchronous DynamoDB client returns.
+	 * @param <REQ> request type
+	 * @param <RES> result type
+	 */
+	private static class FutureHandler<REQ extends AmazonWebServiceRequest, RES> implements AsyncHandler<REQ, RES> {
+		private final CompletableFuture<RES> future;
+
+		FutureHandler(CompletableFuture<RES> future) {
+			this.future = future;
+		}
+
+		public void onError(Exception exception) {
+			future.completeExceptionally(exception);
+		}
+
+		public void onSuccess(REQ request, RES result) {
+			future.complete(result);
 		}
 	}
 
@@ -493,24 +1524,110 @@ public class AWSDynamoDAO implements DAO {
 		if (so == null) {
 			return row;
 		}
-		for (Entry<String, Object> entry : ParaObjectUtils.getAnnotatedFields(so, filter).entrySet()) {
+		for (Entry<String, Object> entry : ParaObjectUtils.getAnnotatedFields(so, filter, false).entrySet()) {
 			Object value = entry.getValue();
-			if (value != null && !StringUtils.isBlank(value.toString())) {
+			if (value == null || (value instanceof String && StringUtils.isBlank((String) value))) {
+				continue;
+			}
+			if (STRING_KEY_ATTRIBUTES.contains(entry.getKey())) {
+				// key attributes of the shared table and its index are always strings
 				row.put(entry.getKey(), new AttributeValue(value.toString()));
+			} else {
+				row.put(entry.getKey(), toAttributeValue(value));
 			}
 		}
+		Long expiresAt = so.getExpiresAt();
+		if (expiresAt != null && expiresAt > 0) {
+			row.put(TTL_ATTRIBUTE, new AttributeValue().withN(Long.toString(expiresAt / 1000)));
+		}
 		return row;
 	}
 
-	private <P extends ParaObject> P fromRow(Map<String, AttributeValue> row) {
+	/**
+	 * Converts a row to an object.
+	 * @param table the table the row was read from. If not null, a snapshot of the row is kept for updates.
+	 * Only objects which are read one at a time are likely to be updated, so bulk reads pass null and
+	 * don't keep a second copy of every row they read.
+	 * @param row a row
+	 * @return the object or null if there's no row or it has expired
+	 */
+	private <P extends ParaObject> P fromRow(String table, Map<String, AttributeValue> row) {
 		if (row == null || row.isEmpty()) {
 			return null;
 		}
 		Map<String, Object> props = new HashMap<String, Object>();
 		for (Entry<String, AttributeValue> col : row.entrySet()) {
-			props.put(col.getKey(), col.getValue().getS());
+			if (!TTL_ATTRIBUTE.equals(col.getKey())) {
+				props.put(col.getKey(), fromAttributeValue(col.getValue()));
+			}
+		}
+		P so = ParaObjectUtils.setAnnotatedFields(props);
+		if (DAOUtils.isExpired(so, Utils.timestamp())) {
+			// DynamoDB deletes expired rows up to a couple of days after they expire
+			onExpired(so);
+			return null;
+		}
+		if (so != null && table != null) {
+			SNAPSHOTS.put(so, new RowSnapshot(table, row));
+		}
+		return so;
+	}
+
+	/**
+	 * Removes the objects written by this DAO which have expired from the search index and the cache.
+	 * Runs periodically in the background. The rows are deleted by DynamoDB.
+	 * <br>
+	 * The expiry times are kept in memory, on the node which wrote each object, and only for objects
+	 * which expire within about eight minutes of being written, up to
+	 * {@link #EXPIRY_TRACKING_MAX} objects. All other objects, e.g. objects written by other nodes,
+	 * before a restart or long before they expire, are only removed from the index when they are read
+	 * after they have expired.
+	 * @return the number of objects which have expired or were deleted
+	 */
+	public int evictExpired() {
+		int evicted = 0;
+		for (Entry<String, List<String>> due : expiring.advance(Utils.timestamp()).entrySet()) {
+			try {
+				// expired rows are unindexed when they're read - objects which were updated since are skipped
+				Map<String, ParaObject> rows = this.<ParaObject>readAllFromTable(due.getKey(), due.getValue(),
+						true, null, true).get();
+				for (ParaObject row : rows.values()) {
+					if (row == null) {
+						evicted++;
+					}
+				}
+			} catch (Exception e) {
+				logger.warn("Failed to evict expired objects of app '{}': {}", due.getKey(), e.getMessage());
+			}
+		}
+		if (evicted > 0) {
+			logger.debug("Evicted {} expired objects.", evicted);
+		}
+		return evicted;
+	}
+
+	private void track(String appid, ParaObject so) {
+		if (so != null && so.getExpiresAt() != null) {
+			expiring.schedule(appid, so.getId(), so.getExpiresAt(), Utils.timestamp());
 		}
-		return ParaObjectUtils.setAnnotatedFields(props);
+	}
+
+	private <P extends ParaObject> void untrack(String appid, List<P> objects) {
+		if (objects != null) {
+			for (P so : objects) {
+				if (so != null) {
+					expiring.cancel(appid, so.getId());
+				}
+			}
+		}
+	}
+
+	private void onExpired(final ParaObject so) {
+		Para.getExecutorService().execute(new Runnable() {
+			public void run() {
+				DAOUtils.onExpired(so.getAppid(), Collections.singletonList(so));
+			}
+		});
 	}
 
 	private void setRowKey(String key, Map<String, AttributeValue> row) {
@@ -528,11 +1645,26 @@ public class AWSDynamoDAO implements DAO {
 		return create(Config.APP_NAME_NS, so);
 	}
 
+	@Override
+	public <P extends ParaObject> String createIfAbsent(P so) {
+		return createIfAbsent(Config.APP_NAME_NS, so);
+	}
+
+	@Override
+	public <P extends ParaObject> boolean compareAndSet(P so, Long expectedVersion) {
+		return compareAndSet(Config.APP_NAME_NS, so, expectedVersion);
+	}
+
 	@Override
 	public <P extends ParaObject> P read(String key) {
 		return read(Config.APP_NAME_NS, key);
 	}
 
+	@Override
+	public <P extends ParaObject> P read(String key, Set<String> fields) {
+		return read(Config.APP_NAME_NS, key, fields);
+	}
+
 	@Override
 	public <P extends ParaObject> void update(P so) {
 		update(Config.APP_NAME_NS, so);
@@ -543,6 +1675,11 @@ public class AWSDynamoDAO implements DAO {
 		delete(Config.APP_NAME_NS, so);
 	}
 
+	@Override
+	public Long increment(String key, String field, long delta) {
+		return increment(Config.APP_NAME_NS, key, field, delta);
+	}
+
 	@Override
 	public <P extends ParaObject> void createAll(List<P> objects) {
 		createAll(Config.APP_NAME_NS, objects);
@@ -553,11 +1690,21 @@ public class AWSDynamoDAO implements DAO {
 		return readAll(Config.APP_NAME_NS, keys, getAllColumns);
 	}
 
+	@Override
+	public <P extends ParaObject> Map<String, P> readAll(List<String> keys, Set<String> fields) {
+		return readAll(Config.APP_NAME_NS, keys, fields);
+	}
+
 	@Override
 	public <P extends ParaObject> List<P> readPage(Pager pager) {
 		return readPage(Config.APP_NAME_NS, pager);
 	}
 
+	@Override
+	public <P extends ParaObject> long scan(int segments, Consumer<List<P>> consumer) {
+		return scan(Config.APP_NAME_NS, segments, consumer);
+	}
+
 	@Override
 	public <P extends ParaObject> void updateAll(List<P> objects) {
 		updateAll(Config.APP_NAME_NS, objects);
@@ -568,4 +1715,34 @@ public class AWSDynamoDAO implements DAO {
 		deleteAll(Config.APP_NAME_NS, objects);
 	}
 
+	/**
+	 * The keys of batch get requests which weren't read after the last retry, as references to their rows.
+	 */
+	private static final class UnprocessedKeysException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		private final Set<String> rowRefs = new HashSet<String>();
+
+		UnprocessedKeysException(Map<String, KeysAndAttributes> keys, Throwable cause) {
+			super(cause);
+			for (Entry<String, KeysAndAttributes> table : keys.entrySet()) {
+				for (Map<String, AttributeValue> key : table.getValue().getKeys()) {
+					AttributeValue rowKey = key.get(Config._KEY);
+					if (rowKey != null) {
+						rowRefs.add(rowRef(table.getKey(), rowKey.getS()));
+					}
+				}
+			}
+		}
+
+		UnprocessedKeysException merge(UnprocessedKeysException other) {
+			if (other == null) {
+				return this;
+			}
+			// the first error which stopped a request is kept
+			UnprocessedKeysException merged = (getCause() == null && other.getCause() != null) ? other : this;
+			merged.rowRefs.addAll((merged == this) ? other.rowRefs : rowRefs);
+			return merged;
+		}
+	}
 }
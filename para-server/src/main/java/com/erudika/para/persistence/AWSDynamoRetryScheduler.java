@@ -0,0 +1,147 @@
+/*
+ * Copyright 2013-2016 Erudika. https://erudika.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * For issues and patches go to: https://github.com/erudika
+ */
+package com.erudika.para.persistence;
+
+import com.erudika.para.Para;
+import com.erudika.para.utils.Config;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Schedules retries for the unprocessed keys and items returned by DynamoDB batch requests.
+ * Retries are delayed using exponential backoff with "full jitter" and are executed on the batch executor,
+ * after the delay has passed on the Para scheduled executor. The calling thread is never put to sleep.
+ * Requests which have to wait for capacity, see {@link AWSDynamoCapacity}, are delayed the same way.
+ * @author Alex Bogdanovski [alex@erudika.com]
+ */
+public final class AWSDynamoRetryScheduler {
+
+	private static final Logger logger = LoggerFactory.getLogger(AWSDynamoRetryScheduler.class);
+
+	/**
+	 * The maximum number of retries for a batch request. Default is 8.
+	 */
+	public static final int MAX_RETRIES = Config.getConfigInt("dynamodb_batch_max_retries", 8);
+	/**
+	 * The base delay before the first retry, in milliseconds. Default is 50.
+	 */
+	public static final long BASE_DELAY_MS = Config.getConfigInt("dynamodb_batch_retry_base_delay_ms", 50);
+	/**
+	 * The maximum delay between two retries, in milliseconds. Default is 10000.
+	 */
+	public static final long MAX_DELAY_MS = Config.getConfigInt("dynamodb_batch_retry_max_delay_ms", 10000);
+
+	private static final AtomicLong THROTTLED_ITEMS = new AtomicLong();
+	private static final AtomicLong RETRIED_ITEMS = new AtomicLong();
+	private static final AtomicLong FAILED_ITEMS = new AtomicLong();
+
+	private AWSDynamoRetryScheduler() { }
+
+	/**
+	 * Schedules a retry for a batch request which was only partially processed.
+	 * @param attempt the number of retries so far (0 for the first retry)
+	 * @param unprocessed the number of unprocessed keys or items
+	 * @param retry the task which resends the unprocessed keys or items. Retries of background work
+	 * run as background work too
+	 * @return true if the retry was scheduled, false if the maximum number of retries was reached
+	 */
+	public static boolean scheduleRetry(int attempt, int unprocessed, final Runnable retry) {
+		THROTTLED_ITEMS.addAndGet(unprocessed);
+		if (retry == null || attempt >= MAX_RETRIES) {
+			FAILED_ITEMS.addAndGet(unprocessed);
+			logger.error("Batch request failed - {} unprocessed items were not written after {} retries.",
+					unprocessed, attempt);
+			return false;
+		}
+		long delay = getBackoffDelay(attempt);
+		logger.warn("UNPROCESSED {} - retry #{} in {}ms.", unprocessed, attempt + 1, delay);
+		RETRIED_ITEMS.addAndGet(unprocessed);
+		schedule(delay, retry);
+		return true;
+	}
+
+	/**
+	 * Runs a task on the batch executor after a delay, without blocking any thread in the meantime.
+	 * Tasks scheduled by background work run as background work too.
+	 * @param delayMs the delay in milliseconds
+	 * @param task the task
+	 */
+	public static void schedule(long delayMs, Runnable task) {
+		final Runnable bgTask = DAOUtils.inheritBackgroundWork(task);
+		if (delayMs <= 0) {
+			try {
+				AWSDynamoUtils.getBatchExecutor().execute(bgTask);
+			} catch (RejectedExecutionException e) {
+				bgTask.run();
+			}
+			return;
+		}
+		try {
+			Para.getScheduledExecutorService().schedule(new Runnable() {
+				public void run() {
+					try {
+						AWSDynamoUtils.getBatchExecutor().execute(bgTask);
+					} catch (RejectedExecutionException e) {
+						bgTask.run();
+					}
+				}
+			}, delayMs, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			// scheduler is shut down - run right away on the calling thread
+			logger.warn(e.getMessage());
+			bgTask.run();
+		}
+	}
+
+	/**
+	 * Computes the delay before a retry - a random number between 0 and
+	 * {@code min(MAX_DELAY_MS, BASE_DELAY_MS * 2^attempt)}.
+	 * @param attempt the number of retries so far
+	 * @return the delay in milliseconds
+	 */
+	public static long getBackoffDelay(int attempt) {
+		long ceiling = Math.min(MAX_DELAY_MS, BASE_DELAY_MS * (1L << Math.min(Math.max(attempt, 0), 30)));
+		return ceiling <= 0 ? 0 : ThreadLocalRandom.current().nextLong(ceiling + 1);
+	}
+
+	/**
+	 * @return the total number of keys and items which were returned as unprocessed by DynamoDB
+	 */
+	public static long getThrottledItemsCount() {
+		return THROTTLED_ITEMS.get();
+	}
+
+	/**
+	 * @return the total number of keys and items which were sent again to DynamoDB
+	 */
+	public static long getRetriedItemsCount() {
+		return RETRIED_ITEMS.get();
+	}
+
+	/**
+	 * @return the total number of keys and items which were still unprocessed after the last retry
+	 */
+	public static long getFailedItemsCount() {
+		return FAILED_ITEMS.get();
+	}
+
+}
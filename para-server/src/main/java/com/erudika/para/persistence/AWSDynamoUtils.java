@@ -18,11 +18,13 @@
 package com.erudika.para.persistence;
 
 import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBAsyncClient;
 import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClient;
 import com.amazonaws.services.dynamodbv2.document.DynamoDB;
 import com.amazonaws.services.dynamodbv2.document.Index;
 import com.amazonaws.services.dynamodbv2.document.Table;
 import com.amazonaws.services.dynamodbv2.model.AttributeDefinition;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
 import com.amazonaws.services.dynamodbv2.model.CreateTableRequest;
 import com.amazonaws.services.dynamodbv2.model.DeleteTableRequest;
 import com.amazonaws.services.dynamodbv2.model.DescribeTableResult;
@@ -38,12 +40,22 @@ import com.amazonaws.services.dynamodbv2.model.TableDescription;
 import com.amazonaws.services.dynamodbv2.model.UpdateTableRequest;
 import com.erudika.para.DestroyListener;
 import com.erudika.para.Para;
+import com.erudika.para.core.utils.ParaObjectUtils;
 import com.erudika.para.utils.Config;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -55,7 +67,9 @@ import org.slf4j.LoggerFactory;
 public final class AWSDynamoUtils {
 
 	private static AmazonDynamoDBClient ddbClient;
+	private static AmazonDynamoDBAsyncClient ddbAsyncClient;
 	private static DynamoDB ddb;
+	private static ExecutorService batchExecutor;
 	private static final String LOCAL_ENDPOINT = "http://localhost:8000";
 	private static final String ENDPOINT = "dynamodb.".concat(Config.AWS_REGION).concat(".amazonaws.com");
 	private static final Logger logger = LoggerFactory.getLogger(AWSDynamoUtils.class);
@@ -65,6 +79,11 @@ public final class AWSDynamoUtils {
 	 */
 	public static final String SHARED_TABLE = Config.getConfigParam("shared_table_name", "0");
 
+	/**
+	 * The maximum number of batch requests sent to DynamoDB in parallel. Default is 4.
+	 */
+	public static final int MAX_PARALLEL_BATCH_REQUESTS = Config.getConfigInt("dynamodb_max_parallel_batch_requests", 4);
+
 	private AWSDynamoUtils() { }
 
 	/**
@@ -99,11 +118,40 @@ public final class AWSDynamoUtils {
 		return ddbClient;
 	}
 
+	/**
+	 * Returns an asynchronous client instance for AWS DynamoDB. Requests are executed on the batch executor.
+	 * @return a client that talks to DynamoDB asynchronously
+	 */
+	public static synchronized AmazonDynamoDBAsyncClient getAsyncClient() {
+		if (ddbAsyncClient != null) {
+			return ddbAsyncClient;
+		}
+		getClient(); // make sure the main table exists
+
+		if (Config.IN_PRODUCTION) {
+			ddbAsyncClient = new AmazonDynamoDBAsyncClient(new BasicAWSCredentials(Config.AWS_ACCESSKEY,
+					Config.AWS_SECRETKEY), getBatchExecutor());
+			ddbAsyncClient.setEndpoint(ENDPOINT);
+		} else {
+			ddbAsyncClient = new AmazonDynamoDBAsyncClient(new BasicAWSCredentials("local", "null"),
+					getBatchExecutor());
+			ddbAsyncClient.setEndpoint(LOCAL_ENDPOINT);
+		}
+		return ddbAsyncClient;
+	}
+
 	/**
 	 * Stops the client and releases resources.
 	 * <b>There's no need to call this explicitly!</b>
 	 */
 	protected static void shutdownClient() {
+		synchronized (AWSDynamoUtils.class) {
+			if (ddbAsyncClient != null) {
+				ddbAsyncClient.shutdown();
+				ddbAsyncClient = null;
+			}
+		}
+		shutdownBatchExecutor();
 		if (ddbClient != null) {
 			ddbClient.shutdown();
 			ddbClient = null;
@@ -112,6 +160,30 @@ public final class AWSDynamoUtils {
 		}
 	}
 
+	/**
+	 * Returns the executor service used for sending batch requests to DynamoDB in parallel.
+	 * The number of threads is bounded by {@link #MAX_PARALLEL_BATCH_REQUESTS}. When all threads
+	 * are busy and the queue is full, the batch request is executed on the calling thread.
+	 * @return an executor service
+	 */
+	public static synchronized ExecutorService getBatchExecutor() {
+		if (batchExecutor == null || batchExecutor.isShutdown()) {
+			int threads = Math.max(1, MAX_PARALLEL_BATCH_REQUESTS);
+			ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+					new LinkedBlockingQueue<Runnable>(threads * 16), new ThreadPoolExecutor.CallerRunsPolicy());
+			executor.allowCoreThreadTimeOut(true);
+			batchExecutor = executor;
+		}
+		return batchExecutor;
+	}
+
+	private static synchronized void shutdownBatchExecutor() {
+		if (batchExecutor != null) {
+			batchExecutor.shutdown();
+			batchExecutor = null;
+		}
+	}
+
 	/**
 	 * Checks if the main table exists in the database.
 	 * @param appid name of the {@link com.erudika.para.core.App}
@@ -266,6 +338,7 @@ public final class AWSDynamoUtils {
 					put("itemCount", td.getItemCount());
 					put("readCapacityUnits", td.getProvisionedThroughput().getReadCapacityUnits());
 					put("writeCapacityUnits", td.getProvisionedThroughput().getWriteCapacityUnits());
+					put("consumedCapacity", AWSDynamoCapacity.getMetrics(td.getTableName()));
 				}
 			};
 		} catch (Exception e) {
@@ -359,6 +432,135 @@ public final class AWSDynamoUtils {
 		return StringUtils.startsWith(appIdentifier, " ");
 	}
 
+	/**
+	 * Converts a field value to a native DynamoDB attribute. Strings are stored as S, numbers as N,
+	 * booleans as BOOL, sets of strings as SS, lists and arrays as L and maps as M. Nested objects are
+	 * converted to maps first. Empty strings, which DynamoDB doesn't allow, are stored as NULL.
+	 * @param value a field value
+	 * @return an attribute value
+	 */
+	@SuppressWarnings("unchecked")
+	public static AttributeValue toAttributeValue(Object value) {
+		if (value == null) {
+			return new AttributeValue().withNULL(true);
+		} else if (value instanceof String || value instanceof Character || value instanceof Enum) {
+			String str = value.toString();
+			return str.isEmpty() ? new AttributeValue().withNULL(true) : new AttributeValue(str);
+		} else if (value instanceof Boolean) {
+			return new AttributeValue().withBOOL((Boolean) value);
+		} else if (value instanceof Number) {
+			return toNumberAttributeValue((Number) value);
+		} else if (value instanceof Set && isSetOfStrings((Set<?>) value)) {
+			return new AttributeValue().withSS((Set<String>) value);
+		} else if (value instanceof Collection) {
+			return toListAttributeValue(((Collection<?>) value).toArray());
+		} else if (value instanceof Object[]) {
+			return toListAttributeValue((Object[]) value);
+		} else if (value instanceof Map) {
+			return toMapAttributeValue((Map<?, ?>) value);
+		}
+		// a nested POJO or a primitive array - store it the way it would be serialized to JSON
+		Object converted = ParaObjectUtils.getJsonMapper().convertValue(value, Object.class);
+		if (converted != null && converted.getClass().equals(value.getClass())) {
+			return new AttributeValue(value.toString());
+		}
+		return toAttributeValue(converted);
+	}
+
+	private static AttributeValue toMapAttributeValue(Map<?, ?> values) {
+		Map<String, AttributeValue> map = new HashMap<String, AttributeValue>(values.size());
+		for (Map.Entry<?, ?> entry : values.entrySet()) {
+			if (entry.getKey() != null) {
+				map.put(entry.getKey().toString(), toAttributeValue(entry.getValue()));
+			}
+		}
+		return new AttributeValue().withM(map);
+	}
+
+	private static AttributeValue toNumberAttributeValue(Number value) {
+		if ((value instanceof Double && (((Double) value).isNaN() || ((Double) value).isInfinite())) ||
+				(value instanceof Float && (((Float) value).isNaN() || ((Float) value).isInfinite()))) {
+			return new AttributeValue(value.toString()); // not representable as N
+		}
+		return new AttributeValue().withN(value.toString());
+	}
+
+	private static AttributeValue toListAttributeValue(Object[] values) {
+		List<AttributeValue> list = new ArrayList<AttributeValue>(values.length);
+		for (Object item : values) {
+			list.add(toAttributeValue(item));
+		}
+		return new AttributeValue().withL(list);
+	}
+
+	/**
+	 * Converts a DynamoDB attribute back to a plain Java value. N becomes an Integer, Long or Double,
+	 * BOOL becomes a Boolean, SS and L become lists and M becomes a map. Strings are returned as they are,
+	 * so rows written before native types were supported (nested objects stored as JSON strings) can
+	 * still be read.
+	 * @param value an attribute value
+	 * @return a Java value or null
+	 */
+	public static Object fromAttributeValue(AttributeValue value) {
+		if (value == null || Boolean.TRUE.equals(value.getNULL())) {
+			return null;
+		} else if (value.getS() != null) {
+			return value.getS();
+		} else if (value.getN() != null) {
+			return toNumber(value.getN());
+		} else if (value.getBOOL() != null) {
+			return value.getBOOL();
+		} else if (value.getSS() != null) {
+			return new ArrayList<String>(value.getSS());
+		} else if (value.getNS() != null) {
+			List<Object> list = new ArrayList<Object>(value.getNS().size());
+			for (String num : value.getNS()) {
+				list.add(toNumber(num));
+			}
+			return list;
+		} else if (value.getL() != null) {
+			List<Object> list = new ArrayList<Object>(value.getL().size());
+			for (AttributeValue item : value.getL()) {
+				list.add(fromAttributeValue(item));
+			}
+			return list;
+		} else if (value.getM() != null) {
+			Map<String, Object> map = new LinkedHashMap<String, Object>(value.getM().size());
+			for (Map.Entry<String, AttributeValue> entry : value.getM().entrySet()) {
+				map.put(entry.getKey(), fromAttributeValue(entry.getValue()));
+			}
+			return map;
+		}
+		return null;
+	}
+
+	private static boolean isSetOfStrings(Set<?> set) {
+		if (set.isEmpty()) {
+			return false; // empty sets are not allowed
+		}
+		for (Object item : set) {
+			if (!(item instanceof String) || ((String) item).isEmpty()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static Number toNumber(String num) {
+		if (StringUtils.containsAny(num, ".eE")) {
+			return Double.valueOf(num);
+		}
+		try {
+			long l = Long.parseLong(num);
+			if (l >= Integer.MIN_VALUE && l <= Integer.MAX_VALUE) {
+				return Integer.valueOf((int) l);
+			}
+			return Long.valueOf(l);
+		} catch (NumberFormatException e) {
+			return new BigInteger(num);
+		}
+	}
+
 	private static String getSharedIndexName() {
 		return "Index_" + SHARED_TABLE;
 	}
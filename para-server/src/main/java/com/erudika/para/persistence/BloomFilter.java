@@ -0,0 +1,193 @@
+/*
+ * Copyright 2013-2016 Erudika. https://erudika.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * For issues and patches go to: https://github.com/erudika
+ */
+package com.erudika.para.persistence;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A thread-safe Bloom filter for object ids. {@link #mightContain(java.lang.String)} never returns false
+ * for an id which was added, but may return true for an id which wasn't, with the given probability.
+ * Ids can't be removed.
+ * @author Alex Bogdanovski [alex@erudika.com]
+ */
+public final class BloomFilter {
+
+	private static final int VERSION = 1;
+
+	private final AtomicLongArray words;
+	private final long numBits;
+	private final int numHashes;
+	private final long expectedItems;
+	private final AtomicLong count = new AtomicLong();
+
+	/**
+	 * Creates an empty filter.
+	 * @param expectedItems the number of ids which will be added
+	 * @param falsePositiveRate the probability of a false positive when the filter holds that many ids
+	 */
+	public BloomFilter(long expectedItems, double falsePositiveRate) {
+		this(Math.max(1, expectedItems), getNumBits(Math.max(1, expectedItems), falsePositiveRate), 0);
+	}
+
+	private BloomFilter(long expectedItems, long numBits, int numHashes) {
+		this.expectedItems = expectedItems;
+		this.numBits = Math.max(64, numBits);
+		this.numHashes = (numHashes > 0) ? numHashes :
+				Math.max(1, (int) Math.round((double) this.numBits / expectedItems * Math.log(2)));
+		this.words = new AtomicLongArray((int) ((this.numBits + 63) / 64));
+	}
+
+	private static long getNumBits(long n, double p) {
+		double fpp = Math.min(0.5, Math.max(Double.MIN_VALUE, p));
+		return (long) Math.ceil(-n * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+	}
+
+	/**
+	 * Adds an id to the filter.
+	 * @param id an object id
+	 */
+	public void add(String id) {
+		if (id == null) {
+			return;
+		}
+		long hash = hash(id);
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32);
+		boolean changed = false;
+		for (int i = 1; i <= numHashes; i++) {
+			changed |= setBit(index(h1 + i * h2));
+		}
+		if (changed) {
+			count.incrementAndGet();
+		}
+	}
+
+	/**
+	 * @param id an object id
+	 * @return false if the id was definitely never added, true if it might have been
+	 */
+	public boolean mightContain(String id) {
+		if (id == null) {
+			return false;
+		}
+		long hash = hash(id);
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32);
+		for (int i = 1; i <= numHashes; i++) {
+			long bit = index(h1 + i * h2);
+			if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the approximate number of ids in the filter
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * @return the number of ids the filter was sized for
+	 */
+	public long getExpectedItems() {
+		return expectedItems;
+	}
+
+	/**
+	 * @return true if more ids were added than the filter was sized for, so false positives are more likely
+	 */
+	public boolean isSaturated() {
+		return count.get() > expectedItems;
+	}
+
+	/**
+	 * Writes the filter to a stream.
+	 * @param out a stream
+	 * @throws IOException on error
+	 */
+	public void writeTo(DataOutputStream out) throws IOException {
+		out.writeInt(VERSION);
+		out.writeLong(expectedItems);
+		out.writeLong(numBits);
+		out.writeInt(numHashes);
+		out.writeLong(count.get());
+		for (int i = 0; i < words.length(); i++) {
+			out.writeLong(words.get(i));
+		}
+	}
+
+	/**
+	 * Reads a filter written with {@link #writeTo(java.io.DataOutputStream)}.
+	 * @param in a stream
+	 * @return a filter
+	 * @throws IOException on error
+	 */
+	public static BloomFilter readFrom(DataInputStream in) throws IOException {
+		if (in.readInt() != VERSION) {
+			throw new IOException("Unknown Bloom filter format.");
+		}
+		BloomFilter filter = new BloomFilter(in.readLong(), in.readLong(), in.readInt());
+		filter.count.set(in.readLong());
+		for (int i = 0; i < filter.words.length(); i++) {
+			filter.words.set(i, in.readLong());
+		}
+		return filter;
+	}
+
+	private long index(int combinedHash) {
+		return (combinedHash & Integer.MAX_VALUE) % numBits;
+	}
+
+	private boolean setBit(long bit) {
+		int i = (int) (bit >>> 6);
+		long mask = 1L << bit;
+		long word;
+		do {
+			word = words.get(i);
+			if ((word & mask) != 0) {
+				return false;
+			}
+		} while (!words.compareAndSet(i, word, word | mask));
+		return true;
+	}
+
+	/**
+	 * 64-bit FNV-1a followed by the MurmurHash3 finalizer, so that all bits depend on all input bytes.
+	 */
+	private static long hash(String id) {
+		long h = 0xcbf29ce484222325L;
+		for (byte b : id.getBytes(StandardCharsets.UTF_8)) {
+			h ^= b & 0xff;
+			h *= 0x100000001b3L;
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2013-2016 Erudika. https://erudika.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * For issues and patches go to: https://github.com/erudika
+ */
+package com.erudika.para.persistence;
+
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * A change to an object, written through the {@link DAO}, as published on the {@link ChangeStream}.
+ * @author Alex Bogdanovski [alex@erudika.com]
+ */
+public final class ChangeEvent {
+
+	/**
+	 * The type of change.
+	 */
+	public enum Operation {
+		/**
+		 * An object was created.
+		 */
+		CREATE,
+		/**
+		 * An object was updated.
+		 */
+		UPDATE,
+		/**
+		 * An object was deleted.
+		 */
+		DELETE
+	}
+
+	private final long sequence;
+	private final Operation operation;
+	private final String appid;
+	private final String id;
+	private final String type;
+	private final Set<String> fields;
+	private final Long version;
+	private final long timestamp;
+
+	ChangeEvent(long sequence, Operation operation, String appid, String id, String type, Set<String> fields,
+			Long version, long timestamp) {
+		this.sequence = sequence;
+		this.operation = operation;
+		this.appid = appid;
+		this.id = id;
+		this.type = type;
+		this.fields = (fields == null) ? Collections.<String>emptySet() : Collections.unmodifiableSet(fields);
+		this.version = version;
+		this.timestamp = timestamp;
+	}
+
+	/**
+	 * @return the position of this event in the stream. Events are numbered from 0, without gaps.
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * @return the type of change
+	 */
+	public Operation getOperation() {
+		return operation;
+	}
+
+	/**
+	 * @return the app id
+	 */
+	public String getAppid() {
+		return appid;
+	}
+
+	/**
+	 * @return the object id
+	 */
+	public String getId() {
+		return id;
+	}
+
+	/**
+	 * @return the object type, or null if it isn't known, e.g. after {@code increment()}
+	 */
+	public String getType() {
+		return type;
+	}
+
+	/**
+	 * @return the names of the fields which were written. Empty for deletes.
+	 */
+	public Set<String> getFields() {
+		return fields;
+	}
+
+	/**
+	 * @return the version of the object - the time it was last updated or created, or null if it isn't known
+	 */
+	public Long getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return the time the change was published
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	@Override
+	public String toString() {
+		return "#" + sequence + " " + operation + " " + appid + "/" + id + " " + fields;
+	}
+}
@@ -0,0 +1,353 @@
+/*
+ * Copyright 2013-2016 Erudika. https://erudika.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * For issues and patches go to: https://github.com/erudika
+ */
+package com.erudika.para.persistence;
+
+import com.erudika.para.DestroyListener;
+import com.erudika.para.Para;
+import com.erudika.para.persistence.ChangeEvent.Operation;
+import com.erudika.para.utils.Config;
+import com.erudika.para.utils.Utils;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An in-process stream of the changes written through the {@link DAO}. Events are kept in a bounded ring buffer,
+ * in the order they were published. Each subscriber reads the stream from its own offset, so a slow subscriber
+ * doesn't hold back the others or the writers - if it falls behind by more than the capacity of the buffer,
+ * the oldest events are lost for it. Subscribers either poll for events or are called with batches of events
+ * on a pool of delivery threads of their own.
+ * @author Alex Bogdanovski [alex@erudika.com]
+ */
+public final class ChangeStream {
+
+	private static final Logger logger = LoggerFactory.getLogger(ChangeStream.class);
+
+	/**
+	 * Enables publishing of changes to the stream. Default is false.
+	 */
+	public static final boolean CHANGE_STREAM_ENABLED = Config.getConfigBoolean("change_stream_enabled", false);
+	/**
+	 * The number of events kept in the ring buffer, rounded up to a power of 2. Default is 65536.
+	 */
+	public static final int CHANGE_STREAM_CAPACITY = Config.getConfigInt("change_stream_capacity", 65536);
+	/**
+	 * The time between deliveries to subscribers which are called with batches of events,
+	 * in milliseconds. Default is 100.
+	 */
+	public static final int CHANGE_STREAM_POLL_MS = Math.max(1, Config.getConfigInt("change_stream_poll_ms", 100));
+	/**
+	 * The number of threads which deliver events to subscribers. Default is 1.
+	 */
+	public static final int CHANGE_STREAM_THREADS = Math.max(1, Config.getConfigInt("change_stream_threads", 1));
+
+	private final AtomicReferenceArray<ChangeEvent> ring;
+	private final int mask;
+	private final ScheduledExecutorService scheduler;
+	private final ConcurrentMap<String, Subscription> subscriptions = new ConcurrentHashMap<String, Subscription>();
+	private final Object publishLock = new Object();
+	private volatile long head;
+
+	/**
+	 * The stream which is fed by the DAO.
+	 */
+	private static final class Holder {
+		private static final ChangeStream INSTANCE = new ChangeStream(CHANGE_STREAM_CAPACITY, newDeliveryExecutor());
+	}
+
+	/**
+	 * Creates a stream.
+	 * @param capacity the number of events kept in the ring buffer
+	 * @param scheduler the executor on which subscribers are called
+	 */
+	public ChangeStream(int capacity, ScheduledExecutorService scheduler) {
+		if (scheduler == null) {
+			throw new IllegalArgumentException("Scheduler must not be null.");
+		}
+		int size = Integer.highestOneBit(Math.max(2, Math.min(capacity, 1 << 30)) - 1) << 1;
+		this.ring = new AtomicReferenceArray<ChangeEvent>(size);
+		this.mask = size - 1;
+		this.scheduler = scheduler;
+	}
+
+	/**
+	 * Subscribers run their own code on the delivery threads, so they get a pool of their own - a slow
+	 * subscriber can't hold up the tasks on the Para scheduler. The pool is shut down with Para.
+	 */
+	private static ScheduledExecutorService newDeliveryExecutor() {
+		final ScheduledExecutorService executor = Executors.newScheduledThreadPool(CHANGE_STREAM_THREADS);
+		Para.addDestroyListener(new DestroyListener() {
+			public void onDestroy() {
+				executor.shutdown();
+			}
+		});
+		return executor;
+	}
+
+	/**
+	 * @return the stream of changes written through the DAO
+	 */
+	public static ChangeStream getInstance() {
+		return Holder.INSTANCE;
+	}
+
+	/**
+	 * Publishes a change.
+	 * @param operation the type of change
+	 * @param appid the app id
+	 * @param id the object id
+	 * @param type the object type
+	 * @param fields the names of the fields which were written
+	 * @param version the version of the object
+	 * @return the published event
+	 */
+	public ChangeEvent publish(Operation operation, String appid, String id, String type, Set<String> fields,
+			Long version) {
+		synchronized (publishLock) {
+			long sequence = head;
+			ChangeEvent event = new ChangeEvent(sequence, operation, appid, id, type, fields, version,
+					Utils.timestamp());
+			ring.set((int) (sequence & mask), event);
+			head = sequence + 1;
+			return event;
+		}
+	}
+
+	/**
+	 * @return the sequence number of the next event
+	 */
+	public long getHead() {
+		return head;
+	}
+
+	/**
+	 * @return the sequence number of the oldest event in the buffer
+	 */
+	public long getTail() {
+		return Math.max(0, head - ring.length());
+	}
+
+	/**
+	 * @return the number of events kept in the ring buffer
+	 */
+	public int getCapacity() {
+		return ring.length();
+	}
+
+	/**
+	 * Returns the subscription with the given name, or subscribes at the head of the stream,
+	 * so that only events published from now on are read.
+	 * @param name a unique subscriber name
+	 * @return a subscription which is read with {@link Subscription#poll(int)}
+	 */
+	public Subscription subscribe(String name) {
+		return subscribe(name, 0, null);
+	}
+
+	/**
+	 * Subscribes at the head of the stream. The consumer is called with batches of events, in order.
+	 * If it throws an exception, the batch is delivered again later.
+	 * @param name a unique subscriber name
+	 * @param batchSize the maximum number of events passed to the consumer at once
+	 * @param consumer called with each batch of events, on the scheduler
+	 * @return a subscription, or the existing one with that name
+	 */
+	public Subscription subscribe(String name, int batchSize, Consumer<List<ChangeEvent>> consumer) {
+		if (StringUtils.isBlank(name)) {
+			throw new IllegalArgumentException("Subscriber name must not be blank.");
+		}
+		Subscription subscription = new Subscription(this, name, head, Math.max(1, batchSize), consumer);
+		Subscription existing = subscriptions.putIfAbsent(name, subscription);
+		if (existing != null) {
+			return existing;
+		}
+		if (consumer != null) {
+			subscription.start(scheduler);
+		}
+		logger.debug("Subscribed '{}' to the change stream at {}.", name, subscription.getOffset());
+		return subscription;
+	}
+
+	/**
+	 * @param name a subscriber name
+	 * @return the subscription with that name or null
+	 */
+	public Subscription getSubscription(String name) {
+		return StringUtils.isBlank(name) ? null : subscriptions.get(name);
+	}
+
+	/**
+	 * @return all subscriptions
+	 */
+	public Collection<Subscription> getSubscriptions() {
+		return Collections.unmodifiableCollection(subscriptions.values());
+	}
+
+	/**
+	 * Reads events from the buffer, stopping at the first one which was overwritten.
+	 * @param offset the sequence number of the first event
+	 * @param max the maximum number of events
+	 * @return a list of events
+	 */
+	private List<ChangeEvent> read(long offset, int max) {
+		long end = Math.min(head, offset + max);
+		List<ChangeEvent> events = new ArrayList<ChangeEvent>((int) Math.max(0, end - offset));
+		for (long sequence = offset; sequence < end; sequence++) {
+			ChangeEvent event = ring.get((int) (sequence & mask));
+			if (event == null || event.getSequence() != sequence) {
+				break;
+			}
+			events.add(event);
+		}
+		return events;
+	}
+
+	/**
+	 * A subscriber's position in the stream.
+	 */
+	public static final class Subscription {
+		private final ChangeStream stream;
+		private final String name;
+		private final int batchSize;
+		private final Consumer<List<ChangeEvent>> consumer;
+		private final AtomicLong lost = new AtomicLong();
+		private volatile long offset;
+		private volatile ScheduledFuture<?> task;
+
+		Subscription(ChangeStream stream, String name, long offset, int batchSize,
+				Consumer<List<ChangeEvent>> consumer) {
+			this.stream = stream;
+			this.name = name;
+			this.offset = offset;
+			this.batchSize = batchSize;
+			this.consumer = consumer;
+		}
+
+		/**
+		 * @return the subscriber name
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return the sequence number of the next event this subscriber reads
+		 */
+		public long getOffset() {
+			return offset;
+		}
+
+		/**
+		 * @return the number of events published which this subscriber hasn't read yet
+		 */
+		public long getLag() {
+			return Math.max(0, stream.getHead() - offset);
+		}
+
+		/**
+		 * @return the number of events which were overwritten before this subscriber read them
+		 */
+		public long getLostCount() {
+			return lost.get();
+		}
+
+		/**
+		 * Moves this subscriber to another position in the stream, e.g. to read events again.
+		 * @param sequence the sequence number of the next event to read
+		 */
+		public synchronized void seek(long sequence) {
+			offset = Math.max(stream.getTail(), Math.min(stream.getHead(), sequence));
+		}
+
+		/**
+		 * Reads the next events and moves past them.
+		 * @param max the maximum number of events
+		 * @return a list of events, empty if there are no new ones
+		 */
+		public synchronized List<ChangeEvent> poll(int max) {
+			List<ChangeEvent> events = peek(max);
+			if (!events.isEmpty()) {
+				offset = events.get(events.size() - 1).getSequence() + 1;
+			}
+			return events;
+		}
+
+		/**
+		 * Stops the delivery of events and removes this subscription from the stream.
+		 */
+		public void close() {
+			ScheduledFuture<?> t = task;
+			if (t != null) {
+				t.cancel(false);
+			}
+			stream.subscriptions.remove(name, this);
+		}
+
+		private List<ChangeEvent> peek(int max) {
+			List<ChangeEvent> events;
+			do {
+				long tail = stream.getTail();
+				if (offset < tail) {
+					lost.addAndGet(tail - offset);
+					logger.warn("Subscriber '{}' fell behind the change stream - {} events were lost.",
+							name, tail - offset);
+					offset = tail;
+				}
+				events = stream.read(offset, Math.max(1, max));
+				// the buffer wrapped around while reading - skip to the new tail
+			} while (events.isEmpty() && offset < stream.getTail());
+			return events;
+		}
+
+		private void start(ScheduledExecutorService scheduler) {
+			task = scheduler.scheduleWithFixedDelay(new Runnable() {
+				public void run() {
+					deliver();
+				}
+			}, CHANGE_STREAM_POLL_MS, CHANGE_STREAM_POLL_MS, TimeUnit.MILLISECONDS);
+		}
+
+		private synchronized void deliver() {
+			List<ChangeEvent> events = peek(batchSize);
+			while (!events.isEmpty()) {
+				try {
+					consumer.accept(events);
+				} catch (Exception e) {
+					logger.error(null, e);
+					return;
+				}
+				offset = events.get(events.size() - 1).getSequence() + 1;
+				events = peek(batchSize);
+			}
+		}
+	}
+}
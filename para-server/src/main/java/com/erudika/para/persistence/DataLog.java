@@ -0,0 +1,434 @@
+/*
+ * Copyright 2013-2016 Erudika. https://erudika.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * For issues and patches go to: https://github.com/erudika
+ */
+package com.erudika.para.persistence;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An append-only log of records, each holding the id and the serialized state of an object.
+ * Writes append a new record and deletes append a tombstone. An index of ids to record positions
+ * is kept in memory, sorted by id, and rebuilt by replaying the log when it is opened. If the log ends
+ * with an incomplete or corrupted record, e.g. after a crash, it is truncated at the last good record.
+ * Compaction rewrites the live records to a new file which atomically replaces the old one.
+ * <br>
+ * Record format: {@code [int body length][int CRC32 of body][byte op][short id length][id][data]}
+ * @author Alex Bogdanovski [alex@erudika.com]
+ */
+final class DataLog implements Closeable {
+
+	private static final Logger logger = LoggerFactory.getLogger(DataLog.class);
+
+	private static final byte PUT = 1;
+	private static final byte DELETE = 2;
+	private static final int HEADER_SIZE = 8;
+	private static final int MAX_RECORD_SIZE = 64 * 1024 * 1024;
+
+	private final File file;
+	private final boolean fsync;
+	private final NavigableMap<String, Position> index = new ConcurrentSkipListMap<String, Position>();
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	private FileChannel channel;
+	private long size;
+	private long garbage;
+
+	/**
+	 * Opens a log, creating it if it doesn't exist, and recovers its index.
+	 * @param file the log file
+	 * @param fsync if true, each write is forced to disk before it returns
+	 * @throws IOException if the log can't be opened
+	 */
+	DataLog(File file, boolean fsync) throws IOException {
+		this.file = file;
+		this.fsync = fsync;
+		// a leftover from a compaction which didn't finish - the log itself is intact
+		Files.deleteIfExists(getCompactionFile().toPath());
+		recover();
+		this.channel = openChannel(file);
+	}
+
+	/**
+	 * Computes the new state of an object from its current state.
+	 */
+	interface RecordWriter {
+		/**
+		 * @param id the object id
+		 * @param data the current data or null if the object doesn't exist
+		 * @return the new data, the same array if nothing changed, or null to delete the object
+		 * @throws IOException if the data can't be (de)serialized
+		 */
+		byte[] write(String id, byte[] data) throws IOException;
+	}
+
+	/**
+	 * @param id an object id
+	 * @return the data of the object or null if it doesn't exist
+	 * @throws IOException if the log can't be read
+	 */
+	byte[] read(String id) throws IOException {
+		lock.readLock().lock();
+		try {
+			ensureOpen();
+			return readUnlocked(id);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Atomically updates a number of objects. All new records are appended with a single write.
+	 * @param ids the object ids
+	 * @param writer computes the new state of each object
+	 * @throws IOException if the log can't be written
+	 */
+	void writeAll(Collection<String> ids, RecordWriter writer) throws IOException {
+		if (ids == null || ids.isEmpty() || writer == null) {
+			return;
+		}
+		lock.writeLock().lock();
+		try {
+			ensureOpen();
+			Map<String, byte[]> changes = new LinkedHashMap<String, byte[]>(ids.size());
+			for (String id : ids) {
+				if (id != null) {
+					byte[] current = changes.containsKey(id) ? changes.get(id) : readUnlocked(id);
+					byte[] data = writer.write(id, current);
+					if (data != current) {
+						changes.put(id, data);
+					}
+				}
+			}
+			if (!changes.isEmpty()) {
+				append(changes);
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private void append(Map<String, byte[]> changes) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		Map<String, Position> positions = new LinkedHashMap<String, Position>(changes.size());
+		long offset = size;
+		long tombstones = 0;
+		for (Map.Entry<String, byte[]> change : changes.entrySet()) {
+			byte[] body = toRecordBody(change.getKey(), change.getValue());
+			out.writeInt(body.length);
+			out.writeInt(checksum(body));
+			out.write(body);
+			if (change.getValue() == null) {
+				positions.put(change.getKey(), null);
+				tombstones += HEADER_SIZE + body.length;
+			} else {
+				positions.put(change.getKey(), new Position(offset, body.length));
+			}
+			offset += HEADER_SIZE + body.length;
+		}
+		writeFully(channel, ByteBuffer.wrap(bytes.toByteArray()), size);
+		if (fsync) {
+			channel.force(false);
+		}
+		size = offset;
+		garbage += tombstones;
+		for (Map.Entry<String, Position> entry : positions.entrySet()) {
+			Position old = (entry.getValue() == null) ? index.remove(entry.getKey()) :
+					index.put(entry.getKey(), entry.getValue());
+			if (old != null) {
+				garbage += HEADER_SIZE + old.size;
+			}
+		}
+	}
+
+	/**
+	 * Returns the ids in the log, in ascending order.
+	 * @param afterId return only ids greater than this one, or all ids if null
+	 * @param limit the maximum number of ids to return
+	 * @return a list of ids
+	 */
+	List<String> getIds(String afterId, int limit) {
+		lock.readLock().lock();
+		try {
+			NavigableMap<String, Position> ids = (afterId == null) ? index : index.tailMap(afterId, false);
+			List<String> results = new ArrayList<String>(Math.min(Math.max(limit, 0), 1024));
+			for (String id : ids.keySet()) {
+				if (results.size() >= limit) {
+					break;
+				}
+				results.add(id);
+			}
+			return results;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return the number of objects in the log
+	 */
+	int getCount() {
+		return index.size();
+	}
+
+	/**
+	 * @return the size of the log in bytes
+	 */
+	long getSize() {
+		return size;
+	}
+
+	/**
+	 * @param minGarbage the minimum number of bytes taken by old records
+	 * @return true if old records take at least that much space and at least half of the log
+	 */
+	boolean needsCompaction(long minGarbage) {
+		return garbage >= minGarbage && garbage * 2 >= size;
+	}
+
+	/**
+	 * Rewrites the log, keeping only the latest record of each object. Writes are blocked until it's done.
+	 * @throws IOException if the log can't be rewritten - the old log is kept
+	 */
+	void compact() throws IOException {
+		lock.writeLock().lock();
+		try {
+			ensureOpen();
+			File compacted = getCompactionFile();
+			Files.deleteIfExists(compacted.toPath());
+			Map<String, Position> positions = new HashMap<String, Position>(index.size());
+			long offset = 0;
+			FileChannel out = openChannel(compacted);
+			try {
+				for (Map.Entry<String, Position> entry : index.entrySet()) {
+					Position pos = entry.getValue();
+					ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + pos.size);
+					readFully(channel, record, pos.offset);
+					record.flip();
+					writeFully(out, record, offset);
+					positions.put(entry.getKey(), new Position(offset, pos.size));
+					offset += HEADER_SIZE + pos.size;
+				}
+				out.force(true);
+			} finally {
+				out.close();
+			}
+			channel.close();
+			try {
+				Files.move(compacted.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+			} finally {
+				channel = openChannel(file);
+			}
+			logger.debug("Compacted data log {} from {} to {} bytes.", file, size, offset);
+			index.putAll(positions);
+			size = offset;
+			garbage = 0;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		lock.writeLock().lock();
+		try {
+			if (channel != null) {
+				channel.close();
+				channel = null;
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Rebuilds the index by replaying the log. The log is truncated after the last valid record.
+	 */
+	private void recover() throws IOException {
+		long length = file.length();
+		long offset = 0;
+		if (file.exists()) {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+			try {
+				while (offset + HEADER_SIZE <= length) {
+					int bodySize = in.readInt();
+					int checksum = in.readInt();
+					if (bodySize < 3 || bodySize > MAX_RECORD_SIZE || offset + HEADER_SIZE + bodySize > length) {
+						break;
+					}
+					byte[] body = new byte[bodySize];
+					in.readFully(body);
+					if (checksum(body) != checksum || !replay(body, offset)) {
+						break;
+					}
+					offset += HEADER_SIZE + bodySize;
+				}
+			} finally {
+				in.close();
+			}
+		}
+		if (offset < length) {
+			logger.warn("Data log {} ends with an incomplete record - truncating {} bytes at offset {}.",
+					file, length - offset, offset);
+			FileChannel ch = openChannel(file);
+			try {
+				ch.truncate(offset);
+			} finally {
+				ch.close();
+			}
+		}
+		size = offset;
+	}
+
+	private boolean replay(byte[] body, long offset) {
+		String id = getRecordId(body);
+		if (id == null) {
+			return false;
+		}
+		Position old;
+		if (body[0] == PUT) {
+			old = index.put(id, new Position(offset, body.length));
+		} else if (body[0] == DELETE) {
+			old = index.remove(id);
+			garbage += HEADER_SIZE + body.length;
+		} else {
+			return false;
+		}
+		if (old != null) {
+			garbage += HEADER_SIZE + old.size;
+		}
+		return true;
+	}
+
+	private byte[] readUnlocked(String id) throws IOException {
+		Position pos = (id == null) ? null : index.get(id);
+		if (pos == null) {
+			return null;
+		}
+		ByteBuffer buf = ByteBuffer.allocate(pos.size);
+		readFully(channel, buf, pos.offset + HEADER_SIZE);
+		byte[] body = buf.array();
+		return Arrays.copyOfRange(body, 3 + getIdLength(body), body.length);
+	}
+
+	private void ensureOpen() throws IOException {
+		if (channel == null) {
+			throw new IOException("Data log " + file + " is closed.");
+		}
+	}
+
+	private File getCompactionFile() {
+		return new File(file.getPath() + ".compact");
+	}
+
+	private static byte[] toRecordBody(String id, byte[] data) {
+		byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+		if (idBytes.length > 0xFFFF) {
+			throw new IllegalArgumentException("Id is too long.");
+		}
+		int dataLength = (data == null) ? 0 : data.length;
+		ByteBuffer body = ByteBuffer.allocate(3 + idBytes.length + dataLength);
+		body.put((data == null) ? DELETE : PUT);
+		body.putShort((short) idBytes.length);
+		body.put(idBytes);
+		if (data != null) {
+			body.put(data);
+		}
+		return body.array();
+	}
+
+	private static String getRecordId(byte[] body) {
+		int idLength = getIdLength(body);
+		if (3 + idLength > body.length) {
+			return null;
+		}
+		return new String(body, 3, idLength, StandardCharsets.UTF_8);
+	}
+
+	private static int getIdLength(byte[] body) {
+		return ((body[1] & 0xFF) << 8) | (body[2] & 0xFF);
+	}
+
+	private static int checksum(byte[] body) {
+		CRC32 crc = new CRC32();
+		crc.update(body, 0, body.length);
+		return (int) crc.getValue();
+	}
+
+	private static FileChannel openChannel(File file) throws IOException {
+		return FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+	}
+
+	private static void readFully(FileChannel ch, ByteBuffer buf, long position) throws IOException {
+		long pos = position;
+		while (buf.hasRemaining()) {
+			int read = ch.read(buf, pos);
+			if (read < 0) {
+				throw new IOException("Unexpected end of data log.");
+			}
+			pos += read;
+		}
+	}
+
+	private static void writeFully(FileChannel ch, ByteBuffer buf, long position) throws IOException {
+		long pos = position;
+		while (buf.hasRemaining()) {
+			pos += ch.write(buf, pos);
+		}
+	}
+
+	/**
+	 * The position of a record in the log.
+	 */
+	private static final class Position {
+		private final long offset;
+		private final int size;
+
+		Position(long offset, int size) {
+			this.offset = offset;
+			this.size = size;
+		}
+	}
+}
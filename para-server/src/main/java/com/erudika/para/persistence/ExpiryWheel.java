@@ -0,0 +1,193 @@
+/*
+ * Copyright 2013-2016 Erudika. https://erudika.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * For issues and patches go to: https://github.com/erudika
+ */
+package com.erudika.para.persistence;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A hashed timer wheel which tracks when objects expire. Each object is kept in one of a fixed number of slots,
+ * chosen by its expiry time, so scheduling and cancelling are O(1). Each tick looks at the slots of the ticks
+ * which have passed since the last one. A slot also holds the objects which expire more than one turn of
+ * the wheel later - they stay there until their turn comes, so a tick looks at about one in
+ * {@code numSlots} of those, under the lock which {@link #schedule(String, String, long, long)} waits for.
+ * <br>
+ * A bounded wheel only tracks objects which expire within one turn of the wheel, up to a maximum number
+ * of them, so its ticks only look at objects which are due in them. It's meant for data stores which
+ * remove expired objects themselves, e.g. DynamoDB with Time To Live - objects which aren't tracked are
+ * handled when they are read after they have expired.
+ * <br>
+ * The wheel only tells which objects are due - the DAO checks that they have actually expired before
+ * removing them, because they may have been updated since.
+ * @author Alex Bogdanovski [alex@erudika.com]
+ */
+public final class ExpiryWheel {
+
+	private final long tickMs;
+	private final int maxEntries;
+	private final boolean bounded;
+	private final List<Set<Timeout>> slots;
+	private final Map<String, Timeout> timeouts = new HashMap<String, Timeout>();
+	private long currentTick = -1;
+
+	/**
+	 * Creates a wheel which tracks all objects.
+	 * @param tickMs the duration of a tick in milliseconds
+	 * @param numSlots the number of slots
+	 */
+	public ExpiryWheel(long tickMs, int numSlots) {
+		this(tickMs, numSlots, Integer.MAX_VALUE, false);
+	}
+
+	/**
+	 * Creates a bounded wheel, which only tracks the objects which expire within one turn of the wheel.
+	 * @param tickMs the duration of a tick in milliseconds
+	 * @param numSlots the number of slots
+	 * @param maxEntries the maximum number of objects which are tracked
+	 */
+	public ExpiryWheel(long tickMs, int numSlots, int maxEntries) {
+		this(tickMs, numSlots, maxEntries, true);
+	}
+
+	private ExpiryWheel(long tickMs, int numSlots, int maxEntries, boolean bounded) {
+		this.tickMs = Math.max(1, tickMs);
+		this.maxEntries = Math.max(0, maxEntries);
+		this.bounded = bounded;
+		int size = Math.max(1, numSlots);
+		this.slots = new ArrayList<Set<Timeout>>(size);
+		for (int i = 0; i < size; i++) {
+			slots.add(new HashSet<Timeout>());
+		}
+	}
+
+	/**
+	 * Schedules an object to expire, replacing its previous expiry time. A bounded wheel doesn't track
+	 * objects which expire more than one turn of the wheel from now, nor new objects when it's full.
+	 * @param appid the app id
+	 * @param id the object id
+	 * @param expiresAt the expiry time in milliseconds, or 0 if the object never expires
+	 * @param now the current time in milliseconds
+	 * @return true if the object is tracked
+	 */
+	public synchronized boolean schedule(String appid, String id, long expiresAt, long now) {
+		if (appid == null || id == null) {
+			return false;
+		}
+		// objects which are already due go into the slot which is looked at next
+		long tick = Math.max(expiresAt / tickMs, currentTick);
+		String key = appid + "/" + id;
+		if (expiresAt <= 0 || (bounded && (tick - Math.max(now / tickMs, currentTick) >= slots.size() ||
+				(timeouts.size() >= maxEntries && !timeouts.containsKey(key))))) {
+			cancel(appid, id);
+			return false;
+		}
+		Timeout timeout = new Timeout(appid, id, expiresAt, (int) Math.floorMod(tick, (long) slots.size()));
+		Timeout old = timeouts.put(key, timeout);
+		if (old != null) {
+			slots.get(old.slot).remove(old);
+		}
+		slots.get(timeout.slot).add(timeout);
+		return true;
+	}
+
+	/**
+	 * Stops tracking an object, e.g. when it's deleted.
+	 * @param appid the app id
+	 * @param id the object id
+	 */
+	public synchronized void cancel(String appid, String id) {
+		Timeout old = timeouts.remove(appid + "/" + id);
+		if (old != null) {
+			slots.get(old.slot).remove(old);
+		}
+	}
+
+	/**
+	 * Moves the wheel forward and removes all objects which expire before the given time.
+	 * @param now the current time in milliseconds
+	 * @return a map of app ids to the ids of objects which are due
+	 */
+	public synchronized Map<String, List<String>> advance(long now) {
+		Map<String, List<String>> due = new LinkedHashMap<String, List<String>>();
+		long tick = now / tickMs;
+		long from = (currentTick < 0) ? tick - slots.size() + 1 : currentTick;
+		// the slot of the current tick is looked at again next time, it may hold objects due later in the tick
+		for (long t = Math.max(from, tick - slots.size() + 1); t <= tick; t++) {
+			Iterator<Timeout> it = slots.get((int) Math.floorMod(t, (long) slots.size())).iterator();
+			while (it.hasNext()) {
+				Timeout timeout = it.next();
+				if (timeout.expiresAt <= now) {
+					it.remove();
+					timeouts.remove(timeout.getKey());
+					List<String> ids = due.get(timeout.appid);
+					if (ids == null) {
+						ids = new ArrayList<String>();
+						due.put(timeout.appid, ids);
+					}
+					ids.add(timeout.id);
+				}
+			}
+		}
+		currentTick = Math.max(currentTick, tick);
+		return due;
+	}
+
+	/**
+	 * @return the number of objects which are tracked
+	 */
+	public synchronized int size() {
+		return timeouts.size();
+	}
+
+	/**
+	 * Clears the wheel.
+	 */
+	public synchronized void clear() {
+		timeouts.clear();
+		for (Set<Timeout> slot : slots) {
+			slot.clear();
+		}
+	}
+
+	/**
+	 * An object which expires at a given time.
+	 */
+	private static final class Timeout {
+		private final String appid;
+		private final String id;
+		private final long expiresAt;
+		private final int slot;
+
+		Timeout(String appid, String id, long expiresAt, int slot) {
+			this.appid = appid;
+			this.id = id;
+			this.expiresAt = expiresAt;
+			this.slot = slot;
+		}
+
+		String getKey() {
+			return appid + "/" + id;
+		}
+	}
+}
@@ -0,0 +1,749 @@
+/*
+ * Copyright 2013-2016 Erudika. https://erudika.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * For issues and patches go to: https://github.com/erudika
+ */
+package com.erudika.para.persistence;
+
+import com.erudika.para.DestroyListener;
+import com.erudika.para.Para;
+import com.erudika.para.annotations.Locked;
+import com.erudika.para.core.ParaObject;
+import com.erudika.para.core.utils.ParaObjectUtils;
+import com.erudika.para.utils.Config;
+import com.erudika.para.utils.Pager;
+import com.erudika.para.utils.Utils;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import javax.inject.Singleton;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An in-memory implementation of the {@link DAO} interface, for integration environments and edge caches.
+ * Objects are kept in ordered concurrent maps, one per app, so {@code readPage()} seeks to the last key in
+ * O(log n) and objects created while paging are never skipped. Objects expire at the time given by
+ * {@link ParaObject#getExpiresAt()} or after a default time to live, and are evicted by a timer wheel.
+ * All objects can be saved to a snapshot file periodically and loaded again on startup.
+ * @author Alex Bogdanovski [alex@erudika.com]
+ */
+@Singleton
+public class InMemoryDAO implements DAO {
+
+	private static final Logger logger = LoggerFactory.getLogger(InMemoryDAO.class);
+	private static final long EVICTION_INTERVAL_MS = 1000;
+	private static final int EXPIRY_WHEEL_SLOTS = 512;
+
+	/**
+	 * The file where snapshots are saved. Snapshots are disabled if blank. Default is none.
+	 */
+	public static final String SNAPSHOT_FILE = Config.getConfigParam("memory_dao_snapshot_file", "");
+	/**
+	 * How often a snapshot is saved, in seconds. Default is 60.
+	 */
+	public static final int SNAPSHOT_INTERVAL_SEC = Config.getConfigInt("memory_dao_snapshot_interval_sec", 60);
+	/**
+	 * The time to live for new objects, in seconds. Objects never expire if it's 0. Default is 0.
+	 */
+	public static final int DEFAULT_TTL_SEC = Config.getConfigInt("memory_dao_ttl_sec", 0);
+
+	private final File snapshotFile;
+	private final long defaultTtlSec;
+	private final ConcurrentMap<String, ConcurrentNavigableMap<String, Entry>> tables =
+			new ConcurrentHashMap<String, ConcurrentNavigableMap<String, Entry>>();
+	private final ExpiryWheel expiring = new ExpiryWheel(EVICTION_INTERVAL_MS, EXPIRY_WHEEL_SLOTS);
+
+	/**
+	 * No-args constructor. The last snapshot is loaded and a new one is saved on {@link Para#destroy()}.
+	 */
+	public InMemoryDAO() {
+		this(StringUtils.isBlank(SNAPSHOT_FILE) ? null : new File(SNAPSHOT_FILE), SNAPSHOT_INTERVAL_SEC,
+				DEFAULT_TTL_SEC, Para.getScheduledExecutorService());
+		if (snapshotFile != null) {
+			Para.addDestroyListener(new DestroyListener() {
+				public void onDestroy() {
+					snapshot();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Default constructor. Loads the snapshot file, if it exists.
+	 * @param snapshotFile the file where snapshots are saved, or null to disable snapshots
+	 * @param snapshotIntervalSec how often a snapshot is saved, in seconds, or 0 to disable periodic snapshots
+	 * @param defaultTtlSec the time to live for new objects, in seconds, or 0 if they never expire
+	 * @param scheduler the scheduler on which snapshots and evictions are run
+	 */
+	public InMemoryDAO(File snapshotFile, long snapshotIntervalSec, long defaultTtlSec,
+			ScheduledExecutorService scheduler) {
+		if (scheduler == null) {
+			throw new IllegalArgumentException("Scheduler must not be null.");
+		}
+		this.snapshotFile = snapshotFile;
+		this.defaultTtlSec = Math.max(0, defaultTtlSec);
+		scheduler.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				evictExpired();
+			}
+		}, EVICTION_INTERVAL_MS, EVICTION_INTERVAL_MS, TimeUnit.MILLISECONDS);
+		if (snapshotFile != null) {
+			load();
+			if (snapshotIntervalSec > 0) {
+				scheduler.scheduleWithFixedDelay(new Runnable() {
+					public void run() {
+						snapshot();
+					}
+				}, snapshotIntervalSec, snapshotIntervalSec, TimeUnit.SECONDS);
+			}
+		}
+	}
+
+	/**
+	 * Persists a new object which expires after the given time, unless it has its own expiry time.
+	 * @param <P> the type of object
+	 * @param appid the app id
+	 * @param so the object
+	 * @param ttlSec the time to live, in seconds, or 0 if the object never expires
+	 * @return the id of the object
+	 */
+	public <P extends ParaObject> String create(String appid, P so, long ttlSec) {
+		if (so == null || StringUtils.isBlank(appid)) {
+			return null;
+		}
+		createObjects(appid, Collections.singletonList(so), ttlSec);
+		logger.debug("DAO.create() {}->{} ttl {}", appid, so.getId(), ttlSec);
+		return so.getId();
+	}
+
+	/////////////////////////////////////////////
+	//			CORE FUNCTIONS
+	/////////////////////////////////////////////
+
+	@Override
+	public <P extends ParaObject> String create(String appid, P so) {
+		return create(appid, so, defaultTtlSec);
+	}
+
+	@Override
+	public <P extends ParaObject> String create(P so) {
+		return create(Config.APP_NAME_NS, so);
+	}
+
+	@Override
+	public <P extends ParaObject> P read(String appid, String key) {
+		if (StringUtils.isBlank(key)) {
+			return null;
+		}
+		Map<String, P> results = readObjects(appid, Collections.singletonList(key));
+		logger.debug("DAO.read() {}->{}", appid, key);
+		return results.get(key);
+	}
+
+	@Override
+	public <P extends ParaObject> P read(String appid, String key, Set<String> fields) {
+		return read(appid, key);
+	}
+
+	@Override
+	public <P extends ParaObject> P read(String key) {
+		return read(Config.APP_NAME_NS, key);
+	}
+
+	@Override
+	public <P extends ParaObject> P read(String key, Set<String> fields) {
+		return read(Config.APP_NAME_NS, key, fields);
+	}
+
+	@Override
+	public <P extends ParaObject> void update(String appid, P so) {
+		if (so != null && so.getId() != null) {
+			updateObjects(appid, Collections.singletonList(so));
+			logger.debug("DAO.update() {}->{}", appid, so.getId());
+		}
+	}
+
+	@Override
+	public <P extends ParaObject> void update(P so) {
+		update(Config.APP_NAME_NS, so);
+	}
+
+	@Override
+	public <P extends ParaObject> void delete(String appid, P so) {
+		if (so != null && so.getId() != null) {
+			deleteObjects(appid, Collections.singletonList(so));
+			logger.debug("DAO.delete() {}->{}", appid, so.getId());
+		}
+	}
+
+	@Override
+	public <P extends ParaObject> void delete(P so) {
+		delete(Config.APP_NAME_NS, so);
+	}
+
+	@Override
+	public <P extends ParaObject> String createIfAbsent(final String appid, P so) {
+		if (so == null || StringUtils.isBlank(appid)) {
+			return null;
+		}
+		if (StringUtils.isBlank(so.getId())) {
+			so.setId(Utils.getNewId());
+		}
+		if (so.getTimestamp() == null) {
+			so.setTimestamp(Utils.timestamp());
+		}
+		so.setAppid(appid);
+		Long expiresAt = so.getExpiresAt();
+		final Entry created = new Entry(appid, copy(so), (expiresAt == null) ? getExpiresAt(defaultTtlSec) : expiresAt);
+		final long now = Utils.timestamp();
+		Entry result = getTable(appid, true).compute(so.getId(), new BiFunction<String, Entry, Entry>() {
+			public Entry apply(String id, Entry entry) {
+				if (entry != null && !entry.isExpired(now)) {
+					return entry;
+				}
+				expiring.schedule(appid, id, created.expiresAt, Utils.timestamp());
+				return created;
+			}
+		});
+		logger.debug("DAO.createIfAbsent() {}->{} {}", appid, so.getId(), (result == created) ? "created" : "exists");
+		return (result == created) ? so.getId() : null;
+	}
+
+	@Override
+	public <P extends ParaObject> String createIfAbsent(P so) {
+		return createIfAbsent(Config.APP_NAME_NS, so);
+	}
+
+	@Override
+	public <P extends ParaObject> boolean compareAndSet(String appid, final P so, final Long expectedVersion) {
+		ConcurrentNavigableMap<String, Entry> table = getTable(appid, false);
+		if (table == null || so == null || so.getId() == null) {
+			return false;
+		}
+		final boolean[] result = new boolean[1];
+		final long now = Utils.timestamp();
+		table.computeIfPresent(so.getId(), new BiFunction<String, Entry, Entry>() {
+			public Entry apply(String id, Entry entry) {
+				if (entry.isExpired(now) || !Objects.equals(DAOUtils.getVersion(entry.object), expectedVersion)) {
+					return entry;
+				}
+				so.setUpdated(DAOUtils.nextVersion(expectedVersion));
+				ParaObject updated = ParaObjectUtils.setAnnotatedFields(copy(entry.object),
+						ParaObjectUtils.getAnnotatedFields(so), Locked.class);
+				result[0] = (updated != null);
+				return (updated == null) ? entry : replace(entry, updated);
+			}
+		});
+		logger.debug("DAO.compareAndSet() {}->{} {}", appid, so.getId(), result[0]);
+		return result[0];
+	}
+
+	@Override
+	public <P extends ParaObject> boolean compareAndSet(P so, Long expectedVersion) {
+		return compareAndSet(Config.APP_NAME_NS, so, expectedVersion);
+	}
+
+	@Override
+	public Long increment(String appid, String key, final String field, final long delta) {
+		ConcurrentNavigableMap<String, Entry> table = getTable(appid, false);
+		if (table == null || key == null) {
+			return null;
+		}
+		final Long[] result = new Long[1];
+		final long now = Utils.timestamp();
+		table.computeIfPresent(key, new BiFunction<String, Entry, Entry>() {
+			public Entry apply(String id, Entry entry) {
+				if (entry.isExpired(now)) {
+					return entry;
+				}
+				ParaObject so = copy(entry.object);
+				result[0] = DAOUtils.incrementField(so, field, delta);
+				return (result[0] == null) ? entry : replace(entry, so);
+			}
+		});
+		logger.debug("DAO.increment() {}.{} -> {}", key, field, result[0]);
+		return result[0];
+	}
+
+	@Override
+	public Long increment(String key, String field, long delta) {
+		return increment(Config.APP_NAME_NS, key, field, delta);
+	}
+
+	/////////////////////////////////////////////
+	//				BATCH FUNCTIONS
+	/////////////////////////////////////////////
+
+	@Override
+	public <P extends ParaObject> void createAll(String appid, List<P> objects) {
+		logger.debug("DAO.createAll() {}->{}", appid, createObjects(appid, objects, defaultTtlSec));
+	}
+
+	@Override
+	public <P extends ParaObject> void createAll(List<P> objects) {
+		createAll(Config.APP_NAME_NS, objects);
+	}
+
+	@Override
+	public <P extends ParaObject> Map<String, P> readAll(String appid, List<String> keys, boolean getAllColumns) {
+		Map<String, P> results = readObjects(appid, keys);
+		logger.debug("DAO.readAll() {}->{}", appid, results.size());
+		return results;
+	}
+
+	@Override
+	public <P extends ParaObject> Map<String, P> readAll(String appid, List<String> keys, Set<String> fields) {
+		return readAll(appid, keys, true);
+	}
+
+	@Override
+	public <P extends ParaObject> Map<String, P> readAll(List<String> keys, boolean getAllColumns) {
+		return readAll(Config.APP_NAME_NS, keys, getAllColumns);
+	}
+
+	@Override
+	public <P extends ParaObject> Map<String, P> readAll(List<String> keys, Set<String> fields) {
+		return readAll(Config.APP_NAME_NS, keys, fields);
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public <P extends ParaObject> List<P> readPage(String appid, Pager pager) {
+		List<P> results = new LinkedList<P>();
+		ConcurrentNavigableMap<String, Entry> table = getTable(appid, false);
+		if (table == null) {
+			return results;
+		}
+		Pager p = (pager == null) ? new Pager() : pager;
+		// seek directly to the first key after the last one on the previous page
+		Map<String, Entry> tail = (p.getLastKey() == null) ? table : table.tailMap(p.getLastKey(), false);
+		long now = Utils.timestamp();
+		for (Entry entry : tail.values()) {
+			if (results.size() >= p.getLimit()) {
+				break;
+			}
+			if (!entry.isExpired(now)) {
+				results.add((P) copy(entry.object));
+				p.setLastKey(entry.object.getId());
+			}
+		}
+		p.setCount(p.getCount() + results.size());
+		return results;
+	}
+
+	@Override
+	public <P extends ParaObject> List<P> readPage(Pager pager) {
+		return readPage(Config.APP_NAME_NS, pager);
+	}
+
+	@Override
+	public <P extends ParaObject> long scan(final String appid, int segments, final Consumer<List<P>> consumer) {
+		final ConcurrentNavigableMap<String, Entry> table = getTable(appid, false);
+		if (table == null || consumer == null) {
+			return 0L;
+		}
+		final List<String> ids = new ArrayList<String>(table.keySet());
+		final int total = Math.max(1, Math.min(segments, ids.size()));
+		long count = DAOUtils.scanSegments(total, consumer, new BiFunction<Integer, Consumer<List<P>>, Long>() {
+			public Long apply(Integer segment, Consumer<List<P>> pages) {
+				int from = (int) ((long) segment * ids.size() / total);
+				int to = (int) ((long) (segment + 1) * ids.size() / total);
+				long read = 0L;
+				for (int i = from; i < to; i += DAOUtils.SCAN_PAGE_SIZE) {
+					List<String> pageIds = ids.subList(i, Math.min(to, i + DAOUtils.SCAN_PAGE_SIZE));
+					List<P> page = new ArrayList<P>(InMemoryDAO.this.<P>readObjects(appid, pageIds).values());
+					if (!page.isEmpty()) {
+						pages.accept(page);
+						read += page.size();
+					}
+				}
+				return read;
+			}
+		});
+		logger.debug("DAO.scan() {}->{}", appid, count);
+		return count;
+	}
+
+	@Override
+	public <P extends ParaObject> long scan(int segments, Consumer<List<P>> consumer) {
+		return scan(Config.APP_NAME_NS, segments, consumer);
+	}
+
+	@Override
+	public <P extends ParaObject> void updateAll(String appid, List<P> objects) {
+		logger.debug("DAO.updateAll() {}->{}", appid, updateObjects(appid, objects));
+	}
+
+	@Override
+	public <P extends ParaObject> void updateAll(List<P> objects) {
+		updateAll(Config.APP_NAME_NS, objects);
+	}
+
+	@Override
+	public <P extends ParaObject> void deleteAll(String appid, List<P> objects) {
+		logger.debug("DAO.deleteAll() {}->{}", appid, deleteObjects(appid, objects));
+	}
+
+	@Override
+	public <P extends ParaObject> void deleteAll(List<P> objects) {
+		deleteAll(Config.APP_NAME_NS, objects);
+	}
+
+	@Override
+	public <P extends ParaObject> void createAllInApps(Map<String, List<P>> objects) {
+		if (objects != null) {
+			for (Map.Entry<String, List<P>> app : objects.entrySet()) {
+				createObjects(app.getKey(), app.getValue(), defaultTtlSec);
+			}
+		}
+	}
+
+	@Override
+	public <P extends ParaObject> Map<String, Map<String, P>> readAllFromApps(Map<String, List<String>> keys,
+			boolean getAllColumns) {
+		Map<String, Map<String, P>> results = new LinkedHashMap<String, Map<String, P>>();
+		if (keys != null) {
+			for (Map.Entry<String, List<String>> app : keys.entrySet()) {
+				results.put(app.getKey(), this.<P>readObjects(app.getKey(), app.getValue()));
+			}
+		}
+		return results;
+	}
+
+	@Override
+	public <P extends ParaObject> void deleteAllFromApps(Map<String, List<P>> objects) {
+		if (objects != null) {
+			for (Map.Entry<String, List<P>> app : objects.entrySet()) {
+				deleteObjects(app.getKey(), app.getValue());
+			}
+		}
+	}
+
+	/////////////////////////////////////////////
+	//			EXPIRY AND SNAPSHOTS
+	/////////////////////////////////////////////
+
+	/**
+	 * Removes all objects which have expired and unindexes them. Runs periodically in the background.
+	 * @return the number of objects removed
+	 */
+	public int evictExpired() {
+		int evicted = 0;
+		final long now = Utils.timestamp();
+		for (Map.Entry<String, List<String>> due : expiring.advance(now).entrySet()) {
+			ConcurrentNavigableMap<String, Entry> table = tables.get(due.getKey());
+			if (table == null) {
+				continue;
+			}
+			final List<ParaObject> removed = new ArrayList<ParaObject>(due.getValue().size());
+			for (String id : due.getValue()) {
+				// the object may have been updated with a new expiry time since it was scheduled
+				table.computeIfPresent(id, new BiFunction<String, Entry, Entry>() {
+					public Entry apply(String key, Entry entry) {
+						if (entry.isExpired(now)) {
+							removed.add(entry.object);
+							return null;
+						}
+						return entry;
+					}
+				});
+			}
+			DAOUtils.onExpired(due.getKey(), removed);
+			evicted += removed.size();
+		}
+		if (evicted > 0) {
+			logger.debug("Evicted {} expired objects.", evicted);
+		}
+		return evicted;
+	}
+
+	/**
+	 * Saves all objects to the snapshot file. The previous snapshot is replaced atomically,
+	 * so a failed snapshot never leaves a partial file behind.
+	 * @return the number of objects saved
+	 */
+	public synchronized long snapshot() {
+		if (snapshotFile == null) {
+			return 0L;
+		}
+		long count = 0L;
+		long now = Utils.timestamp();
+		File tmp = new File(snapshotFile.getAbsolutePath() + ".tmp");
+		ObjectWriter writer = ParaObjectUtils.getJsonWriterNoIdent();
+		try {
+			File dir = snapshotFile.getAbsoluteFile().getParentFile();
+			if (dir != null && !dir.exists() && !dir.mkdirs()) {
+				throw new IOException("Failed to create directory " + dir);
+			}
+			BufferedWriter out = new BufferedWriter(new OutputStreamWriter(
+					new GZIPOutputStream(new FileOutputStream(tmp)), StandardCharsets.UTF_8));
+			try {
+				for (Map.Entry<String, ConcurrentNavigableMap<String, Entry>> table : tables.entrySet()) {
+					for (Entry entry : table.getValue().values()) {
+						if (!entry.isExpired(now)) {
+							out.write(writer.writeValueAsString(entry.toMap()));
+							out.newLine();
+							count++;
+						}
+					}
+				}
+			} finally {
+				out.close();
+			}
+			Files.move(tmp.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+			logger.info("Saved snapshot of {} objects to {}.", count, snapshotFile);
+		} catch (IOException e) {
+			logger.error("Failed to save snapshot to {}: {}", snapshotFile, e.getMessage());
+		}
+		return count;
+	}
+
+	/**
+	 * Loads all objects from the snapshot file, if it exists. Objects which have expired are skipped.
+	 * @return the number of objects loaded
+	 */
+	public synchronized long load() {
+		if (snapshotFile == null || !snapshotFile.isFile()) {
+			return 0L;
+		}
+		long count = 0L;
+		long now = Utils.timestamp();
+		ObjectReader reader = ParaObjectUtils.getJsonReader(Map.class);
+		try {
+			BufferedReader in = new BufferedReader(new InputStreamReader(
+					new GZIPInputStream(new FileInputStream(snapshotFile)), StandardCharsets.UTF_8));
+			try {
+				String line = in.readLine();
+				while (line != null) {
+					Entry entry = fromMap(reader.<Map<String, Object>>readValue(line));
+					if (entry != null && !entry.isExpired(now)) {
+						put(entry);
+						count++;
+					}
+					line = in.readLine();
+				}
+			} finally {
+				in.close();
+			}
+			logger.info("Loaded {} objects from snapshot {}.", count, snapshotFile);
+		} catch (IOException e) {
+			logger.error("Failed to load snapshot from {}: {}", snapshotFile, e.getMessage());
+		}
+		return count;
+	}
+
+	/////////////////////////////////////////////
+	//			OBJECT FUNCTIONS
+	/////////////////////////////////////////////
+
+	private <P extends ParaObject> int createObjects(String appid, List<P> objects, long ttlSec) {
+		if (objects == null || objects.isEmpty() || StringUtils.isBlank(appid)) {
+			return 0;
+		}
+		long ttlExpiresAt = getExpiresAt(ttlSec);
+		int count = 0;
+		for (P so : objects) {
+			if (so != null) {
+				if (StringUtils.isBlank(so.getId())) {
+					so.setId(Utils.getNewId());
+				}
+				if (so.getTimestamp() == null) {
+					so.setTimestamp(Utils.timestamp());
+				}
+				so.setAppid(appid);
+				Long expiresAt = so.getExpiresAt();
+				put(new Entry(appid, copy(so), (expiresAt == null) ? ttlExpiresAt : expiresAt));
+				count++;
+			}
+		}
+		return count;
+	}
+
+	@SuppressWarnings("unchecked")
+	private <P extends ParaObject> Map<String, P> readObjects(String appid, List<String> keys) {
+		ConcurrentNavigableMap<String, Entry> table = getTable(appid, false);
+		if (table == null || keys == null || keys.isEmpty()) {
+			return Collections.emptyMap();
+		}
+		Map<String, P> results = new LinkedHashMap<String, P>(keys.size());
+		long now = Utils.timestamp();
+		for (String key : keys) {
+			Entry entry = (key == null) ? null : table.get(key);
+			if (entry != null && !entry.isExpired(now)) {
+				results.put(key, (P) copy(entry.object));
+			}
+		}
+		return results;
+	}
+
+	private <P extends ParaObject> int updateObjects(String appid, List<P> objects) {
+		ConcurrentNavigableMap<String, Entry> table = getTable(appid, false);
+		if (table == null || objects == null) {
+			return 0;
+		}
+		int count = 0;
+		for (final P so : objects) {
+			if (so != null && so.getId() != null) {
+				so.setUpdated(Utils.timestamp());
+				table.computeIfPresent(so.getId(), new BiFunction<String, Entry, Entry>() {
+					public Entry apply(String id, Entry entry) {
+						// locked fields keep their stored values, null fields are not changed
+						ParaObject updated = ParaObjectUtils.setAnnotatedFields(copy(entry.object),
+								ParaObjectUtils.getAnnotatedFields(so), Locked.class);
+						return (updated == null) ? entry : replace(entry, updated);
+					}
+				});
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private <P extends ParaObject> int deleteObjects(String appid, List<P> objects) {
+		ConcurrentNavigableMap<String, Entry> table = getTable(appid, false);
+		if (table == null || objects == null) {
+			return 0;
+		}
+		int count = 0;
+		for (P so : objects) {
+			Entry removed = (so == null || so.getId() == null) ? null : table.remove(so.getId());
+			if (removed != null) {
+				expiring.cancel(appid, so.getId());
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private void put(Entry entry) {
+		Entry old = getTable(entry.appid, true).put(entry.object.getId(), entry);
+		if (entry.expiresAt > 0 || old != null) {
+			expiring.schedule(entry.appid, entry.object.getId(), entry.expiresAt, Utils.timestamp());
+		}
+	}
+
+	/**
+	 * Replaces an entry with a new version of its object. The expiry time is kept,
+	 * unless the new version has its own.
+	 * Must be called from within a compute function of the table holding the entry.
+	 */
+	private Entry replace(Entry entry, ParaObject so) {
+		Long expiresAt = so.getExpiresAt();
+		Entry updated = new Entry(entry.appid, so, (expiresAt == null) ? entry.expiresAt : expiresAt);
+		if (updated.expiresAt != entry.expiresAt) {
+			expiring.schedule(updated.appid, so.getId(), updated.expiresAt, Utils.timestamp());
+		}
+		return updated;
+	}
+
+	private static long getExpiresAt(long ttlSec) {
+		return (ttlSec > 0) ? Utils.timestamp() + TimeUnit.SECONDS.toMillis(ttlSec) : 0L;
+	}
+
+	private ConcurrentNavigableMap<String, Entry> getTable(String appid, boolean create) {
+		if (StringUtils.isBlank(appid)) {
+			return null;
+		}
+		ConcurrentNavigableMap<String, Entry> table = tables.get(appid);
+		if (table == null && create) {
+			table = new ConcurrentSkipListMap<String, Entry>();
+			ConcurrentNavigableMap<String, Entry> existing = tables.putIfAbsent(appid, table);
+			if (existing != null) {
+				table = existing;
+			}
+		}
+		return table;
+	}
+
+	/**
+	 * Objects are copied when they are stored and when they are read, so that callers can't change
+	 * stored objects without calling update().
+	 */
+	private static ParaObject copy(ParaObject so) {
+		return ParaObjectUtils.setAnnotatedFields(ParaObjectUtils.getAnnotatedFields(so));
+	}
+
+	private Entry fromMap(Map<String, Object> map) {
+		if (map == null || !(map.get("object") instanceof Map) || StringUtils.isBlank((String) map.get("appid"))) {
+			return null;
+		}
+		@SuppressWarnings("unchecked")
+		ParaObject so = ParaObjectUtils.setAnnotatedFields((Map<String, Object>) map.get("object"));
+		if (so == null || so.getId() == null) {
+			return null;
+		}
+		long expiresAt = (map.get("expiresAt") instanceof Number) ? ((Number) map.get("expiresAt")).longValue() : 0L;
+		return new Entry((String) map.get("appid"), so, expiresAt);
+	}
+
+	/**
+	 * A stored object with its expiry time. Entries are never changed - updates replace them.
+	 */
+	private static final class Entry {
+		private final String appid;
+		private final ParaObject object;
+		private final long expiresAt;
+
+		Entry(String appid, ParaObject object, long expiresAt) {
+			this.appid = appid;
+			this.object = object;
+			this.expiresAt = Math.max(0, expiresAt);
+		}
+
+		boolean isExpired(long now) {
+			return expiresAt > 0 && expiresAt <= now;
+		}
+
+		Map<String, Object> toMap() {
+			Map<String, Object> map = new HashMap<String, Object>(3);
+			map.put("appid", appid);
+			map.put("expiresAt", expiresAt);
+			map.put("object", ParaObjectUtils.getAnnotatedFields(object, false));
+			return map;
+		}
+	}
+}
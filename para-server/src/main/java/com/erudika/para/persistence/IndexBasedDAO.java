@@ -29,7 +29,9 @@ import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import org.apache.commons.lang3.StringUtils;
@@ -45,7 +47,7 @@ import org.slf4j.LoggerFactory;
  * @author Alex Bogdanovski [alex@erudika.com]
  */
 @Singleton
-public class IndexBasedDAO implements DAO {
+public class IndexBasedDAO extends AbstractDAO {
 
 	private static final Logger logger = LoggerFactory.getLogger(IndexBasedDAO.class);
 	private static final Map<String, Map<String, ParaObject>> MAPS =
@@ -126,6 +128,65 @@ public class IndexBasedDAO implements DAO {
 		}
 	}
 
+	@Override
+	public <P extends ParaObject> String createIfAbsent(String appid, P so) {
+		if (so == null || StringUtils.isBlank(appid)) {
+			return null;
+		}
+		if (StringUtils.isBlank(so.getId())) {
+			so.setId(Utils.getNewId());
+		}
+		Map<String, ParaObject> map = getMap(appid);
+		synchronized (map) {
+			ParaObject existing = read(appid, so.getId());
+			if (existing != null && !DAOUtils.isExpired(existing, Utils.timestamp())) {
+				return null;
+			}
+			return create(appid, so);
+		}
+	}
+
+	@Override
+	public <P extends ParaObject> boolean compareAndSet(String appid, P so, Long expectedVersion) {
+		if (so == null || so.getId() == null || StringUtils.isBlank(appid)) {
+			return false;
+		}
+		Map<String, ParaObject> map = getMap(appid);
+		synchronized (map) {
+			ParaObject stored = read(appid, so.getId());
+			if (stored == null || DAOUtils.isExpired(stored, Utils.timestamp()) ||
+					!Objects.equals(DAOUtils.getVersion(stored), expectedVersion)) {
+				return false;
+			}
+			so.setUpdated(DAOUtils.nextVersion(expectedVersion));
+			map.put(so.getId(), ParaObjectUtils.setAnnotatedFields(stored,
+					ParaObjectUtils.getAnnotatedFields(so), Locked.class));
+		}
+		logger.debug("DAO.compareAndSet() {}", so.getId());
+		return true;
+	}
+
+	@Override
+	public Long increment(String appid, String key, String field, long delta) {
+		if (key == null || StringUtils.isBlank(appid)) {
+			return null;
+		}
+		Long result;
+		Map<String, ParaObject> map = getMap(appid);
+		synchronized (map) {
+			ParaObject so = read(appid, key);
+			result = DAOUtils.incrementField(so, field, delta);
+			if (result != null) {
+				map.put(key, so);
+				if (search != null) {
+					search.index(getAppidWithRouting(appid), so);
+				}
+			}
+		}
+		logger.debug("DAO.increment() {}.{} -> {}", key, field, result);
+		return result;
+	}
+
 	@Override
 	public <P extends ParaObject> void createAll(String appid, List<P> objects) {
 		if (StringUtils.isBlank(appid) || objects == null) {
@@ -197,6 +258,16 @@ public class IndexBasedDAO implements DAO {
 		return results;
 	}
 
+	@Override
+	public <P extends ParaObject> long scan(String appid, int segments, Consumer<List<P>> consumer) {
+		if (StringUtils.isBlank(appid)) {
+			return 0L;
+		}
+		long count = DAOUtils.scan(getMap(appid).values(), segments, consumer);
+		logger.debug("DAO.scan() {}", count);
+		return count;
+	}
+
 	@Override
 	public <P extends ParaObject> void updateAll(String appid, List<P> objects) {
 		if (!StringUtils.isBlank(appid) && objects != null) {
@@ -0,0 +1,225 @@
+/*
+ * Copyright 2013-2016 Erudika. https://erudika.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * For issues and patches go to: https://github.com/erudika
+ */
+package com.erudika.para.persistence;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A simple pool of JDBC connections. Each connection keeps its own cache of prepared statements,
+ * so that a statement is prepared only once per connection. Connections which were idle for a while
+ * are validated before they are handed out.
+ * @author Alex Bogdanovski [alex@erudika.com]
+ */
+class JDBCConnectionPool {
+
+	private static final Logger logger = LoggerFactory.getLogger(JDBCConnectionPool.class);
+	private static final long VALIDATE_AFTER_IDLE_MS = 30000;
+
+	private final String url;
+	private final String user;
+	private final String password;
+	private final int maxSize;
+	private final long timeoutMs;
+	private final BlockingQueue<PooledConnection> idle = new LinkedBlockingQueue<PooledConnection>();
+	private final AtomicInteger size = new AtomicInteger();
+	private volatile boolean closed = false;
+
+	/**
+	 * Default constructor.
+	 * @param url the JDBC URL
+	 * @param user the database user
+	 * @param password the database password
+	 * @param maxSize the maximum number of open connections
+	 * @param timeoutMs how long to wait for a free connection, in milliseconds
+	 */
+	JDBCConnectionPool(String url, String user, String password, int maxSize, long timeoutMs) {
+		this.url = url;
+		this.user = user;
+		this.password = password;
+		this.maxSize = Math.max(1, maxSize);
+		this.timeoutMs = timeoutMs;
+	}
+
+	/**
+	 * Takes a connection from the pool, opening a new one if none is free and the pool isn't full.
+	 * @return a connection with auto-commit enabled
+	 * @throws SQLException if no connection is available
+	 */
+	PooledConnection acquire() throws SQLException {
+		if (closed) {
+			throw new SQLException("Connection pool is closed.");
+		}
+		PooledConnection pc = pollValid();
+		if (pc != null) {
+			return pc;
+		}
+		if (size.incrementAndGet() <= maxSize) {
+			try {
+				return new PooledConnection(newConnection());
+			} catch (SQLException e) {
+				size.decrementAndGet();
+				throw e;
+			}
+		}
+		size.decrementAndGet();
+		try {
+			pc = idle.poll(timeoutMs, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (pc == null) {
+			throw new SQLException("Timed out while waiting for a database connection.");
+		}
+		return pc;
+	}
+
+	/**
+	 * Returns a connection to the pool.
+	 * @param pc a connection taken from this pool
+	 * @param broken true if the connection failed and shouldn't be reused
+	 */
+	void release(PooledConnection pc, boolean broken) {
+		if (pc == null) {
+			return;
+		}
+		boolean reusable = !closed && !broken;
+		if (reusable) {
+			try {
+				if (!pc.connection.getAutoCommit()) {
+					pc.connection.rollback();
+					pc.connection.setAutoCommit(true);
+				}
+			} catch (SQLException e) {
+				reusable = false;
+			}
+		}
+		if (reusable) {
+			pc.lastUsed = System.currentTimeMillis();
+			idle.offer(pc);
+		} else {
+			discard(pc);
+		}
+	}
+
+	/**
+	 * Closes all idle connections. Connections in use are closed when they are released.
+	 */
+	void close() {
+		closed = true;
+		PooledConnection pc = idle.poll();
+		while (pc != null) {
+			discard(pc);
+			pc = idle.poll();
+		}
+	}
+
+	/**
+	 * @return the number of open connections
+	 */
+	int getSize() {
+		return size.get();
+	}
+
+	/**
+	 * Opens a new connection to the database.
+	 * @return a connection
+	 * @throws SQLException if the connection fails
+	 */
+	protected Connection newConnection() throws SQLException {
+		return DriverManager.getConnection(url, user, password);
+	}
+
+	private PooledConnection pollValid() {
+		PooledConnection pc = idle.poll();
+		while (pc != null && !isValid(pc)) {
+			discard(pc);
+			pc = idle.poll();
+		}
+		return pc;
+	}
+
+	private boolean isValid(PooledConnection pc) {
+		if (System.currentTimeMillis() - pc.lastUsed < VALIDATE_AFTER_IDLE_MS) {
+			return true;
+		}
+		try {
+			return pc.connection.isValid(2);
+		} catch (SQLException e) {
+			return false;
+		}
+	}
+
+	private void discard(PooledConnection pc) {
+		size.decrementAndGet();
+		try {
+			pc.connection.close();
+		} catch (SQLException e) {
+			logger.debug("Failed to close connection: {}", e.getMessage());
+		}
+	}
+
+	/**
+	 * A pooled connection with a cache of prepared statements.
+	 */
+	static final class PooledConnection {
+		private final Connection connection;
+		private final Map<String, PreparedStatement> statements = new HashMap<String, PreparedStatement>();
+		private long lastUsed = System.currentTimeMillis();
+
+		PooledConnection(Connection connection) {
+			this.connection = connection;
+		}
+
+		/**
+		 * @return the JDBC connection
+		 */
+		Connection getConnection() {
+			return connection;
+		}
+
+		/**
+		 * Returns a cached prepared statement or prepares a new one.
+		 * The parameters and batch of a cached statement are cleared.
+		 * @param sql the SQL statement
+		 * @return a prepared statement
+		 * @throws SQLException if the statement can't be prepared
+		 */
+		PreparedStatement prepare(String sql) throws SQLException {
+			PreparedStatement ps = statements.get(sql);
+			if (ps == null || ps.isClosed()) {
+				ps = connection.prepareStatement(sql);
+				statements.put(sql, ps);
+			} else {
+				ps.clearParameters();
+				ps.clearBatch();
+			}
+			return ps;
+		}
+	}
+}
@@ -0,0 +1,744 @@
+/*
+ * Copyright 2013-2016 Erudika. https://erudika.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * For issues and patches go to: https://github.com/erudika
+ */
+package com.erudika.para.persistence;
+
+import com.erudika.para.annotations.Locked;
+import com.erudika.para.core.ParaObject;
+import com.erudika.para.core.utils.ParaObjectUtils;
+import static com.erudika.para.persistence.JDBCUtils.BATCH_SIZE;
+import static com.erudika.para.persistence.JDBCUtils.TABLE_NAME;
+import com.erudika.para.persistence.JDBCConnectionPool.PooledConnection;
+import com.erudika.para.utils.Config;
+import com.erudika.para.utils.Pager;
+import com.erudika.para.utils.Utils;
+import java.io.IOException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import javax.inject.Singleton;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An implementation of the {@link DAO} interface for relational databases, over plain JDBC.
+ * Objects are stored in a single table with columns for appid, id, type and timestamps,
+ * and their fields serialized to JSON. Batch operations use JDBC batch statements,
+ * {@code readAll()} uses chunked "IN" queries and {@code readPage()} uses keyset pagination, ordered by id.
+ * @author Alex Bogdanovski [alex@erudika.com]
+ */
+@Singleton
+public class JDBCDAO implements DAO {
+
+	private static final Logger logger = LoggerFactory.getLogger(JDBCDAO.class);
+
+	private static final String SQL_INSERT = "INSERT INTO " + TABLE_NAME +
+			" (appid, id, type, created, updated, data) VALUES (?, ?, ?, ?, ?, ?)";
+	private static final String SQL_UPDATE = "UPDATE " + TABLE_NAME +
+			" SET type = ?, created = ?, updated = ?, data = ? WHERE appid = ? AND id = ?";
+	private static final String SQL_UPDATE_IF_VERSION = SQL_UPDATE + " AND COALESCE(updated, created) = ?";
+	private static final String SQL_DELETE = "DELETE FROM " + TABLE_NAME + " WHERE appid = ? AND id = ?";
+	private static final String SQL_SELECT_PAGE = "SELECT id, data FROM " + TABLE_NAME +
+			" WHERE appid = ? ORDER BY id";
+	private static final String SQL_SELECT_PAGE_AFTER = "SELECT id, data FROM " + TABLE_NAME +
+			" WHERE appid = ? AND id > ? ORDER BY id";
+	private static final String SQL_SELECT_IDS = "SELECT id FROM " + TABLE_NAME + " WHERE appid = ? ORDER BY id";
+
+	private JDBCConnectionPool pool;
+
+	/**
+	 * No-args constructor.
+	 */
+	public JDBCDAO() { }
+
+	/**
+	 * Creates a DAO which uses the given connection pool.
+	 * @param pool a connection pool
+	 */
+	JDBCDAO(JDBCConnectionPool pool) {
+		this.pool = pool;
+	}
+
+	JDBCConnectionPool pool() {
+		return (pool != null) ? pool : JDBCUtils.getConnectionPool();
+	}
+
+	/////////////////////////////////////////////
+	//			CORE FUNCTIONS
+	/////////////////////////////////////////////
+
+	@Override
+	public <P extends ParaObject> String create(String appid, P so) {
+		if (so == null || StringUtils.isBlank(appid)) {
+			return null;
+		}
+		createRows(appid, Collections.singletonList(so));
+		logger.debug("DAO.create() {}->{}", appid, so.getId());
+		return so.getId();
+	}
+
+	@Override
+	public <P extends ParaObject> String create(P so) {
+		return create(Config.APP_NAME_NS, so);
+	}
+
+	@Override
+	public <P extends ParaObject> P read(String appid, String key) {
+		if (StringUtils.isBlank(key)) {
+			return null;
+		}
+		Map<String, P> results = readRows(appid, Collections.singletonList(key));
+		logger.debug("DAO.read() {}->{}", appid, key);
+		return results.get(key);
+	}
+
+	@Override
+	public <P extends ParaObject> P read(String appid, String key, Set<String> fields) {
+		return read(appid, key);
+	}
+
+	@Override
+	public <P extends ParaObject> P read(String key) {
+		return read(Config.APP_NAME_NS, key);
+	}
+
+	@Override
+	public <P extends ParaObject> P read(String key, Set<String> fields) {
+		return read(Config.APP_NAME_NS, key, fields);
+	}
+
+	@Override
+	public <P extends ParaObject> void update(String appid, P so) {
+		if (so != null && so.getId() != null) {
+			updateRows(appid, Collections.singletonList(so));
+			logger.debug("DAO.update() {}->{}", appid, so.getId());
+		}
+	}
+
+	@Override
+	public <P extends ParaObject> void update(P so) {
+		update(Config.APP_NAME_NS, so);
+	}
+
+	@Override
+	public <P extends ParaObject> void delete(String appid, P so) {
+		if (so != null && so.getId() != null) {
+			deleteRows(appid, Collections.singletonList(so));
+			logger.debug("DAO.delete() {}->{}", appid, so.getId());
+		}
+	}
+
+	@Override
+	public <P extends ParaObject> void delete(P so) {
+		delete(Config.APP_NAME_NS, so);
+	}
+
+	@Override
+	public <P extends ParaObject> String createIfAbsent(final String appid, final P so) {
+		if (so == null || StringUtils.isBlank(appid)) {
+			return null;
+		}
+		initObject(appid, so);
+		boolean created = execute(true, new SQLTask<Boolean>() {
+			public Boolean execute(PooledConnection pc) throws SQLException, IOException {
+				List<String> ids = Collections.singletonList(so.getId());
+				ParaObject existing = selectRows(pc, appid, ids, true).get(so.getId());
+				if (existing != null) {
+					// an object which has expired counts as missing
+					if (!DAOUtils.isExpired(existing, Utils.timestamp())) {
+						return false;
+					}
+					batchDelete(pc, appid, ids);
+				}
+				try {
+					batchWrite(pc, SQL_INSERT, appid, Collections.singletonList(so));
+				} catch (SQLException e) {
+					// SQL state class "23" - the row was inserted by someone else after the select
+					if (StringUtils.startsWith(e.getSQLState(), "23")) {
+						return false;
+					}
+					throw e;
+				}
+				return true;
+			}
+		}, false);
+		logger.debug("DAO.createIfAbsent() {}->{} {}", appid, so.getId(), created ? "created" : "exists");
+		return created ? so.getId() : null;
+	}
+
+	@Override
+	public <P extends ParaObject> String createIfAbsent(P so) {
+		return createIfAbsent(Config.APP_NAME_NS, so);
+	}
+
+	@Override
+	public <P extends ParaObject> boolean compareAndSet(final String appid, final P so, final Long expectedVersion) {
+		if (so == null || so.getId() == null || StringUtils.isBlank(appid)) {
+			return false;
+		}
+		boolean result = execute(true, new SQLTask<Boolean>() {
+			public Boolean execute(PooledConnection pc) throws SQLException, IOException {
+				ParaObject stored = selectRows(pc, appid, Collections.singletonList(so.getId()), true).get(so.getId());
+				if (stored == null || DAOUtils.isExpired(stored, Utils.timestamp()) ||
+						!Objects.equals(DAOUtils.getVersion(stored), expectedVersion)) {
+					return false;
+				}
+				so.setUpdated(DAOUtils.nextVersion(expectedVersion));
+				ParaObject updated = ParaObjectUtils.setAnnotatedFields(stored,
+						ParaObjectUtils.getAnnotatedFields(so, false), Locked.class);
+				// the version is checked again in the update, for databases which don't lock rows on select
+				PreparedStatement ps = pc.prepare(SQL_UPDATE_IF_VERSION);
+				ps.setString(1, updated.getType());
+				setLong(ps, 2, updated.getTimestamp());
+				setLong(ps, 3, updated.getUpdated());
+				ps.setString(4, toJSON(updated));
+				ps.setString(5, appid);
+				ps.setString(6, updated.getId());
+				setLong(ps, 7, expectedVersion);
+				return ps.executeUpdate() == 1;
+			}
+		}, false);
+		logger.debug("DAO.compareAndSet() {}->{} {}", appid, so.getId(), result);
+		return result;
+	}
+
+	@Override
+	public <P extends ParaObject> boolean compareAndSet(P so, Long expectedVersion) {
+		return compareAndSet(Config.APP_NAME_NS, so, expectedVersion);
+	}
+
+	@Override
+	public Long increment(final String appid, final String key, final String field, final long delta) {
+		if (StringUtils.isBlank(appid) || StringUtils.isBlank(key)) {
+			return null;
+		}
+		return execute(true, new SQLTask<Long>() {
+			public Long execute(PooledConnection pc) throws SQLException, IOException {
+				ParaObject so = selectRows(pc, appid, Collections.singletonList(key), true).get(key);
+				Long value = DAOUtils.incrementField(so, field, delta);
+				if (value != null) {
+					batchWrite(pc, SQL_UPDATE, appid, Collections.singletonList(so));
+				}
+				return value;
+			}
+		}, null);
+	}
+
+	@Override
+	public Long increment(String key, String field, long delta) {
+		return increment(Config.APP_NAME_NS, key, field, delta);
+	}
+
+	/////////////////////////////////////////////
+	//				BATCH FUNCTIONS
+	/////////////////////////////////////////////
+
+	@Override
+	public <P extends ParaObject> void createAll(String appid, List<P> objects) {
+		logger.debug("DAO.createAll() {}->{}", appid, createRows(appid, objects));
+	}
+
+	@Override
+	public <P extends ParaObject> void createAll(List<P> objects) {
+		createAll(Config.APP_NAME_NS, objects);
+	}
+
+	@Override
+	public <P extends ParaObject> Map<String, P> readAll(String appid, List<String> keys, boolean getAllColumns) {
+		Map<String, P> results = readRows(appid, keys);
+		logger.debug("DAO.readAll() {}->{}", appid, results.size());
+		return results;
+	}
+
+	@Override
+	public <P extends ParaObject> Map<String, P> readAll(String appid, List<String> keys, Set<String> fields) {
+		return readAll(appid, keys, true);
+	}
+
+	@Override
+	public <P extends ParaObject> Map<String, P> readAll(List<String> keys, boolean getAllColumns) {
+		return readAll(Config.APP_NAME_NS, keys, getAllColumns);
+	}
+
+	@Override
+	public <P extends ParaObject> Map<String, P> readAll(List<String> keys, Set<String> fields) {
+		return readAll(Config.APP_NAME_NS, keys, fields);
+	}
+
+	@Override
+	public <P extends ParaObject> List<P> readPage(final String appid, Pager pager) {
+		if (StringUtils.isBlank(appid)) {
+			return new LinkedList<P>();
+		}
+		final Pager p = (pager == null) ? new Pager() : pager;
+		List<P> results = execute(false, new SQLTask<List<P>>() {
+			public List<P> execute(PooledConnection pc) throws SQLException, IOException {
+				// keyset pagination - the next page starts after the last id of the previous one
+				PreparedStatement ps = pc.prepare(p.getLastKey() == null ? SQL_SELECT_PAGE : SQL_SELECT_PAGE_AFTER);
+				ps.setString(1, appid);
+				if (p.getLastKey() != null) {
+					ps.setString(2, p.getLastKey());
+				}
+				ps.setMaxRows(p.getLimit());
+				ps.setFetchSize(p.getLimit());
+				Map<String, P> page = readResults(ps);
+				if (!page.isEmpty()) {
+					p.setLastKey(new ArrayList<String>(page.keySet()).get(page.size() - 1));
+				}
+				return new LinkedList<P>(page.values());
+			}
+		}, new LinkedList<P>());
+		p.setCount(p.getCount() + results.size());
+		return results;
+	}
+
+	@Override
+	public <P extends ParaObject> List<P> readPage(Pager pager) {
+		return readPage(Config.APP_NAME_NS, pager);
+	}
+
+	@Override
+	public <P extends ParaObject> long scan(final String appid, int segments, final Consumer<List<P>> consumer) {
+		if (StringUtils.isBlank(appid) || consumer == null) {
+			return 0L;
+		}
+		final List<String> ids = execute(false, new SQLTask<List<String>>() {
+			public List<String> execute(PooledConnection pc) throws SQLException {
+				PreparedStatement ps = pc.prepare(SQL_SELECT_IDS);
+				ps.setString(1, appid);
+				ps.setMaxRows(0);
+				List<String> results = new ArrayList<String>();
+				ResultSet rs = ps.executeQuery();
+				try {
+					while (rs.next()) {
+						results.add(rs.getString(1));
+					}
+				} finally {
+					rs.close();
+				}
+				return results;
+			}
+		}, null);
+		if (ids == null) {
+			throw new IllegalStateException("Failed to read the ids of app '" + appid + "'.");
+		}
+		final int total = Math.max(1, Math.min(segments, ids.size()));
+		return DAOUtils.scanSegments(total, consumer, new BiFunction<Integer, Consumer<List<P>>, Long>() {
+			public Long apply(Integer segment, Consumer<List<P>> pages) {
+				int from = (int) ((long) segment * ids.size() / total);
+				int to = (int) ((long) (segment + 1) * ids.size() / total);
+				long count = 0L;
+				for (int i = from; i < to; i += DAOUtils.SCAN_PAGE_SIZE) {
+					List<String> pageIds = ids.subList(i, Math.min(to, i + DAOUtils.SCAN_PAGE_SIZE));
+					List<P> page = new ArrayList<P>(JDBCDAO.this.<P>scanRows(appid, pageIds).values());
+					if (!page.isEmpty()) {
+						pages.accept(page);
+						count += page.size();
+					}
+				}
+				return count;
+			}
+		});
+	}
+
+	@Override
+	public <P extends ParaObject> long scan(int segments, Consumer<List<P>> consumer) {
+		return scan(Config.APP_NAME_NS, segments, consumer);
+	}
+
+	@Override
+	public <P extends ParaObject> void updateAll(String appid, List<P> objects) {
+		logger.debug("DAO.updateAll() {}->{}", appid, updateRows(appid, objects));
+	}
+
+	@Override
+	public <P extends ParaObject> void updateAll(List<P> objects) {
+		updateAll(Config.APP_NAME_NS, objects);
+	}
+
+	@Override
+	public <P extends ParaObject> void deleteAll(String appid, List<P> objects) {
+		logger.debug("DAO.deleteAll() {}->{}", appid, deleteRows(appid, objects));
+	}
+
+	@Override
+	public <P extends ParaObject> void deleteAll(List<P> objects) {
+		deleteAll(Config.APP_NAME_NS, objects);
+	}
+
+	@Override
+	public <P extends ParaObject> void createAllInApps(Map<String, List<P>> objects) {
+		if (objects != null) {
+			for (Map.Entry<String, List<P>> app : objects.entrySet()) {
+				createRows(app.getKey(), app.getValue());
+			}
+		}
+	}
+
+	@Override
+	public <P extends ParaObject> Map<String, Map<String, P>> readAllFromApps(Map<String, List<String>> keys,
+			boolean getAllColumns) {
+		Map<String, Map<String, P>> results = new LinkedHashMap<String, Map<String, P>>();
+		if (keys != null) {
+			for (Map.Entry<String, List<String>> app : keys.entrySet()) {
+				results.put(app.getKey(), this.<P>readRows(app.getKey(), app.getValue()));
+			}
+		}
+		return results;
+	}
+
+	@Override
+	public <P extends ParaObject> void deleteAllFromApps(Map<String, List<P>> objects) {
+		if (objects != null) {
+			for (Map.Entry<String, List<P>> app : objects.entrySet()) {
+				deleteRows(app.getKey(), app.getValue());
+			}
+		}
+	}
+
+	/////////////////////////////////////////////
+	//				ROW FUNCTIONS
+	/////////////////////////////////////////////
+
+	private <P extends ParaObject> int createRows(final String appid, List<P> objects) {
+		if (objects == null || objects.isEmpty() || StringUtils.isBlank(appid)) {
+			return 0;
+		}
+		final Map<String, P> objectsById = new LinkedHashMap<String, P>(objects.size());
+		for (P so : objects) {
+			if (so != null) {
+				objectsById.put(initObject(appid, so).getId(), so);
+			}
+		}
+		// there's no portable "upsert" - existing rows are replaced within the same transaction
+		return checkWritten(objectsById.keySet(), execute(true, new SQLTask<Integer>() {
+			public Integer execute(PooledConnection pc) throws SQLException, IOException {
+				batchDelete(pc, appid, objectsById.keySet());
+				batchWrite(pc, SQL_INSERT, appid, objectsById.values());
+				return objectsById.size();
+			}
+		}, 0));
+	}
+
+	private static ParaObject initObject(String appid, ParaObject so) {
+		if (StringUtils.isBlank(so.getId())) {
+			so.setId(Utils.getNewId());
+		}
+		if (so.getTimestamp() == null) {
+			so.setTimestamp(Utils.timestamp());
+		}
+		so.setAppid(appid);
+		return so;
+	}
+
+	private <P extends ParaObject> Map<String, P> readRows(final String appid, List<String> keys) {
+		if (keys == null || keys.isEmpty() || StringUtils.isBlank(appid)) {
+			return Collections.emptyMap();
+		}
+		final List<String> ids = new ArrayList<String>(keys.size());
+		for (String key : keys) {
+			if (!StringUtils.isBlank(key)) {
+				ids.add(key);
+			}
+		}
+		if (ids.isEmpty()) {
+			return Collections.emptyMap();
+		}
+		return execute(false, new SQLTask<Map<String, P>>() {
+			public Map<String, P> execute(PooledConnection pc) throws SQLException, IOException {
+				return selectRows(pc, appid, ids, false);
+			}
+		}, Collections.<String, P>emptyMap());
+	}
+
+	/**
+	 * Reads rows like {@link #readRows(java.lang.String, java.util.List)} but fails instead of returning
+	 * fewer rows, so that a scan never skips rows silently.
+	 */
+	private <P extends ParaObject> Map<String, P> scanRows(final String appid, final List<String> ids) {
+		Map<String, P> rows = execute(false, new SQLTask<Map<String, P>>() {
+			public Map<String, P> execute(PooledConnection pc) throws SQLException, IOException {
+				return selectRows(pc, appid, ids, false);
+			}
+		}, null);
+		if (rows == null) {
+			throw new IllegalStateException("Failed to read rows of app '" + appid + "'.");
+		}
+		return rows;
+	}
+
+	private <P extends ParaObject> int updateRows(final String appid, List<P> objects) {
+		if (objects == null || objects.isEmpty() || StringUtils.isBlank(appid)) {
+			return 0;
+		}
+		final Map<String, P> objectsById = new LinkedHashMap<String, P>(objects.size());
+		for (P so : objects) {
+			if (so != null && so.getId() != null) {
+				so.setUpdated(Utils.timestamp());
+				objectsById.put(so.getId(), so);
+			}
+		}
+		return checkWritten(objectsById.keySet(), execute(true, new SQLTask<Integer>() {
+			public Integer execute(PooledConnection pc) throws SQLException, IOException {
+				Map<String, ParaObject> stored = selectRows(pc, appid, new ArrayList<String>(objectsById.keySet()), true);
+				List<ParaObject> updates = new ArrayList<ParaObject>(stored.size());
+				List<ParaObject> inserts = new ArrayList<ParaObject>();
+				for (P so : objectsById.values()) {
+					// locked fields keep their stored values, null fields are not changed
+					ParaObject updated = ParaObjectUtils.setAnnotatedFields(stored.get(so.getId()),
+							ParaObjectUtils.getAnnotatedFields(so, false), Locked.class);
+					if (updated != null) {
+						(stored.containsKey(so.getId()) ? updates : inserts).add(updated);
+					}
+				}
+				batchWrite(pc, SQL_UPDATE, appid, updates);
+				batchWrite(pc, SQL_INSERT, appid, inserts);
+				return objectsById.size();
+			}
+		}, 0));
+	}
+
+	private <P extends ParaObject> int deleteRows(final String appid, List<P> objects) {
+		if (objects == null || objects.isEmpty() || StringUtils.isBlank(appid)) {
+			return 0;
+		}
+		final List<String> ids = new ArrayList<String>(objects.size());
+		for (P so : objects) {
+			if (so != null && so.getId() != null) {
+				ids.add(so.getId());
+			}
+		}
+		return checkWritten(ids, execute(true, new SQLTask<Integer>() {
+			public Integer execute(PooledConnection pc) throws SQLException {
+				batchDelete(pc, appid, ids);
+				return ids.size();
+			}
+		}, 0));
+	}
+
+	/**
+	 * Reports the objects of a transaction which failed, so that their writes aren't published.
+	 * @param ids the ids of the objects written by the transaction
+	 * @param count the number of objects written, 0 if the transaction failed
+	 * @return the number of objects written
+	 */
+	private static int checkWritten(Collection<String> ids, int count) {
+		if (count == 0) {
+			DAOUtils.recordFailedWrites(ids);
+		}
+		return count;
+	}
+
+	/**
+	 * Reads rows with "IN" queries, in chunks of at most {@link JDBCUtils#BATCH_SIZE} ids.
+	 * The number of parameters is rounded up to a power of two, so that only a few distinct statements
+	 * are prepared and cached. The extra parameters repeat the last id.
+	 */
+	@SuppressWarnings("unchecked")
+	private <P extends ParaObject> Map<String, P> selectRows(PooledConnection pc, String appid, List<String> ids,
+			boolean forUpdate) throws SQLException, IOException {
+		Map<String, ParaObject> found = new HashMap<String, ParaObject>(ids.size());
+		for (int i = 0; i < ids.size(); i += BATCH_SIZE) {
+			List<String> chunk = ids.subList(i, Math.min(ids.size(), i + BATCH_SIZE));
+			int params = getInClauseSize(chunk.size());
+			PreparedStatement ps = pc.prepare(getSelectSQL(params, forUpdate));
+			ps.setMaxRows(0);
+			ps.setString(1, appid);
+			for (int j = 0; j < params; j++) {
+				ps.setString(j + 2, chunk.get(Math.min(j, chunk.size() - 1)));
+			}
+			found.putAll(readResults(ps));
+		}
+		Map<String, P> results = new LinkedHashMap<String, P>(found.size());
+		for (String id : ids) {
+			if (found.containsKey(id)) {
+				results.put(id, (P) found.get(id));
+			}
+		}
+		return results;
+	}
+
+	private void batchWrite(PooledConnection pc, String sql, String appid, Collection<? extends ParaObject> objects)
+			throws SQLException, IOException {
+		if (objects.isEmpty()) {
+			return;
+		}
+		boolean insert = SQL_INSERT.equals(sql);
+		PreparedStatement ps = pc.prepare(sql);
+		int count = 0;
+		for (ParaObject so : objects) {
+			int i = 1;
+			if (insert) {
+				ps.setString(i++, appid);
+				ps.setString(i++, so.getId());
+			}
+			ps.setString(i++, so.getType());
+			setLong(ps, i++, so.getTimestamp());
+			setLong(ps, i++, so.getUpdated());
+			ps.setString(i++, toJSON(so));
+			if (!insert) {
+				ps.setString(i++, appid);
+				ps.setString(i, so.getId());
+			}
+			count++;
+			addBatch(ps, count);
+		}
+		executeRemainingBatch(ps, count);
+	}
+
+	private void batchDelete(PooledConnection pc, String appid, Collection<String> ids) throws SQLException {
+		if (ids.isEmpty()) {
+			return;
+		}
+		PreparedStatement ps = pc.prepare(SQL_DELETE);
+		int count = 0;
+		for (String id : ids) {
+			ps.setString(1, appid);
+			ps.setString(2, id);
+			count++;
+			addBatch(ps, count);
+		}
+		executeRemainingBatch(ps, count);
+	}
+
+	private static void addBatch(PreparedStatement ps, int count) throws SQLException {
+		ps.addBatch();
+		if (count % BATCH_SIZE == 0) {
+			ps.executeBatch();
+		}
+	}
+
+	private static void executeRemainingBatch(PreparedStatement ps, int count) throws SQLException {
+		if (count % BATCH_SIZE != 0) {
+			ps.executeBatch();
+		}
+	}
+
+	private static <P extends ParaObject> Map<String, P> readResults(PreparedStatement ps)
+			throws SQLException, IOException {
+		Map<String, P> results = new LinkedHashMap<String, P>();
+		ResultSet rs = ps.executeQuery();
+		try {
+			while (rs.next()) {
+				P so = fromJSON(rs.getString(2));
+				if (so != null) {
+					results.put(rs.getString(1), so);
+				}
+			}
+		} finally {
+			rs.close();
+		}
+		return results;
+	}
+
+	/**
+	 * @param ids the number of ids
+	 * @return the number of parameters in the "IN" clause - the next power of two, at most the batch size
+	 */
+	static int getInClauseSize(int ids) {
+		int size = 1;
+		while (size < ids) {
+			size <<= 1;
+		}
+		return Math.min(size, Math.max(ids, BATCH_SIZE));
+	}
+
+	static String getSelectSQL(int params, boolean forUpdate) {
+		StringBuilder sb = new StringBuilder("SELECT id, data FROM ").append(TABLE_NAME).
+				append(" WHERE appid = ? AND id IN (?");
+		for (int i = 1; i < params; i++) {
+			sb.append(", ?");
+		}
+		sb.append(")");
+		if (forUpdate) {
+			sb.append(" FOR UPDATE");
+		}
+		return sb.toString();
+	}
+
+	private static void setLong(PreparedStatement ps, int index, Long value) throws SQLException {
+		if (value == null) {
+			ps.setNull(index, Types.BIGINT);
+		} else {
+			ps.setLong(index, value);
+		}
+	}
+
+	private static String toJSON(ParaObject so) throws IOException {
+		return ParaObjectUtils.getJsonWriterNoIdent().writeValueAsString(ParaObjectUtils.getAnnotatedFields(so, false));
+	}
+
+	private static <P extends ParaObject> P fromJSON(String json) throws IOException {
+		if (StringUtils.isBlank(json)) {
+			return null;
+		}
+		Map<String, Object> fields = ParaObjectUtils.getJsonReader(Map.class).readValue(json);
+		return ParaObjectUtils.setAnnotatedFields(fields);
+	}
+
+	/**
+	 * Runs some statements on a pooled connection, optionally within a transaction.
+	 * Errors are logged and the default value is returned.
+	 */
+	private <T> T execute(boolean transaction, SQLTask<T> task, T defaultValue) {
+		JDBCConnectionPool connectionPool = pool();
+		PooledConnection pc = null;
+		boolean broken = false;
+		try {
+			pc = connectionPool.acquire();
+			if (transaction) {
+				pc.getConnection().setAutoCommit(false);
+			}
+			T result = task.execute(pc);
+			if (transaction) {
+				pc.getConnection().commit();
+			}
+			return result;
+		} catch (SQLException e) {
+			// SQL state class "08" - connection exception
+			broken = StringUtils.startsWith(e.getSQLState(), "08");
+			logger.error(null, e);
+		} catch (IOException e) {
+			logger.error(null, e);
+		} finally {
+			connectionPool.release(pc, broken);
+		}
+		return defaultValue;
+	}
+
+	/**
+	 * A unit of work executed on a pooled connection.
+	 * @param <T> the type of result
+	 */
+	private interface SQLTask<T> {
+		T execute(PooledConnection pc) throws SQLException, IOException;
+	}
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2013-2016 Erudika. https://erudika.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * For issues and patches go to: https://github.com/erudika
+ */
+package com.erudika.para.persistence;
+
+import com.erudika.para.DestroyListener;
+import com.erudika.para.Para;
+import com.erudika.para.utils.Config;
+import java.sql.SQLException;
+import java.sql.Statement;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Helper utilities for connecting to a relational database over JDBC.
+ * All objects are stored in one table, keyed by appid and id, with their fields serialized to JSON.
+ * @author Alex Bogdanovski [alex@erudika.com]
+ */
+public final class JDBCUtils {
+
+	private static final Logger logger = LoggerFactory.getLogger(JDBCUtils.class);
+	private static JDBCConnectionPool pool;
+
+	/**
+	 * The JDBC URL of the database. Default is "jdbc:h2:./data/para".
+	 */
+	public static final String JDBC_URL = Config.getConfigParam("jdbc_url", "jdbc:h2:./data/para");
+	/**
+	 * The JDBC driver class, needed only for drivers which don't register themselves. Default is none.
+	 */
+	public static final String JDBC_DRIVER = Config.getConfigParam("jdbc_driver", "");
+	/**
+	 * The name of the table holding all objects. Default is "para_objects".
+	 */
+	public static final String TABLE_NAME = Config.getConfigParam("jdbc_table", "para_objects");
+	/**
+	 * The SQL type of the column holding the object data. Default is "TEXT".
+	 */
+	public static final String DATA_COLUMN_TYPE = Config.getConfigParam("jdbc_data_column_type", "TEXT");
+	/**
+	 * The maximum number of open connections. Default is 10.
+	 */
+	public static final int POOL_SIZE = Config.getConfigInt("jdbc_pool_size", 10);
+	/**
+	 * The maximum number of rows in a batch statement and of ids in an "IN" query. Default is 100.
+	 */
+	public static final int BATCH_SIZE = Math.max(1, Config.getConfigInt("jdbc_batch_size", 100));
+
+	private JDBCUtils() { }
+
+	/**
+	 * Returns the connection pool, creating the table for objects if it doesn't exist.
+	 * @return the connection pool
+	 */
+	static synchronized JDBCConnectionPool getConnectionPool() {
+		if (pool != null) {
+			return pool;
+		}
+		if (!StringUtils.isBlank(JDBC_DRIVER)) {
+			try {
+				Class.forName(JDBC_DRIVER, true, Para.getParaClassLoader());
+			} catch (ClassNotFoundException e) {
+				logger.error("JDBC driver {} not found.", JDBC_DRIVER);
+			}
+		}
+		pool = new JDBCConnectionPool(JDBC_URL, Config.getConfigParam("jdbc_user", ""),
+				Config.getConfigParam("jdbc_password", ""), POOL_SIZE, 30000);
+		createTable(pool);
+
+		Para.addDestroyListener(new DestroyListener() {
+			public void onDestroy() {
+				shutdownConnectionPool();
+			}
+		});
+		return pool;
+	}
+
+	/**
+	 * Closes all connections to the database.
+	 */
+	static synchronized void shutdownConnectionPool() {
+		if (pool != null) {
+			pool.close();
+			pool = null;
+		}
+	}
+
+	/**
+	 * Creates the table for objects, if it doesn't exist.
+	 * @param pool a connection pool
+	 * @return true if the table exists
+	 */
+	static boolean createTable(JDBCConnectionPool pool) {
+		JDBCConnectionPool.PooledConnection pc = null;
+		boolean broken = false;
+		try {
+			pc = pool.acquire();
+			Statement st = pc.getConnection().createStatement();
+			try {
+				st.execute("CREATE TABLE IF NOT EXISTS " + TABLE_NAME + " (appid VARCHAR(255) NOT NULL, "
+						+ "id VARCHAR(255) NOT NULL, type VARCHAR(255), created BIGINT, updated BIGINT, "
+						+ "data " + DATA_COLUMN_TYPE + ", PRIMARY KEY (appid, id))");
+			} finally {
+				st.close();
+			}
+			return true;
+		} catch (SQLException e) {
+			broken = true;
+			logger.error("Failed to create table '{}': {}", TABLE_NAME, e.getMessage());
+			return false;
+		} finally {
+			pool.release(pc, broken);
+		}
+	}
+}
@@ -0,0 +1,687 @@
+/*
+ * Copyright 2013-2016 Erudika. https://erudika.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * For issues and patches go to: https://github.com/erudika
+ */
+package com.erudika.para.persistence;
+
+import com.erudika.para.DestroyListener;
+import com.erudika.para.Para;
+import com.erudika.para.annotations.Locked;
+import com.erudika.para.core.ParaObject;
+import com.erudika.para.core.utils.ParaObjectUtils;
+import com.erudika.para.utils.Config;
+import com.erudika.para.utils.Pager;
+import com.erudika.para.utils.Utils;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import javax.inject.Singleton;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An embedded, persistent implementation of the {@link DAO} interface for single-node deployments.
+ * Each app has its own append-only data log on disk, with an in-memory index sorted by id.
+ * Objects are stored as JSON. Logs are compacted in the background when more than half of their
+ * space is taken by old records and recovered after a crash when they are opened. Expired objects are
+ * never returned - objects written since startup are evicted by a timer wheel and older ones when they are read.
+ * @author Alex Bogdanovski [alex@erudika.com]
+ */
+@Singleton
+public class LogStructuredDAO implements DAO {
+
+	private static final Logger logger = LoggerFactory.getLogger(LogStructuredDAO.class);
+	private static final String LOG_FILE = "data.log";
+	private static final long EVICTION_INTERVAL_MS = 1000;
+	private static final int EXPIRY_WHEEL_SLOTS = 512;
+
+	/**
+	 * The directory where data logs are stored, one subdirectory per app. Default is "data".
+	 */
+	public static final String DATA_DIR = Config.getConfigParam("log_dao_dir", "data");
+	/**
+	 * If true, each write is forced to disk before it returns. Default is false.
+	 */
+	public static final boolean FSYNC = Config.getConfigBoolean("log_dao_fsync", false);
+	/**
+	 * A log is compacted when old records take at least this many bytes. Default is 4MB.
+	 */
+	public static final int COMPACTION_MIN_BYTES = Config.getConfigInt("log_dao_compaction_min_bytes",
+			4 * 1024 * 1024);
+
+	private final File dataDir;
+	private final boolean fsync;
+	private final long compactionMinBytes;
+	private final Executor executor;
+	private final Map<String, DataLog> logs = new ConcurrentHashMap<String, DataLog>();
+	private final Set<String> compacting = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	private final ExpiryWheel expiring = new ExpiryWheel(EVICTION_INTERVAL_MS, EXPIRY_WHEEL_SLOTS);
+
+	/**
+	 * No-args constructor. Expired objects are evicted every second and logs are closed on {@link Para#destroy()}.
+	 */
+	public LogStructuredDAO() {
+		this(new File(DATA_DIR), FSYNC, COMPACTION_MIN_BYTES, Para.getExecutorService());
+		Para.getScheduledExecutorService().scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				evictExpired();
+			}
+		}, EVICTION_INTERVAL_MS, EVICTION_INTERVAL_MS, TimeUnit.MILLISECONDS);
+		Para.addDestroyListener(new DestroyListener() {
+			public void onDestroy() {
+				close();
+			}
+		});
+	}
+
+	/**
+	 * Default constructor.
+	 * @param dataDir the directory where data logs are stored
+	 * @param fsync if true, each write is forced to disk before it returns
+	 * @param compactionMinBytes the minimum number of bytes taken by old records before a log is compacted
+	 * @param executor the executor on which compactions are run
+	 */
+	public LogStructuredDAO(File dataDir, boolean fsync, long compactionMinBytes, Executor executor) {
+		if (dataDir == null || executor == null) {
+			throw new IllegalArgumentException("Data directory and executor must not be null.");
+		}
+		this.dataDir = dataDir;
+		this.fsync = fsync;
+		this.compactionMinBytes = compactionMinBytes;
+		this.executor = executor;
+	}
+
+	/**
+	 * Closes all open data logs. They are opened again on the next call.
+	 */
+	public void close() {
+		synchronized (logs) {
+			for (DataLog log : logs.values()) {
+				try {
+					log.close();
+				} catch (IOException e) {
+					logger.error(null, e);
+				}
+			}
+			logs.clear();
+		}
+	}
+
+	/**
+	 * Compacts the data log of an app now.
+	 * @param appid the app id
+	 */
+	public void compact(String appid) {
+		DataLog log = getLog(appid, false);
+		if (log != null) {
+			try {
+				log.compact();
+			} catch (IOException e) {
+				logger.error(null, e);
+			}
+		}
+	}
+
+	/**
+	 * Removes the objects written since startup which have expired and unindexes them.
+	 * Runs periodically in the background if this DAO was created with the no-args constructor.
+	 * @return the number of objects removed
+	 */
+	public int evictExpired() {
+		int evicted = 0;
+		for (Map.Entry<String, List<String>> due : expiring.advance(Utils.timestamp()).entrySet()) {
+			evicted += evict(due.getKey(), due.getValue());
+		}
+		if (evicted > 0) {
+			logger.debug("Evicted {} expired objects.", evicted);
+		}
+		return evicted;
+	}
+
+	/////////////////////////////////////////////
+	//			CORE FUNCTIONS
+	/////////////////////////////////////////////
+
+	@Override
+	public <P extends ParaObject> String create(String appid, P so) {
+		if (so == null || StringUtils.isBlank(appid)) {
+			return null;
+		}
+		createObjects(appid, Collections.singletonList(so));
+		logger.debug("DAO.create() {}->{}", appid, so.getId());
+		return so.getId();
+	}
+
+	@Override
+	public <P extends ParaObject> String create(P so) {
+		return create(Config.APP_NAME_NS, so);
+	}
+
+	@Override
+	public <P extends ParaObject> P read(String appid, String key) {
+		if (StringUtils.isBlank(key)) {
+			return null;
+		}
+		Map<String, P> results = readObjects(appid, Collections.singletonList(key));
+		logger.debug("DAO.read() {}->{}", appid, key);
+		return results.get(key);
+	}
+
+	@Override
+	public <P extends ParaObject> P read(String appid, String key, Set<String> fields) {
+		return read(appid, key);
+	}
+
+	@Override
+	public <P extends ParaObject> P read(String key) {
+		return read(Config.APP_NAME_NS, key);
+	}
+
+	@Override
+	public <P extends ParaObject> P read(String key, Set<String> fields) {
+		return read(Config.APP_NAME_NS, key, fields);
+	}
+
+	@Override
+	public <P extends ParaObject> void update(String appid, P so) {
+		if (so != null && so.getId() != null) {
+			updateObjects(appid, Collections.singletonList(so));
+			logger.debug("DAO.update() {}->{}", appid, so.getId());
+		}
+	}
+
+	@Override
+	public <P extends ParaObject> void update(P so) {
+		update(Config.APP_NAME_NS, so);
+	}
+
+	@Override
+	public <P extends ParaObject> void delete(String appid, P so) {
+		if (so != null && so.getId() != null) {
+			deleteObjects(appid, Collections.singletonList(so));
+			logger.debug("DAO.delete() {}->{}", appid, so.getId());
+		}
+	}
+
+	@Override
+	public <P extends ParaObject> void delete(P so) {
+		delete(Config.APP_NAME_NS, so);
+	}
+
+	@Override
+	public <P extends ParaObject> String createIfAbsent(final String appid, final P so) {
+		if (so == null || StringUtils.isBlank(appid)) {
+			return null;
+		}
+		if (StringUtils.isBlank(so.getId())) {
+			so.setId(Utils.getNewId());
+		}
+		if (so.getTimestamp() == null) {
+			so.setTimestamp(Utils.timestamp());
+		}
+		so.setAppid(appid);
+		final boolean[] created = new boolean[1];
+		writeAll(appid, Collections.singletonList(so.getId()), new DataLog.RecordWriter() {
+			public byte[] write(String id, byte[] data) throws IOException {
+				// an object which has expired but hasn't been evicted yet counts as missing
+				if (data != null && !DAOUtils.isExpired(fromBytes(data), Utils.timestamp())) {
+					return data;
+				}
+				created[0] = true;
+				return toBytes(track(appid, so));
+			}
+		});
+		logger.debug("DAO.createIfAbsent() {}->{} {}", appid, so.getId(), created[0] ? "created" : "exists");
+		return created[0] ? so.getId() : null;
+	}
+
+	@Override
+	public <P extends ParaObject> String createIfAbsent(P so) {
+		return createIfAbsent(Config.APP_NAME_NS, so);
+	}
+
+	@Override
+	public <P extends ParaObject> boolean compareAndSet(final String appid, final P so, final Long expectedVersion) {
+		if (so == null || so.getId() == null || getLog(appid, false) == null) {
+			return false;
+		}
+		final boolean[] result = new boolean[1];
+		writeAll(appid, Collections.singletonList(so.getId()), new DataLog.RecordWriter() {
+			public byte[] write(String id, byte[] data) throws IOException {
+				ParaObject stored = fromBytes(data);
+				if (stored == null || DAOUtils.isExpired(stored, Utils.timestamp()) ||
+						!Objects.equals(DAOUtils.getVersion(stored), expectedVersion)) {
+					return data;
+				}
+				so.setUpdated(DAOUtils.nextVersion(expectedVersion));
+				ParaObject updated = ParaObjectUtils.setAnnotatedFields(stored,
+						ParaObjectUtils.getAnnotatedFields(so, false), Locked.class);
+				result[0] = (updated != null);
+				return (updated == null) ? data : toBytes(track(appid, updated));
+			}
+		});
+		logger.debug("DAO.compareAndSet() {}->{} {}", appid, so.getId(), result[0]);
+		return result[0];
+	}
+
+	@Override
+	public <P extends ParaObject> boolean compareAndSet(P so, Long expectedVersion) {
+		return compareAndSet(Config.APP_NAME_NS, so, expectedVersion);
+	}
+
+	@Override
+	public Long increment(String appid, String key, final String field, final long delta) {
+		DataLog log = getLog(appid, false);
+		if (log == null || StringUtils.isBlank(key)) {
+			return null;
+		}
+		final Long[] result = new Long[1];
+		try {
+			log.writeAll(Collections.singletonList(key), new DataLog.RecordWriter() {
+				public byte[] write(String id, byte[] data) throws IOException {
+					ParaObject so = fromBytes(data);
+					if (DAOUtils.isExpired(so, Utils.timestamp())) {
+						return data;
+					}
+					result[0] = DAOUtils.incrementField(so, field, delta);
+					return (result[0] == null) ? data : toBytes(so);
+				}
+			});
+		} catch (IOException e) {
+			logger.error(null, e);
+			return null;
+		}
+		compactIfNeeded(appid, log);
+		return result[0];
+	}
+
+	@Override
+	public Long increment(String key, String field, long delta) {
+		return increment(Config.APP_NAME_NS, key, field, delta);
+	}
+
+	/////////////////////////////////////////////
+	//				BATCH FUNCTIONS
+	/////////////////////////////////////////////
+
+	@Override
+	public <P extends ParaObject> void createAll(String appid, List<P> objects) {
+		logger.debug("DAO.createAll() {}->{}", appid, createObjects(appid, objects));
+	}
+
+	@Override
+	public <P extends ParaObject> void createAll(List<P> objects) {
+		createAll(Config.APP_NAME_NS, objects);
+	}
+
+	private <P extends ParaObject> int createObjects(final String appid, List<P> objects) {
+		if (objects == null || objects.isEmpty() || StringUtils.isBlank(appid)) {
+			return 0;
+		}
+		final Map<String, P> objectsById = new LinkedHashMap<String, P>(objects.size());
+		for (P so : objects) {
+			if (so != null) {
+				if (StringUtils.isBlank(so.getId())) {
+					so.setId(Utils.getNewId());
+				}
+				if (so.getTimestamp() == null) {
+					so.setTimestamp(Utils.timestamp());
+				}
+				so.setAppid(appid);
+				objectsById.put(so.getId(), so);
+			}
+		}
+		writeAll(appid, objectsById.keySet(), new DataLog.RecordWriter() {
+			public byte[] write(String id, byte[] data) throws IOException {
+				return toBytes(track(appid, objectsById.get(id)));
+			}
+		});
+		return objectsById.size();
+	}
+
+	@Override
+	public <P extends ParaObject> Map<String, P> readAll(String appid, List<String> keys, boolean getAllColumns) {
+		Map<String, P> results = readObjects(appid, keys);
+		logger.debug("DAO.readAll() {}->{}", appid, results.size());
+		return results;
+	}
+
+	@Override
+	public <P extends ParaObject> Map<String, P> readAll(String appid, List<String> keys, Set<String> fields) {
+		return readAll(appid, keys, true);
+	}
+
+	@Override
+	public <P extends ParaObject> Map<String, P> readAll(List<String> keys, boolean getAllColumns) {
+		return readAll(Config.APP_NAME_NS, keys, getAllColumns);
+	}
+
+	@Override
+	public <P extends ParaObject> Map<String, P> readAll(List<String> keys, Set<String> fields) {
+		return readAll(Config.APP_NAME_NS, keys, fields);
+	}
+
+	@SuppressWarnings("unchecked")
+	private <P extends ParaObject> Map<String, P> readObjects(final String appid, List<String> keys) {
+		DataLog log = getLog(appid, false);
+		if (log == null || keys == null || keys.isEmpty()) {
+			return Collections.emptyMap();
+		}
+		Map<String, P> results = new LinkedHashMap<String, P>(keys.size());
+		final List<String> expired = new ArrayList<String>();
+		long now = Utils.timestamp();
+		try {
+			for (String key : keys) {
+				P so = (P) fromBytes(log.read(key));
+				if (DAOUtils.isExpired(so, now)) {
+					expired.add(key);
+				} else if (so != null) {
+					results.put(key, so);
+				}
+			}
+		} catch (IOException e) {
+			logger.error(null, e);
+		}
+		if (!expired.isEmpty()) {
+			// objects which were written before startup aren't on the wheel, so they are evicted when they are read
+			executor.execute(new Runnable() {
+				public void run() {
+					evict(appid, expired);
+				}
+			});
+		}
+		return results;
+	}
+
+	@Override
+	public <P extends ParaObject> List<P> readPage(String appid, Pager pager) {
+		List<P> results = new LinkedList<P>();
+		DataLog log = getLog(appid, false);
+		if (log == null) {
+			return results;
+		}
+		if (pager == null) {
+			pager = new Pager();
+		}
+		// objects are returned in the order of their ids, starting after the last key
+		List<String> ids = log.getIds(pager.getLastKey(), pager.getLimit());
+		if (!ids.isEmpty()) {
+			results.addAll(this.<P>readObjects(appid, ids).values());
+			pager.setLastKey(ids.get(ids.size() - 1));
+		}
+		pager.setCount(pager.getCount() + results.size());
+		return results;
+	}
+
+	@Override
+	public <P extends ParaObject> List<P> readPage(Pager pager) {
+		return readPage(Config.APP_NAME_NS, pager);
+	}
+
+	@Override
+	public <P extends ParaObject> long scan(final String appid, int segments, final Consumer<List<P>> consumer) {
+		DataLog log = getLog(appid, false);
+		if (log == null || consumer == null) {
+			return 0L;
+		}
+		final List<String> ids = log.getIds(null, Integer.MAX_VALUE);
+		final int total = Math.max(1, Math.min(segments, ids.size()));
+		return DAOUtils.scanSegments(total, consumer, new BiFunction<Integer, Consumer<List<P>>, Long>() {
+			public Long apply(Integer segment, Consumer<List<P>> pages) {
+				int from = (int) ((long) segment * ids.size() / total);
+				int to = (int) ((long) (segment + 1) * ids.size() / total);
+				long count = 0L;
+				for (int i = from; i < to; i += DAOUtils.SCAN_PAGE_SIZE) {
+					List<String> pageIds = ids.subList(i, Math.min(to, i + DAOUtils.SCAN_PAGE_SIZE));
+					List<P> page = new ArrayList<P>(LogStructuredDAO.this.<P>readObjects(appid, pageIds).values());
+					if (!page.isEmpty()) {
+						pages.accept(page);
+						count += page.size();
+					}
+				}
+				return count;
+			}
+		});
+	}
+
+	@Override
+	public <P extends ParaObject> long scan(int segments, Consumer<List<P>> consumer) {
+		return scan(Config.APP_NAME_NS, segments, consumer);
+	}
+
+	@Override
+	public <P extends ParaObject> void updateAll(String appid, List<P> objects) {
+		logger.debug("DAO.updateAll() {}->{}", appid, updateObjects(appid, objects));
+	}
+
+	@Override
+	public <P extends ParaObject> void updateAll(List<P> objects) {
+		updateAll(Config.APP_NAME_NS, objects);
+	}
+
+	private <P extends ParaObject> int updateObjects(final String appid, List<P> objects) {
+		if (objects == null || objects.isEmpty() || StringUtils.isBlank(appid)) {
+			return 0;
+		}
+		final Map<String, P> objectsById = new LinkedHashMap<String, P>(objects.size());
+		for (P so : objects) {
+			if (so != null && so.getId() != null) {
+				so.setUpdated(Utils.timestamp());
+				objectsById.put(so.getId(), so);
+			}
+		}
+		writeAll(appid, objectsById.keySet(), new DataLog.RecordWriter() {
+			public byte[] write(String id, byte[] data) throws IOException {
+				// locked fields keep their stored values, null fields are not changed
+				ParaObject updated = ParaObjectUtils.setAnnotatedFields(fromBytes(data),
+						ParaObjectUtils.getAnnotatedFields(objectsById.get(id), false), Locked.class);
+				return (updated == null) ? data : toBytes(track(appid, updated));
+			}
+		});
+		return objectsById.size();
+	}
+
+	@Override
+	public <P extends ParaObject> void deleteAll(String appid, List<P> objects) {
+		logger.debug("DAO.deleteAll() {}->{}", appid, deleteObjects(appid, objects));
+	}
+
+	@Override
+	public <P extends ParaObject> void deleteAll(List<P> objects) {
+		deleteAll(Config.APP_NAME_NS, objects);
+	}
+
+	@Override
+	public <P extends ParaObject> void createAllInApps(Map<String, List<P>> objects) {
+		if (objects != null) {
+			for (Map.Entry<String, List<P>> app : objects.entrySet()) {
+				createObjects(app.getKey(), app.getValue());
+			}
+		}
+	}
+
+	@Override
+	public <P extends ParaObject> Map<String, Map<String, P>> readAllFromApps(Map<String, List<String>> keys,
+			boolean getAllColumns) {
+		Map<String, Map<String, P>> results = new LinkedHashMap<String, Map<String, P>>();
+		if (keys != null) {
+			for (Map.Entry<String, List<String>> app : keys.entrySet()) {
+				results.put(app.getKey(), this.<P>readObjects(app.getKey(), app.getValue()));
+			}
+		}
+		return results;
+	}
+
+	@Override
+	public <P extends ParaObject> void deleteAllFromApps(Map<String, List<P>> objects) {
+		if (objects != null) {
+			for (Map.Entry<String, List<P>> app : objects.entrySet()) {
+				deleteObjects(app.getKey(), app.getValue());
+			}
+		}
+	}
+
+	private <P extends ParaObject> int deleteObjects(String appid, List<P> objects) {
+		if (objects == null || objects.isEmpty()) {
+			return 0;
+		}
+		List<String> ids = new ArrayList<String>(objects.size());
+		for (P so : objects) {
+			if (so != null && so.getId() != null) {
+				ids.add(so.getId());
+				expiring.cancel(appid, so.getId());
+			}
+		}
+		if (getLog(appid, false) != null) {
+			writeAll(appid, ids, new DataLog.RecordWriter() {
+				public byte[] write(String id, byte[] data) {
+					return null;
+				}
+			});
+		}
+		return ids.size();
+	}
+
+	/////////////////////////////////////////////
+	//				LOG FUNCTIONS
+	/////////////////////////////////////////////
+
+	private void writeAll(String appid, Collection<String> ids, DataLog.RecordWriter writer) {
+		DataLog log = getLog(appid, true);
+		if (log == null || ids.isEmpty()) {
+			DAOUtils.recordFailedWrites(ids);
+			return;
+		}
+		try {
+			log.writeAll(ids, writer);
+		} catch (IOException e) {
+			logger.error(null, e);
+			DAOUtils.recordFailedWrites(ids);
+		}
+		compactIfNeeded(appid, log);
+	}
+
+	/**
+	 * Deletes the given objects if they have expired.
+	 * @param appid the app id
+	 * @param ids the ids of objects which may have expired
+	 * @return the number of objects deleted
+	 */
+	private int evict(String appid, List<String> ids) {
+		if (getLog(appid, false) == null) {
+			return 0;
+		}
+		final long now = Utils.timestamp();
+		final List<ParaObject> removed = new ArrayList<ParaObject>(ids.size());
+		writeAll(appid, ids, new DataLog.RecordWriter() {
+			public byte[] write(String id, byte[] data) throws IOException {
+				// the object may have been updated with a new expiry time since it was scheduled
+				ParaObject so = fromBytes(data);
+				if (DAOUtils.isExpired(so, now)) {
+					removed.add(so);
+					return null;
+				}
+				return data;
+			}
+		});
+		DAOUtils.onExpired(appid, removed);
+		return removed.size();
+	}
+
+	/**
+	 * Puts an object which is written on the expiry wheel, if it has an expiry time.
+	 */
+	private ParaObject track(String appid, ParaObject so) {
+		if (so != null && so.getExpiresAt() != null) {
+			expiring.schedule(appid, so.getId(), so.getExpiresAt(), Utils.timestamp());
+		}
+		return so;
+	}
+
+	private void compactIfNeeded(final String appid, final DataLog log) {
+		if (log.needsCompaction(compactionMinBytes) && compacting.add(appid)) {
+			executor.execute(new Runnable() {
+				public void run() {
+					try {
+						log.compact();
+					} catch (IOException e) {
+						logger.error(null, e);
+					} finally {
+						compacting.remove(appid);
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Returns the data log of an app, opening it if needed.
+	 * @param appid the app id
+	 * @param create if false and the app has no data log on disk, null is returned
+	 * @return the log or null
+	 */
+	private DataLog getLog(String appid, boolean create) {
+		if (StringUtils.isBlank(appid)) {
+			return null;
+		}
+		DataLog log = logs.get(appid);
+		if (log != null) {
+			return log;
+		}
+		synchronized (logs) {
+			log = logs.get(appid);
+			File dir = new File(dataDir, Utils.urlEncode(appid));
+			if (log == null && (create || dir.isDirectory())) {
+				try {
+					if (!dir.isDirectory() && !dir.mkdirs()) {
+						throw new IOException("Failed to create directory " + dir);
+					}
+					log = new DataLog(new File(dir, LOG_FILE), fsync);
+					logs.put(appid, log);
+				} catch (IOException e) {
+					logger.error(null, e);
+				}
+			}
+			return log;
+		}
+	}
+
+	private static byte[] toBytes(ParaObject so) throws IOException {
+		return ParaObjectUtils.getJsonWriterNoIdent().writeValueAsBytes(ParaObjectUtils.getAnnotatedFields(so, false));
+	}
+
+	private static ParaObject fromBytes(byte[] data) throws IOException {
+		if (data == null) {
+			return null;
+		}
+		Map<String, Object> fields = ParaObjectUtils.getJsonReader(Map.class).readValue(data);
+		return ParaObjectUtils.setAnnotatedFields(fields);
+	}
+}
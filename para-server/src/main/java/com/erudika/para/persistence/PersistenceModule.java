@@ -20,6 +20,9 @@ package com.erudika.para.persistence;
 import com.erudika.para.Para;
 import com.erudika.para.utils.Config;
 import com.google.inject.AbstractModule;
+import com.google.inject.Inject;
+import com.google.inject.Injector;
+import com.google.inject.Provider;
 import java.util.ServiceLoader;
 import org.apache.commons.lang3.StringUtils;
 
@@ -30,26 +33,42 @@ import org.apache.commons.lang3.StringUtils;
 public class PersistenceModule extends AbstractModule {
 
 	protected void configure() {
+		Class<? extends DAO> daoClass = getDAOClass();
+		if (WriteBehindDAO.WRITE_BEHIND_TYPES.isEmpty()) {
+			bind(DAO.class).to(daoClass).asEagerSingleton();
+		} else {
+			// the write-behind DAO isn't intercepted - objects are indexed and cached when they are flushed
+			bind(DAO.class).toProvider(new WriteBehindDAOProvider(daoClass)).asEagerSingleton();
+		}
+	}
+
+	private Class<? extends DAO> getDAOClass() {
 		String selectedDAO = Config.getConfigParam("dao", "");
 		if (StringUtils.isBlank(selectedDAO)) {
 			if ("embedded".equals(Config.ENVIRONMENT)) {
-				bind(DAO.class).to(IndexBasedDAO.class).asEagerSingleton();
+				return IndexBasedDAO.class;
 			} else {
-				bind(DAO.class).to(AWSDynamoDAO.class).asEagerSingleton();
+				return AWSDynamoDAO.class;
 			}
 		} else {
 			if ("elasticsearch".equalsIgnoreCase(selectedDAO)) {
-				bind(DAO.class).to(IndexBasedDAO.class).asEagerSingleton();
+				return IndexBasedDAO.class;
 			} else if ("dynamodb".equalsIgnoreCase(selectedDAO)) {
-				bind(DAO.class).to(AWSDynamoDAO.class).asEagerSingleton();
+				return AWSDynamoDAO.class;
+			} else if ("log".equalsIgnoreCase(selectedDAO)) {
+				return LogStructuredDAO.class;
+			} else if ("jdbc".equalsIgnoreCase(selectedDAO)) {
+				return JDBCDAO.class;
+			} else if ("memory".equalsIgnoreCase(selectedDAO)) {
+				return InMemoryDAO.class;
 			} else {
 				DAO daoPlugin = loadExternalDAO(selectedDAO);
 				if (daoPlugin != null) {
 					// external plugins - MongoDB, Cassandra, xSQL, etc.
-					bind(DAO.class).to(daoPlugin.getClass()).asEagerSingleton();
+					return daoPlugin.getClass();
 				} else {
 					// in-memory DAO - default fallback
-					bind(DAO.class).to(MockDAO.class).asEagerSingleton();
+					return MockDAO.class;
 				}
 			}
 		}
@@ -71,4 +90,24 @@ public class PersistenceModule extends AbstractModule {
 		return null;
 	}
 
+	/**
+	 * Wraps the selected DAO in a {@link WriteBehindDAO}.
+	 */
+	private static final class WriteBehindDAOProvider implements Provider<DAO> {
+		private final Class<? extends DAO> daoClass;
+		@Inject private Injector injector;
+
+		WriteBehindDAOProvider(Class<? extends DAO> daoClass) {
+			this.daoClass = daoClass;
+		}
+
+		@Override
+		public DAO get() {
+			return WriteBehindDAO.create(new Provider<DAO>() {
+				public DAO get() {
+					return injector.getInstance(daoClass);
+				}
+			});
+		}
+	}
 }
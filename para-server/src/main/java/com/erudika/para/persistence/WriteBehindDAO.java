@@ -0,0 +1,845 @@
+/*
+ * Copyright 2013-2016 Erudika. https://erudika.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * For issues and patches go to: https://github.com/erudika
+ */
+package com.erudika.para.persistence;
+
+import com.erudika.para.DestroyListener;
+import com.erudika.para.Para;
+import com.erudika.para.annotations.Locked;
+import com.erudika.para.core.ParaObject;
+import com.erudika.para.core.utils.ParaObjectUtils;
+import com.erudika.para.utils.Config;
+import com.erudika.para.utils.Pager;
+import com.erudika.para.utils.Utils;
+import com.google.inject.Provider;
+import java.lang.annotation.Annotation;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A write-behind {@link DAO} which buffers creates and updates of selected types in memory and writes them
+ * to another DAO in batches, using {@code createAll()} and {@code updateAll()}. Successive writes to the
+ * same object are merged - only the latest state is written. The buffer is flushed periodically and
+ * whenever it holds more than a batch of objects. Reads see the buffered objects. Deletes and batch writes
+ * go straight to the underlying DAO. The buffer is drained when Para is destroyed. Reads of buffered
+ * objects return copies, so changing them has no effect until they are updated.
+ * <br>
+ * Objects which couldn't be written stay in the buffer and are written again after a backoff delay,
+ * see {@link AWSDynamoRetryScheduler#getBackoffDelay(int)}. An object which still isn't written after
+ * {@code para.write_behind_max_retries} retries is dropped from the buffer and counted,
+ * see {@link #getDroppedCount()}.
+ * <br>
+ * Enabled by listing the types to buffer in {@code para.write_behind_types}, e.g. "thing,vote",
+ * or "*" for all types.
+ * @author Alex Bogdanovski [alex@erudika.com]
+ */
+public class WriteBehindDAO implements DAO {
+
+	private static final Logger logger = LoggerFactory.getLogger(WriteBehindDAO.class);
+
+	/**
+	 * A comma-separated list of types whose writes are buffered, or "*" for all types. Default is none.
+	 */
+	public static final Set<String> WRITE_BEHIND_TYPES = new HashSet<String>(Arrays.asList(StringUtils.
+			split(StringUtils.deleteWhitespace(Config.getConfigParam("write_behind_types", "")), ",")));
+	/**
+	 * The maximum number of objects written in one batch. Default is 100.
+	 */
+	public static final int WRITE_BEHIND_BATCH_SIZE = Math.max(1, Config.getConfigInt("write_behind_batch_size", 100));
+	/**
+	 * The time between flushes, in milliseconds. Default is 1000.
+	 */
+	public static final int WRITE_BEHIND_INTERVAL_MS = Math.max(1, Config.getConfigInt("write_behind_interval_ms",
+			1000));
+	/**
+	 * The number of times an object which couldn't be written is retried before it's dropped. Default is 8.
+	 */
+	public static final int WRITE_BEHIND_MAX_RETRIES = Math.max(0, Config.getConfigInt("write_behind_max_retries", 8));
+
+	private static final int KEY_LOCKS = 64;
+
+	private final DAO dao;
+	private final Set<String> types;
+	private final int batchSize;
+	private final int maxRetries;
+	private final Map<String, PendingWrite> buffer = new ConcurrentHashMap<String, PendingWrite>();
+	private final Object flushLock = new Object();
+	private final Object[] keyLocks = new Object[KEY_LOCKS];
+	private final AtomicLong droppedCount = new AtomicLong();
+	private final AtomicBoolean flushRequested = new AtomicBoolean(false);
+	private final ScheduledExecutorService scheduler;
+	private final ScheduledFuture<?> flushTask;
+	private volatile boolean drained = false;
+
+	/**
+	 * Creates a write-behind DAO which uses the Para scheduler and drains its buffer on {@link Para#destroy()}.
+	 * Destroy listeners are called in the order they were registered, so the listener which drains the buffer
+	 * is registered before the underlying DAO is created. This way the buffer is drained before the underlying
+	 * DAO closes its connection to the data store.
+	 * @param daoProvider creates the DAO which does the actual writes
+	 * @return a new write-behind DAO
+	 */
+	public static WriteBehindDAO create(Provider<? extends DAO> daoProvider) {
+		return create(daoProvider, WRITE_BEHIND_TYPES, WRITE_BEHIND_BATCH_SIZE, WRITE_BEHIND_INTERVAL_MS,
+				Para.getScheduledExecutorService());
+	}
+
+	/**
+	 * Creates a write-behind DAO with custom settings, which drains its buffer on {@link Para#destroy()},
+	 * before the underlying DAO is shut down.
+	 * @param daoProvider creates the DAO which does the actual writes
+	 * @param types the types whose writes are buffered, "*" for all
+	 * @param batchSize the maximum number of objects written in one batch
+	 * @param intervalMs the time between flushes, in milliseconds
+	 * @param scheduler the executor on which flushes are run
+	 * @return a new write-behind DAO
+	 */
+	public static WriteBehindDAO create(Provider<? extends DAO> daoProvider, Collection<String> types,
+			int batchSize, long intervalMs, ScheduledExecutorService scheduler) {
+		final AtomicReference<WriteBehindDAO> created = new AtomicReference<WriteBehindDAO>();
+		Para.addDestroyListener(new DestroyListener() {
+			public void onDestroy() {
+				WriteBehindDAO dao = created.get();
+				if (dao != null) {
+					dao.drain();
+				}
+			}
+		});
+		created.set(new WriteBehindDAO(daoProvider.get(), types, batchSize, intervalMs, scheduler));
+		return created.get();
+	}
+
+	/**
+	 * Creates a write-behind DAO with custom settings.
+	 * @param dao the DAO which does the actual writes
+	 * @param types the types whose writes are buffered, "*" for all
+	 * @param batchSize the maximum number of objects written in one batch
+	 * @param intervalMs the time between flushes, in milliseconds
+	 * @param scheduler the executor on which flushes are run
+	 */
+	public WriteBehindDAO(DAO dao, Collection<String> types, int batchSize, long intervalMs,
+			ScheduledExecutorService scheduler) {
+		this(dao, types, batchSize, intervalMs, WRITE_BEHIND_MAX_RETRIES, scheduler);
+	}
+
+	/**
+	 * Creates a write-behind DAO with custom settings.
+	 * @param dao the DAO which does the actual writes
+	 * @param types the types whose writes are buffered, "*" for all
+	 * @param batchSize the maximum number of objects written in one batch
+	 * @param intervalMs the time between flushes, in milliseconds
+	 * @param maxRetries the number of times an object which couldn't be written is retried before it's dropped
+	 * @param scheduler the executor on which flushes are run
+	 */
+	public WriteBehindDAO(DAO dao, Collection<String> types, int batchSize, long intervalMs, int maxRetries,
+			ScheduledExecutorService scheduler) {
+		if (dao == null || scheduler == null) {
+			throw new IllegalArgumentException("DAO and scheduler must not be null.");
+		}
+		this.dao = DAOUtils.withFallbacks(dao);
+		this.types = (types == null) ? Collections.<String>emptySet() : new HashSet<String>(types);
+		this.batchSize = Math.max(1, batchSize);
+		this.maxRetries = Math.max(0, maxRetries);
+		this.scheduler = scheduler;
+		for (int i = 0; i < keyLocks.length; i++) {
+			keyLocks[i] = new Object();
+		}
+		this.flushTask = scheduler.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				flush();
+			}
+		}, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @return the wrapped DAO
+	 */
+	public DAO getDao() {
+		return dao;
+	}
+
+	/**
+	 * @return the number of objects waiting to be written
+	 */
+	public int getPendingCount() {
+		return buffer.size();
+	}
+
+	/**
+	 * @return the number of objects which were dropped from the buffer because they couldn't be written
+	 */
+	public long getDroppedCount() {
+		return droppedCount.get();
+	}
+
+	/**
+	 * Writes all buffered objects to the underlying DAO, except the ones waiting for a retry.
+	 */
+	public void flush() {
+		flush(false);
+	}
+
+	/**
+	 * Stops buffering and writes all buffered objects to the underlying DAO.
+	 * Objects which couldn't be written are retried after the backoff delay, until they are written or dropped.
+	 * Later writes go directly to the underlying DAO.
+	 */
+	public void drain() {
+		drained = true;
+		flushTask.cancel(false);
+		long delay = flush(true);
+		while (delay >= 0) {
+			try {
+				Thread.sleep(delay);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				logger.warn("Interrupted while draining - {} buffered objects were not written.", buffer.size());
+				return;
+			}
+			delay = flush(true);
+		}
+	}
+
+	/**
+	 * Writes the buffered objects to the underlying DAO.
+	 * @param all also write the objects which are waiting for a retry
+	 * @return the delay before the next retry in milliseconds, or -1 if all objects were written or dropped
+	 */
+	private long flush(boolean all) {
+		synchronized (flushLock) {
+			flushRequested.set(false);
+			if (buffer.isEmpty()) {
+				return -1;
+			}
+			long now = Utils.timestamp();
+			Map<String, List<ParaObject>> creates = new LinkedHashMap<String, List<ParaObject>>();
+			Map<String, List<ParaObject>> updates = new LinkedHashMap<String, List<ParaObject>>();
+			List<PendingWrite> pending = new ArrayList<PendingWrite>(buffer.size());
+			for (PendingWrite write : buffer.values()) {
+				if (all || write.retryAt <= now) {
+					Map<String, List<ParaObject>> writes = write.create ? creates : updates;
+					if (!writes.containsKey(write.appid)) {
+						writes.put(write.appid, new ArrayList<ParaObject>());
+					}
+					writes.get(write.appid).add(write.object);
+					pending.add(write);
+				}
+			}
+			Set<String> failed = new HashSet<String>();
+			writeAll(creates, true, failed);
+			writeAll(updates, false, failed);
+			logger.debug("Flushed {} buffered objects, {} failed.", pending.size(), failed.size());
+			return settle(pending, failed);
+		}
+	}
+
+	/**
+	 * Removes the written objects from the buffer and keeps the failed ones for a retry, or drops them
+	 * after the last retry. Objects which were written again during the flush stay in the buffer.
+	 * @return the delay before the next retry in milliseconds, or -1 if there's nothing to retry
+	 */
+	private long settle(List<PendingWrite> pending, Set<String> failed) {
+		long retryIn = -1;
+		int retried = 0;
+		int dropped = 0;
+		for (PendingWrite write : pending) {
+			if (!failed.contains(write.key)) {
+				buffer.remove(write.key, write);
+			} else if (write.attempts >= maxRetries) {
+				dropped += buffer.remove(write.key, write) ? 1 : 0;
+			} else {
+				long delay = AWSDynamoRetryScheduler.getBackoffDelay(write.attempts);
+				buffer.replace(write.key, write, new PendingWrite(write, delay));
+				retryIn = (retryIn < 0) ? delay : Math.min(retryIn, delay);
+				retried++;
+			}
+		}
+		if (dropped > 0) {
+			droppedCount.addAndGet(dropped);
+			logger.error("{} buffered objects were dropped - they couldn't be written after {} retries.",
+					dropped, maxRetries);
+		}
+		if (retried > 0 && !drained) {
+			logger.warn("{} buffered objects couldn't be written - retry in {}ms.", retried, retryIn);
+			try {
+				scheduler.schedule(new Runnable() {
+					public void run() {
+						flush();
+					}
+				}, retryIn, TimeUnit.MILLISECONDS);
+			} catch (RejectedExecutionException e) {
+				// the next periodic flush retries them
+				logger.warn(e.getMessage());
+			}
+		}
+		return retryIn;
+	}
+
+	private void writeAll(Map<String, List<ParaObject>> writes, boolean create, Set<String> failed) {
+		// new objects of different apps share batches, updates are written per app
+		Map<String, List<ParaObject>> batches = new LinkedHashMap<String, List<ParaObject>>();
+		int batchCount = 0;
+		for (Map.Entry<String, List<ParaObject>> entry : writes.entrySet()) {
+			List<ParaObject> objects = entry.getValue();
+			for (int i = 0; i < objects.size(); i += batchSize) {
+				int end = Math.min(objects.size(), i + batchSize);
+				List<ParaObject> batch = new ArrayList<ParaObject>(objects.subList(i, end));
+				if (!create) {
+					write(Collections.singletonMap(entry.getKey(), batch), false, failed);
+					continue;
+				}
+				if (batchCount + batch.size() > batchSize) {
+					write(batches, true, failed);
+					batches = new LinkedHashMap<String, List<ParaObject>>();
+					batchCount = 0;
+				}
+				List<ParaObject> appBatch = batches.get(entry.getKey());
+				if (appBatch == null) {
+					batches.put(entry.getKey(), batch);
+				} else {
+					appBatch.addAll(batch);
+				}
+				batchCount += batch.size();
+			}
+		}
+		if (!batches.isEmpty()) {
+			write(batches, true, failed);
+		}
+	}
+
+	/**
+	 * Writes one batch and adds the keys of the objects which weren't written to the set of failed keys.
+	 */
+	private void write(Map<String, List<ParaObject>> batch, boolean create, Set<String> failed) {
+		try {
+			if (create) {
+				dao.createAllInApps(batch);
+			} else {
+				for (Map.Entry<String, List<ParaObject>> app : batch.entrySet()) {
+					dao.updateAll(app.getKey(), app.getValue());
+				}
+			}
+		} catch (BatchWriteException e) {
+			logger.warn(e.getMessage());
+			for (Map.Entry<String, List<String>> app : e.getUnwritten().entrySet()) {
+				for (String id : app.getValue()) {
+					failed.add(key(app.getKey(), id));
+				}
+			}
+		} catch (Exception e) {
+			logger.error(null, e);
+			for (Map.Entry<String, List<ParaObject>> app : batch.entrySet()) {
+				for (ParaObject so : app.getValue()) {
+					failed.add(key(app.getKey(), so.getId()));
+				}
+			}
+		}
+	}
+
+	private boolean isBuffered(ParaObject so) {
+		return !drained && so != null && (types.contains("*") || types.contains(so.getType()));
+	}
+
+	private void bufferCreate(String appid, ParaObject so) {
+		String key = key(appid, so.getId());
+		buffer.put(key, new PendingWrite(key, appid, copy(so, null, null), true, null));
+		requestFlushIfFull();
+	}
+
+	private void bufferUpdate(final String appid, ParaObject so) {
+		final String key = key(appid, so.getId());
+		synchronized (keyLock(key)) {
+			// successive updates are merged into the last known state of the object, like the data store would
+			ParaObject stored = buffer.containsKey(key) ? null : dao.read(appid, so.getId());
+			final ParaObject base = (stored == null) ? newObject(so) : stored;
+			final Map<String, Object> fields = ParaObjectUtils.getAnnotatedFields(so);
+			buffer.compute(key, new BiFunction<String, PendingWrite, PendingWrite>() {
+				public PendingWrite apply(String k, PendingWrite previous) {
+					ParaObject current = (previous == null) ? base : previous.object;
+					// an object which hasn't been written yet must still be created
+					return new PendingWrite(key, appid, copy(current, fields, Locked.class),
+							previous != null && previous.create, previous);
+				}
+			});
+		}
+		requestFlushIfFull();
+	}
+
+	/**
+	 * Creates an empty object with the same id, app id and type as another object. These fields are
+	 * locked, so an update doesn't set them.
+	 */
+	private static ParaObject newObject(ParaObject so) {
+		ParaObject empty = ParaObjectUtils.toObject(so.getType());
+		if (empty != null) {
+			empty.setId(so.getId());
+			empty.setAppid(so.getAppid());
+			empty.setType(so.getType());
+		}
+		return empty;
+	}
+
+	private void requestFlushIfFull() {
+		if (buffer.size() >= batchSize && flushRequested.compareAndSet(false, true)) {
+			scheduler.execute(new Runnable() {
+				public void run() {
+					flush();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Copies an object, so that later changes to it don't affect the buffered state.
+	 * @param so an object, may be null
+	 * @param changes fields to set on the copy
+	 * @param filter fields with this annotation are not changed
+	 * @return a new object
+	 */
+	private static ParaObject copy(ParaObject so, Map<String, Object> changes, Class<? extends Annotation> filter) {
+		ParaObject copy = (so == null) ? null : ParaObjectUtils.setAnnotatedFields(
+				ParaObjectUtils.toObject(so.getType()), ParaObjectUtils.getAnnotatedFields(so), null);
+		return (changes == null) ? copy : ParaObjectUtils.setAnnotatedFields(copy, changes, filter);
+	}
+
+	/**
+	 * Writes the buffered state of an object before a write which doesn't go through the buffer.
+	 * The caller holds the lock of the object's key. Only taking the object out of the buffer waits
+	 * for a running flush, the write itself doesn't block other keys.
+	 */
+	private void flushKey(String appid, String id) {
+		String key = key(appid, id);
+		PendingWrite write;
+		synchronized (flushLock) {
+			write = buffer.remove(key);
+		}
+		if (write != null) {
+			try {
+				if (write.create) {
+					dao.create(appid, write.object);
+				} else {
+					dao.update(appid, write.object);
+				}
+			} catch (RuntimeException e) {
+				buffer.putIfAbsent(key, write);
+				throw e;
+			}
+		}
+	}
+
+	private Object keyLock(String key) {
+		return keyLocks[(key.hashCode() & Integer.MAX_VALUE) % keyLocks.length];
+	}
+
+	private static String key(String appid, String id) {
+		return StringUtils.trimToEmpty(appid).concat(Config.SEPARATOR).concat(id);
+	}
+
+	/////////////////////////////////////////////
+	//			CORE FUNCTIONS
+	/////////////////////////////////////////////
+
+	@Override
+	public <P extends ParaObject> String create(String appid, P so) {
+		if (!isBuffered(so)) {
+			return dao.create(appid, so);
+		}
+		if (StringUtils.isBlank(so.getId())) {
+			so.setId(Utils.getNewId());
+		}
+		if (so.getTimestamp() == null) {
+			so.setTimestamp(Utils.timestamp());
+		}
+		so.setAppid(appid);
+		bufferCreate(appid, so);
+		return so.getId();
+	}
+
+	@Override
+	public <P extends ParaObject> String create(P so) {
+		return create(Config.APP_NAME_NS, so);
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public <P extends ParaObject> P read(String appid, String key) {
+		if (StringUtils.isBlank(key)) {
+			return null;
+		}
+		PendingWrite write = getPending(appid, key);
+		return (write != null) ? (P) copy(write.object, null, null) : (P) dao.read(appid, key);
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public <P extends ParaObject> P read(String appid, String key, Set<String> fields) {
+		if (StringUtils.isBlank(key)) {
+			return null;
+		}
+		PendingWrite write = getPending(appid, key);
+		return (write != null) ? (P) copy(write.object, null, null) : (P) dao.read(appid, key, fields);
+	}
+
+	@Override
+	public <P extends ParaObject> P read(String key) {
+		return read(Config.APP_NAME_NS, key);
+	}
+
+	@Override
+	public <P extends ParaObject> P read(String key, Set<String> fields) {
+		return read(Config.APP_NAME_NS, key, fields);
+	}
+
+	@Override
+	public <P extends ParaObject> void update(String appid, P so) {
+		if (!isBuffered(so) || so.getId() == null) {
+			dao.update(appid, so);
+			return;
+		}
+		so.setUpdated(Utils.timestamp());
+		bufferUpdate(appid, so);
+	}
+
+	@Override
+	public <P extends ParaObject> void update(P so) {
+		update(Config.APP_NAME_NS, so);
+	}
+
+	@Override
+	public <P extends ParaObject> void delete(String appid, P so) {
+		if (so == null || so.getId() == null) {
+			dao.delete(appid, so);
+			return;
+		}
+		String key = key(appid, so.getId());
+		synchronized (keyLock(key)) {
+			// waits for a running flush, which might write the object again
+			synchronized (flushLock) {
+				buffer.remove(key);
+			}
+			dao.delete(appid, so);
+		}
+	}
+
+	@Override
+	public <P extends ParaObject> void delete(P so) {
+		delete(Config.APP_NAME_NS, so);
+	}
+
+	@Override
+	public <P extends ParaObject> String createIfAbsent(String appid, P so) {
+		// conditional writes are never buffered - the buffered state of the object is written first
+		if (so == null || so.getId() == null) {
+			return dao.createIfAbsent(appid, so);
+		}
+		synchronized (keyLock(key(appid, so.getId()))) {
+			flushKey(appid, so.getId());
+			return dao.createIfAbsent(appid, so);
+		}
+	}
+
+	@Override
+	public <P extends ParaObject> String createIfAbsent(P so) {
+		return createIfAbsent(Config.APP_NAME_NS, so);
+	}
+
+	@Override
+	public <P extends ParaObject> boolean compareAndSet(String appid, P so, Long expectedVersion) {
+		if (so == null || so.getId() == null) {
+			return false;
+		}
+		synchronized (keyLock(key(appid, so.getId()))) {
+			flushKey(appid, so.getId());
+			return dao.compareAndSet(appid, so, expectedVersion);
+		}
+	}
+
+	@Override
+	public <P extends ParaObject> boolean compareAndSet(P so, Long expectedVersion) {
+		return compareAndSet(Config.APP_NAME_NS, so, expectedVersion);
+	}
+
+	@Override
+	public Long increment(String appid, String key, String field, long delta) {
+		if (StringUtils.isBlank(key)) {
+			return null;
+		}
+		synchronized (keyLock(key(appid, key))) {
+			flushKey(appid, key);
+			return dao.increment(appid, key, field, delta);
+		}
+	}
+
+	@Override
+	public Long increment(String key, String field, long delta) {
+		return increment(Config.APP_NAME_NS, key, field, delta);
+	}
+
+	/////////////////////////////////////////////
+	//				BATCH FUNCTIONS
+	/////////////////////////////////////////////
+
+	@Override
+	public <P extends ParaObject> void createAll(String appid, List<P> objects) {
+		removeAll(appid, objects);
+		dao.createAll(appid, objects);
+	}
+
+	@Override
+	public <P extends ParaObject> void createAll(List<P> objects) {
+		createAll(Config.APP_NAME_NS, objects);
+	}
+
+	@Override
+	public <P extends ParaObject> Map<String, P> readAll(String appid, List<String> keys, boolean getAllColumns) {
+		return readAll(appid, keys, getAllColumns, null);
+	}
+
+	@Override
+	public <P extends ParaObject> Map<String, P> readAll(String appid, List<String> keys, Set<String> fields) {
+		return readAll(appid, keys, true, fields);
+	}
+
+	private <P extends ParaObject> Map<String, P> readStored(String appid, List<String> keys, boolean getAllColumns,
+			Set<String> fields) {
+		return (fields == null) ? dao.<P>readAll(appid, keys, getAllColumns) : dao.<P>readAll(appid, keys, fields);
+	}
+
+	@SuppressWarnings("unchecked")
+	private <P extends ParaObject> Map<String, P> readAll(String appid, List<String> keys, boolean getAllColumns,
+			Set<String> fields) {
+		if (keys == null || keys.isEmpty() || buffer.isEmpty()) {
+			return readStored(appid, keys, getAllColumns, fields);
+		}
+		Map<String, P> buffered = new LinkedHashMap<String, P>();
+		List<String> missing = new ArrayList<String>(keys.size());
+		for (String key : keys) {
+			PendingWrite write = getPending(appid, key);
+			if (write != null) {
+				buffered.put(key, (P) copy(write.object, null, null));
+			} else {
+				missing.add(key);
+			}
+		}
+		if (buffered.isEmpty()) {
+			return readStored(appid, keys, getAllColumns, fields);
+		}
+		Map<String, P> stored = missing.isEmpty() ? Collections.<String, P>emptyMap() :
+				this.<P>readStored(appid, missing, getAllColumns, fields);
+		Map<String, P> results = new LinkedHashMap<String, P>(keys.size());
+		for (String key : keys) {
+			if (buffered.containsKey(key)) {
+				results.put(key, buffered.get(key));
+			} else if (stored.containsKey(key)) {
+				results.put(key, stored.get(key));
+			}
+		}
+		return results;
+	}
+
+	@Override
+	public <P extends ParaObject> Map<String, P> readAll(List<String> keys, boolean getAllColumns) {
+		return readAll(Config.APP_NAME_NS, keys, getAllColumns);
+	}
+
+	@Override
+	public <P extends ParaObject> Map<String, P> readAll(List<String> keys, Set<String> fields) {
+		return readAll(Config.APP_NAME_NS, keys, fields);
+	}
+
+	@Override
+	public <P extends ParaObject> List<P> readPage(String appid, Pager pager) {
+		flush();
+		return dao.readPage(appid, pager);
+	}
+
+	@Override
+	public <P extends ParaObject> List<P> readPage(Pager pager) {
+		return readPage(Config.APP_NAME_NS, pager);
+	}
+
+	@Override
+	public <P extends ParaObject> long scan(String appid, int segments, Consumer<List<P>> consumer) {
+		flush();
+		return dao.scan(appid, segments, consumer);
+	}
+
+	@Override
+	public <P extends ParaObject> long scan(int segments, Consumer<List<P>> consumer) {
+		return scan(Config.APP_NAME_NS, segments, consumer);
+	}
+
+	@Override
+	public <P extends ParaObject> void updateAll(String appid, List<P> objects) {
+		removeAll(appid, objects);
+		dao.updateAll(appid, objects);
+	}
+
+	@Override
+	public <P extends ParaObject> void updateAll(List<P> objects) {
+		updateAll(Config.APP_NAME_NS, objects);
+	}
+
+	@Override
+	public <P extends ParaObject> void deleteAll(String appid, List<P> objects) {
+		removeAll(appid, objects);
+		dao.deleteAll(appid, objects);
+	}
+
+	@Override
+	public <P extends ParaObject> void deleteAll(List<P> objects) {
+		deleteAll(Config.APP_NAME_NS, objects);
+	}
+
+	@Override
+	public <P extends ParaObject> void createAllInApps(Map<String, List<P>> objects) {
+		if (objects != null) {
+			for (Map.Entry<String, List<P>> app : objects.entrySet()) {
+				removeAll(app.getKey(), app.getValue());
+			}
+		}
+		dao.createAllInApps(objects);
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public <P extends ParaObject> Map<String, Map<String, P>> readAllFromApps(Map<String, List<String>> keys,
+			boolean getAllColumns) {
+		if (keys == null || buffer.isEmpty()) {
+			return dao.readAllFromApps(keys, getAllColumns);
+		}
+		Map<String, List<String>> missing = new LinkedHashMap<String, List<String>>();
+		for (Map.Entry<String, List<String>> app : keys.entrySet()) {
+			missing.put(app.getKey(), getUnbuffered(app.getKey(), app.getValue()));
+		}
+		Map<String, Map<String, P>> stored = dao.readAllFromApps(missing, getAllColumns);
+		Map<String, Map<String, P>> results = new LinkedHashMap<String, Map<String, P>>(keys.size());
+		for (Map.Entry<String, List<String>> app : keys.entrySet()) {
+			Map<String, P> appStored = (stored == null) ? null : stored.get(app.getKey());
+			Map<String, P> appResults = new LinkedHashMap<String, P>();
+			if (app.getValue() != null) {
+				for (String key : app.getValue()) {
+					PendingWrite write = getPending(app.getKey(), key);
+					if (write != null) {
+						appResults.put(key, (P) copy(write.object, null, null));
+					} else if (appStored != null && appStored.containsKey(key)) {
+						appResults.put(key, appStored.get(key));
+					}
+				}
+			}
+			results.put(app.getKey(), appResults);
+		}
+		return results;
+	}
+
+	@Override
+	public <P extends ParaObject> void deleteAllFromApps(Map<String, List<P>> objects) {
+		if (objects != null) {
+			for (Map.Entry<String, List<P>> app : objects.entrySet()) {
+				removeAll(app.getKey(), app.getValue());
+			}
+		}
+		dao.deleteAllFromApps(objects);
+	}
+
+	/**
+	 * Returns the buffered write of an object, unless the object has expired.
+	 */
+	private PendingWrite getPending(String appid, String key) {
+		PendingWrite write = (key == null) ? null : buffer.get(key(appid, key));
+		return (write == null || DAOUtils.isExpired(write.object, Utils.timestamp())) ? null : write;
+	}
+
+	private List<String> getUnbuffered(String appid, List<String> keys) {
+		List<String> unbuffered = new ArrayList<String>();
+		if (keys != null) {
+			for (String key : keys) {
+				if (key == null || !buffer.containsKey(key(appid, key))) {
+					unbuffered.add(key);
+				}
+			}
+		}
+		return unbuffered;
+	}
+
+	/**
+	 * Removes objects from the buffer before they're written directly. Waits for a running flush,
+	 * which might write them again.
+	 */
+	private <P extends ParaObject> void removeAll(String appid, List<P> objects) {
+		if (objects != null && !buffer.isEmpty()) {
+			synchronized (flushLock) {
+				for (P so : objects) {
+					if (so != null && so.getId() != null) {
+						buffer.remove(key(appid, so.getId()));
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * An object waiting to be written.
+	 */
+	private static final class PendingWrite {
+		private final String key;
+		private final String appid;
+		private final ParaObject object;
+		private final boolean create;
+		private final int attempts;
+		private final long retryAt;
+
+		PendingWrite(String key, String appid, ParaObject object, boolean create, PendingWrite previous) {
+			this.key = key;
+			this.appid = appid;
+			this.object = object;
+			this.create = create;
+			// a newer state of an object which couldn't be written waits for the same retry
+			this.attempts = (previous == null) ? 0 : previous.attempts;
+			this.retryAt = (previous == null) ? 0 : previous.retryAt;
+		}
+
+		PendingWrite(PendingWrite failed, long delay) {
+			this.key = failed.key;
+			this.appid = failed.appid;
+			this.object = failed.object;
+			this.create = failed.create;
+			this.attempts = failed.attempts + 1;
+			this.retryAt = Utils.timestamp() + delay;
+		}
+	}
+}
@@ -36,6 +36,7 @@ import com.erudika.para.core.ParaObject;
 import com.erudika.para.core.Sysprop;
 import com.erudika.para.core.Thing;
 import com.erudika.para.core.utils.ParaObjectUtils;
+import com.erudika.para.persistence.DAOUtils;
 import com.erudika.para.utils.Config;
 import java.io.IOException;
 import java.util.ArrayList;
@@ -273,8 +274,16 @@ public final class AWSQueueUtils {
 			this.queueURL = queueURL;
 		}
 
-		@SuppressWarnings("unchecked")
 		public void run() {
+			// objects from the queue are imported in bulk, as background work
+			DAOUtils.runInBackground(new Runnable() {
+				public void run() {
+					pull();
+				}
+			});
+		}
+
+		private void pull() {
 			ArrayList<ParaObject> createList = new ArrayList<ParaObject>();
 			ArrayList<ParaObject> updateList = new ArrayList<ParaObject>();
 			ArrayList<ParaObject> deleteList = new ArrayList<ParaObject>();
@@ -26,6 +26,7 @@ import com.erudika.para.core.utils.CoreUtils;
 import com.erudika.para.core.ParaObject;
 import com.erudika.para.core.utils.ParaObjectUtils;
 import com.erudika.para.core.User;
+import com.erudika.para.persistence.DAOUtils;
 import static com.erudika.para.rest.RestUtils.getBatchCreateResponse;
 import static com.erudika.para.rest.RestUtils.getBatchDeleteResponse;
 import static com.erudika.para.rest.RestUtils.getBatchReadResponse;
@@ -33,9 +34,12 @@ import static com.erudika.para.rest.RestUtils.getBatchUpdateResponse;
 import static com.erudika.para.rest.RestUtils.getCreateResponse;
 import static com.erudika.para.rest.RestUtils.getDeleteResponse;
 import static com.erudika.para.rest.RestUtils.getEntity;
+import static com.erudika.para.rest.RestUtils.getExportResponse;
+import static com.erudika.para.rest.RestUtils.getImportResponse;
 import static com.erudika.para.rest.RestUtils.getOverwriteResponse;
 import static com.erudika.para.rest.RestUtils.getPrincipalApp;
 import static com.erudika.para.rest.RestUtils.getReadResponse;
+import static com.erudika.para.rest.RestUtils.getSelectedFields;
 import static com.erudika.para.rest.RestUtils.getStatusResponse;
 import static com.erudika.para.rest.RestUtils.getUpdateResponse;
 import static com.erudika.para.rest.RestUtils.pathParam;
@@ -237,8 +241,16 @@ public final class Api1 extends ResourceConfig {
 		batch.addMethod(PATCH).produces(JSON).consumes(JSON).handledBy(batchUpdateHandler(null));
 		batch.addMethod(DELETE).produces(JSON).handledBy(batchDeleteHandler(null));
 
+		// bulk export and import of all objects of an app, as NDJSON
+		Resource.Builder exportRes = Resource.builder("_export");
+		exportRes.addMethod(GET).produces(RestUtils.NDJSON).handledBy(exportHandler(null));
+		Resource.Builder importRes = Resource.builder("_import");
+		importRes.addMethod(POST).produces(JSON).handledBy(importHandler(null));
+
 		registerResources(core.build());
 		registerResources(batch.build());
+		registerResources(exportRes.build());
+		registerResources(importRes.build());
 	}
 
 	private Inflector<ContainerRequestContext, Response> utilsHandler() {
@@ -420,7 +432,7 @@ public final class Api1 extends ResourceConfig {
 				App app = getPrincipalApp();
 				String id = pathParam(Config._ID, ctx);
 				if (app != null) {
-					return getReadResponse(app, getDAO().read(app.getAppIdentifier(), id));
+					return getReadResponse(app, DAOUtils.withFallbacks(getDAO()).read(app.getAppIdentifier(), id, getSelectedFields(ctx)));
 				}
 				return getStatusResponse(Response.Status.NOT_FOUND, "App not found.");
 			}
@@ -721,7 +733,7 @@ public final class Api1 extends ResourceConfig {
 				if (app.getId().equals(obj.getId())) {
 					return getReadResponse(app, app);
 				}
-				return getReadResponse(app, getDAO().read(app.getAppIdentifier(), obj.getId()));
+				return getReadResponse(app, DAOUtils.withFallbacks(getDAO()).read(app.getAppIdentifier(), obj.getId(), getSelectedFields(ctx)));
 			}
 		};
 	}
@@ -798,7 +810,7 @@ public final class Api1 extends ResourceConfig {
 		return new Inflector<ContainerRequestContext, Response>() {
 			public Response apply(ContainerRequestContext ctx) {
 				App app = (a != null) ? a : getPrincipalApp();
-				return getBatchReadResponse(app, queryParams("ids", ctx));
+				return getBatchReadResponse(app, queryParams("ids", ctx), getSelectedFields(ctx));
 			}
 		};
 	}
@@ -827,6 +839,33 @@ public final class Api1 extends ResourceConfig {
 		};
 	}
 
+	/**
+	 * @param a {@link App}
+	 * @return response
+	 */
+	public static Inflector<ContainerRequestContext, Response> exportHandler(final App a) {
+		return new Inflector<ContainerRequestContext, Response>() {
+			public Response apply(ContainerRequestContext ctx) {
+				App app = (a != null) ? a : getPrincipalApp();
+				List<String> types = queryParams("type", ctx);
+				return getExportResponse(app, (types == null) ? null : new HashSet<String>(types));
+			}
+		};
+	}
+
+	/**
+	 * @param a {@link App}
+	 * @return response
+	 */
+	public static Inflector<ContainerRequestContext, Response> importHandler(final App a) {
+		return new Inflector<ContainerRequestContext, Response>() {
+			public Response apply(ContainerRequestContext ctx) {
+				App app = (a != null) ? a : getPrincipalApp();
+				return getImportResponse(app, ctx.getEntityStream());
+			}
+		};
+	}
+
 	/**
 	 * @param a {@link App}
 	 * @return response
@@ -24,6 +24,9 @@ import com.erudika.para.core.utils.CoreUtils;
 import com.erudika.para.core.ParaObject;
 import com.erudika.para.core.utils.ParaObjectUtils;
 import com.erudika.para.core.User;
+import com.erudika.para.persistence.BatchWriteException;
+import com.erudika.para.persistence.DAO;
+import com.erudika.para.persistence.DAOUtils;
 import com.erudika.para.security.SecurityUtils;
 import com.erudika.para.utils.Config;
 import com.erudika.para.utils.Pager;
@@ -31,17 +34,28 @@ import com.erudika.para.utils.Utils;
 import com.erudika.para.validation.ValidationUtils;
 import com.fasterxml.jackson.core.JsonParseException;
 import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.io.UncheckedIOException;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.ws.rs.container.ContainerRequestContext;
@@ -49,6 +63,7 @@ import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.MultivaluedMap;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.math.NumberUtils;
 import org.slf4j.Logger;
@@ -63,6 +78,23 @@ public final class RestUtils {
 
 	private static final Logger logger = LoggerFactory.getLogger(RestUtils.class);
 
+	/**
+	 * The media type of bulk exports and imports - newline delimited JSON.
+	 */
+	public static final String NDJSON = "application/x-ndjson";
+	/**
+	 * The number of segments which are scanned in parallel during an export. Default is 4.
+	 */
+	public static final int EXPORT_SEGMENTS = Math.max(1, Config.getConfigInt("export_segments", 4));
+	/**
+	 * The number of objects written in one batch during an import. Default is 100.
+	 */
+	public static final int IMPORT_BATCH_SIZE = Math.max(1, Config.getConfigInt("import_batch_size", 100));
+	/**
+	 * The maximum number of batches which are written in parallel during an import. Default is 4.
+	 */
+	public static final int IMPORT_MAX_PENDING_BATCHES = Math.max(1, Config.getConfigInt("import_max_pending_batches", 4));
+
 	private RestUtils() { }
 
 	/////////////////////////////////////////////
@@ -452,8 +484,19 @@ public final class RestUtils {
 	 * @return status code 200 or 400
 	 */
 	public static Response getBatchReadResponse(App app, List<String> ids) {
+		return getBatchReadResponse(app, ids, null);
+	}
+
+	/**
+	 * Batch read response as JSON.
+	 * @param app the current App object
+	 * @param ids list of ids
+	 * @param fields the fields to read, see {@link #getSelectedFields(java.lang.String)}. If null, all fields are read.
+	 * @return status code 200 or 400
+	 */
+	public static Response getBatchReadResponse(App app, List<String> ids, Set<String> fields) {
 		if (app != null && ids != null && !ids.isEmpty()) {
-			return Response.ok(Para.getDAO().readAll(app.getAppIdentifier(), ids, true).values()).build();
+			return Response.ok(DAOUtils.withFallbacks(Para.getDAO()).readAll(app.getAppIdentifier(), ids, fields).values()).build();
 		} else {
 			return getStatusResponse(Response.Status.BAD_REQUEST, "Missing ids.");
 		}
@@ -472,13 +515,9 @@ public final class RestUtils {
 			if (entityRes.getStatusInfo() == Response.Status.OK) {
 				List<Map<String, Object>> items = (List<Map<String, Object>>) entityRes.getEntity();
 				for (Map<String, Object> object : items) {
-					// can't create multiple apps in batch
-					if (!app.getType().equals(object.get(Config._TYPE))) {
-						ParaObject pobj = ParaObjectUtils.setAnnotatedFields(object);
-						if (pobj != null && ValidationUtils.isValidObject(pobj)) {
-							pobj.setAppid(app.getAppIdentifier());
-							newObjects.add(pobj);
-						}
+					ParaObject pobj = getNewObject(app, object);
+					if (pobj != null) {
+						newObjects.add(pobj);
 					}
 				}
 
@@ -502,6 +541,219 @@ public final class RestUtils {
 		}
 	}
 
+	/**
+	 * Converts a map of properties to a new object of an app.
+	 * @param app the app
+	 * @param object the properties of an object
+	 * @return the object or null if it is invalid or an app, as apps can't be created in batch
+	 */
+	private static ParaObject getNewObject(App app, Map<String, Object> object) {
+		if (object == null || app.getType().equals(object.get(Config._TYPE))) {
+			return null;
+		}
+		ParaObject pobj = ParaObjectUtils.setAnnotatedFields(object);
+		if (pobj != null && ValidationUtils.isValidObject(pobj)) {
+			pobj.setAppid(app.getAppIdentifier());
+			return pobj;
+		}
+		return null;
+	}
+
+	/**
+	 * Export response as NDJSON - every object of an app, one per line. Objects are written as they are read
+	 * from the data store, with a parallel scan, so the response is never held in memory.
+	 * If the scan fails, the response is aborted, so that it can't be mistaken for a complete export.
+	 * @param app the app object
+	 * @param types if not empty, only objects of these types are exported
+	 * @return a status code 200 with a streaming body, or 400
+	 */
+	public static Response getExportResponse(final App app, final Set<String> types) {
+		return getExportResponse(app, types, Para.getDAO());
+	}
+
+	static Response getExportResponse(final App app, final Set<String> types, final DAO dao) {
+		if (app == null) {
+			return getStatusResponse(Response.Status.BAD_REQUEST);
+		}
+		StreamingOutput body = new StreamingOutput() {
+			public void write(OutputStream os) throws IOException {
+				final OutputStream out = new BufferedOutputStream(os);
+				final AtomicReference<IOException> error = new AtomicReference<IOException>();
+				try {
+					DAOUtils.runInBackground(new Runnable() {
+						public void run() {
+							long count = DAOUtils.withFallbacks(dao).scan(app.getAppIdentifier(), EXPORT_SEGMENTS,
+									new Consumer<List<ParaObject>>() {
+								public void accept(List<ParaObject> page) {
+									writeExportPage(out, page, types, error);
+								}
+							});
+							logger.debug("Exported {} objects of app '{}'.", count, app.getAppIdentifier());
+						}
+					});
+				} catch (RuntimeException e) {
+					if (error.get() != null) {
+						throw error.get();
+					}
+					throw new IOException("Export of app '" + app.getAppIdentifier() + "' is incomplete.", e);
+				}
+				out.flush();
+			}
+		};
+		return Response.ok(body, NDJSON).build();
+	}
+
+	private static void writeExportPage(OutputStream out, List<ParaObject> page, Set<String> types,
+			AtomicReference<IOException> error) {
+		if (error.get() != null) {
+			// the client went away - this stops the rest of the scan
+			throw new UncheckedIOException(error.get());
+		}
+		if (page == null) {
+			return;
+		}
+		try {
+			// pages of different segments are serialized in parallel and written one at a time
+			ByteArrayOutputStream lines = new ByteArrayOutputStream();
+			for (ParaObject obj : page) {
+				if (obj != null && (types == null || types.isEmpty() || types.contains(obj.getType()))) {
+					lines.write(ParaObjectUtils.getJsonWriterNoIdent().writeValueAsBytes(obj));
+					lines.write('\n');
+				}
+			}
+			synchronized (out) {
+				lines.writeTo(out);
+			}
+		} catch (IOException e) {
+			error.compareAndSet(null, e);
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Import response as JSON. The request body is NDJSON - one object per line, as returned by
+	 * {@link #getExportResponse(com.erudika.para.core.App, java.util.Set)}. Objects are parsed one by one
+	 * and written in batches with {@code createAll()}, while the next batch is being parsed.
+	 * At most {@link #IMPORT_MAX_PENDING_BATCHES} batches are kept in memory. Objects which couldn't be
+	 * written are counted as failed, the rest of the import goes on.
+	 * @param app the app object
+	 * @param is entity input stream
+	 * @return a status code 200 with the number of imported, skipped and failed objects, or 400
+	 */
+	public static Response getImportResponse(final App app, InputStream is) {
+		return getImportResponse(app, is, Para.getDAO());
+	}
+
+	static Response getImportResponse(final App app, InputStream is, DAO dao) {
+		if (app == null) {
+			return getStatusResponse(Response.Status.BAD_REQUEST);
+		}
+		final Map<String, ParaObject> types = new HashMap<String, ParaObject>();
+		LinkedList<CompletableFuture<Integer>> pending = new LinkedList<CompletableFuture<Integer>>();
+		List<ParaObject> batch = new ArrayList<ParaObject>(IMPORT_BATCH_SIZE);
+		long queued = 0;
+		long imported = 0;
+		long skipped = 0;
+		String error = null;
+		try {
+			MappingIterator<Map<String, Object>> items = ParaObjectUtils.getJsonReader(Map.class).readValues(is);
+			while (items.hasNext()) {
+				ParaObject pobj = getNewObject(app, items.next());
+				if (pobj == null) {
+					skipped++;
+					continue;
+				}
+				if (!types.containsKey(pobj.getType())) {
+					types.put(pobj.getType(), pobj);
+				}
+				batch.add(pobj);
+				if (batch.size() >= IMPORT_BATCH_SIZE) {
+					queued += batch.size();
+					imported += importBatch(dao, app.getAppIdentifier(), batch, pending);
+					batch = new ArrayList<ParaObject>(IMPORT_BATCH_SIZE);
+				}
+			}
+		} catch (Exception e) {
+			error = e.getMessage();
+		} finally {
+			queued += batch.size();
+			imported += importBatch(dao, app.getAppIdentifier(), batch, pending);
+			for (CompletableFuture<Integer> write : pending) {
+				imported += write.join();
+			}
+		}
+		Para.asyncExecute(new Runnable() {
+			public void run() {
+				int typesCount = app.getDatatypes().size();
+				app.addDatatypes(types.values().toArray(new ParaObject[0]));
+				if (typesCount < app.getDatatypes().size()) {
+					app.update();
+				}
+			}
+		});
+		long failed = queued - imported;
+		logger.info("Imported {} objects into app '{}', {} skipped, {} failed.", imported,
+				app.getAppIdentifier(), skipped, failed);
+		if (error != null) {
+			return getStatusResponse(Response.Status.BAD_REQUEST, "Invalid NDJSON after " +
+					(queued + skipped) + " objects, of which " + imported + " were imported", error);
+		}
+		Map<String, Object> result = new HashMap<String, Object>();
+		result.put("imported", imported);
+		result.put("skipped", skipped);
+		result.put("failed", failed);
+		return Response.ok(result).build();
+	}
+
+	/**
+	 * Writes a batch in the background.
+	 * @return the number of objects written by the batches which had to be waited for
+	 */
+	private static long importBatch(final DAO dao, final String appid, final List<ParaObject> batch,
+			LinkedList<CompletableFuture<Integer>> pending) {
+		if (batch.isEmpty()) {
+			return 0;
+		}
+		long written = 0;
+		// wait for the oldest batch, so that memory use stays bounded when the data store is slower than the client
+		while (pending.size() >= IMPORT_MAX_PENDING_BATCHES) {
+			written += pending.removeFirst().join();
+		}
+		Supplier<Integer> write = new Supplier<Integer>() {
+			public Integer get() {
+				return writeBatch(dao, appid, batch);
+			}
+		};
+		try {
+			pending.add(CompletableFuture.supplyAsync(write, Para.getExecutorService()));
+		} catch (RejectedExecutionException ex) {
+			logger.warn(ex.getMessage());
+			written += write.get();
+		}
+		return written;
+	}
+
+	/**
+	 * @return the number of objects in the batch which were written
+	 */
+	private static int writeBatch(final DAO dao, final String appid, final List<ParaObject> batch) {
+		try {
+			DAOUtils.runInBackground(new Runnable() {
+				public void run() {
+					dao.createAll(appid, batch);
+				}
+			});
+			return batch.size();
+		} catch (BatchWriteException e) {
+			logger.warn("Failed to import {} objects into app '{}': {}", e.getUnwrittenCount(), appid,
+					e.getUnwritten(appid));
+			return Math.max(0, batch.size() - e.getUnwritten(appid).size());
+		} catch (Exception e) {
+			logger.error("Failed to import {} objects into app '{}'.", batch.size(), appid, e);
+			return 0;
+		}
+	}
+
 	/**
 	 * Batch update response as JSON.
 	 * @param app the current App object
@@ -902,6 +1154,35 @@ public final class RestUtils {
 		return ctx.getUriInfo().getQueryParameters().get(param);
 	}
 
+	/**
+	 * Parses the value of the "select" query parameter, a comma-separated list of field names.
+	 * Only these fields are read from the data store, and {@link com.erudika.para.utils.filters.FieldFilter}
+	 * removes the rest from the response.
+	 * @param select the value of the "select" parameter
+	 * @return a set of field names or null if all fields are selected
+	 */
+	public static Set<String> getSelectedFields(String select) {
+		if (StringUtils.isBlank(select)) {
+			return null;
+		}
+		Set<String> fields = new LinkedHashSet<String>();
+		for (String field : StringUtils.split(select, ",")) {
+			if (!StringUtils.isBlank(field)) {
+				fields.add(StringUtils.trim(field));
+			}
+		}
+		return fields.isEmpty() ? null : fields;
+	}
+
+	/**
+	 * Returns the fields selected with the "select" query parameter.
+	 * @param ctx ctx
+	 * @return a set of field names or null if all fields are selected
+	 */
+	public static Set<String> getSelectedFields(ContainerRequestContext ctx) {
+		return getSelectedFields(queryParam("select", ctx));
+	}
+
 	/**
 	 * Returns true if parameter exists.
 	 * @param param a parameter name
@@ -39,6 +39,8 @@ import javax.inject.Inject;
 import javax.inject.Singleton;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.lucene.queryparser.flexible.standard.StandardQueryParser;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.bulk.BulkItemResponse;
 import org.elasticsearch.action.bulk.BulkRequestBuilder;
 import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.action.delete.DeleteRequest;
@@ -162,13 +164,7 @@ public class ElasticSearch implements Search {
 			brb.add(client().prepareIndex(getIndexName(appid), po.getType(), po.getId()).
 					setSource(ParaObjectUtils.getAnnotatedFields(po, null, false)));
 		}
-		if (brb.numberOfActions() > 0) {
-			if (isAsyncEnabled()) {
-				brb.execute();
-			} else {
-				brb.execute().actionGet();
-			}
-		}
+		executeBulk(brb);
 		logger.debug("Search.indexAll() {}", objects.size());
 	}
 
@@ -181,13 +177,7 @@ public class ElasticSearch implements Search {
 		for (ParaObject po : objects) {
 			brb.add(client().prepareDelete(getIndexName(appid), po.getType(), po.getId()));
 		}
-		if (brb.numberOfActions() > 0) {
-			if (isAsyncEnabled()) {
-				brb.execute();
-			} else {
-				brb.execute().actionGet();
-			}
-		}
+		executeBulk(brb);
 		logger.debug("Search.unindexAll() {}", objects.size());
 	}
 
@@ -615,6 +605,48 @@ public class ElasticSearch implements Search {
 		return count;
 	}
 
+	/**
+	 * Executes a bulk request. While the {@link IndexingPipeline} is flushing, the request is always synchronous
+	 * and failed items are reported with a {@link BulkIndexingException}, so that they can be retried.
+	 * Otherwise failed items are only logged.
+	 * @param brb a bulk request
+	 */
+	private void executeBulk(final BulkRequestBuilder brb) {
+		if (brb.numberOfActions() <= 0) {
+			return;
+		}
+		if (isAsyncEnabled() && !IndexingPipeline.isFlushing()) {
+			brb.execute(new ActionListener<BulkResponse>() {
+				public void onResponse(BulkResponse response) {
+					logFailures(response);
+				}
+
+				public void onFailure(Throwable e) {
+					logger.error(null, e);
+				}
+			});
+			return;
+		}
+		BulkResponse response = brb.execute().actionGet();
+		if (response.hasFailures() && IndexingPipeline.isFlushing()) {
+			List<String> failed = new ArrayList<String>();
+			for (BulkItemResponse item : response.getItems()) {
+				if (item.isFailed()) {
+					failed.add(item.getId());
+				}
+			}
+			throw new BulkIndexingException(failed, response.buildFailureMessage());
+		}
+		logFailures(response);
+	}
+
+	private void logFailures(BulkResponse response) {
+		if (response != null && response.hasFailures()) {
+			logger.warn("Bulk request of {} items failed: {}", response.getItems().length,
+					response.buildFailureMessage());
+		}
+	}
+
 	/**
 	 * @return true if asynchronous indexing/unindexing is enabled.
 	 */
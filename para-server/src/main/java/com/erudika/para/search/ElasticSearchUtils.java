@@ -21,6 +21,7 @@ import com.erudika.para.DestroyListener;
 import com.erudika.para.Para;
 import com.erudika.para.core.ParaObject;
 import com.erudika.para.core.utils.ParaObjectUtils;
+import com.erudika.para.persistence.DAOUtils;
 import com.erudika.para.utils.Config;
 import com.erudika.para.utils.Pager;
 import com.erudika.para.utils.Utils;
@@ -31,6 +32,8 @@ import java.nio.file.Paths;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 import org.apache.commons.lang3.StringUtils;
 import org.elasticsearch.action.admin.cluster.node.info.NodeInfo;
 import org.elasticsearch.action.admin.cluster.node.info.NodesInfoRequest;
@@ -267,13 +270,15 @@ public final class ElasticSearchUtils {
 	/**
 	 * Rebuilds an index.
 	 * Reads objects from the data store and indexes them in batches.
+	 * The table is scanned in parallel segments, unless a pager with a last key is given,
+	 * in which case reading continues sequentially from that key.
 	 * Works on one DB table and index only.
 	 * @param appid the index name (alias)
 	 * @param isShared is the app shared, controls index aliases and index switching
 	 * @param pager a Pager instance
 	 * @return true if successful, false if index doesn't exist or failed.
 	 */
-	public static boolean rebuildIndex(String appid, boolean isShared, Pager... pager) {
+	public static boolean rebuildIndex(final String appid, boolean isShared, Pager... pager) {
 		if (StringUtils.isBlank(appid)) {
 			return false;
 		}
@@ -295,41 +300,30 @@ public final class ElasticSearchUtils {
 
 			logger.info("rebuildIndex(): {}", appid);
 
-			BulkRequestBuilder brb = getClient().prepareBulk();
-			BulkResponse resp;
-			int queueSize = 50;
-			int count = 0;
-			Pager p = getPager(pager);
-			p.setLimit(100);
-
-			List<ParaObject> list;
-			do {
-				list = Para.getDAO().readPage(appid, p);
-				logger.debug("rebuildIndex(): Read {} objects from table {}.", list.size(), appid);
-				for (ParaObject obj : list) {
-					if (obj != null) {
-						// put objects from DB into the newly created index
-						brb.add(getClient().prepareIndex(newName, obj.getType(), obj.getId()).
-								setSource(ParaObjectUtils.getAnnotatedFields(obj, null, false)).request());
-						// index in batches of ${queueSize} objects
-						if (brb.numberOfActions() >= queueSize) {
-							count += brb.numberOfActions();
-							resp = brb.execute().actionGet();
-							logger.info("rebuildIndex(): indexed {}, failures: {}",
-									brb.numberOfActions(), resp.hasFailures() ? resp.buildFailureMessage() : "false");
-							brb = getClient().prepareBulk();
-						}
+			final String indexName = newName;
+			final AtomicLong count = new AtomicLong();
+			final Pager p = getPager(pager);
+			// reading the whole table is background work and must not starve requests of DB capacity
+			DAOUtils.runInBackground(new Runnable() {
+				public void run() {
+					if (StringUtils.isBlank(p.getLastKey())) {
+						// read all segments of the table in parallel and index each page as it arrives
+						DAOUtils.withFallbacks(Para.getDAO()).scan(appid, DAOUtils.SCAN_SEGMENTS, new Consumer<List<ParaObject>>() {
+							public void accept(List<ParaObject> list) {
+								count.addAndGet(indexPage(indexName, list));
+							}
+						});
+					} else {
+						// resume reading from the last key, one page at a time
+						p.setLimit(100);
+						List<ParaObject> list;
+						do {
+							list = Para.getDAO().readPage(appid, p);
+							count.addAndGet(indexPage(indexName, list));
+						} while (!list.isEmpty());
 					}
 				}
-			} while (!list.isEmpty());
-
-			// anything left after loop? index that too
-			if (brb.numberOfActions() > 0) {
-				count += brb.numberOfActions();
-				resp = brb.execute().actionGet();
-				logger.info("rebuildIndex(): indexed {}, failures: {}",
-						brb.numberOfActions(), resp.hasFailures() ? resp.buildFailureMessage() : "false");
-			}
+			});
 
 			if (!isShared) {
 				// switch to alias NEW_INDEX -> ALIAS, OLD_INDEX -> DELETE old index
@@ -343,6 +337,43 @@ public final class ElasticSearchUtils {
 		return true;
 	}
 
+	/**
+	 * Indexes a page of objects read from the data store, in batches of 50 objects.
+	 * @param index the index name
+	 * @param list a list of objects
+	 * @return the number of objects indexed
+	 */
+	private static int indexPage(String index, List<ParaObject> list) {
+		logger.debug("rebuildIndex(): Read {} objects for index {}.", list.size(), index);
+		BulkRequestBuilder brb = getClient().prepareBulk();
+		BulkResponse resp;
+		int queueSize = 50;
+		int count = 0;
+		for (ParaObject obj : list) {
+			if (obj != null) {
+				// put objects from DB into the newly created index
+				brb.add(getClient().prepareIndex(index, obj.getType(), obj.getId()).
+						setSource(ParaObjectUtils.getAnnotatedFields(obj, null, false)).request());
+				// index in batches of ${queueSize} objects
+				if (brb.numberOfActions() >= queueSize) {
+					count += brb.numberOfActions();
+					resp = brb.execute().actionGet();
+					logger.info("rebuildIndex(): indexed {}, failures: {}",
+							brb.numberOfActions(), resp.hasFailures() ? resp.buildFailureMessage() : "false");
+					brb = getClient().prepareBulk();
+				}
+			}
+		}
+		// anything left after loop? index that too
+		if (brb.numberOfActions() > 0) {
+			count += brb.numberOfActions();
+			resp = brb.execute().actionGet();
+			logger.info("rebuildIndex(): indexed {}, failures: {}",
+					brb.numberOfActions(), resp.hasFailures() ? resp.buildFailureMessage() : "false");
+		}
+		return count;
+	}
+
 	protected static Pager getPager(Pager[] pager) {
 		return (pager != null && pager.length > 0) ? pager[0] : new Pager();
 	}
@@ -497,6 +528,7 @@ public final class ElasticSearchUtils {
 						startObject(Config._EMAIL).field("type", "string").field("index", "not_analyzed").endObject().
 						startObject(Config._GROUPS).field("type", "string").field("index", "not_analyzed").endObject().
 						startObject(Config._UPDATED).field("type", "string").field("index", "not_analyzed").endObject().
+						startObject(Config._EXPIRES_AT).field("type", "string").field("index", "not_analyzed").endObject().
 						startObject(Config._PASSWORD).field("type", "string").field("index", "not_analyzed").endObject().
 						startObject(Config._PARENTID).field("type", "string").field("index", "not_analyzed").endObject().
 						startObject(Config._CREATORID).field("type", "string").field("index", "not_analyzed").endObject().
@@ -0,0 +1,437 @@
+/*
+ * Copyright 2013-2016 Erudika. https://erudika.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * For issues and patches go to: https://github.com/erudika
+ */
+package com.erudika.para.search;
+
+import com.erudika.para.DestroyListener;
+import com.erudika.para.Para;
+import com.erudika.para.core.ParaObject;
+import com.erudika.para.core.utils.ParaObjectUtils;
+import com.erudika.para.utils.Config;
+import com.erudika.para.utils.Utils;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Takes indexing off the write path of the {@link com.erudika.para.persistence.DAO}. Objects which are written
+ * are queued and sent to {@link Search} in bulk, with {@code indexAll()} and {@code unindexAll()}, whenever
+ * a batch is full or periodically. Repeated writes to the same object are merged - only the last one is sent.
+ * The queue is bounded - when it's full, writers flush a batch themselves, so they slow down to the speed
+ * of the index instead of filling up the memory. Failed batches are retried with exponential backoff.
+ * If the index reports that only some objects in a batch failed, only those are retried.
+ * The queue is drained when Para is destroyed.
+ * <br>
+ * Objects are searchable only after they are flushed. Use {@link #flush()} to read your own writes,
+ * or disable {@code para.async_indexing_enabled} to index objects synchronously.
+ * @author Alex Bogdanovski [alex@erudika.com]
+ */
+public class IndexingPipeline {
+
+	private static final Logger logger = LoggerFactory.getLogger(IndexingPipeline.class);
+	private static final int MAX_BACKOFF_SHIFT = 10;
+	private static final ThreadLocal<Boolean> FLUSHING = new ThreadLocal<Boolean>();
+
+	/**
+	 * Enables asynchronous indexing of objects written through the DAO. Default is false.
+	 */
+	public static final boolean ASYNC_INDEXING_ENABLED = Config.getConfigBoolean("async_indexing_enabled", false);
+	/**
+	 * The maximum number of objects waiting to be indexed. Default is 10000.
+	 */
+	public static final int ASYNC_INDEXING_QUEUE_SIZE = Math.max(1, Config.getConfigInt("async_indexing_queue_size",
+			10000));
+	/**
+	 * The maximum number of objects sent to the index in one request. Default is 100.
+	 */
+	public static final int ASYNC_INDEXING_BATCH_SIZE = Math.max(1, Config.getConfigInt("async_indexing_batch_size",
+			100));
+	/**
+	 * The time between flushes, in milliseconds. Also the initial delay before a failed batch is retried.
+	 * Default is 500.
+	 */
+	public static final int ASYNC_INDEXING_FLUSH_MS = Math.max(1, Config.getConfigInt("async_indexing_flush_ms", 500));
+	/**
+	 * The number of times a failed object is retried before it's dropped. Default is 5.
+	 */
+	public static final int ASYNC_INDEXING_MAX_RETRIES = Config.getConfigInt("async_indexing_max_retries", 5);
+
+	private final Search search;
+	private final int capacity;
+	private final int batchSize;
+	private final long flushMs;
+	private final int maxRetries;
+	private final ScheduledExecutorService scheduler;
+	private final ScheduledFuture<?> flushTask;
+	private final Map<String, Operation> pending = new LinkedHashMap<String, Operation>();
+	private final Object flushLock = new Object();
+	private final AtomicBoolean flushRequested = new AtomicBoolean(false);
+	private volatile boolean drained = false;
+
+	/**
+	 * Default constructor. Uses the Para scheduler and drains the queue on {@link Para#destroy()}.
+	 * @param search the search implementation which does the actual indexing
+	 */
+	public IndexingPipeline(Search search) {
+		this(search, ASYNC_INDEXING_QUEUE_SIZE, ASYNC_INDEXING_BATCH_SIZE, ASYNC_INDEXING_FLUSH_MS,
+				ASYNC_INDEXING_MAX_RETRIES, Para.getScheduledExecutorService());
+		Para.addDestroyListener(new DestroyListener() {
+			public void onDestroy() {
+				drain();
+			}
+		});
+	}
+
+	/**
+	 * Creates a pipeline with custom settings.
+	 * @param search the search implementation which does the actual indexing
+	 * @param capacity the maximum number of objects waiting to be indexed
+	 * @param batchSize the maximum number of objects sent to the index in one request
+	 * @param flushMs the time between flushes, in milliseconds
+	 * @param maxRetries the number of times a failed object is retried
+	 * @param scheduler the executor on which flushes are run
+	 */
+	public IndexingPipeline(Search search, int capacity, int batchSize, long flushMs, int maxRetries,
+			ScheduledExecutorService scheduler) {
+		if (search == null || scheduler == null) {
+			throw new IllegalArgumentException("Search and scheduler must not be null.");
+		}
+		this.search = search;
+		this.capacity = Math.max(1, capacity);
+		this.batchSize = Math.max(1, batchSize);
+		this.flushMs = Math.max(1, flushMs);
+		this.maxRetries = Math.max(0, maxRetries);
+		this.scheduler = scheduler;
+		this.flushTask = scheduler.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				flushDue();
+			}
+		}, this.flushMs, this.flushMs, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @return the search implementation which does the actual indexing
+	 */
+	public Search getSearch() {
+		return search;
+	}
+
+	/**
+	 * Queues an object to be indexed.
+	 * @param appid the app id
+	 * @param obj an object
+	 */
+	public void index(String appid, ParaObject obj) {
+		enqueue(appid, obj, false);
+	}
+
+	/**
+	 * Queues objects to be indexed.
+	 * @param <P> the type of object
+	 * @param appid the app id
+	 * @param objects a list of objects
+	 */
+	public <P extends ParaObject> void indexAll(String appid, List<P> objects) {
+		if (objects != null) {
+			for (P obj : objects) {
+				enqueue(appid, obj, false);
+			}
+		}
+	}
+
+	/**
+	 * Queues an object to be removed from the index.
+	 * @param appid the app id
+	 * @param obj an object
+	 */
+	public void unindex(String appid, ParaObject obj) {
+		enqueue(appid, obj, true);
+	}
+
+	/**
+	 * Queues objects to be removed from the index.
+	 * @param <P> the type of object
+	 * @param appid the app id
+	 * @param objects a list of objects
+	 */
+	public <P extends ParaObject> void unindexAll(String appid, List<P> objects) {
+		if (objects != null) {
+			for (P obj : objects) {
+				enqueue(appid, obj, true);
+			}
+		}
+	}
+
+	/**
+	 * Search implementations which index asynchronously should index synchronously while a batch is being
+	 * flushed, and report failed objects with a {@link BulkIndexingException}, so that they can be retried.
+	 * @return true if the current thread is flushing a batch of objects to the index
+	 */
+	public static boolean isFlushing() {
+		return Boolean.TRUE.equals(FLUSHING.get());
+	}
+
+	/**
+	 * @return the number of objects waiting to be indexed or removed from the index
+	 */
+	public int getPendingCount() {
+		synchronized (pending) {
+			return pending.size();
+		}
+	}
+
+	/**
+	 * Sends all queued objects to the index now, including the ones waiting to be retried.
+	 * Objects which fail are queued again.
+	 */
+	public void flush() {
+		int remaining = getPendingCount();
+		while (remaining > 0) {
+			int flushed = flushBatch(true);
+			if (flushed == 0) {
+				break;
+			}
+			remaining -= flushed;
+		}
+	}
+
+	/**
+	 * Stops queueing and sends all queued objects to the index.
+	 * Later writes are indexed synchronously.
+	 */
+	public void drain() {
+		drained = true;
+		flushTask.cancel(false);
+		flush();
+	}
+
+	private void enqueue(String appid, ParaObject obj, boolean remove) {
+		if (StringUtils.isBlank(appid) || obj == null || obj.getId() == null) {
+			return;
+		}
+		if (drained) {
+			writeNow(appid, obj, remove);
+			return;
+		}
+		String key = appid.concat(Config.SEPARATOR).concat(obj.getId());
+		// a copy is queued, so that later changes to the object which aren't written aren't indexed either
+		Operation op = new Operation(key, appid, remove ? obj : copy(obj), remove);
+		boolean queued = false;
+		while (!queued) {
+			int size;
+			synchronized (pending) {
+				size = pending.size();
+				// a newer write replaces the queued one, keeping its place in the queue
+				queued = pending.containsKey(key) || size < capacity;
+				if (queued) {
+					pending.put(key, op);
+					size = pending.size();
+				}
+			}
+			if (!queued) {
+				// the queue is full - the writer flushes a batch itself, so it can't run ahead of the index
+				flushBatch(true);
+			} else if (size >= batchSize) {
+				requestFlush();
+			}
+		}
+	}
+
+	private void writeNow(String appid, ParaObject obj, boolean remove) {
+		synchronized (flushLock) {
+			if (remove) {
+				search.unindex(appid, obj);
+			} else {
+				search.index(appid, obj);
+			}
+		}
+	}
+
+	private void requestFlush() {
+		if (flushRequested.compareAndSet(false, true)) {
+			scheduler.execute(new Runnable() {
+				public void run() {
+					flushDue();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Flushes batches until there are no more objects which are due.
+	 */
+	private void flushDue() {
+		flushRequested.set(false);
+		try {
+			while (flushBatch(false) >= batchSize) {
+				logger.debug("Flushed a full batch, {} objects pending.", getPendingCount());
+			}
+		} catch (Exception e) {
+			logger.error(null, e);
+		}
+	}
+
+	/**
+	 * Takes a batch of objects off the queue and sends them to the index, one bulk request per app and action.
+	 * Batches are sent one at a time, so that writes to the same object are applied in order.
+	 * @param ignoreBackoff if true, objects are sent even if they are waiting to be retried
+	 * @return the number of objects taken off the queue
+	 */
+	private int flushBatch(boolean ignoreBackoff) {
+		synchronized (flushLock) {
+			List<Operation> batch = takeBatch(ignoreBackoff);
+			Map<String, List<Operation>> indexOps = new LinkedHashMap<String, List<Operation>>();
+			Map<String, List<Operation>> unindexOps = new LinkedHashMap<String, List<Operation>>();
+			for (Operation op : batch) {
+				Map<String, List<Operation>> ops = op.remove ? unindexOps : indexOps;
+				if (!ops.containsKey(op.appid)) {
+					ops.put(op.appid, new ArrayList<Operation>());
+				}
+				ops.get(op.appid).add(op);
+			}
+			FLUSHING.set(Boolean.TRUE);
+			try {
+				for (Map.Entry<String, List<Operation>> app : indexOps.entrySet()) {
+					send(app.getKey(), app.getValue(), false);
+				}
+				for (Map.Entry<String, List<Operation>> app : unindexOps.entrySet()) {
+					send(app.getKey(), app.getValue(), true);
+				}
+			} finally {
+				FLUSHING.remove();
+			}
+			return batch.size();
+		}
+	}
+
+	/**
+	 * Sends the objects of one app to the index. If only some of them fail, only those are retried.
+	 */
+	private void send(String appid, List<Operation> ops, boolean remove) {
+		try {
+			if (remove) {
+				search.unindexAll(appid, getObjects(ops));
+			} else {
+				search.indexAll(appid, getObjects(ops));
+			}
+		} catch (BulkIndexingException e) {
+			Set<String> failedIds = new HashSet<String>(e.getFailed());
+			List<Operation> failed = new ArrayList<Operation>(failedIds.size());
+			for (Operation op : ops) {
+				if (failedIds.contains(op.object.getId())) {
+					failed.add(op);
+				}
+			}
+			retry(failed.isEmpty() ? ops : failed, e);
+		} catch (Exception e) {
+			retry(ops, e);
+		}
+	}
+
+	private List<Operation> takeBatch(boolean ignoreBackoff) {
+		List<Operation> batch = new ArrayList<Operation>(batchSize);
+		long now = Utils.timestamp();
+		synchronized (pending) {
+			Iterator<Operation> iter = pending.values().iterator();
+			while (iter.hasNext() && batch.size() < batchSize) {
+				Operation op = iter.next();
+				if (ignoreBackoff || op.notBefore <= now) {
+					batch.add(op);
+					iter.remove();
+				}
+			}
+		}
+		return batch;
+	}
+
+	/**
+	 * Queues failed objects again, unless they were written again in the meantime or have no retries left.
+	 */
+	private void retry(List<Operation> failed, Exception e) {
+		long now = Utils.timestamp();
+		int dropped = 0;
+		synchronized (pending) {
+			for (Operation op : failed) {
+				if (op.attempts >= maxRetries) {
+					dropped++;
+				} else if (!pending.containsKey(op.key)) {
+					long backoff = flushMs << Math.min(op.attempts, MAX_BACKOFF_SHIFT);
+					pending.put(op.key, new Operation(op, now + backoff));
+				}
+			}
+		}
+		if (dropped > 0) {
+			logger.error("Failed to index {} objects after {} retries - they were dropped.", dropped, maxRetries, e);
+		} else {
+			logger.warn("Failed to index {} objects, they will be retried: {}", failed.size(), e.getMessage());
+		}
+	}
+
+	private static List<ParaObject> getObjects(List<Operation> ops) {
+		List<ParaObject> objects = new ArrayList<ParaObject>(ops.size());
+		for (Operation op : ops) {
+			objects.add(op.object);
+		}
+		return objects;
+	}
+
+	private static ParaObject copy(ParaObject obj) {
+		ParaObject copy = ParaObjectUtils.setAnnotatedFields(ParaObjectUtils.getAnnotatedFields(obj));
+		return (copy == null) ? obj : copy;
+	}
+
+	/**
+	 * An object waiting to be indexed or removed from the index.
+	 */
+	private static final class Operation {
+		private final String key;
+		private final String appid;
+		private final ParaObject object;
+		private final boolean remove;
+		private final int attempts;
+		private final long notBefore;
+
+		Operation(String key, String appid, ParaObject object, boolean remove) {
+			this.key = key;
+			this.appid = appid;
+			this.object = object;
+			this.remove = remove;
+			this.attempts = 0;
+			this.notBefore = 0;
+		}
+
+		Operation(Operation failed, long notBefore) {
+			this.key = failed.key;
+			this.appid = failed.appid;
+			this.object = failed.object;
+			this.remove = failed.remove;
+			this.attempts = failed.attempts + 1;
+			this.notBefore = notBefore;
+		}
+	}
+}
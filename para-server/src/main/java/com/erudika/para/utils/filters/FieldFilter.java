@@ -18,15 +18,16 @@
 package com.erudika.para.utils.filters;
 
 import com.erudika.para.core.ParaObject;
+import com.erudika.para.rest.RestUtils;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import java.beans.PropertyDescriptor;
 import java.io.IOException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.container.ContainerRequestContext;
 import javax.ws.rs.container.ContainerResponseContext;
@@ -53,9 +54,10 @@ public class FieldFilter implements ContainerResponseFilter {
 	public void filter(ContainerRequestContext requestContext,
 			ContainerResponseContext responseContext) throws IOException {
 		try {
-			if (responseContext.getEntity() != null && !StringUtils.isBlank(request.getParameter("select"))) {
-				String[] sarr = StringUtils.split(request.getParameter("select"), ",");
-				List<String> fields = sarr == null ? new ArrayList<String>(0) : Arrays.asList(sarr);
+			// objects may have been read partially, with only the selected fields - see RestUtils.getSelectedFields()
+			Set<String> selected = RestUtils.getSelectedFields(request.getParameter("select"));
+			if (responseContext.getEntity() != null && selected != null) {
+				List<String> fields = new ArrayList<String>(selected);
 				Object entity = responseContext.getEntity();
 				Object newEntity = null;
 				if (entity instanceof ParaObject) {
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2013-2016 Erudika. https://erudika.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * For issues and patches go to: https://github.com/erudika
+ */
+package com.erudika.para.utils.filters;
+
+import com.erudika.para.aop.IdentityMapInterceptor;
+import java.io.IOException;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+
+/**
+ * Binds the DAO identity map to the lifecycle of a request, so that objects read several times
+ * during a request, e.g. the app in the authentication filter and again in the API resource,
+ * are read from the database or the cache only once.
+ * @author Alex Bogdanovski [alex@erudika.com]
+ * @see IdentityMapInterceptor
+ */
+public class IdentityMapFilter implements Filter {
+
+	@Override
+	public void init(FilterConfig filterConfig) throws ServletException {
+	}
+
+	@Override
+	public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+			throws IOException, ServletException {
+		boolean opened = IdentityMapInterceptor.open();
+		try {
+			chain.doFilter(request, response);
+		} finally {
+			if (opened) {
+				IdentityMapInterceptor.close();
+			}
+		}
+	}
+
+	@Override
+	public void destroy() {
+	}
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2013-2016 Erudika. https://erudika.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * For issues and patches go to: https://github.com/erudika
+ */
+package com.erudika.para.aop;
+
+import com.erudika.para.core.ParaObject;
+import com.erudika.para.core.Sysprop;
+import com.erudika.para.persistence.DAO;
+import com.erudika.para.persistence.MockDAO;
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.matcher.Matchers;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Alex Bogdanovski [alex@erudika.com]
+ */
+public class BloomFilterInterceptorTest {
+
+	private static final String APPID = "bloom-filter";
+	private static final AtomicInteger READS = new AtomicInteger();
+	private static final AtomicBoolean FAIL_SCAN = new AtomicBoolean();
+	private static final AtomicBoolean WRITE_DURING_SCAN = new AtomicBoolean();
+
+	private File dir;
+	private DAO dao;
+
+	public static class CountingDAO extends MockDAO {
+		@Override
+		public <P extends ParaObject> P read(String appid, String key) {
+			READS.incrementAndGet();
+			return super.read(appid, key);
+		}
+
+		@Override
+		public <P extends ParaObject> long scan(String appid, int segments, Consumer<List<P>> consumer) {
+			long count = super.scan(appid, segments, consumer);
+			if (WRITE_DURING_SCAN.get()) {
+				// written after the scan has passed it
+				create(appid, new Sysprop("bf3"));
+			}
+			if (FAIL_SCAN.get()) {
+				throw new IllegalStateException("Scan of app '" + appid + "' failed.");
+			}
+			return count;
+		}
+	}
+
+	private DAO getDAO(final BloomFilterInterceptor interceptor) {
+		return Guice.createInjector(new AbstractModule() {
+			protected void configure() {
+				bind(DAO.class).to(CountingDAO.class);
+				bindInterceptor(Matchers.subclassesOf(DAO.class), Matchers.any(), interceptor);
+			}
+		}).getInstance(DAO.class);
+	}
+
+	@Before
+	public void setUp() throws IOException {
+		dir = Files.createTempDirectory("para-bloom").toFile();
+		dir.deleteOnExit();
+		dao = getDAO(new BloomFilterInterceptor(dir, 1000, 0.001));
+		dao.create(APPID, new Sysprop("bf1"));
+		dao.create(APPID, new Sysprop("bf2"));
+	}
+
+	@After
+	public void tearDown() {
+		FAIL_SCAN.set(false);
+		WRITE_DURING_SCAN.set(false);
+		dao.deleteAll(APPID, Arrays.<ParaObject>asList(new Sysprop("bf1"), new Sysprop("bf2"), new Sysprop("bf3")));
+	}
+
+	@Test
+	public void testMissingIdsAreNotRead() {
+		BloomFilterInterceptor interceptor = new BloomFilterInterceptor(null, 1000, 0.001);
+		DAO filtered = getDAO(interceptor);
+		assertFalse(interceptor.isReady(APPID));
+		assertEquals(2, interceptor.rebuild(APPID, filtered));
+		assertTrue(interceptor.isReady(APPID));
+		READS.set(0);
+
+		assertNotNull(filtered.read(APPID, "bf1"));
+		assertEquals(1, READS.get());
+		assertNull(filtered.read(APPID, "missing"));
+		assertTrue(filtered.readAll(APPID, Arrays.asList("missing1", "missing2"), true).isEmpty());
+		assertEquals(1, READS.get());
+		assertEquals(1, filtered.readAll(APPID, Arrays.asList("missing1", "bf2"), true).size());
+		assertEquals(2, READS.get());
+
+		// new objects are added to the filter, including those with generated ids
+		filtered.create(APPID, new Sysprop("bf3"));
+		Sysprop generated = new Sysprop();
+		String id = filtered.create(APPID, generated);
+		assertNotNull(filtered.read(APPID, "bf3"));
+		assertNotNull(filtered.read(APPID, id));
+		filtered.delete(APPID, generated);
+	}
+
+	@Test
+	public void testSaveAndLoad() {
+		BloomFilterInterceptor interceptor = new BloomFilterInterceptor(dir, 1000, 0.001);
+		interceptor.rebuild(APPID, getDAO(interceptor));
+		interceptor.saveAll();
+		assertTrue(new File(dir, APPID + ".bloom").isFile());
+
+		BloomFilterInterceptor restarted = new BloomFilterInterceptor(dir, 1000, 0.001);
+		DAO filtered = getDAO(restarted);
+		READS.set(0);
+		assertNull(filtered.read(APPID, "missing"));
+		assertTrue(restarted.isReady(APPID));
+		assertEquals(0, READS.get());
+		assertNotNull(filtered.read(APPID, "bf2"));
+		// the saved filter is deleted once loaded, so a crash can't leave a stale one behind
+		assertFalse(new File(dir, APPID + ".bloom").isFile());
+	}
+
+	@Test
+	public void testFailedScanKeepsOldFilter() {
+		BloomFilterInterceptor interceptor = new BloomFilterInterceptor(null, 1000, 0.001);
+		DAO filtered = getDAO(interceptor);
+		FAIL_SCAN.set(true);
+		assertEquals(-1, interceptor.rebuild(APPID, filtered));
+		assertFalse(interceptor.isReady(APPID));
+		assertNotNull(filtered.read(APPID, "bf1"));
+
+		FAIL_SCAN.set(false);
+		assertEquals(2, interceptor.rebuild(APPID, filtered));
+		assertTrue(interceptor.isReady(APPID));
+		// a partial scan doesn't replace a complete filter
+		FAIL_SCAN.set(true);
+		filtered.create(APPID, new Sysprop("bf3"));
+		assertEquals(-1, interceptor.rebuild(APPID, filtered));
+		assertNotNull(filtered.read(APPID, "bf1"));
+		assertNotNull(filtered.read(APPID, "bf3"));
+	}
+
+	@Test
+	public void testObjectsWrittenDuringRebuildAreAdded() {
+		BloomFilterInterceptor interceptor = new BloomFilterInterceptor(null, 1000, 0.001);
+		DAO filtered = getDAO(interceptor);
+		WRITE_DURING_SCAN.set(true);
+		assertEquals(3, interceptor.rebuild(APPID, filtered));
+		assertTrue(interceptor.isReady(APPID));
+		assertNotNull(filtered.read(APPID, "bf3"));
+	}
+}
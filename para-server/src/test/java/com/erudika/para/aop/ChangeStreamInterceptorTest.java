@@ -0,0 +1,219 @@
+/*
+ * Copyright 2013-2016 Erudika. https://erudika.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * For issues and patches go to: https://github.com/erudika
+ */
+package com.erudika.para.aop;
+
+import com.erudika.para.core.ParaObject;
+import com.erudika.para.core.Sysprop;
+import com.erudika.para.persistence.BatchWriteException;
+import com.erudika.para.persistence.ChangeEvent;
+import com.erudika.para.persistence.ChangeEvent.Operation;
+import com.erudika.para.persistence.ChangeStream;
+import com.erudika.para.persistence.DAO;
+import com.erudika.para.persistence.DAOUtils;
+import com.erudika.para.persistence.MockDAO;
+import com.erudika.para.utils.Config;
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.matcher.Matchers;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Alex Bogdanovski [alex@erudika.com]
+ */
+public class ChangeStreamInterceptorTest {
+
+	private static final String APPID = "change-stream";
+
+	private ScheduledExecutorService scheduler;
+	private ChangeStream stream;
+	private DAO dao;
+
+	@Before
+	public void setUp() {
+		scheduler = Executors.newSingleThreadScheduledExecutor();
+		stream = new ChangeStream(1024, scheduler);
+		dao = Guice.createInjector(new AbstractModule() {
+			protected void configure() {
+				bind(DAO.class).to(MockDAO.class);
+				bindInterceptor(Matchers.subclassesOf(DAO.class), Matchers.any(), new ChangeStreamInterceptor(stream));
+			}
+		}).getInstance(DAO.class);
+	}
+
+	@After
+	public void tearDown() {
+		scheduler.shutdownNow();
+	}
+
+	@Test
+	public void testWritesArePublished() {
+		ChangeStream.Subscription sub = stream.subscribe("test");
+		Sysprop s1 = new Sysprop("cs1");
+		s1.setName("name");
+		dao.create(APPID, s1);
+		dao.read(APPID, "cs1");
+		s1.setName("name 2");
+		dao.update(APPID, s1);
+		// MockDAO.createAll() calls create() for each object - they're published once
+		dao.createAll(Arrays.<ParaObject>asList(new Sysprop("cs2"), new Sysprop("cs3")));
+		dao.delete(APPID, s1);
+
+		List<ChangeEvent> events = sub.poll(100);
+		assertEquals(5, events.size());
+		assertEquals(Operation.CREATE, events.get(0).getOperation());
+		assertEquals(APPID, events.get(0).getAppid());
+		assertEquals("cs1", events.get(0).getId());
+		assertTrue(events.get(0).getFields().contains("name"));
+		assertNotNull(events.get(0).getVersion());
+		assertEquals(Operation.UPDATE, events.get(1).getOperation());
+		assertFalse(events.get(1).getFields().contains("parentid"));
+		assertEquals(Config.APP_NAME_NS, events.get(2).getAppid());
+		assertEquals("cs3", events.get(3).getId());
+		assertEquals(Operation.DELETE, events.get(4).getOperation());
+		assertTrue(events.get(4).getFields().isEmpty());
+		dao.deleteAll(Arrays.<ParaObject>asList(new Sysprop("cs2"), new Sysprop("cs3")));
+	}
+
+	@Test
+	public void testFailedConditionalWritesAreNotPublished() {
+		ChangeStream.Subscription sub = stream.subscribe("conditional");
+		Sysprop s = new Sysprop("cs4");
+		assertEquals("cs4", dao.createIfAbsent(APPID, s));
+		assertNull(dao.createIfAbsent(APPID, new Sysprop("cs4")));
+		Long version = DAOUtils.getVersion(dao.read(APPID, "cs4"));
+		assertFalse(dao.compareAndSet(APPID, s, version - 1));
+		assertTrue(dao.compareAndSet(APPID, s, version));
+
+		List<ChangeEvent> events = sub.poll(100);
+		assertEquals(2, events.size());
+		assertEquals(Operation.CREATE, events.get(0).getOperation());
+		assertEquals(Operation.UPDATE, events.get(1).getOperation());
+		assertTrue(events.get(1).getVersion() > version);
+		dao.delete(APPID, s);
+	}
+
+	@Test
+	public void testUpdatesCarryTheWrittenFields() {
+		DAO diffing = Guice.createInjector(new AbstractModule() {
+			protected void configure() {
+				bind(DAO.class).to(DiffingDAO.class);
+				bindInterceptor(Matchers.subclassesOf(DAO.class), Matchers.any(), new ChangeStreamInterceptor(stream));
+			}
+		}).getInstance(DAO.class);
+		ChangeStream.Subscription sub = stream.subscribe("diff");
+		Sysprop s = new Sysprop("cs5");
+		s.setName("name");
+		s.setTags(Arrays.asList("tag"));
+		diffing.create(APPID, s);
+		s.setName("name 2");
+		diffing.update(APPID, s);
+		// nothing was written
+		DiffingDAO.written = Collections.emptySet();
+		diffing.update(APPID, s);
+
+		List<ChangeEvent> events = sub.poll(100);
+		assertEquals(2, events.size());
+		assertTrue(events.get(0).getFields().contains("tags"));
+		assertEquals(Operation.UPDATE, events.get(1).getOperation());
+		assertEquals(new HashSet<String>(Arrays.asList("name", "updated")), events.get(1).getFields());
+		diffing.delete(APPID, s);
+	}
+
+	@Test
+	public void testFailedWritesAreNotPublished() {
+		DAO failing = Guice.createInjector(new AbstractModule() {
+			protected void configure() {
+				bind(DAO.class).to(FailingDAO.class);
+				bindInterceptor(Matchers.subclassesOf(DAO.class), Matchers.any(), new ChangeStreamInterceptor(stream));
+			}
+		}).getInstance(DAO.class);
+		ChangeStream.Subscription sub = stream.subscribe("failing");
+		Sysprop s1 = new Sysprop("cs6");
+		Sysprop s2 = new Sysprop("cs7");
+		failing.createAll(APPID, Arrays.<ParaObject>asList(s1, s2));
+		failing.delete(APPID, s1);
+		try {
+			failing.deleteAll(APPID, Arrays.<ParaObject>asList(s1, s2));
+			fail("The batch write didn't fail.");
+		} catch (BatchWriteException e) {
+			assertEquals(Arrays.asList("cs6"), e.getUnwritten(APPID));
+		}
+
+		List<ChangeEvent> events = sub.poll(100);
+		assertEquals(3, events.size());
+		assertEquals(Operation.CREATE, events.get(0).getOperation());
+		assertEquals(Operation.CREATE, events.get(1).getOperation());
+		// the failed delete isn't published, only the object which the batch deleted is
+		assertEquals(Operation.DELETE, events.get(2).getOperation());
+		assertEquals("cs7", events.get(2).getId());
+		assertNotNull(failing.read(APPID, "cs6"));
+		failing.deleteAll(APPID, Arrays.<ParaObject>asList(s1));
+	}
+
+	/**
+	 * Reports the fields written by each update, like a DAO which writes only the changed fields.
+	 */
+	public static class DiffingDAO extends MockDAO {
+		private static volatile Set<String> written = new HashSet<String>(Arrays.asList("name", "updated"));
+
+		@Override
+		public <P extends ParaObject> void update(String appid, P so) {
+			super.update(appid, so);
+			DAOUtils.recordChanges(so.getId(), written);
+		}
+	}
+
+	/**
+	 * Fails to delete the object "cs6", like a DAO which logs its errors.
+	 */
+	public static class FailingDAO extends MockDAO {
+		private static volatile boolean failing = true;
+
+		@Override
+		public <P extends ParaObject> void delete(String appid, P so) {
+			if (failing && "cs6".equals(so.getId())) {
+				DAOUtils.recordFailedWrites(Collections.singleton(so.getId()));
+			} else {
+				super.delete(appid, so);
+			}
+		}
+
+		@Override
+		public <P extends ParaObject> void deleteAll(String appid, List<P> objects) {
+			List<P> deleted = new ArrayList<P>(objects);
+			if (failing && deleted.remove(read(appid, "cs6"))) {
+				super.deleteAll(appid, deleted);
+				failing = false;
+				throw new BatchWriteException(Collections.singletonMap(appid, Collections.singletonList("cs6")));
+			}
+			super.deleteAll(appid, objects);
+		}
+	}
+}
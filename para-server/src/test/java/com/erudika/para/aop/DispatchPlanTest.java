@@ -0,0 +1,85 @@
+/*
+ * Copyright 2013-2016 Erudika. https://erudika.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * For issues and patches go to: https://github.com/erudika
+ */
+package com.erudika.para.aop;
+
+import com.erudika.para.annotations.Cached;
+import com.erudika.para.annotations.Indexed;
+import com.erudika.para.core.ParaObject;
+import com.erudika.para.core.Tag;
+import com.erudika.para.persistence.AWSDynamoDAO;
+import com.erudika.para.persistence.DAO;
+import com.erudika.para.persistence.MockDAO;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author Alex Bogdanovski [alex@erudika.com]
+ */
+public class DispatchPlanTest {
+
+	@Test
+	public void testPlans() throws Exception {
+		Tag tag = new Tag("plantag");
+		DispatchPlan create = DispatchPlan.of(MockDAO.class.getMethod("create", String.class, ParaObject.class));
+		assertFalse(create.isPassThrough());
+		assertFalse(create.isAsync());
+		assertFalse(create.isAllApps());
+		assertEquals(DAO.class, create.getSuperMethod().getDeclaringClass());
+		assertEquals(Indexed.Action.ADD, create.getIndexed().action());
+		assertEquals(Cached.Action.PUT, create.getCached().action());
+		assertEquals("app", create.getAppid(new Object[]{"app", tag}));
+		assertSame(tag, create.getObject(new Object[]{"app", tag}));
+		assertNull(create.getObject(new Object[]{"app", null}));
+		assertNull(create.getList(new Object[]{"app", tag}, ParaObject.class));
+
+		DispatchPlan readAll = DispatchPlan.of(MockDAO.class.getMethod("readAll", String.class, List.class,
+				boolean.class));
+		List<String> ids = Arrays.asList("1", "2");
+		assertEquals(Cached.Action.GET_ALL, readAll.getCached().action());
+		assertSame(ids, readAll.getList(new Object[]{"app", ids, true}, String.class));
+		assertNull(readAll.getList(new Object[]{"app", ids, true}, ParaObject.class));
+		assertNull(readAll.getList(new Object[]{"app", Collections.emptyList(), true}, String.class));
+		assertNull(readAll.getObject(new Object[]{"app", ids, true}));
+
+		DispatchPlan allApps = DispatchPlan.of(MockDAO.class.getMethod("createAllInApps", Map.class));
+		assertTrue(allApps.isAllApps());
+		assertNull(allApps.getAppid(new Object[]{Collections.emptyMap()}));
+
+		DispatchPlan async = DispatchPlan.of(AWSDynamoDAO.class.getMethod("readAsync", String.class, String.class));
+		assertTrue(async.isAsync());
+		assertEquals("read", async.getSuperMethod().getName());
+		assertEquals(Cached.Action.GET, async.getCached().action());
+
+		assertTrue(DispatchPlan.of(MockDAO.class.getMethod("toString")).isPassThrough());
+		assertTrue(DispatchPlan.of(MockDAO.class.getMethod("hashCode")).isPassThrough());
+	}
+
+	@Test
+	public void testByType() {
+		Tag tag = new Tag("plantag");
+		List<ParaObject> objects = Arrays.<ParaObject>asList(tag);
+		assertSame(tag, DispatchPlan.BY_TYPE.getObject(new Object[]{"app", tag}));
+		assertSame(objects, DispatchPlan.BY_TYPE.getList(new Object[]{"app", objects}, ParaObject.class));
+		assertEquals("app", DispatchPlan.BY_TYPE.getAppid(new Object[]{"app", objects}));
+	}
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2013-2016 Erudika. https://erudika.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * For issues and patches go to: https://github.com/erudika
+ */
+package com.erudika.para.aop;
+
+import com.erudika.para.core.ParaObject;
+import com.erudika.para.core.Sysprop;
+import com.erudika.para.persistence.DAO;
+import com.erudika.para.persistence.MockDAO;
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.matcher.Matchers;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Alex Bogdanovski [alex@erudika.com]
+ */
+public class IdentityMapInterceptorTest {
+
+	private static final String APPID = "identity-map";
+	private static final AtomicInteger READS = new AtomicInteger();
+
+	private DAO dao;
+
+	public static class CountingDAO extends MockDAO {
+		@Override
+		public <P extends ParaObject> P read(String appid, String key) {
+			READS.incrementAndGet();
+			return super.read(appid, key);
+		}
+	}
+
+	@Before
+	public void setUp() {
+		dao = Guice.createInjector(new AbstractModule() {
+			protected void configure() {
+				bind(DAO.class).to(CountingDAO.class);
+				bindInterceptor(Matchers.subclassesOf(DAO.class), Matchers.any(), new IdentityMapInterceptor());
+			}
+		}).getInstance(DAO.class);
+		dao.create(APPID, new Sysprop("im1"));
+		dao.create(APPID, new Sysprop("im2"));
+		READS.set(0);
+	}
+
+	@After
+	public void tearDown() {
+		IdentityMapInterceptor.close();
+		dao.deleteAll(APPID, Arrays.<ParaObject>asList(new Sysprop("im1"), new Sysprop("im2"), new Sysprop("im3")));
+	}
+
+	@Test
+	public void testReadsOutsideOfRequest() {
+		assertFalse(IdentityMapInterceptor.isOpen());
+		dao.read(APPID, "im1");
+		dao.read(APPID, "im1");
+		assertEquals(2, READS.get());
+	}
+
+	@Test
+	public void testRepeatedReadsReturnSameInstance() {
+		assertTrue(IdentityMapInterceptor.open());
+		assertFalse(IdentityMapInterceptor.open());
+		Sysprop first = dao.read(APPID, "im1");
+		assertNotNull(first);
+		assertSame(first, dao.read(APPID, "im1"));
+		assertNull(dao.read(APPID, "missing"));
+		assertNull(dao.read(APPID, "missing"));
+		assertEquals(2, READS.get());
+
+		// readAll() keeps the identity of objects read before and is served from memory next time
+		Map<String, ParaObject> all = dao.readAll(APPID, Arrays.asList("im1", "im2"), true);
+		assertEquals(2, all.size());
+		assertSame(first, all.get("im1"));
+		assertEquals(3, READS.get());
+		assertSame(all.get("im2"), dao.read(APPID, "im2"));
+		// the recorded miss is returned as null, like a DAO which returns all requested ids
+		Map<String, ParaObject> hit = dao.readAll(APPID, Arrays.asList("im1", "im2", "missing"), true);
+		assertEquals(3, hit.size());
+		assertTrue(hit.containsKey("missing"));
+		assertNull(hit.get("missing"));
+		assertEquals(3, READS.get());
+	}
+
+	@Test
+	public void testWritesClearIdentityMap() {
+		IdentityMapInterceptor.open();
+		assertNull(dao.read(APPID, "im3"));
+		dao.create(APPID, new Sysprop("im3"));
+		assertNotNull(dao.read(APPID, "im3"));
+		assertEquals(2, READS.get());
+
+		IdentityMapInterceptor.close();
+		assertFalse(IdentityMapInterceptor.isOpen());
+		dao.read(APPID, "im3");
+		assertEquals(3, READS.get());
+	}
+}
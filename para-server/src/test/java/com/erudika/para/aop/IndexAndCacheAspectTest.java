@@ -0,0 +1,276 @@
+/*
+ * Copyright 2013-2016 Erudika. https://erudika.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * For issues and patches go to: https://github.com/erudika
+ */
+package com.erudika.para.aop;
+
+import com.erudika.para.cache.Cache;
+import com.erudika.para.cache.MockCache;
+import com.erudika.para.core.ParaObject;
+import com.erudika.para.core.Sysprop;
+import com.erudika.para.persistence.AsyncDAO;
+import com.erudika.para.persistence.BatchWriteException;
+import com.erudika.para.persistence.DAO;
+import com.erudika.para.persistence.MockDAO;
+import com.erudika.para.search.Search;
+import com.erudika.para.utils.Pager;
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.matcher.Matchers;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.mockito.ArgumentCaptor;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.same;
+import static org.mockito.Mockito.verify;
+
+/**
+ *
+ * @author Alex Bogdanovski [alex@erudika.com]
+ */
+public class IndexAndCacheAspectTest {
+
+	private static final String APPID = "aspect-cache";
+	private static final List<List<String>> READS = Collections.synchronizedList(new ArrayList<List<String>>());
+
+	private static final Set<String> UNWRITTEN = Collections.synchronizedSet(new HashSet<String>());
+
+	private DAO dao;
+	private Cache cache;
+	private Search search;
+
+	private static CompletableFuture<Boolean> asyncWrite = new CompletableFuture<Boolean>();
+
+	public static class RecordingDAO extends MockDAO implements AsyncDAO {
+		// async writes wait until the test completes them, with true for success
+		@Override
+		public <P extends ParaObject> CompletableFuture<String> createAsync(final String appid, final P so) {
+			return asyncWrite.thenApply(new Function<Boolean, String>() {
+				public String apply(Boolean ok) {
+					return ok ? RecordingDAO.super.create(appid, so) : null;
+				}
+			});
+		}
+
+		@Override
+		public <P extends ParaObject> CompletableFuture<Void> updateAsync(final String appid, final P so) {
+			return asyncWrite.thenApply(new Function<Boolean, Void>() {
+				public Void apply(Boolean ok) {
+					if (!ok) {
+						throw new IllegalStateException("Update failed.");
+					}
+					RecordingDAO.super.update(appid, so);
+					return null;
+				}
+			});
+		}
+
+		@Override
+		public <P extends ParaObject> CompletableFuture<Void> deleteAsync(String appid, P so) {
+			return CompletableFuture.completedFuture(null);
+		}
+
+		@Override
+		public <P extends ParaObject> CompletableFuture<P> readAsync(String appid, String key) {
+			return CompletableFuture.completedFuture(super.<P>read(appid, key));
+		}
+
+		@Override
+		public <P extends ParaObject> CompletableFuture<Map<String, P>> readAllAsync(String appid, List<String> keys,
+				boolean getAllColumns) {
+			return CompletableFuture.completedFuture(super.<P>readAll(appid, keys, getAllColumns));
+		}
+
+		@Override
+		public <P extends ParaObject> CompletableFuture<List<P>> readPageAsync(String appid, Pager pager) {
+			return CompletableFuture.completedFuture(super.<P>readPage(appid, pager));
+		}
+
+		@Override
+		public <P extends ParaObject> Map<String, P> readAll(String appid, List<String> keys, boolean getAllColumns) {
+			READS.add(new ArrayList<String>(keys));
+			return super.readAll(appid, keys, getAllColumns);
+		}
+
+		@Override
+		public <P extends ParaObject> void createAll(String appid, List<P> objects) {
+			List<P> written = new ArrayList<P>();
+			List<String> unwritten = new ArrayList<String>();
+			for (P obj : objects) {
+				if (UNWRITTEN.contains(obj.getId())) {
+					unwritten.add(obj.getId());
+				} else {
+					written.add(obj);
+				}
+			}
+			super.createAll(appid, written);
+			if (!unwritten.isEmpty()) {
+				throw new BatchWriteException(Collections.singletonMap(appid, unwritten));
+			}
+		}
+	}
+
+	@Before
+	public void setUp() {
+		System.setProperty("para.cache_enabled", "true");
+		cache = new MockCache();
+		final IndexAndCacheAspect aspect = new IndexAndCacheAspect();
+		aspect.setCache(cache);
+		search = mock(Search.class);
+		aspect.setSearch(search);
+		dao = Guice.createInjector(new AbstractModule() {
+			protected void configure() {
+				bind(DAO.class).to(RecordingDAO.class);
+				bindInterceptor(Matchers.subclassesOf(DAO.class), Matchers.any(), aspect);
+			}
+		}).getInstance(DAO.class);
+		for (int i = 1; i <= 5; i++) {
+			dao.create(APPID, new Sysprop("ac" + i));
+		}
+		READS.clear();
+		UNWRITTEN.clear();
+	}
+
+	@After
+	public void tearDown() {
+		System.clearProperty("para.cache_enabled");
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testOnlyWrittenObjectsAreIndexed() {
+		UNWRITTEN.add("bw2");
+		List<ParaObject> objects = new ArrayList<ParaObject>();
+		objects.add(new Sysprop("bw1"));
+		objects.add(new Sysprop("bw2"));
+		try {
+			dao.createAll(APPID, objects);
+			fail("Unwritten objects were not reported.");
+		} catch (BatchWriteException e) {
+			assertEquals(Collections.singletonList("bw2"), e.getUnwritten(APPID));
+		}
+		ArgumentCaptor<List> indexed = ArgumentCaptor.forClass(List.class);
+		verify(search).indexAll(eq(APPID), indexed.capture());
+		assertEquals(1, indexed.getValue().size());
+		assertEquals("bw1", ((ParaObject) indexed.getValue().get(0)).getId());
+		assertFalse(cache.contains(APPID, "bw2"));
+		assertNotNull(dao.read(APPID, "bw1"));
+		assertNull(dao.read(APPID, "bw2"));
+	}
+
+	@Test
+	public void testIncrementReindexes() {
+		assertNotNull(dao.read(APPID, "ac1"));
+		assertEquals(3L, dao.increment(APPID, "ac1", "votes", 3).longValue());
+		ArgumentCaptor<ParaObject> indexed = ArgumentCaptor.forClass(ParaObject.class);
+		verify(search, atLeastOnce()).index(eq(APPID), indexed.capture());
+		ParaObject last = indexed.getAllValues().get(indexed.getAllValues().size() - 1);
+		assertEquals("ac1", last.getId());
+		assertEquals(3, last.getVotes().intValue());
+		// the object read back after the increment is cached instead of the old one
+		assertEquals(3, ((ParaObject) dao.read(APPID, "ac1")).getVotes().intValue());
+		assertNull(dao.increment(APPID, "missing", "votes", 1));
+	}
+
+	@Test
+	public void testAsyncWritesAreIndexedWhenDone() throws Exception {
+		asyncWrite = new CompletableFuture<Boolean>();
+		Sysprop created = new Sysprop("async1");
+		CompletableFuture<String> create = ((AsyncDAO) dao).createAsync(APPID, created);
+		verify(search, never()).index(eq(APPID), eq(created));
+		assertFalse(cache.contains(APPID, "async1"));
+		asyncWrite.complete(true);
+		assertEquals("async1", create.get());
+		verify(search).index(eq(APPID), eq(created));
+		assertTrue(cache.contains(APPID, "async1"));
+
+		// failed writes are neither indexed nor cached
+		asyncWrite = new CompletableFuture<Boolean>();
+		Sysprop failed = new Sysprop("async2");
+		CompletableFuture<String> failedCreate = ((AsyncDAO) dao).createAsync(APPID, failed);
+		Sysprop updated = new Sysprop("ac1");
+		updated.setName("changed");
+		cache.remove(APPID, "ac1");
+		CompletableFuture<Void> failedUpdate = ((AsyncDAO) dao).updateAsync(APPID, updated);
+		asyncWrite.complete(false);
+		assertNull(failedCreate.get());
+		try {
+			failedUpdate.get();
+			fail("Failed update wasn't reported.");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+		verify(search, never()).index(eq(APPID), eq(failed));
+		verify(search, never()).index(eq(APPID), same(updated));
+		assertFalse(cache.contains(APPID, "async2"));
+		assertFalse(cache.contains(APPID, "ac1"));
+	}
+
+	@Test
+	public void testReadAllReadsOnlyMissingIds() {
+		cache.remove(APPID, "ac2");
+		cache.remove(APPID, "ac4");
+		List<String> ids = Arrays.asList("ac5", "ac4", "missing", "ac3", "ac2", "ac1");
+		Map<String, ParaObject> all = dao.readAll(APPID, new ArrayList<String>(ids), true);
+		assertEquals(Arrays.asList(Arrays.asList("ac4", "missing", "ac2")), READS);
+		assertEquals(Arrays.asList("ac5", "ac4", "ac3", "ac2", "ac1"), new ArrayList<String>(all.keySet()));
+		assertTrue(cache.contains(APPID, "ac2"));
+		assertTrue(cache.contains(APPID, "ac4"));
+
+		READS.clear();
+		assertEquals(5, dao.readAll(APPID, Arrays.asList("ac1", "ac2", "ac3", "ac4", "ac5"), true).size());
+		assertTrue(READS.isEmpty());
+	}
+
+	@Test
+	public void testReadAllFromAppsReadsOnlyMissingIds() {
+		cache.remove(APPID, "ac3");
+		Map<String, List<String>> keys = new LinkedHashMap<String, List<String>>();
+		keys.put(APPID, new ArrayList<String>(Arrays.asList("ac3", "ac1", "ac2")));
+		Map<String, Map<String, ParaObject>> all = dao.readAllFromApps(keys, true);
+		assertEquals(Arrays.asList(Arrays.asList("ac3")), READS);
+		assertEquals(Arrays.asList("ac3", "ac1", "ac2"), new ArrayList<String>(all.get(APPID).keySet()));
+		// the caller's arguments are left unchanged
+		assertEquals(Arrays.asList("ac3", "ac1", "ac2"), keys.get(APPID));
+	}
+
+	@Test
+	public void testReadIsServedFromCache() {
+		Sysprop cached = new Sysprop("ac1");
+		cached.setName("from cache");
+		cache.put(APPID, "ac1", cached);
+		assertSame(cached, dao.read(APPID, "ac1"));
+		cache.remove(APPID, "ac1");
+		assertNotSame(cached, dao.read(APPID, "ac1"));
+		assertTrue(cache.contains(APPID, "ac1"));
+	}
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2013-2016 Erudika. https://erudika.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * For issues and patches go to: https://github.com/erudika
+ */
+package com.erudika.para.aop;
+
+import com.erudika.para.core.Sysprop;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ *
+ * @author Alex Bogdanovski [alex@erudika.com]
+ */
+public class SingleFlightTest {
+
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void testConcurrentMissesAreLoadedOnce() throws Exception {
+		final SingleFlight sf = new SingleFlight(10000);
+		final AtomicInteger loads = new AtomicInteger();
+		final CountDownLatch release = new CountDownLatch(1);
+		final SingleFlight.Loader loader = new SingleFlight.Loader() {
+			public Object load() throws Throwable {
+				loads.incrementAndGet();
+				release.await(10, TimeUnit.SECONDS);
+				return new Sysprop("sf1");
+			}
+		};
+		List<Future<Object>> results = new ArrayList<Future<Object>>();
+		for (int i = 0; i < 10; i++) {
+			results.add(executor.submit(new Callable<Object>() {
+				public Object call() throws Exception {
+					try {
+						return sf.load("app", "sf1", loader);
+					} catch (Throwable t) {
+						throw new Exception(t);
+					}
+				}
+			}));
+		}
+		waitForFlights(sf, 1);
+		Thread.sleep(200);
+		release.countDown();
+		for (Future<Object> result : results) {
+			assertEquals("sf1", ((Sysprop) result.get()).getId());
+		}
+		assertEquals(1, loads.get());
+		assertEquals(0, sf.getInFlightCount());
+	}
+
+	@Test
+	public void testBatchLoadsOnlyIdsNotInFlight() throws Exception {
+		final SingleFlight sf = new SingleFlight(10000);
+		final List<List<String>> loaded = Collections.synchronizedList(new ArrayList<List<String>>());
+		final CountDownLatch release = new CountDownLatch(1);
+		final SingleFlight.BatchLoader loader = new SingleFlight.BatchLoader() {
+			public Map<String, ?> load(List<String> ids) throws Throwable {
+				loaded.add(new ArrayList<String>(ids));
+				release.await(10, TimeUnit.SECONDS);
+				Map<String, Object> result = new LinkedHashMap<String, Object>();
+				for (String id : ids) {
+					if (!"missing".equals(id)) {
+						result.put(id, new Sysprop(id));
+					}
+				}
+				return result;
+			}
+		};
+		Future<Map<String, Object>> first = loadAll(sf, Arrays.asList("1", "2"), loader);
+		waitForFlights(sf, 2);
+		Future<Map<String, Object>> second = loadAll(sf, Arrays.asList("2", "3", "missing"), loader);
+		waitForFlights(sf, 4);
+		release.countDown();
+		assertEquals(2, first.get().size());
+		Map<String, Object> secondResult = second.get();
+		assertEquals(2, secondResult.size());
+		assertEquals("2", ((Sysprop) secondResult.get("2")).getId());
+		assertFalse(secondResult.containsKey("missing"));
+		assertEquals(2, loaded.size());
+		assertTrue(loaded.contains(Arrays.asList("1", "2")));
+		assertTrue(loaded.contains(Arrays.asList("3", "missing")));
+		assertEquals(0, sf.getInFlightCount());
+	}
+
+	@Test
+	public void testTimeoutAndNestedLoads() throws Throwable {
+		final SingleFlight sf = new SingleFlight(100);
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger loads = new AtomicInteger();
+		Future<Object> slow = executor.submit(new Callable<Object>() {
+			public Object call() throws Exception {
+				try {
+					return sf.load("app", "slow", new SingleFlight.Loader() {
+						public Object load() throws Throwable {
+							loads.incrementAndGet();
+							release.await(10, TimeUnit.SECONDS);
+							return "slow";
+						}
+					});
+				} catch (Throwable t) {
+					throw new Exception(t);
+				}
+			}
+		});
+		waitForFlights(sf, 1);
+		// the waiter gives up after the timeout and loads the object itself
+		assertEquals("fast", sf.load("app", "slow", new SingleFlight.Loader() {
+			public Object load() throws Throwable {
+				loads.incrementAndGet();
+				return "fast";
+			}
+		}));
+		release.countDown();
+		assertEquals("slow", slow.get());
+		assertEquals(2, loads.get());
+
+		// a load of the same object while loading it doesn't wait for itself
+		assertEquals("inner", sf.load("app", "nested", new SingleFlight.Loader() {
+			public Object load() throws Throwable {
+				return sf.load("app", "nested", new SingleFlight.Loader() {
+					public Object load() throws Throwable {
+						return "inner";
+					}
+				});
+			}
+		}));
+
+		// errors are passed on to the waiting threads
+		try {
+			sf.load("app", "error", new SingleFlight.Loader() {
+				public Object load() throws Throwable {
+					throw new IllegalStateException("db is down");
+				}
+			});
+			fail();
+		} catch (IllegalStateException e) {
+			assertEquals(0, sf.getInFlightCount());
+		}
+	}
+
+	private Future<Map<String, Object>> loadAll(final SingleFlight sf, final List<String> ids,
+			final SingleFlight.BatchLoader loader) {
+		return executor.submit(new Callable<Map<String, Object>>() {
+			public Map<String, Object> call() throws Exception {
+				try {
+					return sf.loadAll("app", ids, loader);
+				} catch (Throwable t) {
+					throw new Exception(t);
+				}
+			}
+		});
+	}
+
+	private static void waitForFlights(SingleFlight sf, int count) throws InterruptedException {
+		for (int i = 0; i < 500 && sf.getInFlightCount() < count; i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(count, sf.getInFlightCount());
+	}
+}
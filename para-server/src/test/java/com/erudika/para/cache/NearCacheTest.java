@@ -0,0 +1,137 @@
+/*
+ * Copyright 2013-2016 Erudika. https://erudika.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * For issues and patches go to: https://github.com/erudika
+ */
+package com.erudika.para.cache;
+
+import com.erudika.para.core.Sysprop;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author Alex Bogdanovski [alex@erudika.com]
+ */
+public class NearCacheTest {
+
+	@Test
+	public void testBinaryFormat() {
+		NearCache nc = new NearCache(10, 60, true);
+		Sysprop s = new Sysprop("nc1");
+		s.setName("before");
+		nc.put("app", "nc1", s, 0);
+		s.setName("after");
+		Sysprop first = nc.get("app", "nc1");
+		assertEquals("before", first.getName());
+		// each read returns a copy, so changes to it don't leak into the cache
+		first.setName("changed");
+		assertNotSame(first, nc.get("app", "nc1"));
+		assertEquals("before", ((Sysprop) nc.get("app", "nc1")).getName());
+		assertNull(nc.get("app", "missing"));
+		assertNull(nc.get("other", "nc1"));
+		assertEquals(3, nc.getHits());
+		assertEquals(2, nc.getMisses());
+
+		// objects which can't be serialized aren't cached
+		nc.put("app", "obj", new Object(), 0);
+		assertFalse(nc.contains("app", "obj"));
+	}
+
+	@Test
+	public void testObjectFormat() {
+		NearCache nc = new NearCache(10, 60, false);
+		Object obj = new Object();
+		nc.put("app", "obj", obj, 0);
+		assertSame(obj, nc.get("app", "obj"));
+	}
+
+	@Test
+	public void testEviction() {
+		NearCache nc = new NearCache(3, 60, false);
+		nc.put("app", "1", "1", 0);
+		nc.put("app", "2", "2", 0);
+		nc.put("app", "3", "3", 0);
+		// "1" is now the most recently used
+		assertEquals("1", nc.get("app", "1"));
+		nc.put("app", "4", "4", 0);
+		assertEquals(3, nc.size());
+		assertTrue(nc.contains("app", "1"));
+		assertFalse(nc.contains("app", "2"));
+		assertTrue(nc.contains("app", "4"));
+	}
+
+	@Test
+	public void testExpiryAndInvalidation() throws InterruptedException {
+		NearCache nc = new NearCache(10, 60, false);
+		nc.put("app1", "short", "short", 1);
+		nc.put("app1", "a", "a", 0);
+		nc.put("app1", "b", "b", 0);
+		nc.put("app2", "a", "a", 0);
+		assertTrue(nc.contains("app1", "short"));
+
+		nc.invalidate("app1", "a");
+		assertNull(nc.get("app1", "a"));
+		assertEquals("a", nc.get("app2", "a"));
+		nc.invalidateAll("app1");
+		assertNull(nc.get("app1", "b"));
+		assertEquals("a", nc.get("app2", "a"));
+
+		Thread.sleep(1100);
+		assertFalse(nc.contains("app1", "short"));
+		assertNull(nc.get("app1", "short"));
+		nc.clear();
+		assertEquals(0, nc.size());
+	}
+
+	@Test
+	public void testInvalidationDuringRead() {
+		NearCache nc = new NearCache(10, 60, false);
+		long sequence = nc.getSequence("app", "race");
+		// another node changes the object while it's read from the distributed cache
+		nc.invalidate("app", "race");
+		assertFalse(nc.put("app", "race", "stale", 0, sequence));
+		assertFalse(nc.contains("app", "race"));
+
+		sequence = nc.getSequence("app", "race");
+		assertTrue(nc.put("app", "race", "fresh", 0, sequence));
+		assertEquals("fresh", nc.get("app", "race"));
+		sequence = nc.getSequence("app", "race2");
+		nc.invalidateAll("app");
+		assertFalse(nc.put("app", "race2", "stale", 0, sequence));
+	}
+
+	@Test
+	public void testSegmentedSize() throws InterruptedException {
+		final NearCache nc = new NearCache(1000, 60, false);
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			final int offset = t * 1000;
+			threads[t] = new Thread(new Runnable() {
+				public void run() {
+					for (int i = 0; i < 1000; i++) {
+						nc.put("app", "seg" + (offset + i), "obj", 0);
+						nc.get("app", "seg" + (offset + i / 2));
+					}
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(1000, nc.size());
+	}
+}
@@ -56,6 +56,16 @@ public class AppTest {
 		assertNotNull(app.create());
 	}
 
+	@Test
+	public void testExpiresAt() {
+		App app = new App("expiring");
+		app.setDeleteOn(1L);
+		// deleteOn doesn't make apps expire unless it's enabled
+		assertNull(app.getExpiresAt());
+		app.setExpiresAt(2L);
+		assertEquals(2L, app.getExpiresAt().longValue());
+	}
+
 	@Test
 	public void testSetId() {
 		App app = new App();
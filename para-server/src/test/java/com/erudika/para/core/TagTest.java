@@ -108,6 +108,7 @@ public class TagTest {
 		assertTrue(t.exists());
 
 		t.setCount(2);
+		t.update();
 		t.decrementCount();
 		assertEquals(1, t.getCount().intValue());
 		t.decrementCount();
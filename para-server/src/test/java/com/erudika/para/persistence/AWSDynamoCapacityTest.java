@@ -0,0 +1,130 @@
+/*
+ * Copyright 2013-2016 Erudika. https://erudika.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * For issues and patches go to: https://github.com/erudika
+ */
+package com.erudika.para.persistence;
+
+import com.amazonaws.services.dynamodbv2.model.ConsumedCapacity;
+import com.erudika.para.persistence.AWSDynamoCapacity.TokenBucket;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author Alex Bogdanovski [alex@erudika.com]
+ */
+public class AWSDynamoCapacityTest {
+
+	private static final long SEC = TimeUnit.SECONDS.toNanos(1);
+
+	@Test
+	public void testTokenBucket() {
+		TokenBucket bucket = new TokenBucket(100, 0);
+		assertEquals(100, bucket.getTokens(0), 0.001);
+		assertEquals(0, bucket.getWaitMillis(0, 0));
+		assertEquals(0, bucket.getWaitMillis(1, 0));
+
+		// 70 units used - interactive requests go on, background work waits for the reserve
+		bucket.consume(70, 0);
+		assertEquals(0, bucket.getWaitMillis(0, 0));
+		assertEquals(200, bucket.getWaitMillis(0.5, 0));
+		assertEquals(0, bucket.getWaitMillis(0.5, SEC / 5));
+
+		// in debt - everyone waits
+		bucket.consume(80, SEC / 5);
+		assertEquals(-30, bucket.getTokens(SEC / 5), 0.001);
+		assertEquals(300, bucket.getWaitMillis(0, SEC / 5));
+		assertEquals(800, bucket.getWaitMillis(0.5, SEC / 5));
+
+		// never more than one second's worth of tokens
+		assertEquals(100, bucket.getTokens(10 * SEC), 0.001);
+	}
+
+	@Test
+	public void testConsumedCapacityMetrics() {
+		String table = "capacity-test";
+		assertTrue(AWSDynamoCapacity.getMetrics(table).isEmpty());
+		assertTrue(AWSDynamoCapacity.getMetrics(null).isEmpty());
+
+		AWSDynamoCapacity.consumedRead(new ConsumedCapacity().withTableName(table).withCapacityUnits(0.5));
+		AWSDynamoCapacity.consumedRead(Arrays.asList(new ConsumedCapacity().withTableName(table).
+				withCapacityUnits(2.0), null, new ConsumedCapacity().withTableName(table)));
+		AWSDynamoCapacity.consumedWrite(new ConsumedCapacity().withTableName(table).withCapacityUnits(3.0));
+		AWSDynamoCapacity.consumedWrite((ConsumedCapacity) null);
+		AWSDynamoCapacity.acquireRead(table);
+		AWSDynamoCapacity.acquireWrite(table);
+
+		Map<String, Object> metrics = AWSDynamoCapacity.getMetrics(table);
+		assertEquals(2.5, (Double) metrics.get("consumedReadCapacityUnits"), 0.001);
+		assertEquals(3.0, (Double) metrics.get("consumedWriteCapacityUnits"), 0.001);
+		assertEquals(2L, metrics.get("readRequests"));
+		assertEquals(1L, metrics.get("writeRequests"));
+		assertEquals(0L, metrics.get("delayedRequests"));
+		assertTrue(AWSDynamoCapacity.getMetrics().containsKey(table));
+	}
+
+	@Test
+	public void testRunInBackground() {
+		final AtomicBoolean inner = new AtomicBoolean();
+		assertFalse(DAOUtils.isBackgroundWork());
+		DAOUtils.runInBackground(new Runnable() {
+			public void run() {
+				DAOUtils.runInBackground(new Runnable() {
+					public void run() {
+						inner.set(DAOUtils.isBackgroundWork());
+					}
+				});
+				assertTrue(DAOUtils.isBackgroundWork());
+			}
+		});
+		assertTrue(inner.get());
+		assertFalse(DAOUtils.isBackgroundWork());
+	}
+
+	@Test
+	public void testInheritBackgroundWork() throws Exception {
+		final AtomicBoolean background = new AtomicBoolean();
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			final Runnable task = new Runnable() {
+				public void run() {
+					background.set(DAOUtils.isBackgroundWork());
+				}
+			};
+			executor.submit(DAOUtils.inheritBackgroundWork(task)).get();
+			assertFalse(background.get());
+			DAOUtils.runInBackground(new Runnable() {
+				public void run() {
+					try {
+						executor.submit(DAOUtils.inheritBackgroundWork(task)).get();
+					} catch (Exception e) {
+						throw new IllegalStateException(e);
+					}
+				}
+			});
+			assertTrue(background.get());
+			assertEquals(0, AWSDynamoCapacity.getReadDelay("test-table"));
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
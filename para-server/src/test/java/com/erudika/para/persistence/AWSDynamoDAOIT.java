@@ -242,4 +242,30 @@ public class AWSDynamoDAOIT extends DAOTest {
 		assertEquals(1, dao().readPage(app4.getAppIdentifier(), null).size());
 	}
 
+	@Test
+	public void testReadAllParallelBatches() {
+		ArrayList<Sysprop> list = new ArrayList<Sysprop>();
+		ArrayList<String> ids = new ArrayList<String>();
+		for (int i = 0; i < 250; i++) {
+			Sysprop s = new Sysprop("batch_" + i);
+			list.add(s);
+			ids.add(s.getId());
+		}
+		dao().createAll(appid1, list);
+		ids.add(0, "batch_missing");
+		ids.add("batch_5"); // duplicate
+
+		Map<String, Sysprop> results = dao().readAll(appid1, ids, true);
+		assertEquals(251, results.size());
+		assertNull(results.get("batch_missing"));
+		int i = 0;
+		for (Map.Entry<String, Sysprop> entry : results.entrySet()) {
+			assertEquals(ids.get(i++), entry.getKey());
+			if (entry.getValue() != null) {
+				assertEquals(entry.getKey(), entry.getValue().getId());
+			}
+		}
+		dao().deleteAll(appid1, list);
+	}
+
 }
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2013-2016 Erudika. https://erudika.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * For issues and patches go to: https://github.com/erudika
+ */
+package com.erudika.para.persistence;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.dynamodbv2.AmazonDynamoDBClient;
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.amazonaws.services.dynamodbv2.model.BatchGetItemRequest;
+import com.amazonaws.services.dynamodbv2.model.BatchGetItemResult;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemRequest;
+import com.amazonaws.services.dynamodbv2.model.BatchWriteItemResult;
+import com.amazonaws.services.dynamodbv2.model.KeysAndAttributes;
+import com.amazonaws.services.dynamodbv2.model.WriteRequest;
+import com.erudika.para.core.Sysprop;
+import com.erudika.para.utils.Config;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import static org.mockito.Mockito.*;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+/**
+ *
+ * @author Alex Bogdanovski [alex@erudika.com]
+ */
+public class AWSDynamoDAOTest {
+
+	private static final String APPID = "dynamo-batch";
+
+	@Test
+	public void testCreateAllWaitsForRetries() {
+		AmazonDynamoDBClient client = mock(AmazonDynamoDBClient.class);
+		AWSDynamoDAO dao = spy(new AWSDynamoDAO(Executors.newSingleThreadScheduledExecutor()));
+		doReturn(client).when(dao).client();
+		final BatchWriteItemRequest[] first = new BatchWriteItemRequest[1];
+		when(client.batchWriteItem(any(BatchWriteItemRequest.class))).then(new Answer<BatchWriteItemResult>() {
+			public BatchWriteItemResult answer(InvocationOnMock invocation) {
+				BatchWriteItemRequest req = (BatchWriteItemRequest) invocation.getArguments()[0];
+				if (first[0] == null) {
+					first[0] = req;
+					// the last item is throttled on the first attempt
+					Map.Entry<String, List<WriteRequest>> table = req.getRequestItems().entrySet().iterator().next();
+					List<WriteRequest> items = table.getValue();
+					return new BatchWriteItemResult().withUnprocessedItems(Collections.singletonMap(table.getKey(),
+							Collections.singletonList(items.get(items.size() - 1))));
+				}
+				return new BatchWriteItemResult();
+			}
+		});
+		dao.createAll(APPID, Arrays.asList(new Sysprop("bw1"), new Sysprop("bw2"), new Sysprop("bw3")));
+		// the throttled item was written again before createAll() returned
+		verify(client, times(2)).batchWriteItem(any(BatchWriteItemRequest.class));
+	}
+
+	@Test
+	public void testUnwrittenObjectsAreReported() {
+		AmazonDynamoDBClient client = mock(AmazonDynamoDBClient.class);
+		AWSDynamoDAO dao = spy(new AWSDynamoDAO(Executors.newSingleThreadScheduledExecutor()));
+		doReturn(client).when(dao).client();
+		when(client.batchWriteItem(any(BatchWriteItemRequest.class))).
+				thenReturn(new BatchWriteItemResult()).
+				thenThrow(new AmazonClientException("Connection reset"));
+		List<Sysprop> objects = new ArrayList<Sysprop>();
+		for (int i = 0; i < 15; i++) {
+			objects.add(new Sysprop("bw" + i));
+		}
+		try {
+			dao.createAll(APPID, objects);
+			fail("Unwritten objects were not reported.");
+		} catch (BatchWriteException e) {
+			// the first batch of 10 objects was written, the second one failed
+			assertEquals(5, e.getUnwrittenCount());
+			assertEquals(Arrays.asList("bw10", "bw11", "bw12", "bw13", "bw14"), e.getUnwritten(APPID));
+			assertTrue(e.getUnwritten("other").isEmpty());
+		}
+	}
+
+	@Test
+	public void testUnreadKeysAreReported() {
+		AmazonDynamoDBClient client = mock(AmazonDynamoDBClient.class);
+		AWSDynamoDAO dao = spy(new AWSDynamoDAO(Executors.newSingleThreadScheduledExecutor()));
+		doReturn(client).when(dao).client();
+		when(client.batchGetItem(any(BatchGetItemRequest.class))).then(new Answer<BatchGetItemResult>() {
+			public BatchGetItemResult answer(InvocationOnMock invocation) {
+				BatchGetItemRequest req = (BatchGetItemRequest) invocation.getArguments()[0];
+				Map.Entry<String, KeysAndAttributes> table = req.getRequestItems().entrySet().iterator().next();
+				List<Map<String, AttributeValue>> keys = table.getValue().getKeys();
+				if (keys.size() < 3) {
+					throw new AmazonClientException("Connection reset");
+				}
+				// the first key is read, the others are throttled
+				Map<String, AttributeValue> item = new HashMap<String, AttributeValue>(keys.get(0));
+				item.put(Config._ID, new AttributeValue(keys.get(0).get(Config._KEY).getS()));
+				item.put(Config._TYPE, new AttributeValue("sysprop"));
+				return new BatchGetItemResult().
+						withResponses(Collections.singletonMap(table.getKey(), Collections.singletonList(item))).
+						withUnprocessedKeys(Collections.singletonMap(table.getKey(),
+								new KeysAndAttributes().withKeys(keys.subList(1, keys.size()))));
+			}
+		});
+		try {
+			dao.readAll(APPID, Arrays.asList("br1", "br2", "br3"), true);
+			fail("Unread objects were not reported.");
+		} catch (BatchReadException e) {
+			assertEquals(2, e.getUnreadCount());
+			assertEquals(Arrays.asList("br2", "br3"), e.getUnread(APPID));
+			assertTrue(e.getCause() instanceof AmazonClientException);
+		}
+	}
+}
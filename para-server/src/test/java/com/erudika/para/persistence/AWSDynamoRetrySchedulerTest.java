@@ -0,0 +1,68 @@
+/*
+ * Copyright 2013-2016 Erudika. https://erudika.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * For issues and patches go to: https://github.com/erudika
+ */
+package com.erudika.para.persistence;
+
+import static com.erudika.para.persistence.AWSDynamoRetryScheduler.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author Alex Bogdanovski [alex@erudika.com]
+ */
+public class AWSDynamoRetrySchedulerTest {
+
+	@Test
+	public void testGetBackoffDelay() {
+		for (int attempt = 0; attempt < 40; attempt++) {
+			long delay = getBackoffDelay(attempt);
+			assertTrue(delay >= 0);
+			assertTrue(delay <= Math.min(MAX_DELAY_MS, BASE_DELAY_MS * (1L << Math.min(attempt, 30))));
+		}
+		assertTrue(getBackoffDelay(-1) <= BASE_DELAY_MS);
+	}
+
+	@Test
+	public void testScheduleRetry() throws InterruptedException {
+		long throttled = getThrottledItemsCount();
+		long retried = getRetriedItemsCount();
+		long failed = getFailedItemsCount();
+		final CountDownLatch latch = new CountDownLatch(1);
+
+		assertTrue(scheduleRetry(0, 3, new Runnable() {
+			public void run() {
+				latch.countDown();
+			}
+		}));
+		assertTrue(latch.await(10, TimeUnit.SECONDS));
+		assertEquals(throttled + 3, getThrottledItemsCount());
+		assertEquals(retried + 3, getRetriedItemsCount());
+		assertEquals(failed, getFailedItemsCount());
+
+		assertFalse(scheduleRetry(MAX_RETRIES, 2, new Runnable() {
+			public void run() {
+				fail("Retried after the maximum number of attempts.");
+			}
+		}));
+		assertEquals(throttled + 5, getThrottledItemsCount());
+		assertEquals(retried + 3, getRetriedItemsCount());
+		assertEquals(failed + 2, getFailedItemsCount());
+	}
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2013-2016 Erudika. https://erudika.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * For issues and patches go to: https://github.com/erudika
+ */
+package com.erudika.para.persistence;
+
+import com.amazonaws.services.dynamodbv2.model.AttributeValue;
+import com.erudika.para.core.Sysprop;
+import com.erudika.para.core.utils.ParaObjectUtils;
+import static com.erudika.para.persistence.AWSDynamoUtils.*;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author Alex Bogdanovski [alex@erudika.com]
+ */
+public class AWSDynamoUtilsTest {
+
+	@Test
+	public void testToAttributeValue() {
+		assertTrue(toAttributeValue(null).getNULL());
+		assertTrue(toAttributeValue("").getNULL());
+		assertEquals("abc", toAttributeValue("abc").getS());
+		assertEquals("5", toAttributeValue(5).getN());
+		assertEquals("123456789012", toAttributeValue(123456789012L).getN());
+		assertEquals("1.5", toAttributeValue(1.5).getN());
+		assertEquals("NaN", toAttributeValue(Double.NaN).getS());
+		assertTrue(toAttributeValue(true).getBOOL());
+		assertEquals(2, toAttributeValue(new LinkedHashSet<String>(Arrays.asList("a", "b"))).getSS().size());
+		assertEquals(3, toAttributeValue(Arrays.asList("a", 1, false)).getL().size());
+		assertEquals(2, toAttributeValue(new String[]{"a", "b"}).getL().size());
+		assertEquals(0, toAttributeValue(new LinkedHashSet<String>()).getL().size());
+
+		Map<String, Object> map = new HashMap<String, Object>();
+		map.put("num", 1);
+		map.put("list", Arrays.asList("x", ""));
+		map.put("nested", new HashMap<String, Object>());
+		AttributeValue m = toAttributeValue(map);
+		assertEquals("1", m.getM().get("num").getN());
+		assertTrue(m.getM().get("list").getL().get(1).getNULL());
+		assertTrue(m.getM().get("nested").getM().isEmpty());
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testFromAttributeValue() {
+		assertNull(fromAttributeValue(null));
+		assertNull(fromAttributeValue(new AttributeValue().withNULL(true)));
+		assertEquals("abc", fromAttributeValue(new AttributeValue("abc")));
+		assertEquals(5, fromAttributeValue(new AttributeValue().withN("5")));
+		assertEquals(123456789012L, fromAttributeValue(new AttributeValue().withN("123456789012")));
+		assertEquals(1.5, fromAttributeValue(new AttributeValue().withN("1.5")));
+		assertEquals(Boolean.FALSE, fromAttributeValue(new AttributeValue().withBOOL(false)));
+		assertEquals(Arrays.asList("a"), fromAttributeValue(new AttributeValue().withSS("a")));
+
+		Map<String, Object> map = new HashMap<String, Object>();
+		map.put("num", 1);
+		map.put("bool", true);
+		map.put("list", Arrays.asList("x", 2L + Integer.MAX_VALUE));
+		assertEquals(map, fromAttributeValue(toAttributeValue(map)));
+		assertEquals(Arrays.asList("x", null), (List<Object>) fromAttributeValue(toAttributeValue(
+				Arrays.asList("x", ""))));
+	}
+
+	@Test
+	public void testRowRoundTrip() {
+		Sysprop s = new Sysprop("123");
+		s.setName("test");
+		s.setTags(Arrays.asList("one", "two"));
+		s.setTimestamp(1234567890123L);
+		s.addProperty("count", 3);
+		s.addProperty("flag", true);
+		s.addProperty("nested", new HashMap<String, Object>() { {
+			put("list", Arrays.asList(1, 2, 3));
+		} });
+
+		Map<String, Object> row = new HashMap<String, Object>();
+		for (Map.Entry<String, Object> entry : ParaObjectUtils.getAnnotatedFields(s, null, false).entrySet()) {
+			if (entry.getValue() != null) {
+				row.put(entry.getKey(), fromAttributeValue(toAttributeValue(entry.getValue())));
+			}
+		}
+		Sysprop s2 = ParaObjectUtils.setAnnotatedFields(row);
+		assertNotNull(s2);
+		assertEquals(s.getId(), s2.getId());
+		assertEquals(s.getTimestamp(), s2.getTimestamp());
+		assertEquals(s.getTags(), s2.getTags());
+		assertEquals(3, s2.getProperty("count"));
+		assertEquals(true, s2.getProperty("flag"));
+		assertEquals(Arrays.asList(1, 2, 3), ((Map<?, ?>) s2.getProperty("nested")).get("list"));
+
+		// rows written before native types were supported store nested objects as JSON strings
+		Map<String, Object> oldRow = new HashMap<String, Object>(ParaObjectUtils.getAnnotatedFields(s));
+		Sysprop s3 = ParaObjectUtils.setAnnotatedFields(oldRow);
+		assertNotNull(s3);
+		assertEquals(s.getTags(), s3.getTags());
+		assertEquals(3, s3.getProperty("count"));
+	}
+}
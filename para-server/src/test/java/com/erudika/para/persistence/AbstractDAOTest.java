@@ -0,0 +1,114 @@
+/*
+ * Copyright 2013-2016 Erudika. https://erudika.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * For issues and patches go to: https://github.com/erudika
+ */
+package com.erudika.para.persistence;
+
+import com.erudika.para.core.ParaObject;
+import com.erudika.para.utils.Config;
+import com.erudika.para.utils.Pager;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs the DAO tests against the fallbacks of {@link AbstractDAO}.
+ * @author Alex Bogdanovski [alex@erudika.com]
+ */
+public class AbstractDAOTest extends DAOTest {
+
+	public AbstractDAOTest() {
+		super(new BasicDAO());
+	}
+
+	/**
+	 * A DAO which implements only the basic operations, like a plugin written against the older interface.
+	 */
+	private static class BasicDAO extends AbstractDAO {
+		private final MockDAO dao = new MockDAO();
+
+		public <P extends ParaObject> String create(String appid, P so) {
+			return dao.create(appid, so);
+		}
+
+		public <P extends ParaObject> String create(P so) {
+			return create(Config.APP_NAME_NS, so);
+		}
+
+		public <P extends ParaObject> P read(String appid, String key) {
+			return dao.read(appid, key);
+		}
+
+		public <P extends ParaObject> P read(String key) {
+			return read(Config.APP_NAME_NS, key);
+		}
+
+		public <P extends ParaObject> void update(String appid, P so) {
+			dao.update(appid, so);
+		}
+
+		public <P extends ParaObject> void update(P so) {
+			update(Config.APP_NAME_NS, so);
+		}
+
+		public <P extends ParaObject> void delete(String appid, P so) {
+			dao.delete(appid, so);
+		}
+
+		public <P extends ParaObject> void delete(P so) {
+			delete(Config.APP_NAME_NS, so);
+		}
+
+		public <P extends ParaObject> void createAll(String appid, List<P> objects) {
+			dao.createAll(appid, objects);
+		}
+
+		public <P extends ParaObject> void createAll(List<P> objects) {
+			createAll(Config.APP_NAME_NS, objects);
+		}
+
+		public <P extends ParaObject> Map<String, P> readAll(String appid, List<String> keys, boolean getAllColumns) {
+			return dao.readAll(appid, keys, getAllColumns);
+		}
+
+		public <P extends ParaObject> Map<String, P> readAll(List<String> keys, boolean getAllColumns) {
+			return readAll(Config.APP_NAME_NS, keys, getAllColumns);
+		}
+
+		public <P extends ParaObject> List<P> readPage(String appid, Pager pager) {
+			return dao.readPage(appid, pager);
+		}
+
+		public <P extends ParaObject> List<P> readPage(Pager pager) {
+			return readPage(Config.APP_NAME_NS, pager);
+		}
+
+		public <P extends ParaObject> void updateAll(String appid, List<P> objects) {
+			dao.updateAll(appid, objects);
+		}
+
+		public <P extends ParaObject> void updateAll(List<P> objects) {
+			updateAll(Config.APP_NAME_NS, objects);
+		}
+
+		public <P extends ParaObject> void deleteAll(String appid, List<P> objects) {
+			dao.deleteAll(appid, objects);
+		}
+
+		public <P extends ParaObject> void deleteAll(List<P> objects) {
+			deleteAll(Config.APP_NAME_NS, objects);
+		}
+	}
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2013-2016 Erudika. https://erudika.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * For issues and patches go to: https://github.com/erudika
+ */
+package com.erudika.para.persistence;
+
+import com.erudika.para.core.Sysprop;
+import com.erudika.para.utils.Pager;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.AfterClass;
+import static org.junit.Assert.*;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ *
+ * @author Alex Bogdanovski [alex@erudika.com]
+ */
+public class AsyncDAOAdapterTest {
+
+	private static final String APPID = "async-app";
+	private static ExecutorService executor;
+	private static AsyncDAO dao;
+
+	@BeforeClass
+	public static void setUpClass() {
+		executor = Executors.newFixedThreadPool(2);
+		dao = new AsyncDAOAdapter(new MockDAO(), executor);
+	}
+
+	@AfterClass
+	public static void tearDownClass() {
+		executor.shutdown();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNullDAO() {
+		new AsyncDAOAdapter(null, executor);
+	}
+
+	@Test
+	public void testCRUD() throws Exception {
+		Sysprop s1 = new Sysprop("async1");
+		Sysprop s2 = new Sysprop("async2");
+		s1.setName("Async 1");
+
+		CompletableFuture<String> c1 = dao.createAsync(APPID, s1);
+		CompletableFuture<String> c2 = dao.createAsync(APPID, s2);
+		assertEquals(s1.getId(), c1.get());
+		assertEquals(s2.getId(), c2.get());
+
+		Sysprop r1 = dao.<Sysprop>readAsync(APPID, s1.getId()).get();
+		assertNotNull(r1);
+		assertEquals("Async 1", r1.getName());
+		assertNull(dao.readAsync(APPID, "async-missing").get());
+
+		s1.setName("Async 1 updated");
+		dao.updateAsync(APPID, s1).get();
+		assertEquals("Async 1 updated", dao.<Sysprop>readAsync(APPID, s1.getId()).get().getName());
+
+		Map<String, Sysprop> all = dao.<Sysprop>readAllAsync(APPID, Arrays.asList(s1.getId(), s2.getId()), true).get();
+		assertEquals(2, all.size());
+		assertTrue(all.containsKey(s2.getId()));
+		assertEquals(2, dao.readPageAsync(APPID, new Pager(10)).get().size());
+
+		dao.deleteAsync(APPID, s1).get();
+		dao.deleteAsync(APPID, s2).get();
+		assertNull(dao.readAsync(APPID, s1.getId()).get());
+		assertNull(dao.readAsync(APPID, s2.getId()).get());
+	}
+}
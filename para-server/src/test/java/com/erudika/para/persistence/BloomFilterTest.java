@@ -0,0 +1,73 @@
+/*
+ * Copyright 2013-2016 Erudika. https://erudika.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * For issues and patches go to: https://github.com/erudika
+ */
+package com.erudika.para.persistence;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author Alex Bogdanovski [alex@erudika.com]
+ */
+public class BloomFilterTest {
+
+	@Test
+	public void testNoFalseNegatives() {
+		BloomFilter filter = new BloomFilter(10000, 0.01);
+		assertFalse(filter.mightContain(null));
+		assertFalse(filter.mightContain("id0"));
+		for (int i = 0; i < 10000; i++) {
+			filter.add("id" + i);
+		}
+		filter.add(null);
+		for (int i = 0; i < 10000; i++) {
+			assertTrue(filter.mightContain("id" + i));
+		}
+		assertFalse(filter.isSaturated());
+		assertTrue(filter.getCount() > 9900);
+
+		int falsePositives = 0;
+		for (int i = 0; i < 10000; i++) {
+			if (filter.mightContain("missing" + i)) {
+				falsePositives++;
+			}
+		}
+		assertTrue("false positives: " + falsePositives, falsePositives < 300);
+	}
+
+	@Test
+	public void testWriteAndRead() throws IOException {
+		BloomFilter filter = new BloomFilter(1000, 0.001);
+		for (int i = 0; i < 500; i++) {
+			filter.add("obj:" + i);
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		filter.writeTo(new DataOutputStream(bytes));
+		BloomFilter copy = BloomFilter.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+		assertEquals(filter.getCount(), copy.getCount());
+		assertEquals(1000, copy.getExpectedItems());
+		for (int i = 0; i < 1000; i++) {
+			assertEquals(filter.mightContain("obj:" + i), copy.mightContain("obj:" + i));
+		}
+	}
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2013-2016 Erudika. https://erudika.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * For issues and patches go to: https://github.com/erudika
+ */
+package com.erudika.para.persistence;
+
+import com.erudika.para.persistence.ChangeEvent.Operation;
+import com.erudika.para.persistence.ChangeStream.Subscription;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ * @author Alex Bogdanovski [alex@erudika.com]
+ */
+public class ChangeStreamTest {
+
+	private ScheduledExecutorService scheduler;
+	private ChangeStream stream;
+
+	@Before
+	public void setUp() {
+		scheduler = Executors.newSingleThreadScheduledExecutor();
+		stream = new ChangeStream(8, scheduler);
+	}
+
+	@After
+	public void tearDown() {
+		scheduler.shutdownNow();
+	}
+
+	private void publish(int count) {
+		for (int i = 0; i < count; i++) {
+			stream.publish(Operation.UPDATE, "app", "id" + stream.getHead(), "sysprop", Collections.singleton("name"), 1L);
+		}
+	}
+
+	@Test
+	public void testIndependentSubscribers() {
+		assertEquals(8, new ChangeStream(5, scheduler).getCapacity());
+		Subscription s1 = stream.subscribe("s1");
+		assertSame(s1, stream.subscribe("s1"));
+		publish(3);
+		Subscription s2 = stream.subscribe("s2");
+		publish(2);
+		assertEquals(5, s1.getLag());
+		assertEquals(2, s2.getLag());
+
+		List<ChangeEvent> events = s1.poll(4);
+		assertEquals(4, events.size());
+		for (int i = 0; i < events.size(); i++) {
+			assertEquals(i, events.get(i).getSequence());
+			assertEquals("id" + i, events.get(i).getId());
+		}
+		assertEquals(Collections.singleton("name"), events.get(0).getFields());
+		assertEquals(1, s1.poll(10).size());
+		assertTrue(s1.poll(10).isEmpty());
+		assertEquals(0, s1.getLag());
+
+		events = s2.poll(10);
+		assertEquals(2, events.size());
+		assertEquals(3, events.get(0).getSequence());
+
+		s1.seek(1);
+		assertEquals(1, s1.poll(1).get(0).getSequence());
+		s1.close();
+		assertNull(stream.getSubscription("s1"));
+		assertEquals(1, stream.getSubscriptions().size());
+	}
+
+	@Test
+	public void testSlowSubscriberLosesOldestEvents() {
+		Subscription slow = stream.subscribe("slow");
+		publish(20);
+		assertEquals(12, stream.getTail());
+		List<ChangeEvent> events = slow.poll(100);
+		assertEquals(12, slow.getLostCount());
+		assertEquals(8, events.size());
+		assertEquals(12, events.get(0).getSequence());
+		assertEquals(19, events.get(7).getSequence());
+		assertEquals(20, slow.getOffset());
+	}
+
+	@Test
+	public void testBatchDelivery() throws InterruptedException {
+		final List<ChangeEvent> received = Collections.synchronizedList(new ArrayList<ChangeEvent>());
+		final CountDownLatch latch = new CountDownLatch(6);
+		final AtomicBoolean failed = new AtomicBoolean();
+		Subscription sub = stream.subscribe("async", 2, new Consumer<List<ChangeEvent>>() {
+			public void accept(List<ChangeEvent> events) {
+				assertTrue(events.size() <= 2);
+				// the first batch fails once and is delivered again
+				if (events.get(0).getSequence() == 0 && failed.compareAndSet(false, true)) {
+					throw new IllegalStateException("retry");
+				}
+				received.addAll(events);
+				for (ChangeEvent event : events) {
+					latch.countDown();
+				}
+			}
+		});
+		publish(6);
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+		assertTrue(failed.get());
+		assertEquals(6, received.size());
+		for (int i = 0; i < received.size(); i++) {
+			assertEquals(i, received.get(i).getSequence());
+		}
+		sub.close();
+	}
+}
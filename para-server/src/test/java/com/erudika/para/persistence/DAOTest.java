@@ -27,7 +27,15 @@ import com.erudika.para.utils.Pager;
 import com.erudika.para.utils.Utils;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import static org.junit.Assert.*;
 import org.junit.Before;
 import org.junit.Ignore;
@@ -121,6 +129,8 @@ public abstract class DAOTest {
 
 		dao.delete(u);
 		dao.delete(t);
+		dao.delete(app);
+		dao.delete(tag);
 	}
 
 	@Test
@@ -142,6 +152,29 @@ public abstract class DAOTest {
 		dao.delete(u);
 	}
 
+	@Test
+	public void testReadFields() {
+		User u = u();
+		dao.create(u);
+		Set<String> fields = new HashSet<String>(Arrays.asList("name", "email"));
+
+		assertNull(dao.read(null, fields));
+		assertNull(dao.read("1", fields));
+		User partial = dao.read(u.getId(), fields);
+		assertNotNull(partial);
+		assertEquals(u.getId(), partial.getId());
+		assertEquals(u.getType(), partial.getType());
+		assertEquals(u.getName(), partial.getName());
+		assertEquals(u.getEmail(), partial.getEmail());
+		assertEquals(u.getName(), ((User) dao.read(u.getId(), (Set<String>) null)).getName());
+
+		Map<String, User> all = dao.readAll(Arrays.asList(u.getId(), "1"), fields);
+		assertEquals(u.getEmail(), all.get(u.getId()).getEmail());
+		assertNull(all.get("1"));
+
+		dao.delete(u);
+	}
+
 	@Test
 	public void testUpdate() {
 		User u = u();
@@ -304,6 +337,97 @@ public abstract class DAOTest {
 		assertEquals(parentId, tr4.getParentid());
 	}
 
+	@Test
+	public void testBatchOperationsInApps() {
+		Sysprop s1 = new Sysprop("multi1");
+		Sysprop s2 = new Sysprop("multi2");
+		Sysprop s3 = new Sysprop("multi1"); // same id in another app
+		s1.setName("app1");
+		s3.setName("app2");
+		Map<String, List<Sysprop>> objects = new LinkedHashMap<String, List<Sysprop>>();
+		objects.put(appid1, new ArrayList<Sysprop>(Arrays.asList(s1, s2)));
+		objects.put(appid2, new ArrayList<Sysprop>(Arrays.asList(s3)));
+
+		dao.createAllInApps(null);
+		dao.createAllInApps(objects);
+		assertEquals(appid1, dao.read(appid1, s2.getId()).getAppid());
+		assertNull(dao.read(appid2, s2.getId()));
+		assertEquals("app2", ((Sysprop) dao.read(appid2, "multi1")).getName());
+
+		Map<String, List<String>> keys = new LinkedHashMap<String, List<String>>();
+		keys.put(appid1, Arrays.asList("multi1", "multi2"));
+		keys.put(appid2, Arrays.asList("multi1", "multi2"));
+		assertTrue(dao.readAllFromApps(null, true).isEmpty());
+		Map<String, Map<String, Sysprop>> results = dao.readAllFromApps(keys, true);
+		assertEquals(2, results.size());
+		assertEquals("app1", results.get(appid1).get("multi1").getName());
+		assertEquals(s2, results.get(appid1).get("multi2"));
+		assertEquals("app2", results.get(appid2).get("multi1").getName());
+		assertNull(results.get(appid2).get("multi2"));
+
+		dao.deleteAllFromApps(null);
+		dao.deleteAllFromApps(objects);
+		assertNull(dao.read(appid1, "multi1"));
+		assertNull(dao.read(appid1, "multi2"));
+		assertNull(dao.read(appid2, "multi1"));
+	}
+
+	@Test
+	public void testExpiry() {
+		Sysprop expired = new Sysprop(Utils.getNewId());
+		expired.setExpiresAt(Utils.timestamp() - 1000);
+		Sysprop live = new Sysprop(Utils.getNewId());
+		live.setExpiresAt(Utils.timestamp() + 60000);
+		dao.create(appid1, expired);
+		dao.create(appid1, live);
+		assertNull(dao.read(appid1, expired.getId()));
+		assertNotNull(dao.read(appid1, live.getId()));
+
+		Map<String, Sysprop> all = dao.readAll(appid1, Arrays.asList(expired.getId(), live.getId()), true);
+		assertEquals(1, all.size());
+		assertTrue(all.containsKey(live.getId()));
+
+		// an update changes the expiry time
+		live.setExpiresAt(Utils.timestamp() - 1);
+		dao.update(appid1, live);
+		assertNull(dao.read(appid1, live.getId()));
+		dao.deleteAll(appid1, Arrays.asList(expired, live));
+	}
+
+	@Test
+	public void testCreateIfAbsentAndCompareAndSet() {
+		Sysprop s = new Sysprop(Utils.getNewId());
+		s.setName("first");
+		assertEquals(s.getId(), dao.createIfAbsent(appid1, s));
+		Sysprop s2 = new Sysprop(s.getId());
+		s2.setName("second");
+		assertNull(dao.createIfAbsent(appid1, s2));
+		assertEquals("first", ((Sysprop) dao.read(appid1, s.getId())).getName());
+
+		Sysprop read = dao.read(appid1, s.getId());
+		Long version = DAOUtils.getVersion(read);
+		assertNotNull(version);
+		read.setName("updated");
+		assertTrue(dao.compareAndSet(appid1, read, version));
+		assertTrue(read.getUpdated() > version);
+		assertEquals("updated", ((Sysprop) dao.read(appid1, s.getId())).getName());
+		// the version has changed
+		s2.setName("stale");
+		assertFalse(dao.compareAndSet(appid1, s2, version));
+		assertEquals("updated", ((Sysprop) dao.read(appid1, s.getId())).getName());
+		assertFalse(dao.compareAndSet(appid1, new Sysprop(Utils.getNewId()), version));
+
+		// an expired object counts as missing
+		Sysprop expired = new Sysprop(Utils.getNewId());
+		expired.setExpiresAt(Utils.timestamp() - 1000);
+		dao.create(appid1, expired);
+		Sysprop replacement = new Sysprop(expired.getId());
+		replacement.setName("replacement");
+		assertEquals(expired.getId(), dao.createIfAbsent(appid1, replacement));
+		assertEquals("replacement", ((Sysprop) dao.read(appid1, expired.getId())).getName());
+		dao.deleteAll(appid1, Arrays.asList(s, replacement));
+	}
+
 	@Test
 	public void testReadPage() {
 		ArrayList<Sysprop> list = new ArrayList<Sysprop>();
@@ -323,4 +447,69 @@ public abstract class DAOTest {
 		assertTrue(dao.readPage(appid3, p).isEmpty());  // end
 		assertEquals(22, p.getCount());
 	}
-}
\ No newline at end of file
+
+	@Test
+	public void testScan() {
+		String appid4 = "testapp4";
+		ArrayList<Sysprop> list = new ArrayList<Sysprop>();
+		for (int i = 0; i < 250; i++) {
+			list.add(new Sysprop("scan_" + i));
+		}
+		dao.createAll(appid4, list);
+
+		final Set<String> ids = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+		final AtomicInteger pages = new AtomicInteger();
+		Consumer<List<Sysprop>> consumer = new Consumer<List<Sysprop>>() {
+			public void accept(List<Sysprop> page) {
+				pages.incrementAndGet();
+				for (Sysprop s : page) {
+					assertTrue(ids.add(s.getId()));
+				}
+			}
+		};
+		assertEquals(0L, dao.scan(null, 4, consumer));
+		assertEquals(250L, dao.scan(appid4, 4, consumer));
+		assertEquals(250, ids.size());
+		assertTrue(pages.get() >= 4);
+
+		ids.clear();
+		assertEquals(250L, dao.scan(appid4, 1, consumer));
+		assertEquals(250, ids.size());
+		dao.deleteAll(appid4, list);
+	}
+
+	@Test
+	public void testIncrement() throws InterruptedException {
+		final Tag t = t();
+		assertNull(dao.increment(appid1, t.getId(), "count", 1));
+		dao.create(appid1, t);
+		assertEquals(4L, dao.increment(appid1, t.getId(), "count", 1).longValue());
+		assertEquals(2L, dao.increment(appid1, t.getId(), "count", -2).longValue());
+		assertNull(dao.increment(appid1, t.getId(), "name", 1));
+		assertNull(dao.increment(appid1, t.getId(), "nofield", 1));
+
+		Thread[] threads = new Thread[4];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread(new Runnable() {
+				public void run() {
+					for (int j = 0; j < 25; j++) {
+						dao.increment(appid1, t.getId(), "count", 1);
+					}
+				}
+			});
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(102, ((Tag) dao.read(appid1, t.getId())).getCount().intValue());
+
+		Sysprop s = new Sysprop("counter");
+		dao.create(appid1, s);
+		assertEquals(1L, dao.increment(appid1, s.getId(), DAOUtils.PROPERTIES_PREFIX + "hits", 1).longValue());
+		assertEquals(6L, dao.increment(appid1, s.getId(), DAOUtils.PROPERTIES_PREFIX + "hits", 5).longValue());
+		assertEquals(6, ((Sysprop) dao.read(appid1, s.getId())).getProperty("hits"));
+		dao.delete(appid1, t);
+		dao.delete(appid1, s);
+	}
+}
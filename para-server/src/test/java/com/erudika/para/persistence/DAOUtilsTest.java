@@ -0,0 +1,121 @@
+/*
+ * Copyright 2013-2016 Erudika. https://erudika.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * For issues and patches go to: https://github.com/erudika
+ */
+package com.erudika.para.persistence;
+
+import com.erudika.para.core.ParaObject;
+import com.erudika.para.core.Sysprop;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author Alex Bogdanovski [alex@erudika.com]
+ */
+public class DAOUtilsTest {
+
+	private static final int PAGES = 1000;
+
+	@Test
+	public void testWithFallbacks() {
+		assertNull(DAOUtils.withFallbacks(null));
+		DAO complete = new MockDAO();
+		assertSame(complete, DAOUtils.withFallbacks(complete));
+		DAO adapter = new LegacyDAOAdapter(complete);
+		assertSame(adapter, DAOUtils.withFallbacks(adapter));
+	}
+
+	@Test
+	public void testScanSegments() {
+		final AtomicInteger accepted = new AtomicInteger();
+		Consumer<List<ParaObject>> consumer = new Consumer<List<ParaObject>>() {
+			public void accept(List<ParaObject> page) {
+				accepted.incrementAndGet();
+			}
+		};
+		assertEquals(4L * PAGES, DAOUtils.scanSegments(4, consumer, pages(-1)));
+		assertEquals(4 * PAGES, accepted.get());
+	}
+
+	@Test
+	public void testFailedSegmentFailsScan() {
+		final AtomicInteger accepted = new AtomicInteger();
+		Consumer<List<ParaObject>> consumer = new Consumer<List<ParaObject>>() {
+			public void accept(List<ParaObject> page) {
+				accepted.incrementAndGet();
+			}
+		};
+		try {
+			// segment 2 fails on its first page, e.g. because it was throttled
+			DAOUtils.scanSegments(4, consumer, pages(2));
+			fail("A partial scan didn't fail.");
+		} catch (IllegalStateException e) {
+			assertEquals("Segment 2 failed.", e.getMessage());
+		}
+		// the other segments stopped early
+		assertTrue(accepted.get() < 3 * PAGES);
+	}
+
+	@Test
+	public void testConsumerCancelsScan() {
+		final AtomicInteger accepted = new AtomicInteger();
+		Consumer<List<ParaObject>> consumer = new Consumer<List<ParaObject>>() {
+			public void accept(List<ParaObject> page) {
+				if (accepted.incrementAndGet() == 10) {
+					throw new IllegalStateException("Client disconnected.");
+				}
+			}
+		};
+		try {
+			DAOUtils.scanSegments(4, consumer, pages(-1));
+			fail("A cancelled scan didn't fail.");
+		} catch (IllegalStateException e) {
+			assertEquals("Client disconnected.", e.getMessage());
+		}
+		assertTrue(accepted.get() < 4 * PAGES);
+
+		accepted.set(0);
+		try {
+			DAOUtils.scanSegments(1, consumer, pages(-1));
+			fail("A cancelled scan didn't fail.");
+		} catch (IllegalStateException e) {
+			assertEquals("Client disconnected.", e.getMessage());
+		}
+	}
+
+	private static BiFunction<Integer, Consumer<List<ParaObject>>, Long> pages(final int failedSegment) {
+		return new BiFunction<Integer, Consumer<List<ParaObject>>, Long>() {
+			public Long apply(Integer segment, Consumer<List<ParaObject>> consumer) {
+				long count = 0L;
+				for (int i = 0; i < PAGES; i++) {
+					if (segment == failedSegment) {
+						throw new IllegalStateException("Segment " + segment + " failed.");
+					}
+					consumer.accept(Collections.<ParaObject>singletonList(new Sysprop(segment + "_" + i)));
+					count++;
+					Thread.yield();
+				}
+				return count;
+			}
+		};
+	}
+}
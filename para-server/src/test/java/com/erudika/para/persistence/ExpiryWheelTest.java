@@ -0,0 +1,96 @@
+/*
+ * Copyright 2013-2016 Erudika. https://erudika.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * For issues and patches go to: https://github.com/erudika
+ */
+package com.erudika.para.persistence;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author Alex Bogdanovski [alex@erudika.com]
+ */
+public class ExpiryWheelTest {
+
+	@Test
+	public void testAdvance() {
+		ExpiryWheel wheel = new ExpiryWheel(100, 8);
+		long now = 1000000;
+		wheel.schedule("app1", "a", now + 50, now);
+		wheel.schedule("app1", "b", now + 250, now);
+		wheel.schedule("app2", "c", now + 250, now);
+		// more than one turn of the wheel away
+		wheel.schedule("app1", "d", now + 2050, now);
+		wheel.schedule("app1", "e", 0, now);
+		assertEquals(4, wheel.size());
+
+		assertTrue(wheel.advance(now).isEmpty());
+		assertEquals(Collections.singletonMap("app1", Arrays.asList("a")), wheel.advance(now + 99));
+		Map<String, List<String>> due = wheel.advance(now + 300);
+		assertEquals(Arrays.asList("b"), due.get("app1"));
+		assertEquals(Arrays.asList("c"), due.get("app2"));
+		assertTrue(wheel.advance(now + 2000).isEmpty());
+		assertEquals(Arrays.asList("d"), wheel.advance(now + 2100).get("app1"));
+		assertEquals(0, wheel.size());
+	}
+
+	@Test
+	public void testRescheduleAndCancel() {
+		ExpiryWheel wheel = new ExpiryWheel(100, 8);
+		long now = 1000000;
+		wheel.advance(now);
+		wheel.schedule("app", "a", now + 100, now);
+		wheel.schedule("app", "a", now + 500, now);
+		wheel.schedule("app", "b", now + 100, now);
+		wheel.cancel("app", "b");
+		// objects which are already due fire on the next advance
+		wheel.schedule("app", "c", now - 5000, now);
+		assertEquals(Arrays.asList("c"), wheel.advance(now + 200).get("app"));
+		assertEquals(Arrays.asList("a"), wheel.advance(now + 600).get("app"));
+		assertEquals(0, wheel.size());
+
+		wheel.schedule("app", "x", now + 700, now);
+		wheel.schedule("app", "x", 0, now);
+		assertEquals(0, wheel.size());
+	}
+
+	@Test
+	public void testBounded() {
+		ExpiryWheel wheel = new ExpiryWheel(100, 8, 3);
+		long now = 1000000;
+		assertTrue(wheel.schedule("app", "a", now + 50, now));
+		// more than one turn of the wheel away
+		assertFalse(wheel.schedule("app", "b", now + 2050, now));
+		assertTrue(wheel.schedule("app", "c", now + 750, now));
+		assertTrue(wheel.schedule("app", "d", now + 300, now));
+		// the wheel is full, only objects which are tracked already can be rescheduled
+		assertFalse(wheel.schedule("app", "e", now + 300, now));
+		assertTrue(wheel.schedule("app", "d", now + 400, now));
+		assertEquals(3, wheel.size());
+		// rescheduling beyond the horizon stops tracking the object
+		assertFalse(wheel.schedule("app", "c", now + 5000, now));
+		assertEquals(2, wheel.size());
+		assertEquals(Arrays.asList("a"), wheel.advance(now + 100).get("app"));
+		assertEquals(Arrays.asList("d"), wheel.advance(now + 500).get("app"));
+		assertTrue(wheel.advance(now + 6000).isEmpty());
+		assertEquals(0, wheel.size());
+	}
+}
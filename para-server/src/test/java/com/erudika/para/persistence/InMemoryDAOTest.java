@@ -0,0 +1,148 @@
+/*
+ * Copyright 2013-2016 Erudika. https://erudika.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * For issues and patches go to: https://github.com/erudika
+ */
+package com.erudika.para.persistence;
+
+import com.erudika.para.core.ParaObject;
+import com.erudika.para.core.Sysprop;
+import com.erudika.para.core.utils.CoreUtils;
+import com.erudika.para.utils.Pager;
+import com.erudika.para.utils.Utils;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import static org.mockito.Mockito.*;
+
+/**
+ *
+ * @author Alex Bogdanovski [alex@erudika.com]
+ */
+public class InMemoryDAOTest extends DAOTest {
+
+	private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor();
+
+	public InMemoryDAOTest() {
+		super(new InMemoryDAO(null, 0, 0, SCHEDULER));
+	}
+
+	@Test
+	public void testPagingWhileCreating() {
+		InMemoryDAO dao = new InMemoryDAO(null, 0, 0, SCHEDULER);
+		String appid = "paging";
+		for (int i = 0; i < 100; i += 2) {
+			dao.create(appid, new Sysprop(String.format("id%03d", i)));
+		}
+		Set<String> seen = new HashSet<String>();
+		Pager pager = new Pager(10);
+		List<ParaObject> page = dao.readPage(appid, pager);
+		assertEquals("id018", pager.getLastKey());
+		// objects created after the cursor show up on later pages, those before it don't
+		dao.create(appid, new Sysprop("id099"));
+		dao.create(appid, new Sysprop("id001"));
+		while (!page.isEmpty()) {
+			for (ParaObject so : page) {
+				assertTrue(seen.add(so.getId()));
+			}
+			page = dao.readPage(appid, pager);
+		}
+		assertEquals(51, seen.size());
+		assertTrue(seen.contains("id099"));
+		assertFalse(seen.contains("id001"));
+		assertEquals(51, pager.getCount());
+	}
+
+	@Test
+	public void testTTL() throws InterruptedException {
+		InMemoryDAO dao = new InMemoryDAO(null, 0, 0, SCHEDULER);
+		String appid = "ttl";
+		Sysprop s1 = new Sysprop("expiring");
+		Sysprop s2 = new Sysprop("permanent");
+		dao.create(appid, s1, 1);
+		dao.create(appid, s2);
+		assertNotNull(dao.read(appid, s1.getId()));
+		s1.setName("updated");
+		dao.update(appid, s1);
+		assertEquals(0, dao.evictExpired());
+
+		Thread.sleep(1100);
+		assertNull(dao.read(appid, s1.getId()));
+		assertNull(dao.increment(appid, s1.getId(), "timestamp", 1));
+		assertEquals(1, dao.readPage(appid, null).size());
+		// expired objects may already have been evicted in the background
+		dao.evictExpired();
+		assertEquals(0, dao.evictExpired());
+		assertNotNull(dao.read(appid, s2.getId()));
+	}
+
+	@Test
+	public void testExpiredObjectsAreUnindexed() throws InterruptedException {
+		InMemoryDAO dao = new InMemoryDAO(null, 0, 0, SCHEDULER);
+		String appid = "unindex";
+		Sysprop s = new Sysprop("expires");
+		s.setExpiresAt(Utils.timestamp() + 100);
+		dao.create(appid, s);
+		Thread.sleep(1100);
+		dao.evictExpired();
+		assertNull(dao.read(appid, s.getId()));
+		verify(CoreUtils.getInstance().getSearch(), timeout(2000)).unindexAll(eq(appid), anyListOf(ParaObject.class));
+	}
+
+	@Test
+	public void testSnapshot() throws IOException {
+		File file = new File(Files.createTempDirectory("para-memory-dao").toFile(), "snapshot.json.gz");
+		file.deleteOnExit();
+		InMemoryDAO dao = new InMemoryDAO(file, 0, 0, SCHEDULER);
+		String appid = "snapshot";
+		for (int i = 0; i < 20; i++) {
+			Sysprop s = new Sysprop("snap" + i);
+			s.addProperty("num", i);
+			dao.create(appid, s);
+		}
+		dao.create("other", new Sysprop("other1"));
+		dao.create(appid, new Sysprop("temporary"), 3600);
+		assertEquals(22, dao.snapshot());
+		assertTrue(file.isFile());
+
+		InMemoryDAO reloaded = new InMemoryDAO(file, 0, 0, SCHEDULER);
+		Sysprop s7 = reloaded.read(appid, "snap7");
+		assertNotNull(s7);
+		assertEquals(7, ((Number) s7.getProperty("num")).intValue());
+		assertNotNull(reloaded.read("other", "other1"));
+		assertNotNull(reloaded.read(appid, "temporary"));
+		assertEquals(21, reloaded.readPage(appid, new Pager(100)).size());
+	}
+
+	@Test
+	public void testObjectsAreCopied() {
+		InMemoryDAO dao = new InMemoryDAO(null, 0, 0, SCHEDULER);
+		Sysprop s = new Sysprop("copy1");
+		s.setName("original");
+		dao.create("copies", s);
+		s.setName("changed");
+		Sysprop read = dao.read("copies", s.getId());
+		assertEquals("original", read.getName());
+		read.setName("changed again");
+		assertEquals("original", ((Sysprop) dao.read("copies", s.getId())).getName());
+	}
+}
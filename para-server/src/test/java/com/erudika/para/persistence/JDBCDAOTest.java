@@ -0,0 +1,217 @@
+/*
+ * Copyright 2013-2016 Erudika. https://erudika.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * For issues and patches go to: https://github.com/erudika
+ */
+package com.erudika.para.persistence;
+
+import com.erudika.para.core.ParaObject;
+import com.erudika.para.core.Sysprop;
+import com.erudika.para.core.utils.ParaObjectUtils;
+import com.erudika.para.utils.Pager;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+import static org.mockito.Mockito.*;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+/**
+ *
+ * @author Alex Bogdanovski [alex@erudika.com]
+ */
+public class JDBCDAOTest {
+
+	private static final String APPID = "jdbc-test";
+
+	private Connection conn;
+	private Map<String, PreparedStatement> statements;
+	private int connections;
+	private List<? extends ParaObject> rows;
+	private JDBCConnectionPool pool;
+	private JDBCDAO dao;
+
+	@Before
+	public void setUp() throws SQLException {
+		conn = mock(Connection.class);
+		statements = new LinkedHashMap<String, PreparedStatement>();
+		connections = 0;
+		when(conn.getAutoCommit()).thenReturn(true);
+		when(conn.isValid(anyInt())).thenReturn(true);
+		rows = new ArrayList<ParaObject>();
+		when(conn.prepareStatement(anyString())).thenAnswer(new Answer<PreparedStatement>() {
+			public PreparedStatement answer(InvocationOnMock invocation) throws Throwable {
+				PreparedStatement ps = mock(PreparedStatement.class);
+				when(ps.executeQuery()).thenAnswer(new Answer<ResultSet>() {
+					public ResultSet answer(InvocationOnMock invocation) throws Throwable {
+						return resultSet(rows);
+					}
+				});
+				statements.put((String) invocation.getArguments()[0], ps);
+				return ps;
+			}
+		});
+		pool = new JDBCConnectionPool("jdbc:test", "", "", 2, 10) {
+			protected Connection newConnection() throws SQLException {
+				connections++;
+				return conn;
+			}
+		};
+		dao = new JDBCDAO(pool);
+	}
+
+	private static ResultSet resultSet(List<? extends ParaObject> objects) throws SQLException {
+		final Iterator<? extends ParaObject> iter = objects.iterator();
+		final ParaObject[] current = new ParaObject[1];
+		ResultSet rs = mock(ResultSet.class);
+		when(rs.next()).thenAnswer(new Answer<Boolean>() {
+			public Boolean answer(InvocationOnMock invocation) throws Throwable {
+				current[0] = iter.hasNext() ? iter.next() : null;
+				return current[0] != null;
+			}
+		});
+		when(rs.getString(anyInt())).thenAnswer(new Answer<String>() {
+			public String answer(InvocationOnMock invocation) throws Throwable {
+				if ((Integer) invocation.getArguments()[0] == 1) {
+					return current[0].getId();
+				}
+				return ParaObjectUtils.getJsonWriterNoIdent().
+						writeValueAsString(ParaObjectUtils.getAnnotatedFields(current[0], false));
+			}
+		});
+		return rs;
+	}
+
+	private PreparedStatement statement(String prefix) {
+		for (Map.Entry<String, PreparedStatement> entry : statements.entrySet()) {
+			if (entry.getKey().startsWith(prefix)) {
+				return entry.getValue();
+			}
+		}
+		return null;
+	}
+
+	@Test
+	public void testCreateAllInBatches() throws SQLException {
+		List<Sysprop> objects = new ArrayList<Sysprop>();
+		for (int i = 0; i < 250; i++) {
+			objects.add(new Sysprop("obj" + i));
+		}
+		dao.createAll(APPID, objects);
+
+		PreparedStatement insert = statement("INSERT");
+		PreparedStatement delete = statement("DELETE");
+		assertNotNull(insert);
+		assertNotNull(delete);
+		verify(insert, times(250)).addBatch();
+		verify(insert, times(3)).executeBatch();
+		verify(delete, times(3)).executeBatch();
+		verify(conn).setAutoCommit(false);
+		verify(conn).commit();
+		verify(conn, never()).rollback();
+		assertEquals(1, connections);
+	}
+
+	@Test
+	public void testReadAllInChunks() throws SQLException {
+		List<String> keys = new ArrayList<String>();
+		for (int i = 0; i < 250; i++) {
+			keys.add("obj" + i);
+		}
+		assertTrue(dao.readAll(APPID, keys, true).isEmpty());
+		// chunks of 100, 100 and 50 ids - the last one is padded to 64 parameters
+		assertEquals(2, statements.size());
+		PreparedStatement select100 = statements.get(JDBCDAO.getSelectSQL(100, false));
+		PreparedStatement select64 = statements.get(JDBCDAO.getSelectSQL(64, false));
+		assertNotNull(select100);
+		assertNotNull(select64);
+		verify(select100, times(2)).executeQuery();
+		verify(select64, times(1)).executeQuery();
+		verify(select64).setString(51, "obj249");
+		verify(select64).setString(65, "obj249");
+		verify(conn, never()).commit();
+	}
+
+	@Test
+	public void testReadPageWithKeyset() throws Exception {
+		final List<Sysprop> page1 = new ArrayList<Sysprop>();
+		for (int i = 0; i < 5; i++) {
+			Sysprop s = new Sysprop("page" + i);
+			s.setAppid(APPID);
+			page1.add(s);
+		}
+		rows = page1;
+		Pager pager = new Pager(5);
+		List<ParaObject> results = dao.readPage(APPID, pager);
+		assertEquals(5, results.size());
+		assertEquals("page4", pager.getLastKey());
+		assertEquals(5, pager.getCount());
+		PreparedStatement first = statement("SELECT id, data FROM " + JDBCUtils.TABLE_NAME + " WHERE appid = ? ORDER");
+		assertNotNull(first);
+		verify(first).setMaxRows(5);
+
+		dao.readPage(APPID, pager);
+		PreparedStatement next = statement("SELECT id, data FROM " + JDBCUtils.TABLE_NAME + " WHERE appid = ? AND id >");
+		assertNotNull(next);
+		verify(next).setString(2, "page4");
+		verify(next).setMaxRows(5);
+	}
+
+	@Test
+	public void testGetInClauseSize() {
+		assertEquals(1, JDBCDAO.getInClauseSize(1));
+		assertEquals(2, JDBCDAO.getInClauseSize(2));
+		assertEquals(4, JDBCDAO.getInClauseSize(3));
+		assertEquals(64, JDBCDAO.getInClauseSize(50));
+		assertEquals(64, JDBCDAO.getInClauseSize(64));
+		assertEquals(JDBCUtils.BATCH_SIZE, JDBCDAO.getInClauseSize(JDBCUtils.BATCH_SIZE));
+		assertTrue(JDBCDAO.getSelectSQL(3, true).endsWith("IN (?, ?, ?) FOR UPDATE"));
+	}
+
+	@Test
+	public void testPoolReusesConnectionsAndStatements() throws SQLException {
+		JDBCConnectionPool.PooledConnection pc1 = pool.acquire();
+		PreparedStatement ps = pc1.prepare("SELECT 1");
+		pool.release(pc1, false);
+		JDBCConnectionPool.PooledConnection pc2 = pool.acquire();
+		assertSame(pc1, pc2);
+		assertSame(ps, pc2.prepare("SELECT 1"));
+		verify(conn, times(1)).prepareStatement("SELECT 1");
+		verify(ps).clearParameters();
+
+		JDBCConnectionPool.PooledConnection pc3 = pool.acquire();
+		assertEquals(2, pool.getSize());
+		try {
+			pool.acquire();
+			fail("Pool should be exhausted.");
+		} catch (SQLException e) {
+			assertTrue(e.getMessage().contains("Timed out"));
+		}
+		pool.release(pc3, true);
+		assertEquals(1, pool.getSize());
+		pool.release(pc2, false);
+		pool.close();
+		assertEquals(0, pool.getSize());
+	}
+}
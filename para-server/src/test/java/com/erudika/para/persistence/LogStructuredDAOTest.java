@@ -0,0 +1,135 @@
+/*
+ * Copyright 2013-2016 Erudika. https://erudika.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * For issues and patches go to: https://github.com/erudika
+ */
+package com.erudika.para.persistence;
+
+import com.erudika.para.core.Sysprop;
+import com.erudika.para.utils.Pager;
+import com.erudika.para.utils.Utils;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author Alex Bogdanovski [alex@erudika.com]
+ */
+public class LogStructuredDAOTest extends DAOTest {
+
+	private static final File DIR = tempDir();
+	// JUnit creates an instance per test - they share one DAO, so that compactions of the same log don't overlap
+	private static final LogStructuredDAO SHARED_DAO = new LogStructuredDAO(DIR, false, 4096,
+			Executors.newSingleThreadExecutor());
+
+	public LogStructuredDAOTest() {
+		super(SHARED_DAO);
+	}
+
+	private static File tempDir() {
+		try {
+			File dir = Files.createTempDirectory("para-log-dao").toFile();
+			dir.deleteOnExit();
+			return dir;
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static File logFile(File dir, String appid) {
+		return new File(new File(dir, Utils.urlEncode(appid)), "data.log");
+	}
+
+	@Test
+	public void testRecovery() throws IOException {
+		File dir = tempDir();
+		String appid = "recovery";
+		LogStructuredDAO dao = new LogStructuredDAO(dir, true, Long.MAX_VALUE, Executors.newSingleThreadExecutor());
+		for (int i = 0; i < 10; i++) {
+			Sysprop s = new Sysprop("rec" + i);
+			s.addProperty("num", i);
+			dao.create(appid, s);
+		}
+		Sysprop s5 = dao.read(appid, "rec5");
+		s5.setName("updated");
+		dao.update(appid, s5);
+		dao.delete(appid, new Sysprop("rec9"));
+		dao.close();
+
+		// simulate a crash in the middle of a write
+		long length = logFile(dir, appid).length();
+		FileOutputStream out = new FileOutputStream(logFile(dir, appid), true);
+		out.write(new byte[]{0, 0, 0, 100, 1, 2, 3});
+		out.close();
+
+		dao = new LogStructuredDAO(dir, true, Long.MAX_VALUE, Executors.newSingleThreadExecutor());
+		assertEquals("updated", ((Sysprop) dao.read(appid, "rec5")).getName());
+		assertEquals(3, ((Sysprop) dao.read(appid, "rec3")).getProperty("num"));
+		assertNull(dao.read(appid, "rec9"));
+		assertEquals(length, logFile(dir, appid).length());
+
+		// a corrupted record is discarded with everything after it
+		RandomAccessFile raf = new RandomAccessFile(logFile(dir, appid), "rw");
+		raf.seek(length - 2);
+		raf.write(0xFF);
+		raf.close();
+		dao.close();
+		dao = new LogStructuredDAO(dir, true, Long.MAX_VALUE, Executors.newSingleThreadExecutor());
+		assertNotNull(dao.read(appid, "rec9"));
+		assertTrue(logFile(dir, appid).length() < length);
+		dao.close();
+	}
+
+	@Test
+	public void testCompaction() {
+		File dir = tempDir();
+		String appid = "compaction";
+		LogStructuredDAO dao = new LogStructuredDAO(dir, false, Long.MAX_VALUE, Executors.newSingleThreadExecutor());
+		List<Sysprop> list = new ArrayList<Sysprop>();
+		for (int i = 0; i < 50; i++) {
+			list.add(new Sysprop("c" + i));
+		}
+		dao.createAll(appid, list);
+		for (int j = 0; j < 20; j++) {
+			for (Sysprop s : list) {
+				s.addProperty("version", j);
+			}
+			dao.updateAll(appid, list);
+		}
+		dao.deleteAll(appid, list.subList(0, 10));
+		long before = logFile(dir, appid).length();
+		dao.compact(appid);
+		assertTrue(logFile(dir, appid).length() < before / 10);
+		assertNull(dao.read(appid, "c0"));
+		assertEquals(19, ((Sysprop) dao.read(appid, "c10")).getProperty("version"));
+
+		dao.close();
+		dao = new LogStructuredDAO(dir, false, Long.MAX_VALUE, Executors.newSingleThreadExecutor());
+		Pager pager = new Pager(100);
+		List<Sysprop> all = dao.readPage(appid, pager);
+		assertEquals(40, all.size());
+		assertEquals("c10", all.get(0).getId());
+		assertEquals(19, all.get(39).getProperty("version"));
+		dao.close();
+	}
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2013-2016 Erudika. https://erudika.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * For issues and patches go to: https://github.com/erudika
+ */
+package com.erudika.para.persistence;
+
+import com.erudika.para.core.Sysprop;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ *
+ * @author Alex Bogdanovski [alex@erudika.com]
+ */
+public class ObjectSnapshotsTest {
+
+	@Test
+	public void testIdentity() {
+		ObjectSnapshots<String> snapshots = new ObjectSnapshots<String>();
+		Sysprop s1 = new Sysprop("123");
+		Sysprop s2 = new Sysprop("123");
+		assertEquals(s1, s2);
+
+		snapshots.put(null, "x");
+		snapshots.put(s1, null);
+		assertEquals(0, snapshots.size());
+		assertNull(snapshots.get(null));
+
+		snapshots.put(s1, "one");
+		assertEquals("one", snapshots.get(s1));
+		assertNull(snapshots.get(s2));
+
+		snapshots.put(s2, "two");
+		snapshots.put(s1, "three");
+		assertEquals("three", snapshots.get(s1));
+		assertEquals("two", snapshots.get(s2));
+		assertEquals(2, snapshots.size());
+
+		snapshots.remove(s1);
+		assertNull(snapshots.get(s1));
+		assertEquals(1, snapshots.size());
+	}
+
+	@Test
+	public void testWeakKeys() throws InterruptedException {
+		ObjectSnapshots<String> snapshots = new ObjectSnapshots<String>();
+		for (int i = 0; i < 100; i++) {
+			snapshots.put(new Sysprop("id" + i), "snapshot");
+		}
+		for (int i = 0; i < 50 && snapshots.size() > 0; i++) {
+			System.gc();
+			Thread.sleep(20);
+		}
+		assertEquals(0, snapshots.size());
+	}
+
+	@Test
+	public void testConcurrentAccess() throws Exception {
+		final ObjectSnapshots<String> snapshots = new ObjectSnapshots<String>(3);
+		final List<Sysprop> objects = Collections.synchronizedList(new ArrayList<Sysprop>());
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		List<Future<?>> results = new ArrayList<Future<?>>();
+		for (int t = 0; t < 4; t++) {
+			final int thread = t;
+			results.add(executor.submit(new Runnable() {
+				public void run() {
+					for (int i = 0; i < 1000; i++) {
+						Sysprop s = new Sysprop(thread + "-" + i);
+						objects.add(s);
+						snapshots.put(s, s.getId());
+						assertEquals(s.getId(), snapshots.get(s));
+					}
+				}
+			}));
+		}
+		for (Future<?> result : results) {
+			result.get();
+		}
+		executor.shutdown();
+		assertEquals(4000, snapshots.size());
+		for (Sysprop s : objects) {
+			assertEquals(s.getId(), snapshots.get(s));
+		}
+	}
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright 2013-2016 Erudika. https://erudika.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * For issues and patches go to: https://github.com/erudika
+ */
+package com.erudika.para.persistence;
+
+import com.erudika.para.DestroyListener;
+import com.erudika.para.Para;
+import com.erudika.para.core.ParaObject;
+import com.erudika.para.core.Sysprop;
+import com.erudika.para.core.Tag;
+import com.google.inject.Provider;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import static org.mockito.Mockito.*;
+
+/**
+ *
+ * @author Alex Bogdanovski [alex@erudika.com]
+ */
+public class WriteBehindDAOTest extends DAOTest {
+
+	public WriteBehindDAOTest() {
+		super(new WriteBehindDAO(new MockDAO(), Collections.singleton("*"), 100, 50,
+				Executors.newSingleThreadScheduledExecutor()));
+	}
+
+	@Test
+	public void testCoalescing() {
+		DAO mock = spy(new MockDAO());
+		WriteBehindDAO wb = new WriteBehindDAO(mock, Collections.singleton("tag"), 10, 60000,
+				Executors.newSingleThreadScheduledExecutor());
+		String appid = "testapp-wb";
+
+		Tag t = new Tag("wbtag");
+		t.setCount(1);
+		wb.create(appid, t);
+		for (int i = 2; i <= 50; i++) {
+			Tag t2 = new Tag("wbtag");
+			t2.setCount(i);
+			wb.update(appid, t2);
+		}
+		assertEquals(1, wb.getPendingCount());
+		assertEquals(50, ((Tag) wb.read(appid, t.getId())).getCount().intValue());
+		assertNull(mock.read(appid, t.getId()));
+		Map<String, Tag> all = wb.readAll(appid, Arrays.asList(t.getId(), "missing"), true);
+		assertEquals(1, all.size());
+		assertEquals(50, all.get(t.getId()).getCount().intValue());
+
+		// other types are written directly
+		Sysprop s = new Sysprop("wbsys");
+		wb.create(appid, s);
+		assertNotNull(mock.read(appid, "wbsys"));
+
+		wb.flush();
+		assertEquals(0, wb.getPendingCount());
+		assertEquals(50, ((Tag) mock.read(appid, t.getId())).getCount().intValue());
+		verify(mock, times(1)).createAll(eq(appid), anyListOf(Tag.class));
+		verify(mock, never()).update(anyString(), any(Tag.class));
+		verify(mock, never()).updateAll(anyString(), anyListOf(Tag.class));
+
+		t.setCount(7);
+		wb.update(appid, t);
+		assertEquals(8L, wb.increment(appid, t.getId(), "count", 1).longValue());
+		assertEquals(0, wb.getPendingCount());
+
+		wb.update(appid, t);
+		wb.delete(appid, t);
+		wb.drain();
+		assertNull(mock.read(appid, t.getId()));
+		wb.create(appid, t);
+		assertEquals(0, wb.getPendingCount());
+		assertNotNull(mock.read(appid, t.getId()));
+	}
+
+	@Test
+	public void testBatches() throws InterruptedException {
+		DAO mock = spy(new MockDAO());
+		WriteBehindDAO wb = new WriteBehindDAO(mock, Collections.singleton("*"), 10, 60000,
+				Executors.newSingleThreadScheduledExecutor());
+		String appid = "testapp-wb2";
+		for (int i = 0; i < 9; i++) {
+			wb.create(appid, new Sysprop("wb" + i));
+		}
+		assertEquals(9, wb.getPendingCount());
+		// a full batch triggers a flush
+		wb.create(appid, new Sysprop("wb9"));
+		for (int i = 0; i < 100 && wb.getPendingCount() > 0; i++) {
+			Thread.sleep(20);
+		}
+		assertEquals(0, wb.getPendingCount());
+		List<Sysprop> page = mock.readPage(appid, null);
+		assertEquals(10, page.size());
+		verify(mock, times(1)).createAll(eq(appid), anyListOf(Sysprop.class));
+	}
+
+	@Test
+	public void testReadsReturnCopies() {
+		DAO mock = new MockDAO();
+		WriteBehindDAO wb = new WriteBehindDAO(mock, Collections.singleton("*"), 10, 60000,
+				Executors.newSingleThreadScheduledExecutor());
+		String appid = "testapp-wb3";
+		Sysprop s = new Sysprop("wbcopy");
+		s.setName("before");
+		wb.create(appid, s);
+		Sysprop read = wb.read(appid, s.getId());
+		read.setName("changed");
+		Map<String, Sysprop> all = wb.readAll(appid, Collections.singletonList(s.getId()), true);
+		all.get(s.getId()).setName("changed");
+		assertEquals("before", ((Sysprop) wb.read(appid, s.getId())).getName());
+		wb.flush();
+		assertEquals("before", ((Sysprop) mock.read(appid, s.getId())).getName());
+	}
+
+	@Test
+	public void testDrainedBeforeUnderlyingDAOIsClosed() {
+		final AtomicBoolean closed = new AtomicBoolean(false);
+		final List<DestroyListener> listeners = Para.getDestroyListeners();
+		final int first = listeners.size();
+		WriteBehindDAO wb = WriteBehindDAO.create(new Provider<DAO>() {
+			public DAO get() {
+				// the underlying DAO closes its connection on destroy, like LogStructuredDAO does
+				Para.addDestroyListener(new DestroyListener() {
+					public void onDestroy() {
+						closed.set(true);
+					}
+				});
+				return new MockDAO() {
+					public <P extends ParaObject> void createAllInApps(Map<String, List<P>> objects) {
+						assertFalse("The buffer was drained after the DAO was closed.", closed.get());
+						super.createAllInApps(objects);
+					}
+				};
+			}
+		}, Collections.singleton("*"), 10, 60000, Executors.newSingleThreadScheduledExecutor());
+		String appid = "testapp-wb4";
+		wb.create(appid, new Sysprop("wbdrain"));
+		assertEquals(1, wb.getPendingCount());
+		try {
+			// the listeners registered above are called in order, as Para.destroy() would call them
+			for (DestroyListener listener : new ArrayList<DestroyListener>(listeners.subList(first, listeners.size()))) {
+				listener.onDestroy();
+			}
+		} finally {
+			while (listeners.size() > first) {
+				listeners.remove(listeners.size() - 1);
+			}
+		}
+		assertTrue(closed.get());
+		assertEquals(0, wb.getPendingCount());
+		assertNotNull(wb.getDao().read(appid, "wbdrain"));
+	}
+
+	@Test
+	public void testFailedWritesAreRetried() throws InterruptedException {
+		final AtomicInteger failures = new AtomicInteger(2);
+		MockDAO mock = new MockDAO() {
+			public <P extends ParaObject> void createAllInApps(Map<String, List<P>> objects) {
+				if (failures.getAndDecrement() > 0) {
+					// only the first object is written
+					List<P> objs = objects.get("testapp-wb5");
+					super.createAllInApps(Collections.singletonMap("testapp-wb5", objs.subList(0, 1)));
+					throw new BatchWriteException(Collections.singletonMap("testapp-wb5",
+							Collections.singletonList(objs.get(1).getId())));
+				}
+				super.createAllInApps(objects);
+			}
+		};
+		WriteBehindDAO wb = new WriteBehindDAO(mock, Collections.singleton("*"), 10, 60000, 3,
+				Executors.newSingleThreadScheduledExecutor());
+		String appid = "testapp-wb5";
+		wb.create(appid, new Sysprop("wbretry1"));
+		wb.create(appid, new Sysprop("wbretry2"));
+		wb.flush();
+		assertEquals(1, wb.getPendingCount());
+		assertNotNull(wb.read(appid, "wbretry2"));
+		// retried after the backoff delay
+		for (int i = 0; i < 200 && wb.getPendingCount() > 0; i++) {
+			Thread.sleep(20);
+		}
+		assertEquals(0, wb.getPendingCount());
+		assertEquals(0, wb.getDroppedCount());
+		assertNotNull(mock.read(appid, "wbretry1"));
+		assertNotNull(mock.read(appid, "wbretry2"));
+	}
+
+	@Test
+	public void testFailedWritesAreDropped() {
+		DAO mock = spy(new MockDAO());
+		doThrow(new RuntimeException("unavailable")).when(mock).updateAll(anyString(), anyListOf(ParaObject.class));
+		WriteBehindDAO wb = new WriteBehindDAO(mock, Collections.singleton("*"), 10, 60000, 2,
+				Executors.newSingleThreadScheduledExecutor());
+		String appid = "testapp-wb6";
+		Sysprop s = new Sysprop("wbdrop");
+		s.setName("unsaved");
+		wb.update(appid, s);
+		wb.flush();
+		assertEquals(1, wb.getPendingCount());
+		wb.drain();
+		assertEquals(0, wb.getPendingCount());
+		assertEquals(1, wb.getDroppedCount());
+		verify(mock, times(3)).updateAll(eq(appid), anyListOf(ParaObject.class));
+	}
+
+	@Test
+	public void testUpdateOfUnsavedObject() {
+		DAO mock = new MockDAO();
+		WriteBehindDAO wb = new WriteBehindDAO(mock, Collections.singleton("*"), 10, 60000,
+				Executors.newSingleThreadScheduledExecutor());
+		String appid = "testapp-wb7";
+		Sysprop s = new Sysprop("wbunsaved");
+		s.setType("wbtype");
+		s.setAppid(appid);
+		s.setName("name");
+		wb.update(appid, s);
+		Sysprop buffered = wb.read(appid, s.getId());
+		assertEquals("wbunsaved", buffered.getId());
+		assertEquals(appid, buffered.getAppid());
+		assertEquals("wbtype", buffered.getType());
+		assertEquals("name", buffered.getName());
+		wb.flush();
+		assertEquals(0, wb.getPendingCount());
+		assertNotNull(mock.read(appid, s.getId()));
+	}
+}
@@ -21,10 +21,12 @@ import com.erudika.para.Para;
 import com.erudika.para.cache.Cache;
 import com.erudika.para.cache.MockCache;
 import com.erudika.para.core.App;
+import com.erudika.para.core.ParaObject;
 import com.erudika.para.core.utils.ParaObjectUtils;
 import com.erudika.para.core.Sysprop;
 import com.erudika.para.core.Tag;
 import com.erudika.para.core.utils.CoreUtils;
+import com.erudika.para.persistence.BatchWriteException;
 import com.erudika.para.persistence.DAO;
 import com.erudika.para.persistence.MockDAO;
 import static com.erudika.para.rest.RestUtils.*;
@@ -34,13 +36,25 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.google.inject.Binder;
 import com.google.inject.Module;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.StreamingOutput;
 import org.junit.AfterClass;
 import static org.junit.Assert.*;
 import org.junit.BeforeClass;
@@ -237,4 +251,111 @@ public class RestUtilsTest {
 		assertNull(readResourcePath(appid, "sysprop/" + s.getId()));
 		app.delete();
 	}
-}
\ No newline at end of file
+
+	@Test
+	public void testExportImport() throws IOException {
+		App app = new App("export-test");
+		StringBuilder ndjson = new StringBuilder();
+		for (int i = 0; i < 250; i++) {
+			ndjson.append("{\"id\":\"exp").append(i).append("\",\"type\":\"").append(i < 200 ? "sysprop" : "tag").
+					append("\",\"name\":\"name").append(i).append("\",\"tag\":\"exp").append(i).append("\"}\n");
+		}
+		// apps can't be imported
+		ndjson.append("{\"id\":\"exp-app\",\"type\":\"app\"}\n\n");
+		assertEquals(Status.BAD_REQUEST.getStatusCode(), getImportResponse(null, null).getStatus());
+		Response res = getImportResponse(app, new ByteArrayInputStream(ndjson.toString().getBytes("UTF-8")));
+		assertEquals(Status.OK.getStatusCode(), res.getStatus());
+		assertEquals(250L, ((Map) res.getEntity()).get("imported"));
+		assertEquals(1L, ((Map) res.getEntity()).get("skipped"));
+		assertNotNull(Para.getDAO().read(app.getAppIdentifier(), "exp199"));
+		assertNull(Para.getDAO().read(app.getAppIdentifier(), "exp-app"));
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		((StreamingOutput) getExportResponse(app, null).getEntity()).write(out);
+		String[] lines = out.toString("UTF-8").split("\n");
+		assertEquals(250, lines.length);
+		assertTrue(ParaObjectUtils.getJsonMapper().readValue(lines[0], Map.class).containsKey("name"));
+		out.reset();
+		((StreamingOutput) getExportResponse(app, Collections.singleton("tag")).getEntity()).write(out);
+		assertEquals(50, out.toString("UTF-8").split("\n").length);
+
+		res = getImportResponse(app, new ByteArrayInputStream("{\"id\":\"exp-bad\",\"type\":\"sysprop\"}\n{bad".
+				getBytes("UTF-8")));
+		assertEquals(Status.BAD_REQUEST.getStatusCode(), res.getStatus());
+		assertNotNull(Para.getDAO().read(app.getAppIdentifier(), "exp-bad"));
+	}
+
+	@Test
+	public void testFailedExportAndImport() throws IOException {
+		App app = new App("export-fail");
+		final AtomicInteger pages = new AtomicInteger();
+		final AtomicBoolean failScan = new AtomicBoolean();
+		DAO dao = new MockDAO() {
+			@SuppressWarnings("unchecked")
+			public <P extends ParaObject> long scan(String appid, int segments, Consumer<List<P>> consumer) {
+				for (int i = 0; i < 10; i++) {
+					// pages bigger than the output buffer
+					List<ParaObject> page = new ArrayList<ParaObject>();
+					for (int j = 0; j < 100; j++) {
+						page.add(new Sysprop("page" + i + "-" + j));
+					}
+					pages.incrementAndGet();
+					consumer.accept((List<P>) page);
+					if (failScan.get()) {
+						throw new IllegalStateException("Connection reset");
+					}
+				}
+				return 10;
+			}
+
+			public <P extends ParaObject> void createAll(String appid, List<P> objects) {
+				super.createAll(appid, objects);
+				if (objects.get(0).getId().startsWith("fail")) {
+					throw new IllegalStateException("Table not found");
+				}
+				throw new BatchWriteException(Collections.singletonMap(appid,
+						Collections.singletonList(objects.get(0).getId())));
+			}
+		};
+		// the scan stops when the client goes away
+		OutputStream closed = new OutputStream() {
+			public void write(int b) throws IOException {
+				throw new IOException("Broken pipe");
+			}
+		};
+		try {
+			((StreamingOutput) getExportResponse(app, null, dao).getEntity()).write(closed);
+			fail("Export to a closed stream didn't fail.");
+		} catch (IOException e) {
+			assertEquals("Broken pipe", e.getMessage());
+		}
+		assertTrue(pages.get() < 10);
+		// a failed scan doesn't look like a complete export
+		failScan.set(true);
+		try {
+			((StreamingOutput) getExportResponse(app, null, dao).getEntity()).write(new ByteArrayOutputStream());
+			fail("Incomplete export didn't fail.");
+		} catch (IOException e) {
+			assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+
+		StringBuilder ndjson = new StringBuilder();
+		for (int i = 0; i < IMPORT_BATCH_SIZE * 2; i++) {
+			ndjson.append("{\"id\":\"").append(i < IMPORT_BATCH_SIZE ? "ok" : "fail").append(i).
+					append("\",\"type\":\"sysprop\"}\n");
+		}
+		Response res = getImportResponse(app, new ByteArrayInputStream(ndjson.toString().getBytes("UTF-8")), dao);
+		assertEquals(Status.OK.getStatusCode(), res.getStatus());
+		// one object of the first batch wasn't written, the second batch failed
+		assertEquals((long) IMPORT_BATCH_SIZE - 1, ((Map) res.getEntity()).get("imported"));
+		assertEquals((long) IMPORT_BATCH_SIZE + 1, ((Map) res.getEntity()).get("failed"));
+	}
+
+	@Test
+	public void testGetSelectedFields() {
+		assertNull(getSelectedFields((String) null));
+		assertNull(getSelectedFields(" "));
+		assertNull(getSelectedFields(" , "));
+		assertEquals(Arrays.asList("name", "votes"), new ArrayList<String>(getSelectedFields("name, votes,,")));
+	}
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2013-2016 Erudika. https://erudika.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * For issues and patches go to: https://github.com/erudika
+ */
+package com.erudika.para.search;
+
+import com.erudika.para.aop.IndexAndCacheAspect;
+import com.erudika.para.core.ParaObject;
+import com.erudika.para.core.Sysprop;
+import com.erudika.para.persistence.DAOUtils;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import static org.junit.Assert.*;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import static org.mockito.Mockito.*;
+
+/**
+ *
+ * @author Alex Bogdanovski [alex@erudika.com]
+ */
+@SuppressWarnings("unchecked")
+public class IndexingPipelineTest {
+
+	private static final String APPID = "testapp-idx";
+
+	@Test
+	public void testCoalescing() {
+		Search search = mock(Search.class);
+		IndexingPipeline pipeline = new IndexingPipeline(search, 100, 50, 60000, 3,
+				Executors.newSingleThreadScheduledExecutor());
+		for (int i = 1; i <= 10; i++) {
+			Sysprop s = new Sysprop("idx1");
+			s.setName("version " + i);
+			pipeline.index(APPID, s);
+		}
+		Sysprop s2 = new Sysprop("idx2");
+		pipeline.index(APPID, s2);
+		pipeline.unindex(APPID, s2);
+		pipeline.index("otherapp-idx", new Sysprop("idx3"));
+		assertEquals(3, pipeline.getPendingCount());
+		verifyZeroInteractions(search);
+
+		pipeline.flush();
+		assertEquals(0, pipeline.getPendingCount());
+		ArgumentCaptor<List> indexed = ArgumentCaptor.forClass(List.class);
+		verify(search).indexAll(eq(APPID), indexed.capture());
+		assertEquals(1, indexed.getValue().size());
+		assertEquals("version 10", ((ParaObject) indexed.getValue().get(0)).getName());
+		verify(search).unindexAll(eq(APPID), eq(Arrays.asList(s2)));
+		verify(search).indexAll(eq("otherapp-idx"), anyListOf(ParaObject.class));
+		verify(search, never()).index(anyString(), any(ParaObject.class));
+	}
+
+	@Test
+	public void testFlushWhenBatchIsFull() {
+		Search search = mock(Search.class);
+		IndexingPipeline pipeline = new IndexingPipeline(search, 100, 5, 60000, 3,
+				Executors.newSingleThreadScheduledExecutor());
+		for (int i = 0; i < 5; i++) {
+			pipeline.index(APPID, new Sysprop("batch" + i));
+		}
+		verify(search, timeout(5000)).indexAll(eq(APPID), anyListOf(ParaObject.class));
+		assertEquals(0, pipeline.getPendingCount());
+	}
+
+	@Test
+	public void testRetryAndBackpressure() {
+		Search search = mock(Search.class);
+		doThrow(new RuntimeException("index is down")).doNothing().
+				when(search).indexAll(anyString(), anyListOf(ParaObject.class));
+		IndexingPipeline pipeline = new IndexingPipeline(search, 2, 10, 60000, 3,
+				Executors.newSingleThreadScheduledExecutor());
+		pipeline.index(APPID, new Sysprop("retry1"));
+		pipeline.index(APPID, new Sysprop("retry2"));
+		// objects which are already queued are replaced even if the queue is full
+		pipeline.index(APPID, new Sysprop("retry2"));
+		assertEquals(2, pipeline.getPendingCount());
+		// the queue is full - the writer flushes, the batch fails, is queued again and flushed again
+		pipeline.index(APPID, new Sysprop("retry3"));
+		verify(search, times(2)).indexAll(eq(APPID), anyListOf(ParaObject.class));
+		assertEquals(1, pipeline.getPendingCount());
+
+		// objects which fail too many times are dropped
+		doThrow(new RuntimeException("index is down")).when(search).indexAll(anyString(), anyListOf(ParaObject.class));
+		for (int i = 0; i < 4; i++) {
+			pipeline.flush();
+		}
+		assertEquals(0, pipeline.getPendingCount());
+	}
+
+	@Test
+	public void testDrain() {
+		Search search = mock(Search.class);
+		IndexingPipeline pipeline = new IndexingPipeline(search, 100, 50, 60000, 3,
+				Executors.newSingleThreadScheduledExecutor());
+		Sysprop s1 = new Sysprop("drain1");
+		pipeline.index(APPID, s1);
+		pipeline.drain();
+		assertEquals(0, pipeline.getPendingCount());
+		verify(search).indexAll(eq(APPID), anyListOf(ParaObject.class));
+
+		// after draining, objects are indexed synchronously
+		Sysprop s2 = new Sysprop("drain2");
+		pipeline.index(APPID, s2);
+		pipeline.unindex(APPID, s1);
+		verify(search).index(APPID, s2);
+		verify(search).unindex(APPID, s1);
+		assertEquals(0, pipeline.getPendingCount());
+	}
+
+	@Test
+	public void testOnlyFailedItemsAreRetried() {
+		Search search = mock(Search.class);
+		doThrow(new BulkIndexingException(Arrays.asList("partial2"), "mapping error")).doNothing().
+				when(search).indexAll(anyString(), anyListOf(ParaObject.class));
+		IndexingPipeline pipeline = new IndexingPipeline(search, 100, 50, 60000, 3,
+				Executors.newSingleThreadScheduledExecutor());
+		pipeline.index(APPID, new Sysprop("partial1"));
+		pipeline.index(APPID, new Sysprop("partial2"));
+		pipeline.index(APPID, new Sysprop("partial3"));
+		pipeline.flush();
+		assertEquals(1, pipeline.getPendingCount());
+
+		pipeline.flush();
+		assertEquals(0, pipeline.getPendingCount());
+		ArgumentCaptor<List> indexed = ArgumentCaptor.forClass(List.class);
+		verify(search, times(2)).indexAll(eq(APPID), indexed.capture());
+		assertEquals(3, indexed.getAllValues().get(0).size());
+		assertEquals(1, indexed.getAllValues().get(1).size());
+		assertEquals("partial2", ((ParaObject) indexed.getAllValues().get(1).get(0)).getId());
+	}
+
+	@Test
+	public void testExpiredObjectsAreQueued() {
+		Search search = mock(Search.class);
+		IndexingPipeline pipeline = new IndexingPipeline(search, 100, 50, 60000, 3,
+				Executors.newSingleThreadScheduledExecutor());
+		IndexAndCacheAspect aspect = new IndexAndCacheAspect();
+		aspect.setIndexingPipeline(pipeline);
+		try {
+			Sysprop s = new Sysprop("expired1");
+			pipeline.index(APPID, s);
+			DAOUtils.onExpired(APPID, Arrays.asList(s));
+			assertEquals(1, pipeline.getPendingCount());
+			verifyZeroInteractions(search);
+
+			pipeline.flush();
+			verify(search).unindexAll(eq(APPID), eq(Arrays.asList(s)));
+			verify(search, never()).indexAll(anyString(), anyListOf(ParaObject.class));
+		} finally {
+			aspect.setIndexingPipeline(null);
+		}
+	}
+}